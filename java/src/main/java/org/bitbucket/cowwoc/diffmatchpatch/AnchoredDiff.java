@@ -0,0 +1,323 @@
+/*
+ * Diff Match and Patch
+ * Copyright 2018 The diff-match-patch Authors.
+ * https://github.com/google/diff-match-patch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bitbucket.cowwoc.diffmatchpatch;
+
+import org.bitbucket.cowwoc.diffmatchpatch.DiffMatchPatch.Diff;
+import org.bitbucket.cowwoc.diffmatchpatch.DiffMatchPatch.Operation;
+
+import java.util.LinkedList;
+
+/**
+ * Base class of diff algorithms that first match up unambiguous lines (or
+ * other tokens, or characters) of both texts, then diff the regions between these anchors with
+ * {@link DiffAlgorithm#MYERS}.
+ * <p>
+ * Texts are split by {@code diffTokenizer} (into lines by default) when
+ * {@code checklines} is set and both are longer than 100 characters, like
+ * Myers' line mode. Otherwise every character is its own token.
+ */
+abstract class AnchoredDiff implements DiffAlgorithm
+{
+	@Override
+	public LinkedList<Diff> diffCompute(DiffMatchPatch dmp, String text1,
+	                                    int start1, int end1, String text2,
+	                                    int start2, int end2, boolean checklines,
+	                                    DiffBudget budget)
+	{
+		int[] tokens1;
+		int[] tokens2;
+		int[] starts1 = null;
+		int[] starts2 = null;
+		int alphabet;
+		boolean lines = checklines && end1 - start1 > 100 && end2 - start2 > 100;
+		if (lines)
+		{
+			TextTokens tokens = new TextTokens(text1, start1, end1, text2, start2,
+				end2, dmp.diffTokenizer);
+			tokens1 = tokens.tokens1;
+			tokens2 = tokens.tokens2;
+			starts1 = tokens.starts1;
+			starts2 = tokens.starts2;
+			alphabet = tokens.count;
+		}
+		else
+		{
+			tokens1 = chars(text1, start1, end1);
+			tokens2 = chars(text2, start2, end2);
+			alphabet = Math.max(max(tokens1), max(tokens2)) + 1;
+		}
+
+		IntList runs = new IntList();
+		Splitter splitter = newSplitter(tokens1, tokens2, alphabet);
+		IntList stack = new IntList();
+		pushRegion(stack, 0, tokens1.length, 0, tokens2.length);
+		while (stack.size() != 0)
+		{
+			int w = stack.pop();
+			int z = stack.pop();
+			int y = stack.pop();
+			int x = stack.pop();
+			if (x < 0)
+			{
+				addRun(runs, ~x, y, z);
+				continue;
+			}
+			split(tokens1, x, y, tokens2, z, w, splitter, budget, runs, stack);
+		}
+
+		// Diff the regions between the anchors.
+		LinkedList<Diff> diffs = new LinkedList<>();
+		int i = 0;
+		int j = 0;
+		for (int r = 0; r < runs.size(); r += 3)
+		{
+			int runI = runs.get(r);
+			int runJ = runs.get(r + 1);
+			int length = runs.get(r + 2);
+			diffGap(dmp, diffs, text1, offset(starts1, start1, i),
+				offset(starts1, start1, runI), text2, offset(starts2, start2, j),
+				offset(starts2, start2, runJ), lines, budget);
+			diffs.add(new Diff(Operation.EQUAL, text1.substring(
+				offset(starts1, start1, runI), offset(starts1, start1, runI + length))));
+			i = runI + length;
+			j = runJ + length;
+		}
+		diffGap(dmp, diffs, text1, offset(starts1, start1, i), end1, text2,
+			offset(starts2, start2, j), end2, lines, budget);
+		return diffs;
+	}
+
+	/**
+	 * Match the common prefix and suffix of a region, then let the splitter
+	 * anchor whatever remains.
+	 *
+	 * @param a        Tokens of the first text.
+	 * @param a0       Start of the region in a.
+	 * @param a1       End of the region in a.
+	 * @param b        Tokens of the second text.
+	 * @param b0       Start of the region in b.
+	 * @param b1       End of the region in b.
+	 * @param splitter The algorithm-specific splitter.
+	 * @param budget   Limits the effort spent on the diff.
+	 * @param runs     Matched runs found so far.
+	 * @param stack    Regions and runs still to be processed.
+	 */
+	private static void split(int[] a, int a0, int a1, int[] b, int b0, int b1,
+	                          Splitter splitter, DiffBudget budget, IntList runs,
+	                          IntList stack)
+	{
+		int prefix = 0;
+		while (a0 + prefix < a1 && b0 + prefix < b1 &&
+			a[a0 + prefix] == b[b0 + prefix])
+		{
+			prefix++;
+		}
+		if (prefix != 0)
+		{
+			addRun(runs, a0, b0, prefix);
+			a0 += prefix;
+			b0 += prefix;
+		}
+		int suffix = 0;
+		while (a0 < a1 - suffix && b0 < b1 - suffix &&
+			a[a1 - suffix - 1] == b[b1 - suffix - 1])
+		{
+			suffix++;
+		}
+		if (suffix != 0)
+		{
+			a1 -= suffix;
+			b1 -= suffix;
+			pushRun(stack, a1, b1, suffix);
+		}
+		if (a0 == a1 || b0 == b1 || !budget.spend(a1 - a0 + b1 - b0))
+		{
+			// Nothing left to anchor, or no budget left to do it.
+			return;
+		}
+		splitter.split(a0, a1, b0, b1, stack);
+	}
+
+	/**
+	 * Append the diff of a region that contains no anchors.
+	 *
+	 * @param dmp      The instance whose settings apply to the diff.
+	 * @param diffs    The diffs computed so far.
+	 * @param text1    Old string to be diffed.
+	 * @param start1   Start of the region in text1.
+	 * @param end1     End of the region in text1.
+	 * @param text2    New string to be diffed.
+	 * @param start2   Start of the region in text2.
+	 * @param end2     End of the region in text2.
+	 * @param lines    True if the texts were split into lines.
+	 * @param budget   Limits the effort spent on the diff.
+	 */
+	private static void diffGap(DiffMatchPatch dmp, LinkedList<Diff> diffs,
+	                            String text1, int start1, int end1, String text2,
+	                            int start2, int end2, boolean lines,
+	                            DiffBudget budget)
+	{
+		if (start1 == end1 && start2 == end2)
+		{
+			return;
+		}
+		diffs.addAll(dmp.diffMain(text1, start1, end1, text2, start2, end2, lines,
+			budget));
+	}
+
+	/**
+	 * Returns the position of a token in the original text.
+	 *
+	 * @param starts The start of every line, or null if every character is a
+	 *               token.
+	 * @param start  The start of the range that was tokenized.
+	 * @param index  The index of the token.
+	 * @return The index in the text.
+	 */
+	private static int offset(int[] starts, int start, int index)
+	{
+		if (starts == null)
+		{
+			return start + index;
+		}
+		return starts[index];
+	}
+
+	/**
+	 * Returns the characters of a range of text as tokens.
+	 *
+	 * @param text  The string.
+	 * @param start Index of the first character of the range.
+	 * @param end   Index after the last character of the range.
+	 * @return The tokens.
+	 */
+	private static int[] chars(String text, int start, int end)
+	{
+		int[] tokens = new int[end - start];
+		for (int i = 0; i < tokens.length; i++)
+		{
+			tokens[i] = text.charAt(start + i);
+		}
+		return tokens;
+	}
+
+	/**
+	 * Returns the largest token.
+	 *
+	 * @param tokens The tokens.
+	 * @return The largest token, or -1 if there are none.
+	 */
+	private static int max(int[] tokens)
+	{
+		int result = -1;
+		for (int token : tokens)
+		{
+			result = Math.max(result, token);
+		}
+		return result;
+	}
+
+	/**
+	 * Record a matched run, extending the previous one if they are adjacent.
+	 *
+	 * @param runs   Triples of (index in a, index in b, length).
+	 * @param i      Index of the run in a.
+	 * @param j      Index of the run in b.
+	 * @param length Length of the run.
+	 */
+	private static void addRun(IntList runs, int i, int j, int length)
+	{
+		int size = runs.size();
+		if (size != 0)
+		{
+			int lastLength = runs.get(size - 1);
+			if (runs.get(size - 3) + lastLength == i &&
+				runs.get(size - 2) + lastLength == j)
+			{
+				runs.set(size - 1, lastLength + length);
+				return;
+			}
+		}
+		runs.add(i);
+		runs.add(j);
+		runs.add(length);
+	}
+
+	/**
+	 * Schedule a region for splitting.
+	 *
+	 * @param stack The work stack.
+	 * @param a0    Start of the region in a.
+	 * @param a1    End of the region in a.
+	 * @param b0    Start of the region in b.
+	 * @param b1    End of the region in b.
+	 */
+	static void pushRegion(IntList stack, int a0, int a1, int b0, int b1)
+	{
+		stack.add(a0);
+		stack.add(a1);
+		stack.add(b0);
+		stack.add(b1);
+	}
+
+	/**
+	 * Schedule an anchor to be recorded once the regions before it are done.
+	 *
+	 * @param stack  The work stack.
+	 * @param i      Index of the run in a.
+	 * @param j      Index of the run in b.
+	 * @param length Length of the run.
+	 */
+	static void pushRun(IntList stack, int i, int j, int length)
+	{
+		stack.add(~i);
+		stack.add(j);
+		stack.add(length);
+		stack.add(0);
+	}
+
+	/**
+	 * Returns the splitter used by one diff.
+	 *
+	 * @param a        Tokens of the first text.
+	 * @param b        Tokens of the second text.
+	 * @param alphabet One more than the largest token.
+	 * @return A new splitter.
+	 */
+	abstract Splitter newSplitter(int[] a, int[] b, int alphabet);
+
+	/**
+	 * Finds the anchors of one region. Each diff gets its own splitter, so
+	 * splitters may keep scratch state.
+	 */
+	abstract static class Splitter
+	{
+		/**
+		 * Anchor a region whose first and last tokens don't match. Pushes, in
+		 * reverse order, the regions between the anchors and the anchors
+		 * themselves. Pushes nothing if the region has no anchors.
+		 *
+		 * @param a0    Start of the region in a.
+		 * @param a1    End of the region in a.
+		 * @param b0    Start of the region in b.
+		 * @param b1    End of the region in b.
+		 * @param stack The work stack.
+		 */
+		abstract void split(int a0, int a1, int b0, int b1, IntList stack);
+	}
+}
@@ -0,0 +1,84 @@
+/*
+ * Diff Match and Patch
+ * Copyright 2018 The diff-match-patch Authors.
+ * https://github.com/google/diff-match-patch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bitbucket.cowwoc.diffmatchpatch;
+
+/**
+ * Compares runs of characters of two strings: the common prefix and suffix
+ * scans and the snakes of {@code diffBisect}.
+ * <p>
+ * This is the portable implementation, which compares one character at a
+ * time. The multi-release JAR replaces it on Java 9 and later with one that
+ * compares long runs in bulk.
+ */
+final class CharScan
+{
+	/**
+	 * Prevent construction.
+	 */
+	private CharScan()
+	{
+	}
+
+	/**
+	 * Count the characters that two strings have in common from given indexes
+	 * onwards.
+	 *
+	 * @param text1  First string.
+	 * @param start1 Index in text1 at which to start comparing.
+	 * @param text2  Second string.
+	 * @param start2 Index in text2 at which to start comparing.
+	 * @param length The maximum number of characters to compare.
+	 * @return The number of equal characters, at most {@code length}.
+	 */
+	static int commonPrefix(String text1, int start1, String text2, int start2,
+	                        int length)
+	{
+		for (int i = 0; i < length; i++)
+		{
+			if (text1.charAt(start1 + i) != text2.charAt(start2 + i))
+			{
+				return i;
+			}
+		}
+		return Math.max(length, 0);
+	}
+
+	/**
+	 * Count the characters that two strings have in common before given
+	 * indexes.
+	 *
+	 * @param text1  First string.
+	 * @param end1   Index in text1 before which to start comparing.
+	 * @param text2  Second string.
+	 * @param end2   Index in text2 before which to start comparing.
+	 * @param length The maximum number of characters to compare.
+	 * @return The number of equal characters, at most {@code length}.
+	 */
+	static int commonSuffix(String text1, int end1, String text2, int end2,
+	                        int length)
+	{
+		for (int i = 1; i <= length; i++)
+		{
+			if (text1.charAt(end1 - i) != text2.charAt(end2 - i))
+			{
+				return i - 1;
+			}
+		}
+		return Math.max(length, 0);
+	}
+}
@@ -0,0 +1,77 @@
+/*
+ * Diff Match and Patch
+ * Copyright 2018 The diff-match-patch Authors.
+ * https://github.com/google/diff-match-patch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bitbucket.cowwoc.diffmatchpatch;
+
+import org.bitbucket.cowwoc.diffmatchpatch.DiffMatchPatch.Diff;
+
+import java.util.LinkedList;
+
+/**
+ * An algorithm that computes the differences between two texts.
+ * <p>
+ * {@link DiffMatchPatch#diffMain} strips the common prefix and suffix off the
+ * texts and hands the middle block to the selected algorithm. Every algorithm
+ * must return a list of diffs which, like the ones returned by
+ * {@code diffMain}, rebuilds the first range from its equalities and deletions
+ * and the second range from its equalities and insertions. The result doesn't
+ * need to be normalized; {@code diffMain} merges it afterwards.
+ * <p>
+ * Implementations must be thread-safe.
+ */
+public interface DiffAlgorithm
+{
+	/**
+	 * Myers' O(ND) bisection, sped up by half-matches and line mode. This is the
+	 * default.
+	 */
+	DiffAlgorithm MYERS = new MyersDiff();
+	/**
+	 * Patience diff: anchors the diff on lines (or characters) that occur
+	 * exactly once in each text and falls back to {@link #MYERS} between them.
+	 */
+	DiffAlgorithm PATIENCE = new PatienceDiff();
+	/**
+	 * Histogram diff: repeatedly anchors the diff on the longest common run
+	 * that contains the rarest lines (or characters), falling back to
+	 * {@link #MYERS} for regions that only contain very common ones.
+	 */
+	DiffAlgorithm HISTOGRAM = new HistogramDiff();
+
+	/**
+	 * Find the differences between two ranges of text. Assumes that the ranges
+	 * do not have any common prefix or suffix.
+	 *
+	 * @param dmp        The instance whose settings apply to the diff.
+	 * @param text1      Old string to be diffed.
+	 * @param start1     Index of the first character of the range in text1.
+	 * @param end1       Index after the last character of the range in text1.
+	 * @param text2      New string to be diffed.
+	 * @param start2     Index of the first character of the range in text2.
+	 * @param end2       Index after the last character of the range in text2.
+	 * @param checklines Speedup flag. If false, then don't run a
+	 *                   line-level diff first to identify the changed areas.
+	 *                   If true, then run a faster slightly less optimal diff.
+	 * @param budget     Limits the effort spent on the diff. Once it is
+	 *                   exhausted, implementations should return a valid but
+	 *                   coarser diff.
+	 * @return Linked List of Diff objects.
+	 */
+	LinkedList<Diff> diffCompute(DiffMatchPatch dmp, String text1, int start1,
+	                             int end1, String text2, int start2, int end2,
+	                             boolean checklines, DiffBudget budget);
+}
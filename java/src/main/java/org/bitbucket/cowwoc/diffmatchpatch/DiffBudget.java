@@ -0,0 +1,265 @@
+/*
+ * Diff Match and Patch
+ * Copyright 2018 The diff-match-patch Authors.
+ * https://github.com/google/diff-match-patch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bitbucket.cowwoc.diffmatchpatch;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the effort spent by a diff, match or patch operation.
+ * <p>
+ * A budget combines up to three limits:
+ * <ul>
+ * <li>A wall-clock deadline. Like {@code diffTimeout}, running out of time
+ * makes the algorithms return the best result found so far.</li>
+ * <li>A number of work units. Each unit is one step of a search path or one
+ * character compared along a snake, so a budget without a deadline always
+ * yields the same result for the same input. Running out of work units is
+ * handled like running out of time.</li>
+ * <li>Cancellation. Any thread may call {@link #cancel()}; the operation then
+ * throws a {@link CancellationException} instead of returning a result.</li>
+ * </ul>
+ * The clock is only read after every {@value #CLOCK_INTERVAL} work units, so
+ * checking the budget is cheap enough to do inside the inner loops.
+ * <p>
+ * The budget also counts the rows (error levels) and cells (text positions)
+ * of the Bitap searches it pays for, which shows how much of the work of a
+ * match or patch operation went into fuzzy matching.
+ * <p>
+ * A budget is consumed by the operations it is passed to; pass a new one to
+ * every request. Budgets are thread-safe.
+ */
+public final class DiffBudget
+{
+	/**
+	 * The number of work units between two reads of the clock.
+	 */
+	public static final int CLOCK_INTERVAL = 1024;
+
+	private final long deadline;
+	private final long maxWork;
+	private final AtomicLong work = new AtomicLong();
+	private final AtomicLong matchRows = new AtomicLong();
+	private final AtomicLong matchCells = new AtomicLong();
+	// Races only delay the next read of the clock.
+	private long nextClockCheck;
+	private volatile boolean expired;
+	private volatile boolean cancelled;
+
+	/**
+	 * Creates a budget that only ends when it is cancelled.
+	 */
+	public DiffBudget()
+	{
+		this(Long.MAX_VALUE, Long.MAX_VALUE, false);
+	}
+
+	/**
+	 * Creates a budget.
+	 *
+	 * @param timeout The number of milliseconds, from now, that may be spent.
+	 *                Zero or less for no time limit.
+	 * @param maxWork The number of work units that may be spent. Zero or less
+	 *                for no work limit.
+	 */
+	public DiffBudget(long timeout, long maxWork)
+	{
+		this(deadline(timeout), maxWork <= 0 ? Long.MAX_VALUE : maxWork, false);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param deadline Time (in milliseconds since the epoch) when the operation
+	 *                 should be complete by, or {@code Long.MAX_VALUE}.
+	 * @param maxWork  The number of work units that may be spent, or
+	 *                 {@code Long.MAX_VALUE}.
+	 * @param ignored  Distinguishes this constructor from the public one.
+	 */
+	private DiffBudget(long deadline, long maxWork, boolean ignored)
+	{
+		this.deadline = deadline;
+		this.maxWork = maxWork;
+	}
+
+	/**
+	 * Converts a timeout to a deadline.
+	 *
+	 * @param timeout The number of milliseconds, from now, that may be spent.
+	 *                Zero or less for no time limit.
+	 * @return Time (in milliseconds since the epoch) when the operation should
+	 * be complete by, or {@code Long.MAX_VALUE}.
+	 */
+	private static long deadline(long timeout)
+	{
+		if (timeout <= 0)
+		{
+			return Long.MAX_VALUE;
+		}
+		long now = System.currentTimeMillis();
+		if (timeout >= Long.MAX_VALUE - now)
+		{
+			return Long.MAX_VALUE;
+		}
+		return now + timeout;
+	}
+
+	/**
+	 * Returns a budget with an absolute deadline and no work limit.
+	 *
+	 * @param deadline Time (in milliseconds since the epoch) when the operation
+	 *                 should be complete by, or {@code Long.MAX_VALUE}.
+	 * @return The budget.
+	 */
+	static DiffBudget until(long deadline)
+	{
+		return new DiffBudget(deadline, Long.MAX_VALUE, false);
+	}
+
+	/**
+	 * Record work and check whether the budget still allows more.
+	 *
+	 * @param units The number of work units spent since the last call.
+	 * @return False if the deadline has passed or the work limit was exceeded.
+	 * @throws CancellationException If the budget was cancelled.
+	 */
+	boolean spend(long units)
+	{
+		if (cancelled)
+		{
+			throw new CancellationException("Cancelled.");
+		}
+		long total = work.addAndGet(units);
+		if (total > maxWork)
+		{
+			return false;
+		}
+		if (deadline != Long.MAX_VALUE && total >= nextClockCheck)
+		{
+			nextClockCheck = total + CLOCK_INTERVAL;
+			if (System.currentTimeMillis() > deadline)
+			{
+				expired = true;
+			}
+		}
+		return !expired;
+	}
+
+	/**
+	 * Record the extent of a Bitap search.
+	 *
+	 * @param rows  The number of error levels scanned.
+	 * @param cells The number of text positions computed over all levels.
+	 */
+	void recordMatch(long rows, long cells)
+	{
+		matchRows.addAndGet(rows);
+		matchCells.addAndGet(cells);
+	}
+
+	/**
+	 * Cancels the operations using this budget. They throw a
+	 * {@link CancellationException} the next time they check the budget.
+	 */
+	public void cancel()
+	{
+		cancelled = true;
+	}
+
+	/**
+	 * Returns true if the budget was cancelled.
+	 *
+	 * @return True if {@link #cancel()} was called.
+	 */
+	public boolean isCancelled()
+	{
+		return cancelled;
+	}
+
+	/**
+	 * Returns true if an operation ran out of time or work units, and therefore
+	 * returned a result that may not be optimal.
+	 *
+	 * @return True if the budget is exhausted.
+	 */
+	public boolean isExhausted()
+	{
+		return expired || work.get() > maxWork;
+	}
+
+	/**
+	 * Returns the number of work units spent so far.
+	 *
+	 * @return The number of work units.
+	 */
+	public long getWork()
+	{
+		return work.get();
+	}
+
+	/**
+	 * Returns the number of error levels scanned by Bitap searches so far.
+	 *
+	 * @return The number of rows.
+	 */
+	public long getMatchRows()
+	{
+		return matchRows.get();
+	}
+
+	/**
+	 * Returns the number of text positions computed by Bitap searches so far,
+	 * summed over their error levels.
+	 *
+	 * @return The number of cells.
+	 */
+	public long getMatchCells()
+	{
+		return matchCells.get();
+	}
+
+	/**
+	 * Returns the number of work units that may be spent.
+	 *
+	 * @return The number of work units, or {@code Long.MAX_VALUE} if there is no
+	 * limit.
+	 */
+	public long getMaxWork()
+	{
+		return maxWork;
+	}
+
+	/**
+	 * Returns the deadline.
+	 *
+	 * @return Time (in milliseconds since the epoch) when the operation should
+	 * be complete by, or {@code Long.MAX_VALUE} if there is no time limit.
+	 */
+	public long getDeadline()
+	{
+		return deadline;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "DiffBudget(work=" + work.get() + ", maxWork=" + maxWork +
+			", deadline=" + deadline + ", cancelled=" + cancelled + ", matchRows=" +
+			matchRows.get() + ", matchCells=" + matchCells.get() + ")";
+	}
+}
@@ -0,0 +1,297 @@
+/*
+ * Diff Match and Patch
+ * Copyright 2018 The diff-match-patch Authors.
+ * https://github.com/google/diff-match-patch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bitbucket.cowwoc.diffmatchpatch;
+
+import org.bitbucket.cowwoc.diffmatchpatch.DiffMatchPatch.Diff;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Runs a sequence of cleanup passes over a diff.
+ * <p>
+ * The result is the same as calling the {@code diffCleanup*} methods of
+ * {@link DiffMatchPatch} one after the other, but the passes share their
+ * work. A list of {@code Diff} objects is copied into one
+ * {@link DiffExcerpt}, which leaves out the middle of the equalities that no
+ * pass can cross, and stored back once at the end, so long texts with a few
+ * changes pay for the edits rather than for the length of the texts. The
+ * excerpt is split into hunks at those equalities, and every pass is run
+ * hunk by hunk. A pass that left a hunk as it was is skipped on that hunk
+ * the next time it comes up, unless another pass has changed the hunk since.
+ * <p>
+ * A pipeline reads the settings of its {@code DiffMatchPatch}, such as
+ * {@code diffEditCost}, every time it is applied. Pipelines are immutable.
+ */
+public final class DiffCleanupPipeline
+{
+	/**
+	 * A cleanup pass.
+	 */
+	public enum Pass
+	{
+		/**
+		 * {@link DiffMatchPatch#diffCleanupMerge(List)}.
+		 */
+		MERGE,
+		/**
+		 * {@link DiffMatchPatch#diffCleanupSemantic(List)}.
+		 */
+		SEMANTIC,
+		/**
+		 * {@link DiffMatchPatch#diffCleanupSemanticLossless(List)}.
+		 */
+		SEMANTIC_LOSSLESS,
+		/**
+		 * {@link DiffMatchPatch#diffCleanupEfficiency(List)}.
+		 */
+		EFFICIENCY
+	}
+
+	/**
+	 * The number of diffs that a hunk holds at least, unless it is the last.
+	 * Running the passes over smaller hunks costs more than it saves.
+	 */
+	private static final int MIN_HUNK_SIZE = 32;
+
+	private final DiffMatchPatch dmp;
+	private final Pass[] passes;
+	// Whether a pass must check which hunks it changed: only if a later pass
+	// could be skipped because of it.
+	private final boolean[] trackChanges;
+
+	/**
+	 * Creates a pipeline.
+	 *
+	 * @param dmp    The settings to clean up with.
+	 * @param passes The passes to run, in order.
+	 */
+	public DiffCleanupPipeline(DiffMatchPatch dmp, Pass... passes)
+	{
+		if (dmp == null || passes == null)
+		{
+			throw new IllegalArgumentException("Null inputs. (DiffCleanupPipeline)");
+		}
+		this.dmp = dmp;
+		this.passes = passes.clone();
+		for (Pass pass : this.passes)
+		{
+			if (pass == null)
+			{
+				throw new IllegalArgumentException("Null inputs. (DiffCleanupPipeline)");
+			}
+		}
+		this.trackChanges = new boolean[this.passes.length];
+		for (int i = 0; i < this.passes.length; i++)
+		{
+			for (int j = i + 1; j < this.passes.length; j++)
+			{
+				if (this.passes[j] == this.passes[i])
+				{
+					// The passes in between must record which hunks they change.
+					for (int k = i; k < j; k++)
+					{
+						this.trackChanges[k] = true;
+					}
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the passes of this pipeline.
+	 *
+	 * @return The passes, in order.
+	 */
+	public List<Pass> getPasses()
+	{
+		return Collections.unmodifiableList(Arrays.asList(passes));
+	}
+
+	/**
+	 * Cleans up a diff.
+	 *
+	 * @param diffs List of Diff objects, such as a compact {@link DiffList}.
+	 */
+	public void apply(List<Diff> diffs)
+	{
+		if (diffs == null)
+		{
+			throw new IllegalArgumentException("Null inputs. (apply)");
+		}
+		if (diffs instanceof DiffList)
+		{
+			apply(new DiffList[]{(DiffList) diffs}, false);
+			return;
+		}
+		int splitLength = 0;
+		boolean aligned = false;
+		for (Pass pass : passes)
+		{
+			if (pass == Pass.EFFICIENCY)
+			{
+				splitLength = dmp.diffEditCost;
+			}
+			else if (pass != Pass.MERGE)
+			{
+				aligned = true;
+			}
+		}
+		// An equality that none of the passes can cross is cut for all of them.
+		DiffExcerpt excerpt = DiffExcerpt.of(diffs, splitLength, aligned);
+		if (excerpt.hasCuts())
+		{
+			DiffList[] hunks = excerpt.split(MIN_HUNK_SIZE);
+			if (!apply(hunks, true))
+			{
+				excerpt.join(hunks);
+				excerpt.store(diffs);
+				return;
+			}
+			// An equality between two others is shifted like an edit, which may
+			// read the part of a long equality that was left out.
+			excerpt = DiffExcerpt.of(diffs);
+		}
+		apply(new DiffList[]{excerpt.getDiffs()}, false);
+		excerpt.store(diffs);
+	}
+
+	/**
+	 * Run the passes over the hunks of a diff.
+	 * <p>
+	 * The semantic and efficiency passes normalize the whole diff if they
+	 * change any part of it, so they first look for equalities to eliminate in
+	 * every hunk, and then clean up each hunk knowing if the diff is to be
+	 * normalized. A pass that left a hunk as it was, without finding anything to
+	 * eliminate in it, would do so again the next time with the same
+	 * normalization.
+	 *
+	 * @param hunks Compact lists of diffs, cleaned up in place.
+	 * @param cut   True if the hunks are an excerpt with cuts, whose cleanup is
+	 *              abandoned as soon as two equalities are left next to each
+	 *              other.
+	 * @return True if two equalities were left next to each other.
+	 */
+	private boolean apply(DiffList[] hunks, boolean cut)
+	{
+		boolean joined = false;
+		// For each hunk, two bits per pass: whether the pass is known to leave the
+		// hunk as it is, without and with normalization.
+		int[] unchanged = new int[hunks.length];
+		// A copy of each hunk from before the pass, reused from pass to pass.
+		DiffList[] copies = new DiffList[hunks.length];
+		// The equalities that the current pass eliminates in each hunk.
+		boolean[][] eliminated = new boolean[hunks.length][];
+		DiffList[] split = new DiffList[hunks.length];
+		for (int i = 0; i < passes.length; i++)
+		{
+			Pass pass = passes[i];
+			int bits = 2 * pass.ordinal();
+			boolean normalize = false;
+			for (int j = 0; j < hunks.length; j++)
+			{
+				if ((unchanged[j] & (3 << bits)) != 0)
+				{
+					// The pass found nothing to eliminate in the hunk.
+					continue;
+				}
+				if (pass == Pass.SEMANTIC)
+				{
+					eliminated[j] = dmp.diffSemanticEqualities(hunks[j]);
+					normalize |= eliminated[j] != null;
+				}
+				else if (pass == Pass.EFFICIENCY)
+				{
+					split[j] = dmp.diffSplitEqualities(hunks[j]);
+					normalize |= split[j] != null;
+				}
+			}
+			int mask = 1 << (bits + (normalize ? 1 : 0));
+			boolean track = trackChanges[i];
+			for (int j = 0; j < hunks.length; j++)
+			{
+				DiffList hunk = hunks[j];
+				if ((unchanged[j] & mask) != 0)
+				{
+					continue;
+				}
+				if (track)
+				{
+					if (copies[j] == null)
+					{
+						copies[j] = new DiffList(hunk.getText1(), hunk.getText2(), hunk.size());
+					}
+					copies[j].setAll(hunk);
+				}
+				boolean found = false;
+				switch (pass)
+				{
+					case MERGE:
+						joined |= dmp.diffMerge(hunk);
+						break;
+					case SEMANTIC:
+						found = eliminated[j] != null;
+						joined |= dmp.diffCleanupSemantic(hunk, eliminated[j], normalize);
+						eliminated[j] = null;
+						break;
+					case SEMANTIC_LOSSLESS:
+						dmp.diffAlignEdits(hunk);
+						break;
+					case EFFICIENCY:
+						found = split[j] != null;
+						if (found)
+						{
+							hunk.setAll(split[j]);
+							split[j] = null;
+						}
+						if (normalize)
+						{
+							joined |= dmp.diffMerge(hunk);
+						}
+						break;
+					default:
+						throw new AssertionError(pass);
+				}
+				if (joined && cut)
+				{
+					return true;
+				}
+				if (track)
+				{
+					if (!hunk.sameAs(copies[j]))
+					{
+						unchanged[j] = 0;
+					}
+					else if (!found)
+					{
+						unchanged[j] |= mask;
+					}
+				}
+			}
+		}
+		return joined;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "DiffCleanupPipeline" + Arrays.toString(passes);
+	}
+}
@@ -0,0 +1,674 @@
+/*
+ * Diff Match and Patch
+ * Copyright 2018 The diff-match-patch Authors.
+ * https://github.com/google/diff-match-patch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bitbucket.cowwoc.diffmatchpatch;
+
+import org.bitbucket.cowwoc.diffmatchpatch.DiffMatchPatch.Diff;
+import org.bitbucket.cowwoc.diffmatchpatch.DiffMatchPatch.Operation;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.ListIterator;
+
+/**
+ * A compact copy of a diff that leaves out the middle of its long equalities.
+ * <p>
+ * A cleanup only moves an edit across an equality, or turns an equality into
+ * an edit, if the equality is no longer than the edits around it. An equality
+ * that is longer than any edit can grow during the cleanup is only ever read
+ * near its ends, so the excerpt keeps those ends and remembers the middle.
+ * Cleaning up a few edits in a long document then costs as much as the edits,
+ * not as much as copying the document.
+ * <p>
+ * An edit that is aligned to a word boundary steps right for as long as the
+ * text after it repeats the edit, and left for as long as the text before it
+ * does. Cleanups that align edits may do so more than once, so for them the
+ * head and the tail of an equality are kept up to where they stop repeating
+ * with any period that an edit can have.
+ */
+final class DiffExcerpt
+{
+	/**
+	 * The number of characters kept beyond the reach of the edits.
+	 */
+	private static final int MARGIN = 8;
+	/**
+	 * Diffs of at most this many characters are copied whole.
+	 */
+	private static final int SHORT_LENGTH = 4096;
+
+	private final DiffList diffs;
+	// A copy of the diffs before the cleanup.
+	private final DiffList original;
+	// Indexes in the excerpt of the old text where a middle was left out.
+	private final int[] cuts;
+	// The equalities that the middles were left out of.
+	private final String[] sources;
+	// The ranges of the sources that were left out.
+	private final int[] cutStarts;
+	private final int[] cutEnds;
+	private final int cutCount;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param diffs     Compact list of diffs over the excerpt.
+	 * @param cuts      Indexes in the excerpt of the old text where a middle
+	 *                  was left out.
+	 * @param sources   The equalities that the middles were left out of.
+	 * @param cutStarts Index in its source of the first character left out.
+	 * @param cutEnds   Index in its source after the last character left out.
+	 * @param cutCount  The number of middles left out.
+	 */
+	private DiffExcerpt(DiffList diffs, int[] cuts, String[] sources,
+	                    int[] cutStarts, int[] cutEnds, int cutCount)
+	{
+		this.diffs = diffs;
+		this.original = DiffList.of(diffs);
+		this.cuts = cuts;
+		this.sources = sources;
+		this.cutStarts = cutStarts;
+		this.cutEnds = cutEnds;
+		this.cutCount = cutCount;
+	}
+
+	/**
+	 * Returns an excerpt of a diff.
+	 *
+	 * @param diffs       List of Diff objects.
+	 * @param splitLength Equalities shorter than this may be turned into edits
+	 *                    whatever the length of the edits around them, zero if
+	 *                    none may.
+	 * @param aligned     True if the cleanup aligns edits to word boundaries.
+	 * @return The excerpt.
+	 */
+	static DiffExcerpt of(List<Diff> diffs, int splitLength, boolean aligned)
+	{
+		int size = diffs.size();
+		Diff[] array = diffs.toArray(new Diff[size]);
+		long edits = 0;
+		long total = 0;
+		int longest = 0;
+		for (Diff diff : array)
+		{
+			int length = diff.text.length();
+			if (diff.operation == Operation.EQUAL)
+			{
+				longest = Math.max(longest, length);
+			}
+			else
+			{
+				edits += length;
+			}
+			total += length;
+		}
+		if (longest <= edits || total <= SHORT_LENGTH)
+		{
+			// Either no equality is longer than the edits can grow, or the diff is
+			// so short that copying it costs less than bounding their reach.
+			return of(array, Long.MAX_VALUE, splitLength, aligned, null);
+		}
+		int[] scratch = new int[size];
+		// An equality that is longer than any edit can grow to is never crossed,
+		// so the edits on either side of it only grow by the diffs on their side.
+		long limit = getReach(array, 0, size, splitLength, scratch);
+		if (aligned)
+		{
+			for (int i = 1; i < size; i++)
+			{
+				if (array[i - 1].operation == Operation.EQUAL &&
+					array[i].operation == Operation.EQUAL)
+				{
+					// An equality between two others is aligned like an edit.
+					limit = Long.MAX_VALUE;
+					break;
+				}
+			}
+		}
+		return of(array, limit, splitLength, aligned, scratch);
+	}
+
+	/**
+	 * Returns a compact copy of a diff that leaves nothing out.
+	 *
+	 * @param diffs List of Diff objects.
+	 * @return The excerpt.
+	 */
+	static DiffExcerpt of(List<Diff> diffs)
+	{
+		int size = diffs.size();
+		return of(diffs.toArray(new Diff[size]), Long.MAX_VALUE, 0, false, null);
+	}
+
+	/**
+	 * Returns an excerpt of a diff.
+	 *
+	 * @param array       Array of Diff objects.
+	 * @param limit       Equalities longer than this are cut.
+	 * @param splitLength Equalities shorter than this may be turned into edits
+	 *                    whatever the length of the edits around them, zero if
+	 *                    none may.
+	 * @param aligned     True if the cleanup aligns edits to word boundaries.
+	 * @param scratch     Receives the lengths of the equalities, at least as
+	 *                    long as {@code array} if any equality is cut, or null
+	 *                    if none is.
+	 * @return The excerpt.
+	 */
+	private static DiffExcerpt of(Diff[] array, long limit, int splitLength,
+	                              boolean aligned, int[] scratch)
+	{
+		int size = array.length;
+		int[] barriers = new int[size + 1];
+		int barrierCount = 0;
+		// The lengths of the two texts, less the middles left out below.
+		int length1 = 0;
+		int length2 = 0;
+		for (int i = 0; i < size; i++)
+		{
+			Operation operation = array[i].operation;
+			int length = array[i].text.length();
+			if (operation == Operation.EQUAL && length > limit)
+			{
+				barriers[barrierCount++] = i;
+			}
+			if (operation != Operation.INSERT)
+			{
+				length1 += length;
+			}
+			if (operation != Operation.DELETE)
+			{
+				length2 += length;
+			}
+		}
+		barriers[barrierCount] = size;
+		// The reach of the edits before each long equality, and after the last.
+		long[] reaches = new long[barrierCount + 1];
+		int first = 0;
+		for (int i = 0; i <= barrierCount && barrierCount != 0; i++)
+		{
+			reaches[i] = getReach(array, first, barriers[i], splitLength, scratch);
+			first = barriers[i] + 1;
+		}
+		long margin = Math.max(MARGIN, splitLength);
+		// The middle of each long equality that is left out, if any.
+		int[] cutStarts = new int[barrierCount];
+		int[] cutEnds = new int[barrierCount];
+		for (int i = 0; i < barrierCount; i++)
+		{
+			String text = array[barriers[i]].text;
+			int length = text.length();
+			// The edits before the equality reach into its head, the edits after it
+			// into its tail.
+			long tail;
+			long head;
+			if (aligned)
+			{
+				tail = getStep(text, true, reaches[i + 1], length) + margin;
+				head = getStep(text, false, reaches[i], length - tail) + margin;
+			}
+			else
+			{
+				tail = reaches[i + 1] + margin;
+				head = reaches[i] + margin;
+			}
+			if (head + tail < length)
+			{
+				cutStarts[i] = (int) head;
+				cutEnds[i] = length - (int) tail;
+				length1 -= cutEnds[i] - cutStarts[i];
+				length2 -= cutEnds[i] - cutStarts[i];
+			}
+		}
+
+		StringBuilder text1 = new StringBuilder(length1);
+		StringBuilder text2 = new StringBuilder(length2);
+		int[] lengths = new int[size];
+		int[] cuts = new int[barrierCount];
+		String[] sources = new String[barrierCount];
+		int cutCount = 0;
+		int barrier = 0;
+		for (int i = 0; i < size; i++)
+		{
+			Diff diff = array[i];
+			String text = diff.text;
+			int length = text.length();
+			lengths[i] = length;
+			if (barriers[barrier] == i)
+			{
+				int end = cutStarts[barrier];
+				int start = cutEnds[barrier];
+				++barrier;
+				if (end != start)
+				{
+					cuts[cutCount] = text1.length() + end;
+					sources[cutCount] = text;
+					cutStarts[cutCount] = end;
+					cutEnds[cutCount] = start;
+					++cutCount;
+					text1.append(text, 0, end).append(text, start, length);
+					text2.append(text, 0, end).append(text, start, length);
+					lengths[i] = end + length - start;
+					continue;
+				}
+			}
+			if (diff.operation != Operation.INSERT)
+			{
+				text1.append(text);
+			}
+			if (diff.operation != Operation.DELETE)
+			{
+				text2.append(text);
+			}
+		}
+
+		DiffList list = new DiffList(text1.toString(), text2.toString(), size);
+		int pointer1 = 0;
+		int pointer2 = 0;
+		for (int i = 0; i < size; i++)
+		{
+			Operation operation = array[i].operation;
+			list.append(operation, operation == Operation.INSERT ? pointer2 :
+				pointer1, lengths[i]);
+			if (operation != Operation.INSERT)
+			{
+				pointer1 += lengths[i];
+			}
+			if (operation != Operation.DELETE)
+			{
+				pointer2 += lengths[i];
+			}
+		}
+		return new DiffExcerpt(list, cuts, sources, cutStarts, cutEnds, cutCount);
+	}
+
+	/**
+	 * Bound the length that the edits of a part of a diff can grow to. Edits
+	 * only grow by the equalities that are no longer than them, or shorter than
+	 * {@code splitLength}.
+	 *
+	 * @param diffs       Array of Diff objects.
+	 * @param start       Index of the first diff of the part.
+	 * @param end         Index after the last diff of the part.
+	 * @param splitLength Equalities shorter than this may be turned into edits
+	 *                    whatever the length of the edits around them.
+	 * @param scratch     Receives the lengths of the equalities.
+	 * @return The maximum number of characters of an edit.
+	 */
+	private static long getReach(Diff[] diffs, int start, int end,
+	                             int splitLength, int[] scratch)
+	{
+		long reach = 0;
+		int count = 0;
+		for (int i = start; i < end; i++)
+		{
+			if (diffs[i].operation == Operation.EQUAL)
+			{
+				scratch[count++] = diffs[i].text.length();
+			}
+			else
+			{
+				reach += diffs[i].text.length();
+			}
+		}
+		Arrays.sort(scratch, 0, count);
+		for (int i = 0; i < count && (scratch[i] <= reach ||
+			scratch[i] < splitLength); i++)
+		{
+			reach += scratch[i];
+		}
+		return reach;
+	}
+
+	/**
+	 * Bound how far an edit can step into an equality while it is aligned to a
+	 * word boundary. Stepping right over n characters needs the first n
+	 * characters of the equality to repeat with the length of the edit as their
+	 * period, stepping left the last n characters.
+	 *
+	 * @param text     The equality.
+	 * @param backward True for an edit after the equality, which steps left.
+	 * @param reach    The maximum number of characters of the edit.
+	 * @param limit    The bound is not computed beyond this length.
+	 * @return The length of the shortest head of the equality, or tail if
+	 * {@code backward}, whose smallest period is longer than {@code reach}, or
+	 * {@code limit} if there is none shorter.
+	 */
+	private static long getStep(String text, boolean backward, long reach,
+	                            long limit)
+	{
+		if (limit <= reach)
+		{
+			return limit;
+		}
+		// prefix[i] is the length of the longest proper prefix of the first i + 1
+		// characters, counted from the end if backward, that is also their
+		// suffix.
+		int[] prefix = new int[(int) Math.min(limit, 2 * reach + 2)];
+		for (int i = 1; i < limit; i++)
+		{
+			if (i == prefix.length)
+			{
+				prefix = Arrays.copyOf(prefix, (int) Math.min(limit, 2L * i));
+			}
+			char c = charAt(text, backward, i);
+			int k = prefix[i - 1];
+			while (k > 0 && c != charAt(text, backward, k))
+			{
+				k = prefix[k - 1];
+			}
+			if (c == charAt(text, backward, k))
+			{
+				++k;
+			}
+			prefix[i] = k;
+			if (i + 1 - k > reach)
+			{
+				return i + 1;
+			}
+		}
+		return limit;
+	}
+
+	/**
+	 * Returns a character of a text, counting from either end.
+	 *
+	 * @param text     The text.
+	 * @param backward True to count from the end.
+	 * @param index    The number of characters before it.
+	 * @return The character.
+	 */
+	private static char charAt(String text, boolean backward, int index)
+	{
+		return text.charAt(backward ? text.length() - 1 - index : index);
+	}
+
+	/**
+	 * Indicates if the middle of any equality was left out.
+	 *
+	 * @return True if the excerpt is shorter than the diff.
+	 */
+	boolean hasCuts()
+	{
+		return cutCount != 0;
+	}
+
+	/**
+	 * Returns the diffs over the excerpt, to be cleaned up in place.
+	 *
+	 * @return Compact list of diffs.
+	 */
+	DiffList getDiffs()
+	{
+		return diffs;
+	}
+
+	/**
+	 * Split the diffs over the excerpt where a middle was left out. Each hunk
+	 * is a compact list over its own part of the two texts, which starts with
+	 * the tail of a cut equality and ends with the head of another one. No edit
+	 * can cross a cut equality, so the hunks can be cleaned up on their own and
+	 * {@link #join joined} again.
+	 *
+	 * @param minSize A hunk is only ended at a cut once it holds this many
+	 *                diffs, so that short hunks are not cleaned up one by one.
+	 * @return The hunks, in order.
+	 */
+	DiffList[] split(int minSize)
+	{
+		String text1 = diffs.getText1();
+		String text2 = diffs.getText2();
+		// The indexes in the two texts where each hunk starts, the number of diffs
+		// in each hunk, and the cuts that end a hunk.
+		int[] starts1 = new int[cutCount + 2];
+		int[] starts2 = new int[cutCount + 2];
+		int[] sizes = new int[cutCount + 1];
+		boolean[] ends = new boolean[cutCount];
+		int count = 0;
+		int pointer2 = 0;
+		int cut = 0;
+		for (int i = 0; i < diffs.size(); i++)
+		{
+			Operation operation = diffs.getOperation(i);
+			int offset = diffs.getOffset(i);
+			int length = diffs.getLength(i);
+			++sizes[count];
+			// Each cut equality has one cut, in its middle.
+			if (operation == Operation.EQUAL && cut < cutCount &&
+				cuts[cut] < offset + length)
+			{
+				if (sizes[count] >= minSize)
+				{
+					ends[cut] = true;
+					++count;
+					starts1[count] = cuts[cut];
+					starts2[count] = pointer2 + cuts[cut] - offset;
+					++sizes[count];
+				}
+				++cut;
+			}
+			if (operation != Operation.DELETE)
+			{
+				pointer2 += length;
+			}
+		}
+		++count;
+		starts1[count] = text1.length();
+		starts2[count] = text2.length();
+
+		DiffList[] hunks = new DiffList[count];
+		for (int i = 0; i < count; i++)
+		{
+			hunks[i] = new DiffList(text1.substring(starts1[i], starts1[i + 1]),
+				text2.substring(starts2[i], starts2[i + 1]), sizes[i]);
+		}
+		int hunk = 0;
+		cut = 0;
+		for (int i = 0; i < diffs.size(); i++)
+		{
+			Operation operation = diffs.getOperation(i);
+			int offset = diffs.getOffset(i);
+			int length = diffs.getLength(i);
+			if (operation == Operation.EQUAL && cut < cutCount &&
+				cuts[cut] < offset + length && ends[cut++])
+			{
+				hunks[hunk].append(Operation.EQUAL, offset - starts1[hunk],
+					starts1[hunk + 1] - offset);
+				++hunk;
+				hunks[hunk].append(Operation.EQUAL, 0, offset + length - starts1[hunk]);
+				continue;
+			}
+			hunks[hunk].append(operation, offset - (operation == Operation.INSERT ?
+				starts2[hunk] : starts1[hunk]), length);
+		}
+		return hunks;
+	}
+
+	/**
+	 * Replace the diffs over the excerpt by the hunks that they were
+	 * {@link #split} into, once they are cleaned up.
+	 *
+	 * @param hunks The hunks, in order.
+	 */
+	void join(DiffList[] hunks)
+	{
+		diffs.truncate(0);
+		int start1 = 0;
+		int start2 = 0;
+		for (DiffList hunk : hunks)
+		{
+			for (int i = 0; i < hunk.size(); i++)
+			{
+				Operation operation = hunk.getOperation(i);
+				int length = hunk.getLength(i);
+				int last = diffs.size() - 1;
+				if (i == 0 && last >= 0 && operation == Operation.EQUAL &&
+					diffs.getOperation(last) == Operation.EQUAL)
+				{
+					// The head and the tail of a cut equality.
+					diffs.set(last, diffs.getOffset(last), diffs.getLength(last) + length);
+					continue;
+				}
+				diffs.append(operation, hunk.getOffset(i) +
+					(operation == Operation.INSERT ? start2 : start1), length);
+			}
+			start1 += hunk.getText1().length();
+			start2 += hunk.getText2().length();
+		}
+	}
+
+	/**
+	 * Store the cleaned up diffs back into the list that the excerpt was taken
+	 * from. Only the diffs that changed are replaced, and the middles that were
+	 * left out are put back.
+	 *
+	 * @param target The list that the excerpt was taken from.
+	 */
+	void store(List<Diff> target)
+	{
+		// The diffs that the cleanup left alone at either end are the same
+		// diffs of the target, which need not be read.
+		int prefix = diffs.commonPrefix(original);
+		if (prefix == diffs.size() && prefix == original.size())
+		{
+			return;
+		}
+		int suffix = diffs.commonSuffix(original, Math.min(diffs.size(),
+			original.size()) - prefix);
+		int end = diffs.size() - suffix;
+		// Indexes in the two texts of the next diff of the target and of the
+		// result.
+		int index1 = 0;
+		int index2 = 0;
+		int cut = 0;
+		for (int i = 0; i < prefix; i++)
+		{
+			Operation operation = diffs.getOperation(i);
+			int length = diffs.getLength(i);
+			if (operation != Operation.INSERT)
+			{
+				int diffEnd = diffs.getOffset(i) + length;
+				while (cut < cutCount && cuts[cut] < diffEnd)
+				{
+					length += cutEnds[cut] - cutStarts[cut];
+					++cut;
+				}
+				index1 += length;
+			}
+			if (operation != Operation.DELETE)
+			{
+				index2 += length;
+			}
+		}
+		ListIterator<Diff> pointer = target.listIterator(prefix);
+		int targetIndex1 = index1;
+		int targetIndex2 = index2;
+		for (int i = prefix; i < end; i++)
+		{
+			Operation operation = diffs.getOperation(i);
+			int firstCut = cut;
+			int length = diffs.getLength(i);
+			if (operation != Operation.INSERT)
+			{
+				int diffEnd = diffs.getOffset(i) + length;
+				while (cut < cutCount && cuts[cut] < diffEnd)
+				{
+					length += cutEnds[cut] - cutStarts[cut];
+					++cut;
+				}
+			}
+			// Over the same texts, a diff with the same operation and length at the
+			// same indexes is the same diff.
+			boolean unchanged = false;
+			while (pointer.nextIndex() < target.size() - suffix)
+			{
+				Diff diff = pointer.next();
+				if (targetIndex1 + targetIndex2 >= index1 + index2)
+				{
+					unchanged = targetIndex1 == index1 && targetIndex2 == index2 &&
+						diff.operation == operation && diff.text.length() == length;
+					if (!unchanged)
+					{
+						pointer.previous();
+						break;
+					}
+				}
+				else
+				{
+					pointer.remove();
+				}
+				if (diff.operation != Operation.INSERT)
+				{
+					targetIndex1 += diff.text.length();
+				}
+				if (diff.operation != Operation.DELETE)
+				{
+					targetIndex2 += diff.text.length();
+				}
+				if (unchanged)
+				{
+					break;
+				}
+			}
+			if (!unchanged)
+			{
+				pointer.add(new Diff(operation, getText(i, firstCut, cut, length)));
+			}
+			if (operation != Operation.INSERT)
+			{
+				index1 += length;
+			}
+			if (operation != Operation.DELETE)
+			{
+				index2 += length;
+			}
+		}
+		while (pointer.nextIndex() < target.size() - suffix)
+		{
+			pointer.next();
+			pointer.remove();
+		}
+	}
+
+	/**
+	 * Returns the text of a diff, with the middles that were left out.
+	 *
+	 * @param index    The index of the diff.
+	 * @param firstCut The index of the first cut within the diff.
+	 * @param lastCut  The index after the last cut within the diff.
+	 * @param length   The length of the text.
+	 * @return The text.
+	 */
+	private String getText(int index, int firstCut, int lastCut, int length)
+	{
+		if (firstCut == lastCut)
+		{
+			return diffs.getText(index);
+		}
+		String text1 = diffs.getText1();
+		StringBuilder result = new StringBuilder(length);
+		int pointer = diffs.getOffset(index);
+		for (int cut = firstCut; cut < lastCut; cut++)
+		{
+			result.append(text1, pointer, cuts[cut]);
+			result.append(sources[cut], cutStarts[cut], cutEnds[cut]);
+			pointer = cuts[cut];
+		}
+		result.append(text1, pointer, diffs.getOffset(index) +
+			diffs.getLength(index));
+		return result.toString();
+	}
+}
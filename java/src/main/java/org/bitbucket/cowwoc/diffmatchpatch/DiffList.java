@@ -0,0 +1,464 @@
+/*
+ * Diff Match and Patch
+ * Copyright 2018 The diff-match-patch Authors.
+ * https://github.com/google/diff-match-patch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bitbucket.cowwoc.diffmatchpatch;
+
+import org.bitbucket.cowwoc.diffmatchpatch.DiffMatchPatch.Diff;
+import org.bitbucket.cowwoc.diffmatchpatch.DiffMatchPatch.Operation;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A compact diff, as returned by {@link DiffMatchPatch#diffMainCompact}.
+ * <p>
+ * Instead of one {@code Diff} and one {@code String} per operation, the list
+ * stores an operation byte and the offset and length of its text, which is a
+ * range of the old text for equalities and deletions and a range of the new
+ * text for insertions. Text is only extracted from the two texts when it is
+ * asked for.
+ * <p>
+ * The list can be read as a {@code List<Diff>}, but it cannot be modified
+ * through that interface and every {@link #get(int)} returns a new
+ * {@code Diff}. It is modified in place by the {@code diffCleanup*} methods
+ * of {@link DiffMatchPatch}. Use {@link #toLinkedList()} to get a list in the
+ * usual representation.
+ * <p>
+ * Diff lists are not thread-safe.
+ */
+public final class DiffList extends AbstractList<Diff> implements RandomAccess
+{
+	private static final Operation[] OPERATIONS = Operation.values();
+
+	private final String text1;
+	private final String text2;
+	private byte[] operations;
+	private int[] offsets;
+	private int[] lengths;
+	private int size;
+
+	/**
+	 * Constructor. Initializes an empty list.
+	 *
+	 * @param text1    Old text.
+	 * @param text2    New text.
+	 * @param capacity The initial capacity.
+	 */
+	DiffList(String text1, String text2, int capacity)
+	{
+		this.text1 = text1;
+		this.text2 = text2;
+		capacity = Math.max(1, capacity);
+		this.operations = new byte[capacity];
+		this.offsets = new int[capacity];
+		this.lengths = new int[capacity];
+	}
+
+	/**
+	 * Returns a compact copy of a diff.
+	 *
+	 * @param diffs List of Diff objects.
+	 * @return A new list.
+	 */
+	public static DiffList of(List<Diff> diffs)
+	{
+		if (diffs == null)
+		{
+			throw new IllegalArgumentException("Null inputs. (DiffList)");
+		}
+		if (diffs instanceof DiffList)
+		{
+			DiffList list = (DiffList) diffs;
+			DiffList copy = new DiffList(list.text1, list.text2, list.size);
+			copy.setAll(list);
+			return copy;
+		}
+		// Rebuild the texts that the diff transforms.
+		StringBuilder text1 = new StringBuilder();
+		StringBuilder text2 = new StringBuilder();
+		for (Diff diff : diffs)
+		{
+			if (diff.operation != Operation.INSERT)
+			{
+				text1.append(diff.text);
+			}
+			if (diff.operation != Operation.DELETE)
+			{
+				text2.append(diff.text);
+			}
+		}
+		return of(text1.toString(), text2.toString(), diffs);
+	}
+
+	/**
+	 * Returns a compact copy of a diff that transforms text1 into text2.
+	 *
+	 * @param text1 Old text.
+	 * @param text2 New text.
+	 * @param diffs List of Diff objects. Must rebuild text1 from its equalities
+	 *              and deletions and text2 from its equalities and insertions.
+	 * @return A new list.
+	 */
+	static DiffList of(String text1, String text2, List<Diff> diffs)
+	{
+		DiffList list = new DiffList(text1, text2, diffs.size());
+		list.setAll(diffs);
+		return list;
+	}
+
+	/**
+	 * Replace the contents of this list. The diff must transform the same
+	 * texts.
+	 *
+	 * @param diffs List of Diff objects.
+	 */
+	void setAll(List<Diff> diffs)
+	{
+		size = 0;
+		if (diffs instanceof DiffList)
+		{
+			appendAll((DiffList) diffs);
+			return;
+		}
+		appendAll(diffs, 0, 0);
+	}
+
+	/**
+	 * Append the operations of another list over the same texts.
+	 *
+	 * @param diffs Compact list of diffs.
+	 */
+	void appendAll(DiffList diffs)
+	{
+		ensureCapacity(size + diffs.size);
+		System.arraycopy(diffs.operations, 0, operations, size, diffs.size);
+		System.arraycopy(diffs.offsets, 0, offsets, size, diffs.size);
+		System.arraycopy(diffs.lengths, 0, lengths, size, diffs.size);
+		size += diffs.size;
+	}
+
+	/**
+	 * Append a diff of a range of each text.
+	 *
+	 * @param diffs  List of Diff objects. Must rebuild the range of text1 from
+	 *               its equalities and deletions and the range of text2 from
+	 *               its equalities and insertions.
+	 * @param start1 Index of the first character of the range in text1.
+	 * @param start2 Index of the first character of the range in text2.
+	 */
+	void appendAll(List<Diff> diffs, int start1, int start2)
+	{
+		ensureCapacity(size + diffs.size());
+		int pointer1 = start1;
+		int pointer2 = start2;
+		for (Diff diff : diffs)
+		{
+			int length = diff.text.length();
+			switch (diff.operation)
+			{
+				case INSERT:
+					append(Operation.INSERT, pointer2, length);
+					pointer2 += length;
+					break;
+				case DELETE:
+					append(Operation.DELETE, pointer1, length);
+					pointer1 += length;
+					break;
+				case EQUAL:
+					append(Operation.EQUAL, pointer1, length);
+					pointer1 += length;
+					pointer2 += length;
+					break;
+			}
+		}
+	}
+
+	/**
+	 * Append an operation.
+	 *
+	 * @param operation The operation.
+	 * @param offset    Index of its first character in text1, or text2 for
+	 *                  insertions.
+	 * @param length    The number of characters.
+	 */
+	void append(Operation operation, int offset, int length)
+	{
+		ensureCapacity(size + 1);
+		operations[size] = (byte) operation.ordinal();
+		offsets[size] = offset;
+		lengths[size] = length;
+		++size;
+	}
+
+	/**
+	 * Replace the text range of an operation.
+	 *
+	 * @param index  The index of the operation.
+	 * @param offset Index of its first character in text1, or text2 for
+	 *               insertions.
+	 * @param length The number of characters.
+	 */
+	void set(int index, int offset, int length)
+	{
+		checkIndex(index);
+		offsets[index] = offset;
+		lengths[index] = length;
+	}
+
+	/**
+	 * Replace an operation.
+	 *
+	 * @param index     The index of the operation.
+	 * @param operation The new operation.
+	 * @param offset    Index of its first character in text1, or text2 for
+	 *                  insertions.
+	 * @param length    The number of characters.
+	 */
+	void set(int index, Operation operation, int offset, int length)
+	{
+		checkIndex(index);
+		operations[index] = (byte) operation.ordinal();
+		offsets[index] = offset;
+		lengths[index] = length;
+	}
+
+	/**
+	 * Remove the operations after an index.
+	 *
+	 * @param size The number of operations to keep.
+	 */
+	void truncate(int size)
+	{
+		this.size = size;
+	}
+
+	/**
+	 * Remove operations, keeping the order of the others.
+	 *
+	 * @param removed {@code removed[i]} is true if the operation at index
+	 *                {@code i} must be removed.
+	 */
+	void compact(boolean[] removed)
+	{
+		int count = 0;
+		for (int i = 0; i < size; i++)
+		{
+			if (!removed[i])
+			{
+				operations[count] = operations[i];
+				offsets[count] = offsets[i];
+				lengths[count] = lengths[i];
+				++count;
+			}
+		}
+		size = count;
+	}
+
+	/**
+	 * Indicates if this list holds the same operations as another list over
+	 * the same texts.
+	 *
+	 * @param other Compact list of diffs over the same texts.
+	 * @return True if the operations, offsets and lengths are equal.
+	 */
+	boolean sameAs(DiffList other)
+	{
+		return size == other.size && commonPrefix(other) == size;
+	}
+
+	/**
+	 * Count the operations that this list and another list over the same texts
+	 * have in common at their start.
+	 *
+	 * @param other Compact list of diffs over the same texts.
+	 * @return The number of equal operations.
+	 */
+	int commonPrefix(DiffList other)
+	{
+		int length = Math.min(size, other.size);
+		for (int i = 0; i < length; i++)
+		{
+			if (!sameAs(i, other, i))
+			{
+				return i;
+			}
+		}
+		return length;
+	}
+
+	/**
+	 * Count the operations that this list and another list over the same texts
+	 * have in common at their end.
+	 *
+	 * @param other  Compact list of diffs over the same texts.
+	 * @param length The maximum number of operations to compare.
+	 * @return The number of equal operations, at most {@code length}.
+	 */
+	int commonSuffix(DiffList other, int length)
+	{
+		for (int i = 1; i <= length; i++)
+		{
+			if (!sameAs(size - i, other, other.size - i))
+			{
+				return i - 1;
+			}
+		}
+		return Math.max(length, 0);
+	}
+
+	/**
+	 * Indicates if an operation of this list is the same as an operation of
+	 * another list over the same texts.
+	 *
+	 * @param index      The index of the operation.
+	 * @param other      Compact list of diffs over the same texts.
+	 * @param otherIndex The index of the operation in the other list.
+	 * @return True if the operations, offsets and lengths are equal.
+	 */
+	private boolean sameAs(int index, DiffList other, int otherIndex)
+	{
+		return operations[index] == other.operations[otherIndex] &&
+			offsets[index] == other.offsets[otherIndex] &&
+			lengths[index] == other.lengths[otherIndex];
+	}
+
+	/**
+	 * Grow the arrays to hold at least a number of operations.
+	 *
+	 * @param capacity The number of operations.
+	 */
+	private void ensureCapacity(int capacity)
+	{
+		if (capacity > operations.length)
+		{
+			capacity = Math.max(capacity, operations.length + (operations.length >> 1));
+			operations = Arrays.copyOf(operations, capacity);
+			offsets = Arrays.copyOf(offsets, capacity);
+			lengths = Arrays.copyOf(lengths, capacity);
+		}
+	}
+
+	/**
+	 * Throws an exception if an index is out of bounds.
+	 *
+	 * @param index The index of an operation.
+	 */
+	private void checkIndex(int index)
+	{
+		if (index < 0 || index >= size)
+		{
+			throw new IndexOutOfBoundsException("index: " + index + ", size: " +
+				size);
+		}
+	}
+
+	/**
+	 * Returns the source text (all equalities and deletions).
+	 *
+	 * @return Source text.
+	 */
+	public String getText1()
+	{
+		return text1;
+	}
+
+	/**
+	 * Returns the destination text (all equalities and insertions).
+	 *
+	 * @return Destination text.
+	 */
+	public String getText2()
+	{
+		return text2;
+	}
+
+	/**
+	 * Returns the operation at an index.
+	 *
+	 * @param index The index of the operation.
+	 * @return One of INSERT, DELETE or EQUAL.
+	 */
+	public Operation getOperation(int index)
+	{
+		checkIndex(index);
+		return OPERATIONS[operations[index]];
+	}
+
+	/**
+	 * Returns the offset of the text of an operation.
+	 *
+	 * @param index The index of the operation.
+	 * @return Index of its first character in the source text, or in the
+	 * destination text for insertions.
+	 */
+	public int getOffset(int index)
+	{
+		checkIndex(index);
+		return offsets[index];
+	}
+
+	/**
+	 * Returns the length of the text of an operation.
+	 *
+	 * @param index The index of the operation.
+	 * @return The number of characters.
+	 */
+	public int getLength(int index)
+	{
+		checkIndex(index);
+		return lengths[index];
+	}
+
+	/**
+	 * Returns the text of an operation.
+	 *
+	 * @param index The index of the operation.
+	 * @return The text.
+	 */
+	public String getText(int index)
+	{
+		checkIndex(index);
+		String text = operations[index] == Operation.INSERT.ordinal() ? text2 :
+			text1;
+		return text.substring(offsets[index], offsets[index] + lengths[index]);
+	}
+
+	@Override
+	public Diff get(int index)
+	{
+		return new Diff(getOperation(index), getText(index));
+	}
+
+	@Override
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Returns a copy of this list in the usual representation.
+	 *
+	 * @return Linked List of Diff objects.
+	 */
+	public LinkedList<Diff> toLinkedList()
+	{
+		return new LinkedList<>(this);
+	}
+}
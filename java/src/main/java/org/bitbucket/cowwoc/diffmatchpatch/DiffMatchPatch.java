@@ -29,6 +29,9 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -46,6 +49,17 @@ import java.util.regex.Pattern;
  */
 public final class DiffMatchPatch
 {
+	/**
+	 * The shortest common substring around which {@code diffSplitThreshold}
+	 * splits a diff.
+	 */
+	private static final int SPLIT_MIN_LENGTH = 32;
+	/**
+	 * Patterns of at most this many characters are searched for with
+	 * {@code String.indexOf}, whose cost per character they bound.
+	 */
+	private static final int SHORT_PATTERN_LENGTH = 64;
+
 	// Defaults.
 	// Set these on your DiffMatchPatch instance to override the defaults.
 
@@ -57,6 +71,38 @@ public final class DiffMatchPatch
 	 * Cost of an empty edit operation in terms of edit characters.
 	 */
 	public short diffEditCost = 4;
+	/**
+	 * Algorithm used to diff the texts once their common prefix and suffix are
+	 * stripped off.
+	 */
+	public DiffAlgorithm diffAlgorithm = DiffAlgorithm.MYERS;
+	/**
+	 * Tokens diffed by the {@code checklines} speedup to identify the changed
+	 * areas. Lines by default; {@link DiffTokenizer#WORDS} suits prose with few
+	 * line breaks.
+	 */
+	public DiffTokenizer diffTokenizer = DiffTokenizer.LINES;
+	/**
+	 * Pairs of texts whose longer member is at least this long and that have no
+	 * half-match are split around their longest common substring (found with a
+	 * suffix automaton of the shorter text, in linear time and space) before
+	 * they are bisected, as long as that substring is at least
+	 * {@code SPLIT_MIN_LENGTH} characters long. Speeds up huge diffs with many
+	 * edits at the price of minimality, even without a {@code diffTimeout}.
+	 * 0 disables it.
+	 */
+	public int diffSplitThreshold = 0;
+	/**
+	 * Pool used to diff independent halves of a problem in parallel
+	 * (null for serial). Diffs under a budget with a work limit are always
+	 * computed serially so that they stay reproducible.
+	 */
+	public ForkJoinPool diffForkJoinPool = null;
+	/**
+	 * Minimum combined length of the texts in each half before the halves are
+	 * diffed in parallel. Smaller problems are always computed serially.
+	 */
+	public int diffParallelThreshold = 10000;
 	/**
 	 * At what point is no match declared (0.0 = perfection, 1.0 = very loose).
 	 */
@@ -78,11 +124,14 @@ public final class DiffMatchPatch
 	 * Chunk size for context length.
 	 */
 	public short patchMargin = 4;
-
 	/**
-	 * The number of bits in an int.
+	 * Longest pattern that patches are matched with, which bounds the context
+	 * of a patch and the size of patches after {@code patchSplitMax}. The match
+	 * algorithm takes patterns of any length; 32 keeps patches compatible with
+	 * other implementations, 64 still searches with one {@code long} per
+	 * position. Must exceed twice the {@code patchMargin}.
 	 */
-	private static final short MATCH_MAX_BITS = 32;
+	public short matchMaxBits = 32;
 
 	/**
 	 * Internal class for returning results from diffLinesToChars().
@@ -144,243 +193,470 @@ public final class DiffMatchPatch
 	public LinkedList<Diff> diffMain(String text1, String text2,
 	                                 boolean checklines)
 	{
-		// Set a deadline by which time the diff must be complete.
-		long deadline;
-		if (diffTimeout <= 0)
+		return diffMain(text1, text2, checklines, diffAlgorithm);
+	}
+
+	/**
+	 * Find the differences between two texts using a specific algorithm.
+	 *
+	 * @param text1      Old string to be diffed.
+	 * @param text2      New string to be diffed.
+	 * @param checklines Speedup flag. If false, then don't run a
+	 *                   line-level diff first to identify the changed areas.
+	 *                   If true, then run a faster slightly less optimal diff.
+	 * @param algorithm  The algorithm to use instead of {@code diffAlgorithm}.
+	 * @return Linked List of Diff objects.
+	 */
+	public LinkedList<Diff> diffMain(String text1, String text2,
+	                                 boolean checklines, DiffAlgorithm algorithm)
+	{
+		return diffMain(text1, text2, checklines, diffBudget(), algorithm);
+	}
+
+	/**
+	 * Find the differences between two texts within a budget. Running out of
+	 * time or work units returns a valid but less optimal diff; cancelling the
+	 * budget aborts the diff.
+	 *
+	 * @param text1      Old string to be diffed.
+	 * @param text2      New string to be diffed.
+	 * @param checklines Speedup flag. If false, then don't run a
+	 *                   line-level diff first to identify the changed areas.
+	 *                   If true, then run a faster slightly less optimal diff.
+	 * @param budget     Limits the effort spent on the diff, instead of
+	 *                   {@code diffTimeout}.
+	 * @return Linked List of Diff objects.
+	 * @throws java.util.concurrent.CancellationException If the budget is
+	 *                                                    cancelled.
+	 */
+	public LinkedList<Diff> diffMain(String text1, String text2,
+	                                 boolean checklines, DiffBudget budget)
+	{
+		if (budget == null)
 		{
-			deadline = Long.MAX_VALUE;
+			throw new IllegalArgumentException("Null inputs. (diffMain)");
 		}
-		else
+		return diffMain(text1, text2, checklines, budget, diffAlgorithm);
+	}
+
+	/**
+	 * Returns the budget of an operation that is only limited by
+	 * {@code diffTimeout}.
+	 *
+	 * @return A new budget.
+	 */
+	private DiffBudget diffBudget()
+	{
+		// Set a deadline by which time the diff must be complete.
+		if (diffTimeout <= 0)
 		{
-			deadline = System.currentTimeMillis() + (long) (diffTimeout * 1000);
+			return new DiffBudget();
 		}
-		return diffMain(text1, text2, checklines, deadline);
+		return DiffBudget.until(System.currentTimeMillis() +
+			(long) (diffTimeout * 1000));
 	}
 
 	/**
-	 * Find the differences between two texts. Simplifies the problem by
-	 * stripping any common prefix or suffix off the texts before diffing.
+	 * Find the differences between two texts using a specific algorithm.
 	 *
 	 * @param text1      Old string to be diffed.
 	 * @param text2      New string to be diffed.
 	 * @param checklines Speedup flag. If false, then don't run a
 	 *                   line-level diff first to identify the changed areas.
 	 *                   If true, then run a faster slightly less optimal diff.
-	 * @param deadline   Time when the diff should be complete by. Used
-	 *                   internally for recursive calls. Users should set {@code diffTimeout} instead.
+	 * @param budget     Limits the effort spent on the diff.
+	 * @param algorithm  The algorithm that diffs the middle block.
 	 * @return Linked List of {@code Diff} objects.
 	 */
 	private LinkedList<Diff> diffMain(String text1, String text2,
-	                                  boolean checklines, long deadline)
+	                                  boolean checklines, DiffBudget budget,
+	                                  DiffAlgorithm algorithm)
 	{
 		// Check for null inputs.
-		if (text1 == null || text2 == null)
+		if (text1 == null || text2 == null || algorithm == null)
 		{
 			throw new IllegalArgumentException("Null inputs. (diffMain)");
 		}
+		return diffMain(text1, 0, text1.length(), text2, 0, text2.length(),
+			checklines, budget, algorithm);
+	}
 
-		// Check for equality (speedup).
-		LinkedList<Diff> diffs;
-		if (text1.equals(text2))
-		{
-			diffs = new LinkedList<>();
-			if (text1.length() != 0)
-			{
-				diffs.add(new Diff(Operation.EQUAL, text1));
-			}
-			return diffs;
-		}
-
-		// Trim off common prefix (speedup).
-		int commonlength = diffCommonPrefix(text1, text2);
-		String commonprefix = text1.substring(0, commonlength);
-		text1 = text1.substring(commonlength);
-		text2 = text2.substring(commonlength);
-
-		// Trim off common suffix (speedup).
-		commonlength = diffCommonSuffix(text1, text2);
-		String commonsuffix = text1.substring(text1.length() - commonlength);
-		text1 = text1.substring(0, text1.length() - commonlength);
-		text2 = text2.substring(0, text2.length() - commonlength);
-
-		// Compute the diff on the middle block.
-		diffs = diffCompute(text1, text2, checklines, deadline);
+	/**
+	 * Find the differences between a range of one text and a range of another
+	 * using Myers' algorithm.
+	 *
+	 * @param text1      Old string to be diffed.
+	 * @param start1     Index of the first character of the range in text1.
+	 * @param end1       Index after the last character of the range in text1.
+	 * @param text2      New string to be diffed.
+	 * @param start2     Index of the first character of the range in text2.
+	 * @param end2       Index after the last character of the range in text2.
+	 * @param checklines Speedup flag. If false, then don't run a
+	 *                   line-level diff first to identify the changed areas.
+	 *                   If true, then run a faster slightly less optimal diff.
+	 * @param budget     Limits the effort spent on the diff.
+	 * @return Linked List of {@code Diff} objects.
+	 */
+	LinkedList<Diff> diffMain(String text1, int start1, int end1, String text2,
+	                          int start2, int end2, boolean checklines,
+	                          DiffBudget budget)
+	{
+		return diffMain(text1, start1, end1, text2, start2, end2, checklines,
+			budget, DiffAlgorithm.MYERS);
+	}
 
-		// Restore the prefix and suffix.
-		if (commonprefix.length() != 0)
-		{
-			diffs.addFirst(new Diff(Operation.EQUAL, commonprefix));
-		}
-		if (commonsuffix.length() != 0)
-		{
-			diffs.addLast(new Diff(Operation.EQUAL, commonsuffix));
-		}
+	/**
+	 * Find the differences between a range of one text and a range of another.
+	 * Simplifies the problem by stripping any common prefix or suffix off the
+	 * ranges before diffing.
+	 * The ranges are never copied; text is only extracted from the original
+	 * strings once it is handed to a {@code Diff}.
+	 *
+	 * @param text1      Old string to be diffed.
+	 * @param start1     Index of the first character of the range in text1.
+	 * @param end1       Index after the last character of the range in text1.
+	 * @param text2      New string to be diffed.
+	 * @param start2     Index of the first character of the range in text2.
+	 * @param end2       Index after the last character of the range in text2.
+	 * @param checklines Speedup flag. If false, then don't run a
+	 *                   line-level diff first to identify the changed areas.
+	 *                   If true, then run a faster slightly less optimal diff.
+	 * @param budget     Limits the effort spent on the diff.
+	 * @param algorithm  The algorithm that diffs the middle block.
+	 * @return Linked List of {@code Diff} objects.
+	 */
+	private LinkedList<Diff> diffMain(String text1, int start1, int end1,
+	                                  String text2, int start2, int end2,
+	                                  boolean checklines, DiffBudget budget,
+	                                  DiffAlgorithm algorithm)
+	{
+		return diffMainCompact(text1, start1, end1, text2, start2, end2,
+			checklines, budget, algorithm).toLinkedList();
+	}
 
-		diffCleanupMerge(diffs);
-		return diffs;
+	/**
+	 * Find the differences between a range of one text and a range of another,
+	 * as a compact list over the two texts.
+	 *
+	 * @param text1      Old string to be diffed.
+	 * @param start1     Index of the first character of the range in text1.
+	 * @param end1       Index after the last character of the range in text1.
+	 * @param text2      New string to be diffed.
+	 * @param start2     Index of the first character of the range in text2.
+	 * @param end2       Index after the last character of the range in text2.
+	 * @param checklines Speedup flag. If false, then don't run a
+	 *                   line-level diff first to identify the changed areas.
+	 *                   If true, then run a faster slightly less optimal diff.
+	 * @param budget     Limits the effort spent on the diff.
+	 * @param algorithm  The algorithm that diffs the middle block.
+	 * @return Compact list of diffs.
+	 */
+	private DiffList diffMainCompact(String text1, int start1, int end1,
+	                                 String text2, int start2, int end2,
+	                                 boolean checklines, DiffBudget budget,
+	                                 DiffAlgorithm algorithm)
+	{
+		DiffDriver driver = new DiffDriver(DiffSource.of(text1, text2), budget,
+			algorithm);
+		driver.diffMain(start1, end1, start2, end2, checklines);
+		return driver.run();
 	}
 
 	/**
-	 * Find the differences between two texts. Assumes that the texts do not
-	 * have any common prefix or suffix.
+	 * Find the differences between two ranges of text. Assumes that the ranges
+	 * do not have any common prefix or suffix.
 	 *
 	 * @param text1      Old string to be diffed.
+	 * @param start1     Index of the first character of the range in text1.
+	 * @param end1       Index after the last character of the range in text1.
 	 * @param text2      New string to be diffed.
+	 * @param start2     Index of the first character of the range in text2.
+	 * @param end2       Index after the last character of the range in text2.
 	 * @param checklines Speedup flag. If false, then don't run a
 	 *                   line-level diff first to identify the changed areas.
 	 *                   If true, then run a faster slightly less optimal diff.
-	 * @param deadline   Time when the diff should be complete by.
+	 * @param budget     Limits the effort spent on the diff.
 	 * @return Linked List of Diff objects.
+	 * @see DiffAlgorithm#MYERS
 	 */
-	private LinkedList<Diff> diffCompute(String text1, String text2,
-	                                     boolean checklines, long deadline)
+	LinkedList<Diff> diffCompute(String text1, int start1, int end1,
+	                             String text2, int start2, int end2,
+	                             boolean checklines, DiffBudget budget)
 	{
-		LinkedList<Diff> diffs = new LinkedList<>();
+		DiffDriver driver = new DiffDriver(DiffSource.of(text1, text2), budget,
+			DiffAlgorithm.MYERS);
+		driver.diffCompute(start1, end1, start2, end2, checklines);
+		return driver.run().toLinkedList();
+	}
+
+	/**
+	 * Find the differences between two texts, as a compact list.
+	 *
+	 * @param text1 Old string to be diffed.
+	 * @param text2 New string to be diffed.
+	 * @return Compact list of diffs.
+	 */
+	public DiffList diffMainCompact(String text1, String text2)
+	{
+		return diffMainCompact(text1, text2, true);
+	}
 
-		if (text1.length() == 0)
+	/**
+	 * Find the differences between two texts, as a compact list. The diffs
+	 * refer to ranges of the texts instead of holding copies of them.
+	 *
+	 * @param text1      Old string to be diffed.
+	 * @param text2      New string to be diffed.
+	 * @param checklines Speedup flag. If false, then don't run a
+	 *                   line-level diff first to identify the changed areas.
+	 *                   If true, then run a faster slightly less optimal diff.
+	 * @return Compact list of diffs.
+	 */
+	public DiffList diffMainCompact(String text1, String text2,
+	                                boolean checklines)
+	{
+		// Check for null inputs.
+		if (text1 == null || text2 == null || diffAlgorithm == null)
 		{
-			// Just add some text (speedup).
-			diffs.add(new Diff(Operation.INSERT, text2));
-			return diffs;
+			throw new IllegalArgumentException("Null inputs. (diffMainCompact)");
 		}
+		return diffMainCompact(text1, 0, text1.length(), text2, 0,
+			text2.length(), checklines, diffBudget(), diffAlgorithm);
+	}
 
-		if (text2.length() == 0)
+	/**
+	 * Find the differences between two texts progressively: diff the lines (or
+	 * {@code diffTokenizer} tokens) first, then rediff the changed blocks
+	 * character-by-character, smallest first, until the budget runs out.
+	 * Blocks that weren't rediffed are left as a deletion and an insertion, and
+	 * can be refined later. Even when fully refined, the result may differ from
+	 * {@code diffMain}'s since changes are never rediffed across an equal
+	 * line.
+	 *
+	 * @param text1  Old string to be diffed.
+	 * @param text2  New string to be diffed.
+	 * @param budget Limits the effort spent on the diff, instead of
+	 *               {@code diffTimeout}.
+	 * @return The diff, refined as far as the budget allowed.
+	 * @throws java.util.concurrent.CancellationException If the budget is
+	 *                                                    cancelled.
+	 */
+	public ProgressiveDiff diffProgressive(String text1, String text2,
+	                                       DiffBudget budget)
+	{
+		// Check for null inputs.
+		if (text1 == null || text2 == null || budget == null)
 		{
-			// Just delete some text (speedup).
-			diffs.add(new Diff(Operation.DELETE, text1));
-			return diffs;
+			throw new IllegalArgumentException("Null inputs. (diffProgressive)");
 		}
-
-		String longtext = text1.length() > text2.length() ? text1 : text2;
-		String shorttext = text1.length() > text2.length() ? text2 : text1;
-		int i = longtext.indexOf(shorttext);
-		if (i != -1)
+		LinkedList<Diff> diffs = new LinkedList<>();
+		int end1 = text1.length();
+		int end2 = text2.length();
+		int prefixLength = diffCommonPrefix(text1, 0, end1, text2, 0, end2);
+		int suffixLength = diffCommonSuffix(text1, prefixLength, end1, text2,
+			prefixLength, end2);
+		end1 -= suffixLength;
+		end2 -= suffixLength;
+		if (prefixLength != 0)
 		{
-			// Shorter text is inside the longer text (speedup).
-			Operation op = (text1.length() > text2.length()) ?
-				Operation.DELETE : Operation.INSERT;
-			diffs.add(new Diff(op, longtext.substring(0, i)));
-			diffs.add(new Diff(Operation.EQUAL, shorttext));
-			diffs.add(new Diff(op, longtext.substring(i + shorttext.length())));
-			return diffs;
+			diffs.add(new Diff(Operation.EQUAL, text1.substring(0, prefixLength)));
 		}
-
-		if (shorttext.length() == 1)
+		if (prefixLength == end1 || prefixLength == end2)
 		{
-			// Single character string.
-			// After the previous speedup, the character can't be an equality.
-			diffs.add(new Diff(Operation.DELETE, text1));
-			diffs.add(new Diff(Operation.INSERT, text2));
-			return diffs;
+			diffs.add(new Diff(Operation.DELETE, text1.substring(prefixLength,
+				end1)));
+			diffs.add(new Diff(Operation.INSERT, text2.substring(prefixLength,
+				end2)));
 		}
-
-		// Check to see if the problem can be split in two.
-		String[] hm = diffHalfMatch(text1, text2);
-		if (hm != null)
+		else
 		{
-			// A half-match was found, sort out the return data.
-			String text1a = hm[0];
-			String text1b = hm[1];
-			String text2a = hm[2];
-			String text2b = hm[3];
-			String midCommon = hm[4];
-			// Send both pairs off for separate processing.
-			LinkedList<Diff> diffsA = diffMain(text1a, text2a,
-				checklines, deadline);
-			LinkedList<Diff> diffsB = diffMain(text1b, text2b,
-				checklines, deadline);
-			// Merge the results.
-			diffs = diffsA;
-			diffs.add(new Diff(Operation.EQUAL, midCommon));
-			diffs.addAll(diffsB);
-			return diffs;
+			TextTokens tokens = new TextTokens(text1, prefixLength, end1, text2,
+				prefixLength, end2, diffTokenizer);
+			// Unlike diffMain's line mode, keep freak matches (e.g. blank lines):
+			// every equality splits the changes into smaller blocks that are
+			// quicker to refine.
+			diffs.addAll(diffTokens(tokens, text1, text2, budget));
 		}
-
-		if (checklines && text1.length() > 100 && text2.length() > 100)
+		if (suffixLength != 0)
 		{
-			return diffLineMode(text1, text2, deadline);
+			diffs.add(new Diff(Operation.EQUAL, text1.substring(end1)));
 		}
 
-		return diffBisect(text1, text2, deadline);
+		ProgressiveDiff diff = new ProgressiveDiff(this, text1, text2, diffs);
+		diff.refine(budget);
+		return diff;
 	}
 
 	/**
-	 * Do a quick line-level diff on both strings, then rediff the parts for
-	 * greater accuracy.
-	 * This speedup can produce non-minimal diffs.
+	 * Find the differences between two texts at the granularity of a
+	 * tokenizer: every edit covers whole tokens, and no character-level diff is
+	 * run within replaced tokens.
+	 *
+	 * @param text1     Old string to be diffed.
+	 * @param text2     New string to be diffed.
+	 * @param tokenizer Splits the texts into tokens.
+	 * @return Linked List of Diff objects.
+	 */
+	public LinkedList<Diff> diffTokens(String text1, String text2,
+	                                   DiffTokenizer tokenizer)
+	{
+		// Check for null inputs.
+		if (text1 == null || text2 == null || tokenizer == null)
+		{
+			throw new IllegalArgumentException("Null inputs. (diffTokens)");
+		}
+		DiffBudget budget = diffBudget();
+		TextTokens tokens = new TextTokens(text1, 0, text1.length(), text2, 0,
+			text2.length(), tokenizer);
+		return diffTokens(tokens, text1, text2, budget);
+	}
+
+	/**
+	 * Diff two texts split into tokens, and convert the result back to text.
 	 *
+	 * @param tokens   The tokens of a range of each text.
 	 * @param text1    Old string to be diffed.
 	 * @param text2    New string to be diffed.
-	 * @param deadline Time when the diff should be complete by.
+	 * @param budget   Limits the effort spent on the diff.
 	 * @return Linked List of Diff objects.
 	 */
-	private LinkedList<Diff> diffLineMode(String text1, String text2,
-	                                      long deadline)
+	private LinkedList<Diff> diffTokens(TextTokens tokens, String text1,
+	                                    String text2, DiffBudget budget)
 	{
-		// Scan the text on a line-by-line basis first.
-		LinesToCharsResult a = diffLinesToChars(text1, text2);
-		text1 = a.chars1;
-		text2 = a.chars2;
-		List<String> linearray = a.lineArray;
-
-		LinkedList<Diff> diffs = diffMain(text1, text2, false, deadline);
+		DiffDriver driver = new DiffDriver(DiffSource.of(tokens.tokens1,
+			tokens.tokens2), budget, DiffAlgorithm.MYERS);
+		driver.diffMain(0, tokens.tokens1.length, 0, tokens.tokens2.length, false);
+		DiffList tokenDiffs = driver.run();
 
 		// Convert the diff back to original text.
-		diffCharsToLines(diffs, linearray);
-		// Eliminate freak matches (e.g. blank lines)
-		diffCleanupSemantic(diffs);
-
-		// Rediff any replacement blocks, this time character-by-character.
-		// Add a dummy entry at the end.
-		diffs.add(new Diff(Operation.EQUAL, ""));
-		int countDelete = 0;
-		int countInsert = 0;
-		String textDelete = "";
-		String textInsert = "";
-		ListIterator<Diff> pointer = diffs.listIterator();
-		Diff thisDiff = pointer.next();
-		while (thisDiff != null)
+		LinkedList<Diff> diffs = new LinkedList<>();
+		for (int i = 0; i < tokenDiffs.size(); i++)
 		{
-			switch (thisDiff.operation)
+			int offset = tokenDiffs.getOffset(i);
+			int end = offset + tokenDiffs.getLength(i);
+			Operation operation = tokenDiffs.getOperation(i);
+			if (operation == Operation.INSERT)
 			{
-				case INSERT:
-					countInsert++;
-					textInsert += thisDiff.text;
-					break;
-				case DELETE:
-					countDelete++;
-					textDelete += thisDiff.text;
-					break;
-				case EQUAL:
-					// Upon reaching an equality, check for prior redundancies.
-					if (countDelete >= 1 && countInsert >= 1)
-					{
-						// Delete the offending records and add the merged ones.
-						pointer.previous();
-						for (int j = 0; j < countDelete + countInsert; j++)
-						{
-							pointer.previous();
-							pointer.remove();
-						}
-						for (Diff newDiff : diffMain(textDelete, textInsert, false,
-							deadline))
-						{
-							pointer.add(newDiff);
-						}
-					}
-					countInsert = 0;
-					countDelete = 0;
-					textDelete = "";
-					textInsert = "";
-					break;
+				diffs.add(new Diff(operation, text2.substring(tokens.starts2[offset],
+					tokens.starts2[end])));
+			}
+			else
+			{
+				diffs.add(new Diff(operation, text1.substring(tokens.starts1[offset],
+					tokens.starts1[end])));
 			}
-			thisDiff = pointer.hasNext() ? pointer.next() : null;
 		}
-		diffs.removeLast();  // Remove the dummy entry at the end.
-
 		return diffs;
 	}
 
+	/**
+	 * Find the differences between two sequences of ints.
+	 *
+	 * @param seq1 Old sequence to be diffed.
+	 * @param seq2 New sequence to be diffed.
+	 * @return The edit script that turns seq1 into seq2.
+	 */
+	public List<Edit> diffSequences(int[] seq1, int[] seq2)
+	{
+		// Check for null inputs.
+		if (seq1 == null || seq2 == null)
+		{
+			throw new IllegalArgumentException("Null inputs. (diffSequences)");
+		}
+		return diffSequenceTokens(seq1, seq2);
+	}
+
+	/**
+	 * Find the differences between two sequences of longs.
+	 *
+	 * @param seq1 Old sequence to be diffed.
+	 * @param seq2 New sequence to be diffed.
+	 * @return The edit script that turns seq1 into seq2.
+	 */
+	public List<Edit> diffSequences(long[] seq1, long[] seq2)
+	{
+		// Check for null inputs.
+		if (seq1 == null || seq2 == null)
+		{
+			throw new IllegalArgumentException("Null inputs. (diffSequences)");
+		}
+		int[][] tokens = SequenceTokens.tokenize(seq1, seq2);
+		return diffSequenceTokens(tokens[0], tokens[1]);
+	}
+
+	/**
+	 * Find the differences between two lists, comparing their elements with
+	 * {@link Object#equals(Object)}.
+	 *
+	 * @param seq1 Old sequence to be diffed.
+	 * @param seq2 New sequence to be diffed.
+	 * @param <T>  The type of the elements.
+	 * @return The edit script that turns seq1 into seq2.
+	 */
+	public <T> List<Edit> diffSequences(List<? extends T> seq1,
+	                                    List<? extends T> seq2)
+	{
+		return diffSequences(seq1, seq2, Equivalence.EQUALS);
+	}
+
+	/**
+	 * Find the differences between two lists.
+	 *
+	 * @param seq1        Old sequence to be diffed.
+	 * @param seq2        New sequence to be diffed.
+	 * @param equivalence Decides which elements are equal.
+	 * @param <T>         The type of the elements.
+	 * @return The edit script that turns seq1 into seq2.
+	 */
+	public <T> List<Edit> diffSequences(List<? extends T> seq1,
+	                                    List<? extends T> seq2,
+	                                    Equivalence<? super T> equivalence)
+	{
+		// Check for null inputs.
+		if (seq1 == null || seq2 == null || equivalence == null)
+		{
+			throw new IllegalArgumentException("Null inputs. (diffSequences)");
+		}
+		int[][] tokens = SequenceTokens.<T>tokenize(seq1, seq2, equivalence);
+		return diffSequenceTokens(tokens[0], tokens[1]);
+	}
+
+	/**
+	 * Find the differences between two sequences of tokens on the engine of
+	 * {@code diffMain}, with its half-matches, timeout and
+	 * {@code diffForkJoinPool}.
+	 *
+	 * @param tokens1 Old sequence to be diffed.
+	 * @param tokens2 New sequence to be diffed.
+	 * @return The edit script that turns tokens1 into tokens2.
+	 */
+	private List<Edit> diffSequenceTokens(int[] tokens1, int[] tokens2)
+	{
+		DiffDriver driver = new DiffDriver(DiffSource.of(tokens1, tokens2),
+			diffBudget(), DiffAlgorithm.MYERS);
+		driver.diffMain(0, tokens1.length, 0, tokens2.length, false);
+		DiffList tokenDiffs = driver.run();
+
+		List<Edit> edits = new ArrayList<>(tokenDiffs.size());
+		int index1 = 0;
+		int index2 = 0;
+		for (int i = 0; i < tokenDiffs.size(); i++)
+		{
+			Operation operation = tokenDiffs.getOperation(i);
+			int length = tokenDiffs.getLength(i);
+			edits.add(new Edit(operation, index1, index2, length));
+			if (operation != Operation.INSERT)
+			{
+				index1 += length;
+			}
+			if (operation != Operation.DELETE)
+			{
+				index2 += length;
+			}
+		}
+		return edits;
+	}
+
 	/**
 	 * Find the 'middle snake' of a diff, split the problem in two
 	 * and return the recursively constructed diff.
@@ -393,20 +669,65 @@ public final class DiffMatchPatch
 	 */
 	protected LinkedList<Diff> diffBisect(String text1, String text2,
 	                                      long deadline)
+	{
+		return diffBisect(text1, 0, text1.length(), text2, 0, text2.length(),
+			DiffBudget.until(deadline));
+	}
+
+	/**
+	 * Find the 'middle snake' of a diff between two ranges of text, split the
+	 * problem in two and return the constructed diff.
+	 *
+	 * @param text1    Old string to be diffed.
+	 * @param start1   Index of the first character of the range in text1.
+	 * @param end1     Index after the last character of the range in text1.
+	 * @param text2    New string to be diffed.
+	 * @param start2   Index of the first character of the range in text2.
+	 * @param end2     Index after the last character of the range in text2.
+	 * @param budget   Limits the effort spent on the diff.
+	 * @return LinkedList of Diff objects.
+	 */
+	private LinkedList<Diff> diffBisect(String text1, int start1, int end1,
+	                                    String text2, int start2, int end2,
+	                                    DiffBudget budget)
+	{
+		DiffDriver driver = new DiffDriver(DiffSource.of(text1, text2), budget,
+			DiffAlgorithm.MYERS);
+		driver.diffBisect(start1, end1, start2, end2);
+		return driver.run().toLinkedList();
+	}
+
+	/**
+	 * Find the 'middle snake' of a diff between two ranges.
+	 *
+	 * @param source The sequences to be diffed.
+	 * @param start1 Index of the first element of the range in the first
+	 *               sequence.
+	 * @param end1   Index after the last element of the range in the first
+	 *               sequence.
+	 * @param start2 Index of the first element of the range in the second
+	 *               sequence.
+	 * @param end2   Index after the last element of the range in the second
+	 *               sequence.
+	 * @param budget Limits the effort spent on the diff.
+	 * @return The indexes in both sequences at which to split the problem in
+	 * two, or null if the budget ran out or the ranges have nothing in common.
+	 */
+	private static int[] diffMiddleSnake(DiffSource source, int start1,
+	                                     int end1, int start2, int end2,
+	                                     DiffBudget budget)
 	{
 		// Cache the text lengths to prevent multiple calls.
-		int text1Length = text1.length();
-		int text2Length = text2.length();
+		int text1Length = end1 - start1;
+		int text2Length = end2 - start2;
 		int maxD = (text1Length + text2Length + 1) / 2;
 		int vOffset = maxD;
 		int vLength = 2 * maxD;
-		int[] v1 = new int[vLength];
-		int[] v2 = new int[vLength];
-		for (int x = 0; x < vLength; x++)
-		{
-			v1[x] = -1;
-			v2[x] = -1;
-		}
+		// Both arrays are dead by the time the halves are diffed, so the thread's
+		// scratch arena can hand out the same storage to every bisection.
+		DiffScratch scratch = DiffScratch.current();
+		int[] v1 = scratch.bisectV1(vLength);
+		int[] v2 = scratch.bisectV2(vLength);
 		v1[vOffset + 1] = 0;
 		v2[vOffset + 1] = 0;
 		int delta = text1Length - text2Length;
@@ -419,13 +740,16 @@ public final class DiffMatchPatch
 		int k1end = 0;
 		int k2start = 0;
 		int k2end = 0;
+		// Work done since the budget was last charged.
+		long work = 0;
 		for (int d = 0; d < maxD; d++)
 		{
-			// Bail out if deadline is reached.
-			if (System.currentTimeMillis() > deadline)
+			// Bail out if the budget is exhausted.
+			if (!budget.spend(work))
 			{
 				break;
 			}
+			work = 0;
 
 			// Walk the front path one step.
 			for (int k1 = -d + k1start; k1 <= d - k1end; k1 += 2)
@@ -441,12 +765,11 @@ public final class DiffMatchPatch
 					x1 = v1[k1Offset - 1] + 1;
 				}
 				int y1 = x1 - k1;
-				while (x1 < text1Length && y1 < text2Length &&
-					text1.charAt(x1) == text2.charAt(y1))
-				{
-					x1++;
-					y1++;
-				}
+				int snake = source.commonPrefix(start1 + x1, start2 + y1,
+					Math.min(text1Length - x1, text2Length - y1));
+				work += snake + 1;
+				x1 += snake;
+				y1 += snake;
 				v1[k1Offset] = x1;
 				if (x1 > text1Length)
 				{
@@ -468,7 +791,10 @@ public final class DiffMatchPatch
 						if (x1 >= x2)
 						{
 							// Overlap detected.
-							return diffBisectSplit(text1, text2, x1, y1, deadline);
+							return new int[]
+								{
+									start1 + x1, start2 + y1
+								};
 						}
 					}
 				}
@@ -488,13 +814,11 @@ public final class DiffMatchPatch
 					x2 = v2[k2Offset - 1] + 1;
 				}
 				int y2 = x2 - k2;
-				while (x2 < text1Length && y2 < text2Length &&
-					text1.charAt(text1Length - x2 - 1) ==
-						text2.charAt(text2Length - y2 - 1))
-				{
-					x2++;
-					y2++;
-				}
+				int snake = source.commonSuffix(end1 - x2, end2 - y2,
+					Math.min(text1Length - x2, text2Length - y2));
+				work += snake + 1;
+				x2 += snake;
+				y2 += snake;
 				v2[k2Offset] = x2;
 				if (x2 > text1Length)
 				{
@@ -518,61 +842,836 @@ public final class DiffMatchPatch
 						if (x1 >= x2)
 						{
 							// Overlap detected.
-							return diffBisectSplit(text1, text2, x1, y1, deadline);
+							return new int[]
+								{
+									start1 + x1, start2 + y1
+								};
 						}
 					}
 				}
 			}
 		}
-		// Diff took too long and hit the deadline or
+		// Diff ran out of budget or
 		// number of diffs equals number of characters, no commonality at all.
-		LinkedList<Diff> diffs = new LinkedList<Diff>();
-		diffs.add(new Diff(Operation.DELETE, text1));
-		diffs.add(new Diff(Operation.INSERT, text2));
-		return diffs;
+		return null;
 	}
 
 	/**
-	 * Given the location of the 'middle snake', split the diff in two parts
-	 * and recurse.
+	 * Find the 'middle snake' of a diff between two ranges of two texts.
+	 * <p>
+	 * Same as {@link #diffMiddleSnake(DiffSource, int, int, int, int,
+	 * DiffBudget)}, but compares characters directly: once token diffs share
+	 * the source's comparisons, their branch profile slows this loop, the
+	 * hottest of a character diff, by about a quarter.
 	 *
-	 * @param text1    Old string to be diffed.
-	 * @param text2    New string to be diffed.
-	 * @param x        Index of split point in text1.
-	 * @param y        Index of split point in text2.
-	 * @param deadline Time at which to bail if not yet complete.
-	 * @return LinkedList of Diff objects.
+	 * @param text1  Old string to be diffed.
+	 * @param text2  New string to be diffed.
+	 * @param start1 Index of the first character of the range in text1.
+	 * @param end1   Index after the last character of the range in text1.
+	 * @param start2 Index of the first character of the range in text2.
+	 * @param end2   Index after the last character of the range in text2.
+	 * @param budget Limits the effort spent on the diff.
+	 * @return The indexes in both texts at which to split the problem in two,
+	 * or null if the budget ran out or the ranges have nothing in common.
 	 */
-	private LinkedList<Diff> diffBisectSplit(String text1, String text2,
-	                                         int x, int y, long deadline)
+	private static int[] diffMiddleSnake(String text1, String text2,
+	                                     int start1, int end1, int start2,
+	                                     int end2, DiffBudget budget)
 	{
-		String text1a = text1.substring(0, x);
-		String text2a = text2.substring(0, y);
-		String text1b = text1.substring(x);
-		String text2b = text2.substring(y);
-
-		// Compute both diffs serially.
-		LinkedList<Diff> diffs = diffMain(text1a, text2a, false, deadline);
-		LinkedList<Diff> diffsb = diffMain(text1b, text2b, false, deadline);
-
-		diffs.addAll(diffsb);
-		return diffs;
-	}
-
-	/**
-	 * Split two texts into a list of strings. Reduce the texts to a string of
-	 * hashes where each Unicode character represents one line.
-	 *
-	 * @param text1 First string.
-	 * @param text2 Second string.
-	 * @return An object containing the encoded text1, the encoded text2 and
-	 * the List of unique strings. The zeroth element of the List of
-	 * unique strings is intentionally blank.
+		// Cache the text lengths to prevent multiple calls.
+		int text1Length = end1 - start1;
+		int text2Length = end2 - start2;
+		int maxD = (text1Length + text2Length + 1) / 2;
+		int vOffset = maxD;
+		int vLength = 2 * maxD;
+		// Both arrays are dead by the time the halves are diffed, so the thread's
+		// scratch arena can hand out the same storage to every bisection.
+		DiffScratch scratch = DiffScratch.current();
+		int[] v1 = scratch.bisectV1(vLength);
+		int[] v2 = scratch.bisectV2(vLength);
+		v1[vOffset + 1] = 0;
+		v2[vOffset + 1] = 0;
+		int delta = text1Length - text2Length;
+		// If the total number of characters is odd, then the front path will
+		// collide with the reverse path.
+		boolean front = (delta % 2 != 0);
+		// Offsets for start and end of k loop.
+		// Prevents mapping of space beyond the grid.
+		int k1start = 0;
+		int k1end = 0;
+		int k2start = 0;
+		int k2end = 0;
+		// Work done since the budget was last charged.
+		long work = 0;
+		for (int d = 0; d < maxD; d++)
+		{
+			// Bail out if the budget is exhausted.
+			if (!budget.spend(work))
+			{
+				break;
+			}
+			work = 0;
+
+			// Walk the front path one step.
+			for (int k1 = -d + k1start; k1 <= d - k1end; k1 += 2)
+			{
+				int k1Offset = vOffset + k1;
+				int x1;
+				if (k1 == -d || (k1 != d && v1[k1Offset - 1] < v1[k1Offset + 1]))
+				{
+					x1 = v1[k1Offset + 1];
+				}
+				else
+				{
+					x1 = v1[k1Offset - 1] + 1;
+				}
+				int y1 = x1 - k1;
+				int snake = CharScan.commonPrefix(text1, start1 + x1, text2, start2 + y1,
+					Math.min(text1Length - x1, text2Length - y1));
+				work += snake + 1;
+				x1 += snake;
+				y1 += snake;
+				v1[k1Offset] = x1;
+				if (x1 > text1Length)
+				{
+					// Ran off the right of the graph.
+					k1end += 2;
+				}
+				else if (y1 > text2Length)
+				{
+					// Ran off the bottom of the graph.
+					k1start += 2;
+				}
+				else if (front)
+				{
+					int k2Offset = vOffset + delta - k1;
+					if (k2Offset >= 0 && k2Offset < vLength && v2[k2Offset] != -1)
+					{
+						// Mirror x2 onto top-left coordinate system.
+						int x2 = text1Length - v2[k2Offset];
+						if (x1 >= x2)
+						{
+							// Overlap detected.
+							return new int[]
+								{
+									start1 + x1, start2 + y1
+								};
+						}
+					}
+				}
+			}
+
+			// Walk the reverse path one step.
+			for (int k2 = -d + k2start; k2 <= d - k2end; k2 += 2)
+			{
+				int k2Offset = vOffset + k2;
+				int x2;
+				if (k2 == -d || (k2 != d && v2[k2Offset - 1] < v2[k2Offset + 1]))
+				{
+					x2 = v2[k2Offset + 1];
+				}
+				else
+				{
+					x2 = v2[k2Offset - 1] + 1;
+				}
+				int y2 = x2 - k2;
+				int snake = CharScan.commonSuffix(text1, end1 - x2, text2, end2 - y2,
+					Math.min(text1Length - x2, text2Length - y2));
+				work += snake + 1;
+				x2 += snake;
+				y2 += snake;
+				v2[k2Offset] = x2;
+				if (x2 > text1Length)
+				{
+					// Ran off the left of the graph.
+					k2end += 2;
+				}
+				else if (y2 > text2Length)
+				{
+					// Ran off the top of the graph.
+					k2start += 2;
+				}
+				else if (!front)
+				{
+					int k1Offset = vOffset + delta - k2;
+					if (k1Offset >= 0 && k1Offset < vLength && v1[k1Offset] != -1)
+					{
+						int x1 = v1[k1Offset];
+						int y1 = vOffset + x1 - k1Offset;
+						// Mirror x2 onto top-left coordinate system.
+						x2 = text1Length - x2;
+						if (x1 >= x2)
+						{
+							// Overlap detected.
+							return new int[]
+								{
+									start1 + x1, start2 + y1
+								};
+						}
+					}
+				}
+			}
+		}
+		// Diff ran out of budget or
+		// number of diffs equals number of characters, no commonality at all.
+		return null;
+	}
+
+	/**
+	 * Schedule the diff of the second of two independent pairs of ranges on
+	 * {@code diffForkJoinPool}, leaving the first pair to the calling thread.
+	 *
+	 * @param source     The sequences to be diffed.
+	 * @param start1     Index of the first element of the range in the first
+	 *                   sequence.
+	 * @param end1       Index after the last element of the range in the first
+	 *                   sequence.
+	 * @param start2     Index of the first element of the range in the second
+	 *                   sequence.
+	 * @param end2       Index after the last element of the range in the second
+	 *                   sequence.
+	 * @param lengthA    Combined length of the first pair of ranges.
+	 * @param checklines Speedup flag for the second pair.
+	 * @param budget     Limits the effort spent on the diff.
+	 * @return The task computing the second pair, or null if both pairs should
+	 * be computed serially.
+	 */
+	private DiffTask diffFork(DiffSource source, int start1, int end1,
+	                          int start2, int end2, int lengthA,
+	                          boolean checklines, DiffBudget budget)
+	{
+		ForkJoinPool pool = diffForkJoinPool;
+		if (pool == null || lengthA < diffParallelThreshold ||
+			end1 - start1 + end2 - start2 < diffParallelThreshold)
+		{
+			return null;
+		}
+		if (budget.getMaxWork() != Long.MAX_VALUE)
+		{
+			// Parallel halves would split the work units in whatever order the
+			// threads spend them, so the diff would no longer be reproducible.
+			return null;
+		}
+		DiffTask task = new DiffTask(source.fork(), start1, end1, start2, end2,
+			checklines, budget);
+		if (ForkJoinTask.getPool() == pool)
+		{
+			task.fork();
+		}
+		else
+		{
+			pool.execute(task);
+		}
+		return task;
+	}
+
+	/**
+	 * Fork-join task computing the diff of one pair of ranges.
+	 * Used by {@link #diffFork} to split independent subproblems across threads.
+	 */
+	private final class DiffTask extends RecursiveTask<DiffList>
+	{
+		private static final long serialVersionUID = 1L;
+		private final DiffSource source;
+		private final int start1;
+		private final int end1;
+		private final int start2;
+		private final int end2;
+		private final boolean checklines;
+		private final DiffBudget budget;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param source     The sequences to be diffed, for this task only.
+		 * @param start1     Index of the first element of the range in the first
+		 *                   sequence.
+		 * @param end1       Index after the last element of the range in the
+		 *                   first sequence.
+		 * @param start2     Index of the first element of the range in the second
+		 *                   sequence.
+		 * @param end2       Index after the last element of the range in the
+		 *                   second sequence.
+		 * @param checklines Speedup flag.
+		 * @param budget     Limits the effort spent on the diff.
+		 */
+		DiffTask(DiffSource source, int start1, int end1, int start2, int end2,
+		         boolean checklines, DiffBudget budget)
+		{
+			this.source = source;
+			this.start1 = start1;
+			this.end1 = end1;
+			this.start2 = start2;
+			this.end2 = end2;
+			this.checklines = checklines;
+			this.budget = budget;
+		}
+
+		@Override
+		protected DiffList compute()
+		{
+			DiffDriver driver = new DiffDriver(source, budget, DiffAlgorithm.MYERS);
+			driver.diffMain(start1, end1, start2, end2, checklines);
+			return driver.run();
+		}
+	}
+
+	/**
+	 * Iterative driver of the Myers engine, which diffs the characters of two
+	 * texts or two sequences of tokens (see {@link DiffSource}).
+	 * <p>
+	 * {@code diffMain}, {@code diffCompute} and {@code diffBisect} split a
+	 * problem around half-matches and middle snakes. Instead of recursing into
+	 * each other, building and concatenating a list per level, they push the
+	 * pieces onto an explicit stack of steps, and every diff is appended to a
+	 * single compact output list in order. The depth of a problem is therefore
+	 * only limited by the heap, not by the thread's stack (small on virtual
+	 * threads).
+	 * <p>
+	 * Each step is stored as {@code STEP_SIZE} ints: its kind, a range of the
+	 * first sequence, a range of the second sequence and one argument. The
+	 * line-mode speedup, {@code diffSplitThreshold} and algorithms other than
+	 * {@link DiffAlgorithm#MYERS} only apply to texts.
+	 */
+	private final class DiffDriver
+	{
+		/**
+		 * Diff two ranges (argument: checklines).
+		 */
+		private static final int MAIN = 0;
+		/**
+		 * Diff two ranges without a common prefix or suffix (argument:
+		 * checklines).
+		 */
+		private static final int COMPUTE = 1;
+		/**
+		 * Append the common suffix of a {@code MAIN} step (the range of the first
+		 * sequence) and merge the output from the index in the argument onwards.
+		 */
+		private static final int FINISH = 2;
+		/**
+		 * Append a diff of the range of the first sequence, or the second one for
+		 * insertions (argument: the ordinal of the operation).
+		 */
+		private static final int APPEND = 3;
+		/**
+		 * Append the result of the next forked task.
+		 */
+		private static final int JOIN = 4;
+		private static final int STEP_SIZE = 6;
+
+		private final DiffSource source;
+		/**
+		 * The texts, or null if the sequences are not texts.
+		 */
+		private final String text1;
+		private final String text2;
+		private final DiffBudget budget;
+		private DiffAlgorithm algorithm;
+		/**
+		 * The diffs. Over tokens, their offsets and lengths count tokens and the
+		 * list has no texts.
+		 */
+		private final DiffList output;
+		private final IntList steps = new IntList();
+		private final Deque<DiffTask> tasks = new ArrayDeque<>();
+
+		/**
+		 * Constructor.
+		 *
+		 * @param source    The sequences to be diffed.
+		 * @param budget    Limits the effort spent on the diff.
+		 * @param algorithm The algorithm that diffs the middle block of the first
+		 *                  {@code MAIN} step. Subproblems always use
+		 *                  {@link DiffAlgorithm#MYERS}.
+		 */
+		DiffDriver(DiffSource source, DiffBudget budget, DiffAlgorithm algorithm)
+		{
+			this.source = source;
+			this.text1 = source.getText1();
+			this.text2 = source.getText2();
+			this.budget = budget;
+			this.algorithm = algorithm;
+			this.output = new DiffList(text1, text2, 8);
+		}
+
+		/**
+		 * Run the pending steps.
+		 *
+		 * @return Compact list of diffs.
+		 */
+		DiffList run()
+		{
+			while (steps.size() != 0)
+			{
+				int argument = steps.pop();
+				int end2 = steps.pop();
+				int start2 = steps.pop();
+				int end1 = steps.pop();
+				int start1 = steps.pop();
+				switch (steps.pop())
+				{
+					case MAIN:
+						diffMain(start1, end1, start2, end2, argument != 0);
+						break;
+					case COMPUTE:
+						diffCompute(start1, end1, start2, end2, argument != 0);
+						break;
+					case FINISH:
+						if (start1 != end1)
+						{
+							output.append(Operation.EQUAL, start1, end1 - start1);
+						}
+						diffMerge(output, argument, source);
+						break;
+					case APPEND:
+						append(Operation.values()[argument], start1, end1, start2, end2);
+						break;
+					default:
+						output.appendAll(tasks.pop().join());
+						break;
+				}
+			}
+			return output;
+		}
+
+		/**
+		 * Push a step onto the stack. Steps run in the reverse order that they
+		 * are pushed.
+		 *
+		 * @param kind     The kind of step.
+		 * @param start1   Index of the first element of the range in the first
+		 *                 sequence.
+		 * @param end1     Index after the last element of the range in the first
+		 *                 sequence.
+		 * @param start2   Index of the first element of the range in the second
+		 *                 sequence.
+		 * @param end2     Index after the last element of the range in the
+		 *                 second sequence.
+		 * @param argument The argument of the step.
+		 */
+		private void push(int kind, int start1, int end1, int start2, int end2,
+		                  int argument)
+		{
+			steps.add(kind);
+			steps.add(start1);
+			steps.add(end1);
+			steps.add(start2);
+			steps.add(end2);
+			steps.add(argument);
+		}
+
+		/**
+		 * Append a diff to the output.
+		 *
+		 * @param operation The operation.
+		 * @param start1    Index of the first element of the range in the first
+		 *                  sequence.
+		 * @param end1      Index after the last element of the range in the
+		 *                  first sequence.
+		 * @param start2    Index of the first element of the range in the second
+		 *                  sequence.
+		 * @param end2      Index after the last element of the range in the
+		 *                  second sequence.
+		 */
+		private void append(Operation operation, int start1, int end1,
+		                    int start2, int end2)
+		{
+			if (operation == Operation.INSERT)
+			{
+				output.append(operation, start2, end2 - start2);
+			}
+			else
+			{
+				output.append(operation, start1, end1 - start1);
+			}
+		}
+
+		/**
+		 * Diff the second of two independent pairs of ranges after whatever is
+		 * pushed next: on {@code diffForkJoinPool} if it is large enough, or as a
+		 * {@code MAIN} step.
+		 *
+		 * @param start1     Index of the first element of the range in the first
+		 *                   sequence.
+		 * @param end1       Index after the last element of the range in the first
+		 *                   sequence.
+		 * @param start2     Index of the first element of the range in the second
+		 *                   sequence.
+		 * @param end2       Index after the last element of the range in the second
+		 *                   sequence.
+		 * @param lengthA    Combined length of the first pair of ranges.
+		 * @param checklines Speedup flag for the second pair.
+		 */
+		private void pushSecondHalf(int start1, int end1, int start2, int end2,
+		                            int lengthA, boolean checklines)
+		{
+			DiffTask task = diffFork(source, start1, end1, start2, end2, lengthA,
+				checklines, budget);
+			if (task == null)
+			{
+				push(MAIN, start1, end1, start2, end2, checklines ? 1 : 0);
+			}
+			else
+			{
+				tasks.push(task);
+				push(JOIN, 0, 0, 0, 0, 0);
+			}
+		}
+
+		/**
+		 * Diff two ranges. Simplifies the problem by stripping any common prefix
+		 * or suffix off the ranges before diffing.
+		 *
+		 * @param start1     Index of the first element of the range in the first
+		 *                   sequence.
+		 * @param end1       Index after the last element of the range in the first
+		 *                   sequence.
+		 * @param start2     Index of the first element of the range in the second
+		 *                   sequence.
+		 * @param end2       Index after the last element of the range in the second
+		 *                   sequence.
+		 * @param checklines Speedup flag.
+		 */
+		void diffMain(int start1, int end1, int start2, int end2,
+		              boolean checklines)
+		{
+			DiffAlgorithm middle = algorithm;
+			algorithm = DiffAlgorithm.MYERS;
+			// Trim off common prefix (speedup).
+			int prefixLength = source.commonPrefix(start1, start2,
+				Math.min(end1 - start1, end2 - start2));
+
+			// Check for equality (speedup).
+			if (prefixLength == end1 - start1 && prefixLength == end2 - start2)
+			{
+				if (prefixLength != 0)
+				{
+					append(Operation.EQUAL, start1, end1, start2, end2);
+				}
+				return;
+			}
+			// Everything from here on is merged once the suffix is restored.
+			int mark = output.size();
+			if (prefixLength != 0)
+			{
+				append(Operation.EQUAL, start1, start1 + prefixLength, start2,
+					start2 + prefixLength);
+			}
+			start1 += prefixLength;
+			start2 += prefixLength;
+
+			// Trim off common suffix (speedup).
+			int suffixLength = source.commonSuffix(end1, end2,
+				Math.min(end1 - start1, end2 - start2));
+			end1 -= suffixLength;
+			end2 -= suffixLength;
+			push(FINISH, end1, end1 + suffixLength, 0, 0, mark);
+
+			// Compute the diff on the middle block.
+			if (middle == DiffAlgorithm.MYERS)
+			{
+				push(COMPUTE, start1, end1, start2, end2, checklines ? 1 : 0);
+			}
+			else
+			{
+				output.appendAll(middle.diffCompute(DiffMatchPatch.this, text1,
+					start1, end1, text2, start2, end2, checklines, budget), start1,
+					start2);
+			}
+		}
+
+		/**
+		 * Diff two ranges that do not have any common prefix or suffix.
+		 *
+		 * @param start1     Index of the first element of the range in the first
+		 *                   sequence.
+		 * @param end1       Index after the last element of the range in the first
+		 *                   sequence.
+		 * @param start2     Index of the first element of the range in the second
+		 *                   sequence.
+		 * @param end2       Index after the last element of the range in the second
+		 *                   sequence.
+		 * @param checklines Speedup flag.
+		 */
+		void diffCompute(int start1, int end1, int start2, int end2,
+		                 boolean checklines)
+		{
+			int text1Length = end1 - start1;
+			int text2Length = end2 - start2;
+
+			if (text1Length == 0)
+			{
+				// Just add some text (speedup).
+				append(Operation.INSERT, start1, end1, start2, end2);
+				return;
+			}
+
+			if (text2Length == 0)
+			{
+				// Just delete some text (speedup).
+				append(Operation.DELETE, start1, end1, start2, end2);
+				return;
+			}
+
+			if (text1Length > text2Length)
+			{
+				int i = source.indexOf(false, start1, end1, start2, end2);
+				if (i != -1)
+				{
+					// Shorter text is inside the longer text (speedup).
+					append(Operation.DELETE, start1, i, start2, start2);
+					append(Operation.EQUAL, i, i + text2Length, start2, end2);
+					append(Operation.DELETE, i + text2Length, end1, end2, end2);
+					return;
+				}
+			}
+			else
+			{
+				int i = source.indexOf(true, start2, end2, start1, end1);
+				if (i != -1)
+				{
+					// Shorter text is inside the longer text (speedup).
+					append(Operation.INSERT, start1, start1, start2, i);
+					append(Operation.EQUAL, start1, end1, i, i + text1Length);
+					append(Operation.INSERT, end1, end1, i + text1Length, end2);
+					return;
+				}
+			}
+
+			if (text1Length == 1 || text2Length == 1)
+			{
+				// Single character string.
+				// After the previous speedup, the character can't be an equality.
+				append(Operation.DELETE, start1, end1, start2, end2);
+				append(Operation.INSERT, start1, end1, start2, end2);
+				return;
+			}
+
+			// Check to see if the problem can be split in two.
+			int[] hm = diffHalfMatch(source, start1, end1, start2, end2);
+			if (hm == null && text1 != null && diffSplitThreshold > 0 &&
+				Math.max(text1Length, text2Length) >= diffSplitThreshold)
+			{
+				// No half-match; settle for the longest common substring.
+				hm = diffLongestCommonSubstring(text1, start1, end1, text2, start2,
+					end2);
+			}
+			if (hm != null)
+			{
+				// A half-match was found, sort out the return data.
+				int common1 = hm[0];
+				int common2 = hm[1];
+				int commonLength = hm[2];
+				// Send both pairs off for separate processing.
+				pushSecondHalf(common1 + commonLength, end1, common2 + commonLength,
+					end2, common1 - start1 + common2 - start2, checklines);
+				push(APPEND, common1, common1 + commonLength, common2,
+					common2 + commonLength, Operation.EQUAL.ordinal());
+				push(MAIN, start1, common1, start2, common2, checklines ? 1 : 0);
+				return;
+			}
+
+			if (checklines && text1Length > 100 && text2Length > 100)
+			{
+				diffTokenMode(start1, end1, start2, end2);
+				return;
+			}
+
+			diffBisect(start1, end1, start2, end2);
+		}
+
+		/**
+		 * Do a quick line-level (or {@code diffTokenizer}-level) diff on both
+		 * ranges, then rediff the parts for greater accuracy.
+		 * This speedup can produce non-minimal diffs.
+		 *
+		 * @param start1 Index of the first character of the range in text1.
+		 * @param end1   Index after the last character of the range in text1.
+		 * @param start2 Index of the first character of the range in text2.
+		 * @param end2   Index after the last character of the range in text2.
+		 */
+		private void diffTokenMode(int start1, int end1, int start2, int end2)
+		{
+			// Scan the text on a line-by-line (or token-by-token) basis first.
+			// Tokens are diffed as ints, so unlike diffLinesToChars() there is no
+			// limit on the number of unique ones.
+			TextTokens tokens = new TextTokens(text1, start1, end1, text2, start2,
+				end2, diffTokenizer);
+			LinkedList<Diff> diffs = diffTokens(tokens, text1, text2, budget);
+
+			// Eliminate freak matches (e.g. blank lines)
+			diffCleanupSemantic(diffs);
+
+			// Rediff any replacement blocks, this time character-by-character.
+			// The diffs still cover both ranges in order, so every replacement
+			// block maps back onto a range of each original text. The steps are
+			// planned front to back, then pushed back to front.
+			// Add a dummy entry at the end.
+			diffs.add(new Diff(Operation.EQUAL, ""));
+			IntList plan = new IntList();
+			int countDelete = 0;
+			int countInsert = 0;
+			int lengthDelete = 0;
+			int lengthInsert = 0;
+			int pointer1 = start1;
+			int pointer2 = start2;
+			// Index in the plan of the first step since the last equality.
+			int mark = 0;
+			for (Diff thisDiff : diffs)
+			{
+				int length = thisDiff.text.length();
+				switch (thisDiff.operation)
+				{
+					case INSERT:
+						countInsert++;
+						lengthInsert += length;
+						plan(plan, APPEND, pointer1, pointer1, pointer2, pointer2 + length,
+							Operation.INSERT.ordinal());
+						pointer2 += length;
+						break;
+					case DELETE:
+						countDelete++;
+						lengthDelete += length;
+						plan(plan, APPEND, pointer1, pointer1 + length, pointer2, pointer2,
+							Operation.DELETE.ordinal());
+						pointer1 += length;
+						break;
+					case EQUAL:
+						// Upon reaching an equality, check for prior redundancies.
+						if (countDelete >= 1 && countInsert >= 1)
+						{
+							// Replace the offending records with their rediff.
+							plan.truncate(mark);
+							plan(plan, MAIN, pointer1 - lengthDelete, pointer1,
+								pointer2 - lengthInsert, pointer2, 0);
+						}
+						if (length != 0)
+						{
+							plan(plan, APPEND, pointer1, pointer1 + length, pointer2,
+								pointer2 + length, Operation.EQUAL.ordinal());
+						}
+						mark = plan.size();
+						pointer1 += length;
+						pointer2 += length;
+						countInsert = 0;
+						countDelete = 0;
+						lengthDelete = 0;
+						lengthInsert = 0;
+						break;
+				}
+			}
+			for (int i = plan.size() - STEP_SIZE; i >= 0; i -= STEP_SIZE)
+			{
+				push(plan.get(i), plan.get(i + 1), plan.get(i + 2), plan.get(i + 3),
+					plan.get(i + 4), plan.get(i + 5));
+			}
+		}
+
+		/**
+		 * Append a step to a plan.
+		 *
+		 * @param plan     The steps planned so far, in the order they must run.
+		 * @param kind     The kind of step.
+		 * @param start1   Index of the first element of the range in the first
+		 *                 sequence.
+		 * @param end1     Index after the last element of the range in the first
+		 *                 sequence.
+		 * @param start2   Index of the first element of the range in the second
+		 *                 sequence.
+		 * @param end2     Index after the last element of the range in the
+		 *                 second sequence.
+		 * @param argument The argument of the step.
+		 */
+		private void plan(IntList plan, int kind, int start1, int end1,
+		                  int start2, int end2, int argument)
+		{
+			plan.add(kind);
+			plan.add(start1);
+			plan.add(end1);
+			plan.add(start2);
+			plan.add(end2);
+			plan.add(argument);
+		}
+
+		/**
+		 * Find the 'middle snake' of a diff between two ranges, and split the
+		 * problem in two.
+		 *
+		 * @param start1 Index of the first element of the range in the first
+		 *               sequence.
+		 * @param end1   Index after the last element of the range in the first
+		 *               sequence.
+		 * @param start2 Index of the first element of the range in the second
+		 *               sequence.
+		 * @param end2   Index after the last element of the range in the second
+		 *               sequence.
+		 */
+		void diffBisect(int start1, int end1, int start2, int end2)
+		{
+			int[] snake;
+			if (text1 != null)
+			{
+				snake = diffMiddleSnake(text1, text2, start1, end1, start2, end2,
+					budget);
+			}
+			else
+			{
+				snake = diffMiddleSnake(source, start1, end1, start2, end2, budget);
+			}
+			if (snake == null)
+			{
+				append(Operation.DELETE, start1, end1, start2, end2);
+				append(Operation.INSERT, start1, end1, start2, end2);
+				return;
+			}
+			int x = snake[0];
+			int y = snake[1];
+			// Compute both diffs, in parallel if they are large enough.
+			pushSecondHalf(x, end1, y, end2, x - start1 + y - start2, false);
+			push(MAIN, start1, x, start2, y, 0);
+		}
+	}
+
+	/**
+	 * Split two texts into a list of strings. Reduce the texts to a string of
+	 * hashes where each Unicode character represents one line.
+	 *
+	 * @param text1 First string.
+	 * @param text2 Second string.
+	 * @return An object containing the encoded text1, the encoded text2 and
+	 * the List of unique strings. The zeroth element of the List of
+	 * unique strings is intentionally blank.
 	 */
 	protected LinesToCharsResult diffLinesToChars(String text1, String text2)
+	{
+		return diffLinesToChars(text1, 0, text1.length(), text2, 0,
+			text2.length());
+	}
+
+	/**
+	 * Split two ranges of text into a list of strings. Reduce the ranges to a
+	 * string of hashes where each Unicode character represents one line.
+	 *
+	 * @param text1  First string.
+	 * @param start1 Index of the first character of the range in text1.
+	 * @param end1   Index after the last character of the range in text1.
+	 * @param text2  Second string.
+	 * @param start2 Index of the first character of the range in text2.
+	 * @param end2   Index after the last character of the range in text2.
+	 * @return An object containing the encoded text1, the encoded text2 and
+	 * the List of unique strings. The zeroth element of the List of
+	 * unique strings is intentionally blank.
+	 */
+	private LinesToCharsResult diffLinesToChars(String text1, int start1,
+	                                            int end1, String text2,
+	                                            int start2, int end2)
 	{
 		List<String> lineArray = new ArrayList<String>();
-		Map<String, Integer> lineHash = new HashMap<String, Integer>();
+		// Lines are keyed by their range of text1 or text2, so only the distinct
+		// lines added to lineArray are copied out of the texts.
+		LineDictionary lineHash = new LineDictionary((end1 - start1 +
+			end2 - start2) / 64);
 		// e.g. linearray[4] == "Hello\n"
 		// e.g. linehash.get("Hello\n") == 4
 
@@ -581,43 +1680,49 @@ public final class DiffMatchPatch
 		lineArray.add("");
 
 		// Allocate 2/3rds of the space for text1, the rest for text2.
-		String chars1 = diffLinesToCharsMunge(text1, lineArray, lineHash, 40000);
-		String chars2 = diffLinesToCharsMunge(text2, lineArray, lineHash, 65535);
+		String chars1 = diffLinesToCharsMunge(text1, start1, end1, lineArray,
+			lineHash, 40000);
+		String chars2 = diffLinesToCharsMunge(text2, start2, end2, lineArray,
+			lineHash, 65535);
 		return new LinesToCharsResult(chars1, chars2, lineArray);
 	}
 
 	/**
-	 * Split a text into a list of strings. Reduce the texts to a string of
-	 * hashes where each Unicode character represents one line.
+	 * Split a range of text into a list of strings. Reduce the range to a
+	 * string of hashes where each Unicode character represents one line.
 	 *
 	 * @param text      String to encode.
+	 * @param start     Index of the first character of the range.
+	 * @param end       Index after the last character of the range.
 	 * @param lineArray List of unique strings.
-	 * @param lineHash  Map of strings to indices.
+	 * @param lineHash  Map of lines to indices.
 	 * @param maxLines  Maximum length of lineArray.
 	 * @return Encoded string.
 	 */
-	private String diffLinesToCharsMunge(String text, List<String> lineArray,
-	                                     Map<String, Integer> lineHash, int maxLines)
+	private String diffLinesToCharsMunge(String text, int start, int end,
+	                                     List<String> lineArray,
+	                                     LineDictionary lineHash, int maxLines)
 	{
-		int lineStart = 0;
-		int lineEnd = -1;
-		String line;
-		StringBuilder chars = new StringBuilder();
-		// Walk the text, pulling out a substring for each line.
+		int lineStart = start;
+		int lineEnd = start - 1;
+		DiffScratch scratch = DiffScratch.current();
+		StringBuilder chars = scratch.builder();
+		// Walk the text, hashing the range of each line.
 		// text.split('\n') would would temporarily double our memory footprint.
 		// Modifying text would create many large strings to garbage collect.
-		while (lineEnd < text.length() - 1)
+		while (lineEnd < end - 1)
 		{
 			lineEnd = text.indexOf('\n', lineStart);
-			if (lineEnd == -1)
+			if (lineEnd == -1 || lineEnd >= end)
 			{
-				lineEnd = text.length() - 1;
+				lineEnd = end - 1;
 			}
-			line = text.substring(lineStart, lineEnd + 1);
+			long hash = LineDictionary.hash(text, lineStart, lineEnd + 1);
+			int index = lineHash.get(text, lineStart, lineEnd + 1, hash);
 
-			if (lineHash.containsKey(line))
+			if (index != -1)
 			{
-				chars.append(String.valueOf((char) (int) lineHash.get(line)));
+				chars.append((char) index);
 			}
 			else
 			{
@@ -625,16 +1730,19 @@ public final class DiffMatchPatch
 				{
 					// Bail out at 65535 because
 					// String.valueOf((char) 65536).equals(String.valueOf(((char) 0)))
-					line = text.substring(lineStart);
-					lineEnd = text.length();
+					lineEnd = end - 1;
+					hash = LineDictionary.hash(text, lineStart, end);
 				}
-				lineArray.add(line);
-				lineHash.put(line, lineArray.size() - 1);
-				chars.append(String.valueOf((char) (lineArray.size() - 1)));
+				lineArray.add(text.substring(lineStart, lineEnd + 1));
+				lineHash.put(text, lineStart, lineEnd + 1, hash,
+					lineArray.size() - 1);
+				chars.append((char) (lineArray.size() - 1));
 			}
 			lineStart = lineEnd + 1;
 		}
-		return chars.toString();
+		String result = chars.toString();
+		scratch.release(chars);
+		return result;
 	}
 
 	/**
@@ -667,17 +1775,28 @@ public final class DiffMatchPatch
 	 * @return The number of characters common to the start of each string.
 	 */
 	public int diffCommonPrefix(String text1, String text2)
+	{
+		return diffCommonPrefix(text1, 0, text1.length(), text2, 0,
+			text2.length());
+	}
+
+	/**
+	 * Determine the common prefix of two ranges of text.
+	 *
+	 * @param text1  First string.
+	 * @param start1 Index of the first character of the range in text1.
+	 * @param end1   Index after the last character of the range in text1.
+	 * @param text2  Second string.
+	 * @param start2 Index of the first character of the range in text2.
+	 * @param end2   Index after the last character of the range in text2.
+	 * @return The number of characters common to the start of each range.
+	 */
+	private static int diffCommonPrefix(String text1, int start1, int end1,
+	                                    String text2, int start2, int end2)
 	{
 		// Performance analysis: https://neil.fraser.name/news/2007/10/09/
-		int n = Math.min(text1.length(), text2.length());
-		for (int i = 0; i < n; i++)
-		{
-			if (text1.charAt(i) != text2.charAt(i))
-			{
-				return i;
-			}
-		}
-		return n;
+		return CharScan.commonPrefix(text1, start1, text2, start2,
+			Math.min(end1 - start1, end2 - start2));
 	}
 
 	/**
@@ -688,19 +1807,28 @@ public final class DiffMatchPatch
 	 * @return The number of characters common to the end of each string.
 	 */
 	public int diffCommonSuffix(String text1, String text2)
+	{
+		return diffCommonSuffix(text1, 0, text1.length(), text2, 0,
+			text2.length());
+	}
+
+	/**
+	 * Determine the common suffix of two ranges of text.
+	 *
+	 * @param text1  First string.
+	 * @param start1 Index of the first character of the range in text1.
+	 * @param end1   Index after the last character of the range in text1.
+	 * @param text2  Second string.
+	 * @param start2 Index of the first character of the range in text2.
+	 * @param end2   Index after the last character of the range in text2.
+	 * @return The number of characters common to the end of each range.
+	 */
+	private static int diffCommonSuffix(String text1, int start1, int end1,
+	                                    String text2, int start2, int end2)
 	{
 		// Performance analysis: https://neil.fraser.name/news/2007/10/09/
-		int text1Length = text1.length();
-		int text2Length = text2.length();
-		int n = Math.min(text1Length, text2Length);
-		for (int i = 1; i <= n; i++)
-		{
-			if (text1.charAt(text1Length - i) != text2.charAt(text2Length - i))
-			{
-				return i - 1;
-			}
-		}
-		return n;
+		return CharScan.commonSuffix(text1, end1, text2, end2,
+			Math.min(end1 - start1, end2 - start2));
 	}
 
 	/**
@@ -713,51 +1841,76 @@ public final class DiffMatchPatch
 	 */
 	int diffCommonOverlap(String text1, String text2)
 	{
-		// Cache the text lengths to prevent multiple calls.
-		int text1Length = text1.length();
-		int text2Length = text2.length();
+		return diffCommonOverlap(text1, 0, text1.length(), text2, 0,
+			text2.length());
+	}
+
+	/**
+	 * Determine if the suffix of one range is the prefix of another.
+	 * Runs in time linear in the shorter range, using the prefix function of
+	 * the second range (Knuth-Morris-Pratt).
+	 *
+	 * @param text1  First string.
+	 * @param start1 Index of the first character of the first range.
+	 * @param end1   Index after the last character of the first range.
+	 * @param text2  Second string.
+	 * @param start2 Index of the first character of the second range.
+	 * @param end2   Index after the last character of the second range.
+	 * @return The number of characters common to the end of the first
+	 * range and the start of the second range.
+	 */
+	int diffCommonOverlap(String text1, int start1, int end1, String text2,
+	                      int start2, int end2)
+	{
+		// Only the last characters of text1 and the first characters of text2
+		// can overlap.
+		int length = Math.min(end1 - start1, end2 - start2);
 		// Eliminate the null case.
-		if (text1Length == 0 || text2Length == 0)
+		if (length == 0)
 		{
 			return 0;
 		}
-		// Truncate the longer string.
-		if (text1Length > text2Length)
-		{
-			text1 = text1.substring(text1Length - text2Length);
-		}
-		else if (text1Length < text2Length)
-		{
-			text2 = text2.substring(0, text1Length);
-		}
-		int textLength = Math.min(text1Length, text2Length);
+		start1 = end1 - length;
 		// Quick check for the worst case.
-		if (text1.equals(text2))
+		if (text1.regionMatches(start1, text2, start2, length))
 		{
-			return textLength;
+			return length;
 		}
 
-		// Start by looking for a single character match
-		// and increase length until no match is found.
-		// Performance analysis: https://neil.fraser.name/news/2010/11/04/
-		int best = 0;
-		int length = 1;
-		while (true)
+		// prefix[i] is the length of the longest proper prefix of
+		// text2[start2, start2 + i] that is also its suffix.
+		int[] prefix = DiffScratch.current().overlapTable(length);
+		prefix[0] = 0;
+		int matched = 0;
+		for (int i = 1; i < length; i++)
+		{
+			char c = text2.charAt(start2 + i);
+			while (matched > 0 && text2.charAt(start2 + matched) != c)
+			{
+				matched = prefix[matched - 1];
+			}
+			if (text2.charAt(start2 + matched) == c)
+			{
+				++matched;
+			}
+			prefix[i] = matched;
+		}
+		// Match text2 against text1, keeping the longest prefix of text2 that ends
+		// at the current character.
+		matched = 0;
+		for (int i = start1; i < end1; i++)
 		{
-			String pattern = text1.substring(textLength - length);
-			int found = text2.indexOf(pattern);
-			if (found == -1)
+			char c = text1.charAt(i);
+			while (matched > 0 && text2.charAt(start2 + matched) != c)
 			{
-				return best;
+				matched = prefix[matched - 1];
 			}
-			length += found;
-			if (found == 0 || text1.substring(textLength - length).equals(
-				text2.substring(0, length)))
+			if (text2.charAt(start2 + matched) == c)
 			{
-				best = length;
-				length++;
+				++matched;
 			}
 		}
+		return matched;
 	}
 
 	/**
@@ -772,26 +1925,65 @@ public final class DiffMatchPatch
 	 * common middle. Or null if there was no match.
 	 */
 	protected String[] diffHalfMatch(String text1, String text2)
+	{
+		int[] hm = diffHalfMatch(DiffSource.of(text1, text2), 0, text1.length(),
+			0, text2.length());
+		if (hm == null)
+		{
+			return null;
+		}
+		return new String[]
+			{
+				text1.substring(0, hm[0]), text1.substring(hm[0] + hm[2]),
+				text2.substring(0, hm[1]), text2.substring(hm[1] + hm[2]),
+				text1.substring(hm[0], hm[0] + hm[2])
+			};
+	}
+
+	/**
+	 * Do the two ranges share a run of elements which is at least half the
+	 * length of the longer range?
+	 * This speedup can produce non-minimal diffs.
+	 *
+	 * @param source The sequences to be diffed.
+	 * @param start1 Index of the first element of the range in the first
+	 *               sequence.
+	 * @param end1   Index after the last element of the range in the first
+	 *               sequence.
+	 * @param start2 Index of the first element of the range in the second
+	 *               sequence.
+	 * @param end2   Index after the last element of the range in the second
+	 *               sequence.
+	 * @return Three element int array, containing the index of the common
+	 * middle in the first sequence, its index in the second one and its length.
+	 * Or null if there was no match.
+	 */
+	private int[] diffHalfMatch(DiffSource source, int start1, int end1,
+	                            int start2, int end2)
 	{
 		if (diffTimeout <= 0)
 		{
 			// Don't risk returning a non-optimal diff if we have unlimited time.
 			return null;
 		}
-		String longtext = text1.length() > text2.length() ? text1 : text2;
-		String shorttext = text1.length() > text2.length() ? text2 : text1;
-		if (longtext.length() < 4 || shorttext.length() * 2 < longtext.length())
+		boolean text1Longer = end1 - start1 > end2 - start2;
+		int longStart = text1Longer ? start1 : start2;
+		int longEnd = text1Longer ? end1 : end2;
+		int shortStart = text1Longer ? start2 : start1;
+		int shortEnd = text1Longer ? end2 : end1;
+		int longLength = longEnd - longStart;
+		if (longLength < 4 || (shortEnd - shortStart) * 2 < longLength)
 		{
 			return null;  // Pointless.
 		}
 
 		// First check if the second quarter is the seed for a half-match.
-		String[] hm1 = diffHalfMatchI(longtext, shorttext,
-			(longtext.length() + 3) / 4);
+		int[] hm1 = diffHalfMatchI(source, text1Longer, longStart, longEnd,
+			shortStart, shortEnd, (longLength + 3) / 4);
 		// Check again based on the third quarter.
-		String[] hm2 = diffHalfMatchI(longtext, shorttext,
-			(longtext.length() + 1) / 2);
-		String[] hm;
+		int[] hm2 = diffHalfMatchI(source, text1Longer, longStart, longEnd,
+			shortStart, shortEnd, (longLength + 1) / 2);
+		int[] hm;
 		if (hm1 == null && hm2 == null)
 		{
 			return null;
@@ -807,67 +1999,126 @@ public final class DiffMatchPatch
 		else
 		{
 			// Both matched.  Select the longest.
-			hm = hm1[4].length() > hm2[4].length() ? hm1 : hm2;
+			hm = hm1[2] > hm2[2] ? hm1 : hm2;
 		}
 
 		// A half-match was found, sort out the return data.
-		if (text1.length() > text2.length())
+		if (text1Longer)
 		{
 			return hm;
-			//return new String[]{hm[0], hm[1], hm[2], hm[3], hm[4]};
 		}
 		else
 		{
-			return new String[]
+			return new int[]
 				{
-					hm[2], hm[3], hm[0], hm[1], hm[4]
+					hm[1], hm[0], hm[2]
 				};
 		}
 	}
 
 	/**
-	 * Does a substring of shorttext exist within longtext such that the
-	 * substring is at least half the length of longtext?
+	 * Find the longest substring common to two ranges of text, to split a huge
+	 * diff around it.
+	 * This speedup can produce non-minimal diffs.
+	 *
+	 * @param text1  First string.
+	 * @param start1 Index of the first character of the range in text1.
+	 * @param end1   Index after the last character of the range in text1.
+	 * @param text2  Second string.
+	 * @param start2 Index of the first character of the range in text2.
+	 * @param end2   Index after the last character of the range in text2.
+	 * @return Three element int array, containing the index of the common
+	 * substring in text1, its index in text2 and its length. Or null if it is
+	 * shorter than {@code SPLIT_MIN_LENGTH}.
+	 */
+	private int[] diffLongestCommonSubstring(String text1, int start1, int end1,
+	                                         String text2, int start2, int end2)
+	{
+		int[] lcs;
+		// Build the automaton over the shorter range.
+		if (end1 - start1 <= end2 - start2)
+		{
+			lcs = new SuffixAutomaton(text1, start1, end1).
+				longestCommonSubstring(text2, start2, end2);
+		}
+		else
+		{
+			lcs = new SuffixAutomaton(text2, start2, end2).
+				longestCommonSubstring(text1, start1, end1);
+			if (lcs != null)
+			{
+				lcs = new int[]
+					{
+						lcs[1], lcs[0], lcs[2]
+					};
+			}
+		}
+		if (lcs == null || lcs[2] < SPLIT_MIN_LENGTH)
+		{
+			return null;
+		}
+		return lcs;
+	}
+
+	/**
+	 * Does a run of the shorter range exist within the longer range such that
+	 * the run is at least half the length of the longer range?
 	 *
-	 * @param longtext  Longer string.
-	 * @param shorttext Shorter string.
-	 * @param i         Start index of quarter length substring within longtext.
-	 * @return Five element String array, containing the prefix of longtext, the
-	 * suffix of longtext, the prefix of shorttext, the suffix of shorttext
-	 * and the common middle. Or null if there was no match.
+	 * @param source      The sequences to be diffed.
+	 * @param text1Longer True if the longer range is in the first sequence.
+	 * @param longStart   Index of the first element of the longer range.
+	 * @param longEnd     Index after the last element of the longer range.
+	 * @param shortStart  Index of the first element of the shorter range.
+	 * @param shortEnd    Index after the last element of the shorter range.
+	 * @param i           Start index of quarter length run within the longer
+	 *                    range.
+	 * @return Three element int array, containing the index of the common
+	 * middle in the longer range's sequence, its index in the shorter range's
+	 * sequence and its length. Or null if there was no match.
 	 */
-	private String[] diffHalfMatchI(String longtext, String shorttext, int i)
+	private static int[] diffHalfMatchI(DiffSource source, boolean text1Longer,
+	                                    int longStart, int longEnd,
+	                                    int shortStart, int shortEnd, int i)
 	{
-		// Start with a 1/4 length substring at position i as a seed.
-		String seed = longtext.substring(i, i + longtext.length() / 4);
-		int j = -1;
-		String bestCommon = "";
-		String bestLongtextA = "";
-		String bestLongtextB = "";
-		String bestShorttextA = "";
-		String bestShorttextB = "";
-		while ((j = shorttext.indexOf(seed, j + 1)) != -1)
+		// Start with a 1/4 length run at position i as a seed.
+		int longLength = longEnd - longStart;
+		int seedStart = longStart + i;
+		int seedEnd = seedStart + longLength / 4;
+		int j = shortStart - 1;
+		int bestLength = 0;
+		int bestLongStart = 0;
+		int bestShortStart = 0;
+		while ((j = source.indexOf(text1Longer, j + 1, shortEnd, seedStart,
+			seedEnd)) != -1)
 		{
-			int prefixLength = diffCommonPrefix(longtext.substring(i),
-				shorttext.substring(j));
-			int suffixLength = diffCommonSuffix(longtext.substring(0, i),
-				shorttext.substring(0, j));
-			if (bestCommon.length() < suffixLength + prefixLength)
+			int prefixLength;
+			int suffixLength;
+			if (text1Longer)
+			{
+				prefixLength = source.commonPrefix(seedStart, j,
+					Math.min(longEnd - seedStart, shortEnd - j));
+				suffixLength = source.commonSuffix(seedStart, j,
+					Math.min(seedStart - longStart, j - shortStart));
+			}
+			else
+			{
+				prefixLength = source.commonPrefix(j, seedStart,
+					Math.min(longEnd - seedStart, shortEnd - j));
+				suffixLength = source.commonSuffix(j, seedStart,
+					Math.min(seedStart - longStart, j - shortStart));
+			}
+			if (bestLength < suffixLength + prefixLength)
 			{
-				bestCommon = shorttext.substring(j - suffixLength, j) +
-					shorttext.substring(j, j + prefixLength);
-				bestLongtextA = longtext.substring(0, i - suffixLength);
-				bestLongtextB = longtext.substring(i + prefixLength);
-				bestShorttextA = shorttext.substring(0, j - suffixLength);
-				bestShorttextB = shorttext.substring(j + prefixLength);
+				bestLength = suffixLength + prefixLength;
+				bestLongStart = seedStart - suffixLength;
+				bestShortStart = j - suffixLength;
 			}
 		}
-		if (bestCommon.length() * 2 >= longtext.length())
+		if (bestLength * 2 >= longLength)
 		{
-			return new String[]
+			return new int[]
 				{
-					bestLongtextA, bestLongtextB,
-					bestShorttextA, bestShorttextB, bestCommon
+					bestLongStart, bestShortStart, bestLength
 				};
 		}
 		else
@@ -876,6 +2127,74 @@ public final class DiffMatchPatch
 		}
 	}
 
+
+	/**
+	 * Reduce the number of edits by eliminating semantically trivial equalities.
+	 *
+	 * @param diffs Compact list of diffs.
+	 * @return True if two equalities were left next to each other.
+	 * @see #diffMerge(DiffList)
+	 */
+	boolean diffCleanupSemantic(DiffList diffs)
+	{
+		boolean[] eliminated = diffSemanticEqualities(diffs);
+		return diffCleanupSemantic(diffs, eliminated, eliminated != null);
+	}
+
+	/**
+	 * Second pass of {@link #diffCleanupSemantic}: eliminate the equalities
+	 * that the first pass found, and align the edits.
+	 *
+	 * @param diffs      Compact list of diffs.
+	 * @param eliminated For each diff, true if it is an equality to eliminate;
+	 *                   or null if there are none.
+	 * @param merge      True to normalize the diff, as is needed once any
+	 *                   equality is eliminated.
+	 * @return True if two equalities were left next to each other.
+	 */
+	boolean diffCleanupSemantic(DiffList diffs, boolean[] eliminated,
+	                            boolean merge)
+	{
+		boolean joined = false;
+		if (eliminated != null)
+		{
+			// Replace each eliminated equality with a delete and an insert.
+			int count = diffs.size();
+			DiffList result = new DiffList(diffs.getText1(), diffs.getText2(),
+				count + count / 2);
+			int pointer2 = 0;
+			for (int i = 0; i < count; i++)
+			{
+				Operation operation = diffs.getOperation(i);
+				int offset = diffs.getOffset(i);
+				int length = diffs.getLength(i);
+				if (eliminated[i])
+				{
+					result.append(Operation.DELETE, offset, length);
+					result.append(Operation.INSERT, pointer2, length);
+				}
+				else
+				{
+					result.append(operation, offset, length);
+				}
+				if (operation != Operation.DELETE)
+				{
+					pointer2 += length;
+				}
+			}
+			// Normalize the diff.
+			joined = diffMerge(result);
+			diffs.setAll(result);
+		}
+		else if (merge)
+		{
+			joined = diffMerge(diffs);
+		}
+		diffAlignEdits(diffs);
+		diffCleanupSemanticOverlaps(diffs);
+		return joined;
+	}
+
 	/**
 	 * Reduce the number of edits by eliminating semantically trivial equalities.
 	 *
@@ -883,166 +2202,353 @@ public final class DiffMatchPatch
 	 */
 	public void diffCleanupSemantic(LinkedList<Diff> diffs)
 	{
-		if (diffs.isEmpty())
+		diffCleanupSemantic((List<Diff>) diffs);
+	}
+
+	/**
+	 * Reduce the number of edits by eliminating semantically trivial equalities.
+	 *
+	 * @param diffs List of Diff objects, such as a compact {@link DiffList}.
+	 */
+	public void diffCleanupSemantic(List<Diff> diffs)
+	{
+		if (diffs instanceof DiffList)
 		{
+			diffCleanupSemantic((DiffList) diffs);
 			return;
 		}
-		boolean changes = false;
-		Deque<Diff> equalities = new ArrayDeque<>();  // Double-ended queue of qualities.
-		String lastEquality = null; // Always equal to equalities.peek().text
-		ListIterator<Diff> pointer = diffs.listIterator();
-		// Number of characters that changed prior to the equality.
-		int lengthInsertions1 = 0;
-		int lengthDeletions1 = 0;
-		// Number of characters that changed after the equality.
-		int lengthInsertions2 = 0;
-		int lengthDeletions2 = 0;
-		Diff thisDiff = pointer.next();
-		while (thisDiff != null)
+		DiffExcerpt excerpt = DiffExcerpt.of(diffs, 0, true);
+		if (diffCleanupSemantic(excerpt.getDiffs()) && excerpt.hasCuts())
+		{
+			// An equality between two others is shifted like an edit, which may
+			// read the part of a long equality that was left out.
+			excerpt = DiffExcerpt.of(diffs);
+			diffCleanupSemantic(excerpt.getDiffs());
+		}
+		excerpt.store(diffs);
+	}
+
+	/**
+	 * First pass of {@link #diffCleanupSemantic}: find the equalities that are
+	 * smaller or equal to the edits on both sides of them.
+	 * <p>
+	 * The equalities are walked with a stack. After each elimination the walk
+	 * resumes from the equality before the previous one, forgetting the edits
+	 * ahead of it, or from the start once the stack is empty. Instead of
+	 * rescanning the diffs from there, the lengths of each run of edits
+	 * between two equalities are summed up once, and two runs are merged when
+	 * the equality between them is eliminated, so resuming costs O(1).
+	 * A run only needs its totals: the lengths of its edits only grow, so an
+	 * equality that is eliminated part way through the run would also be
+	 * eliminated at its end.
+	 *
+	 * @param diffs Compact list of diffs.
+	 * @return For each diff, true if it is an equality to eliminate; or null if
+	 * there are none.
+	 */
+	boolean[] diffSemanticEqualities(DiffList diffs)
+	{
+		int count = diffs.size();
+		// Equalities form a doubly linked list. Each one owns the run of edits
+		// that follows it: the number of edits, inserted and deleted characters.
+		int[] previous = new int[count];
+		int[] next = new int[count];
+		int[] edits = new int[count];
+		int[] insertions = new int[count];
+		int[] deletions = new int[count];
+		// The run of edits before the first equality.
+		int headInsertions = 0;
+		int headDeletions = 0;
+		int first = -1;
+		int last = -1;
+		for (int i = 0; i < count; i++)
 		{
-			if (thisDiff.operation == Operation.EQUAL)
+			Operation operation = diffs.getOperation(i);
+			if (operation == Operation.EQUAL)
 			{
-				// Equality found.
-				equalities.push(thisDiff);
-				lengthInsertions1 = lengthInsertions2;
-				lengthDeletions1 = lengthDeletions2;
-				lengthInsertions2 = 0;
-				lengthDeletions2 = 0;
-				lastEquality = thisDiff.text;
+				previous[i] = last;
+				next[i] = -1;
+				if (last == -1)
+				{
+					first = i;
+				}
+				else
+				{
+					next[last] = i;
+				}
+				last = i;
 			}
-			else
+			else if (last == -1)
 			{
-				// An insertion or deletion.
-				if (thisDiff.operation == Operation.INSERT)
+				if (operation == Operation.INSERT)
 				{
-					lengthInsertions2 += thisDiff.text.length();
+					headInsertions += diffs.getLength(i);
 				}
 				else
 				{
-					lengthDeletions2 += thisDiff.text.length();
+					headDeletions += diffs.getLength(i);
 				}
-				// Eliminate an equality that is smaller or equal to the edits on both
-				// sides of it.
-				if (lastEquality != null && (lastEquality.length() <=
-					Math.max(lengthInsertions1, lengthDeletions1)) &&
-					(lastEquality.length() <=
-						Math.max(lengthInsertions2, lengthDeletions2)))
+			}
+			else
+			{
+				++edits[last];
+				if (operation == Operation.INSERT)
 				{
-					//System.out.println("Splitting: '" + lastEquality + "'");
-					// Walk back to offending equality.
-					while (thisDiff != equalities.peek())
-					{
-						thisDiff = pointer.previous();
-					}
-					pointer.next();
-
-					// Replace equality with a delete.
-					pointer.set(new Diff(Operation.DELETE, lastEquality));
-					// Insert a corresponding an insert.
-					pointer.add(new Diff(Operation.INSERT, lastEquality));
+					insertions[last] += diffs.getLength(i);
+				}
+				else
+				{
+					deletions[last] += diffs.getLength(i);
+				}
+			}
+		}
 
-					equalities.pop();  // Throw away the equality we just deleted.
-					if (!equalities.isEmpty())
-					{
-						// Throw away the previous equality (it needs to be reevaluated).
-						equalities.pop();
-					}
-					if (equalities.isEmpty())
-					{
-						// There are no previous equalities, walk back to the start.
-						while (pointer.hasPrevious())
-						{
-							pointer.previous();
-						}
-					}
-					else
-					{
-						// There is a safe equality we can fall back to.
-						thisDiff = equalities.peek();
-						while (thisDiff != pointer.previous())
-						{
-							// Intentionally empty loop.
-						}
-					}
+		boolean[] eliminated = null;
+		IntList equalities = new IntList();  // Stack of equalities.
+		int equality = first;
+		// Number of characters that changed prior to the equality.
+		int lengthInsertions1 = headInsertions;
+		int lengthDeletions1 = headDeletions;
+		while (equality != -1)
+		{
+			equalities.add(equality);
+			int length = diffs.getLength(equality);
+			// Eliminate an equality that is smaller or equal to the edits on both
+			// sides of it.
+			if (edits[equality] != 0 &&
+				length <= Math.max(lengthInsertions1, lengthDeletions1) &&
+				length <= Math.max(insertions[equality], deletions[equality]))
+			{
+				if (eliminated == null)
+				{
+					eliminated = new boolean[count];
+				}
+				eliminated[equality] = true;
+				// The equality joins the runs on either side of it.
+				int before = previous[equality];
+				int after = next[equality];
+				if (before == -1)
+				{
+					headInsertions += length + insertions[equality];
+					headDeletions += length + deletions[equality];
+					first = after;
+				}
+				else
+				{
+					edits[before] += 2 + edits[equality];
+					insertions[before] += length + insertions[equality];
+					deletions[before] += length + deletions[equality];
+					next[before] = after;
+				}
+				if (after != -1)
+				{
+					previous[after] = before;
+				}
 
-					lengthInsertions1 = 0;  // Reset the counters.
-					lengthInsertions2 = 0;
+				equalities.pop();  // Throw away the equality we just deleted.
+				if (equalities.size() != 0)
+				{
+					// Throw away the previous equality (it needs to be reevaluated).
+					equalities.pop();
+				}
+				if (equalities.size() == 0)
+				{
+					// There are no previous equalities, walk back to the start.
+					equality = first;
+					lengthInsertions1 = headInsertions;
+					lengthDeletions1 = headDeletions;
+				}
+				else
+				{
+					// There is a safe equality we can fall back to. It stays on the
+					// stack and is pushed again as the walk resumes from it.
+					equality = equalities.get(equalities.size() - 1);
+					lengthInsertions1 = 0;
 					lengthDeletions1 = 0;
-					lengthDeletions2 = 0;
-					lastEquality = null;
-					changes = true;
 				}
 			}
-			thisDiff = pointer.hasNext() ? pointer.next() : null;
-		}
-
-		// Normalize the diff.
-		if (changes)
-		{
-			diffCleanupMerge(diffs);
+			else
+			{
+				lengthInsertions1 = insertions[equality];
+				lengthDeletions1 = deletions[equality];
+				equality = next[equality];
+			}
+		}
+		return eliminated;
+	}
+
+	/**
+	 * Last pass of {@link #diffCleanupSemantic}: find any overlaps between
+	 * deletions and insertions.
+	 * e.g: {@code <del>abcxxx</del><ins>xxxdef</ins>}
+	 *   -> {@code <del>abc</del>xxx<ins>def</ins>}
+	 * e.g: {@code <del>xxxabc</del><ins>defxxx</ins>}
+	 *   -> {@code <ins>def</ins>xxx<del>abc</del>}
+	 * Only extract an overlap if it is as big as the edit ahead or behind it.
+	 * The overlap is part of both texts already, so trimming the edits and
+	 * adding the equality only moves offsets.
+	 *
+	 * @param diffs Compact list of diffs.
+	 */
+	private void diffCleanupSemanticOverlaps(DiffList diffs)
+	{
+		String text1 = diffs.getText1();
+		String text2 = diffs.getText2();
+		int count = diffs.size();
+		// Only built once an overlap is found.
+		DiffList result = null;
+		int i = 0;
+		while (i < count - 1)
+		{
+			if (diffs.getOperation(i) != Operation.DELETE ||
+				diffs.getOperation(i + 1) != Operation.INSERT)
+			{
+				if (result != null)
+				{
+					result.append(diffs.getOperation(i), diffs.getOffset(i),
+						diffs.getLength(i));
+				}
+				++i;
+				continue;
+			}
+			int offset1 = diffs.getOffset(i);
+			int length1 = diffs.getLength(i);
+			int offset2 = diffs.getOffset(i + 1);
+			int length2 = diffs.getLength(i + 1);
+			int overlapLength1 = this.diffCommonOverlap(text1, offset1,
+				offset1 + length1, text2, offset2, offset2 + length2);
+			// The reverse overlap can't be any longer than the shorter edit.
+			int overlapLength2 = overlapLength1 == Math.min(length1, length2) ? 0 :
+				this.diffCommonOverlap(text2, offset2, offset2 + length2, text1,
+					offset1, offset1 + length1);
+			int equality = -1;
+			if (overlapLength1 >= overlapLength2)
+			{
+				if (overlapLength1 >= length1 / 2.0 || overlapLength1 >= length2 / 2.0)
+				{
+					// Overlap found. Insert an equality and trim the surrounding edits.
+					equality = offset1 + length1 - overlapLength1;
+					diffs.set(i, offset1, length1 - overlapLength1);
+					diffs.set(i + 1, offset2 + overlapLength1, length2 - overlapLength1);
+				}
+			}
+			else if (overlapLength2 >= length1 / 2.0 || overlapLength2 >= length2 / 2.0)
+			{
+				// Reverse overlap found.
+				// Insert an equality and swap and trim the surrounding edits.
+				equality = offset1;
+				diffs.set(i, Operation.INSERT, offset2, length2 - overlapLength2);
+				diffs.set(i + 1, Operation.DELETE, offset1 + overlapLength2,
+					length1 - overlapLength2);
+				overlapLength1 = overlapLength2;
+			}
+			if (equality == -1)
+			{
+				// Step past the pair.
+				if (result != null)
+				{
+					result.append(Operation.DELETE, offset1, length1);
+					result.append(Operation.INSERT, offset2, length2);
+				}
+				i += 2;
+				continue;
+			}
+			if (result == null)
+			{
+				result = new DiffList(text1, text2, count + count / 2);
+				for (int j = 0; j < i; j++)
+				{
+					result.append(diffs.getOperation(j), diffs.getOffset(j),
+						diffs.getLength(j));
+				}
+			}
+			result.append(diffs.getOperation(i), diffs.getOffset(i),
+				diffs.getLength(i));
+			result.append(Operation.EQUAL, equality, overlapLength1);
+			// The trimmed second edit may pair up with the diff after it.
+			++i;
 		}
-		diffCleanupSemanticLossless(diffs);
-
-		// Find any overlaps between deletions and insertions.
-		// e.g: <del>abcxxx</del><ins>xxxdef</ins>
-		//   -> <del>abc</del>xxx<ins>def</ins>
-		// e.g: <del>xxxabc</del><ins>defxxx</ins>
-		//   -> <ins>def</ins>xxx<del>abc</del>
-		// Only extract an overlap if it is as big as the edit ahead or behind it.
-		pointer = diffs.listIterator();
-		Diff prevDiff = null;
-		thisDiff = null;
-		if (pointer.hasNext())
+		if (result != null)
 		{
-			prevDiff = pointer.next();
-			if (pointer.hasNext())
+			if (i < count)
 			{
-				thisDiff = pointer.next();
+				result.append(diffs.getOperation(i), diffs.getOffset(i),
+					diffs.getLength(i));
 			}
+			diffs.setAll(result);
 		}
-		while (thisDiff != null)
+	}
+
+	/**
+	 * Look for single edits surrounded on both sides by equalities
+	 * which can be shifted sideways to align the edit to a word boundary.
+	 * The equalities and the edit are consecutive in the text that contains
+	 * the edit, so boundaries are scored straight from that text.
+	 *
+	 * @param diffs Compact list of diffs.
+	 */
+	void diffAlignEdits(DiffList diffs)
+	{
+		int count = diffs.size();
+		boolean[] removed = null;
+		// Indexes of the previous, current and next diff (-1 for none), and of
+		// the diff after them.
+		int prev = count > 0 ? 0 : -1;
+		int current = count > 1 ? 1 : -1;
+		int next = count > 2 ? 2 : -1;
+		int following = 3;
+		// Intentionally ignore the first and last element (don't need checking).
+		while (next != -1)
 		{
-			if (prevDiff.operation == Operation.DELETE &&
-				thisDiff.operation == Operation.INSERT)
+			if (diffs.getOperation(prev) == Operation.EQUAL &&
+				diffs.getOperation(next) == Operation.EQUAL)
 			{
-				String deletion = prevDiff.text;
-				String insertion = thisDiff.text;
-				int overlapLength1 = this.diffCommonOverlap(deletion, insertion);
-				int overlapLength2 = this.diffCommonOverlap(insertion, deletion);
-				if (overlapLength1 >= overlapLength2)
+				// This is a single edit surrounded by equalities.
+				Operation operation = diffs.getOperation(current);
+				String text = operation == Operation.INSERT ? diffs.getText2() :
+					diffs.getText1();
+				int editStart = diffs.getOffset(current);
+				int editLength = diffs.getLength(current);
+				int start = editStart - diffs.getLength(prev);
+				int end = editStart + editLength + diffs.getLength(next);
+				int best = diffSemanticAlignment(text, start, editStart,
+					editStart + editLength, end);
+				if (best != editStart)
 				{
-					if (overlapLength1 >= deletion.length() / 2.0 ||
-						overlapLength1 >= insertion.length() / 2.0)
+					// We have an improvement, save it back to the diff.
+					int offset1 = diffs.getOffset(prev);
+					int length1 = best - start;
+					int length2 = end - best - editLength;
+					diffs.set(prev, offset1, length1);
+					diffs.set(current, best, editLength);
+					diffs.set(next, offset1 + length1 +
+						(operation == Operation.INSERT ? 0 : editLength), length2);
+					if (length1 == 0 || length2 == 0)
 					{
-						// Overlap found. Insert an equality and trim the surrounding edits.
-						pointer.previous();
-						pointer.add(new Diff(Operation.EQUAL,
-							insertion.substring(0, overlapLength1)));
-						prevDiff.text = deletion.substring(0, deletion.length() - overlapLength1);
-						thisDiff.text = insertion.substring(overlapLength1);
-						// pointer.add inserts the element before the cursor, so there is
-						// no need to step past the new element.
+						if (removed == null)
+						{
+							removed = new boolean[count];
+						}
+					}
+					if (length1 == 0)
+					{
+						removed[prev] = true;
+					}
+					if (length2 == 0)
+					{
+						removed[next] = true;
+						next = current;
+						current = prev;
 					}
 				}
-				else if (overlapLength2 >= deletion.length() / 2.0 ||
-					overlapLength2 >= insertion.length() / 2.0)
-				{
-					// Reverse overlap found.
-					// Insert an equality and swap and trim the surrounding edits.
-					pointer.previous();
-					pointer.add(new Diff(Operation.EQUAL,
-						deletion.substring(0, overlapLength2)));
-					prevDiff.operation = Operation.INSERT;
-					prevDiff.text = insertion.substring(0, insertion.length() - overlapLength2);
-					thisDiff.operation = Operation.DELETE;
-					thisDiff.text = deletion.substring(overlapLength2);
-					// pointer.add inserts the element before the cursor, so there is
-					// no need to step past the new element.
-				}
-				thisDiff = pointer.hasNext() ? pointer.next() : null;
 			}
-			prevDiff = thisDiff;
-			thisDiff = pointer.hasNext() ? pointer.next() : null;
+			prev = current;
+			current = next;
+			next = following < count ? following++ : -1;
+		}
+		if (removed != null)
+		{
+			diffs.compact(removed);
 		}
 	}
 
@@ -1055,11 +2561,25 @@ public final class DiffMatchPatch
 	 */
 	public void diffCleanupSemanticLossless(LinkedList<Diff> diffs)
 	{
-		String equality1, edit, equality2;
-		String commonString;
-		int commonOffset;
-		int score, bestScore;
-		String bestEquality1, bestEdit, bestEquality2;
+		diffCleanupSemanticLossless((List<Diff>) diffs);
+	}
+
+	/**
+	 * Look for single edits surrounded on both sides by equalities
+	 * which can be shifted sideways to align the edit to a word boundary.
+	 * e.g: {@code The c<ins>at c</ins>ame. -> The <ins>cat </ins>came.}
+	 *
+	 * @param diffs List of Diff objects, such as a compact {@link DiffList}.
+	 */
+	public void diffCleanupSemanticLossless(List<Diff> diffs)
+	{
+		if (diffs instanceof DiffList)
+		{
+			diffAlignEdits((DiffList) diffs);
+			return;
+		}
+		// Views the two equalities and the edit as one text, without copying.
+		DiffWindow window = new DiffWindow();
 		// Create a new iterator at the start.
 		ListIterator<Diff> pointer = diffs.listIterator();
 		Diff prevDiff = pointer.hasNext() ? pointer.next() : null;
@@ -1072,47 +2592,20 @@ public final class DiffMatchPatch
 				nextDiff.operation == Operation.EQUAL)
 			{
 				// This is a single edit surrounded by equalities.
-				equality1 = prevDiff.text;
-				edit = thisDiff.text;
-				equality2 = nextDiff.text;
-
-				// First, shift the edit as far left as possible.
-				commonOffset = diffCommonSuffix(equality1, edit);
-				if (commonOffset != 0)
-				{
-					commonString = edit.substring(edit.length() - commonOffset);
-					equality1 = equality1.substring(0, equality1.length() - commonOffset);
-					edit = commonString + edit.substring(0, edit.length() - commonOffset);
-					equality2 = commonString + equality2;
-				}
-
-				// Second, step character by character right, looking for the best fit.
-				bestEquality1 = equality1;
-				bestEdit = edit;
-				bestEquality2 = equality2;
-				bestScore = diffCleanupSemanticScore(equality1, edit) +
-					diffCleanupSemanticScore(edit, equality2);
-				while (edit.length() != 0 && equality2.length() != 0 &&
-					edit.charAt(0) == equality2.charAt(0))
-				{
-					equality1 += edit.charAt(0);
-					edit = edit.substring(1) + equality2.charAt(0);
-					equality2 = equality2.substring(1);
-					score = diffCleanupSemanticScore(equality1, edit) +
-						diffCleanupSemanticScore(edit, equality2);
-					// The >= encourages trailing rather than leading whitespace on edits.
-					if (score >= bestScore)
-					{
-						bestScore = score;
-						bestEquality1 = equality1;
-						bestEdit = edit;
-						bestEquality2 = equality2;
-					}
-				}
+				window.set(prevDiff.text, thisDiff.text, nextDiff.text);
+				int editStart = prevDiff.text.length();
+				int editEnd = editStart + thisDiff.text.length();
+				int best = diffSemanticAlignment(window, 0, editStart, editEnd,
+					window.length());
 
-				if (!prevDiff.text.equals(bestEquality1))
+				if (best != editStart)
 				{
 					// We have an improvement, save it back to the diff.
+					String bestEquality1 = window.subSequence(0, best);
+					String bestEdit = window.subSequence(best,
+						best + editEnd - editStart);
+					String bestEquality2 = window.subSequence(best + editEnd - editStart,
+						window.length());
 					if (bestEquality1.length() != 0)
 					{
 						prevDiff.text = bestEquality1;
@@ -1146,17 +2639,71 @@ public final class DiffMatchPatch
 	}
 
 	/**
-	 * Given two strings, compute a score representing whether the internal
-	 * boundary falls on logical boundaries.
+	 * Find the best place for an edit that lies between two equalities: shift
+	 * it as far left as possible, then step character by character right,
+	 * looking for the best fit. Only the boundaries move; nothing is copied.
+	 *
+	 * @param text      Text that holds the first equality, the edit and the
+	 *                  second equality back to back.
+	 * @param start     Index of the first character of the first equality.
+	 * @param editStart Index of the first character of the edit.
+	 * @param editEnd   Index after the last character of the edit.
+	 * @param end       Index after the last character of the second equality.
+	 * @return The best index at which to start the edit.
+	 */
+	private static int diffSemanticAlignment(CharSequence text, int start,
+	                                         int editStart, int editEnd,
+	                                         int end)
+	{
+		int editLength = editEnd - editStart;
+		// First, shift the edit as far left as possible.
+		int commonOffset = 0;
+		int maxOffset = Math.min(editStart - start, editLength);
+		while (commonOffset < maxOffset && text.charAt(editStart - 1 -
+			commonOffset) == text.charAt(editEnd - 1 - commonOffset))
+		{
+			commonOffset++;
+		}
+		int edit = editStart - commonOffset;
+
+		// Second, step character by character right, looking for the best fit.
+		int best = edit;
+		int bestScore = diffCleanupSemanticScore(text, start, edit,
+			edit + editLength) + diffCleanupSemanticScore(text, edit,
+			edit + editLength, end);
+		while (editLength != 0 && edit + editLength < end &&
+			text.charAt(edit) == text.charAt(edit + editLength))
+		{
+			edit++;
+			int score = diffCleanupSemanticScore(text, start, edit,
+				edit + editLength) + diffCleanupSemanticScore(text, edit,
+				edit + editLength, end);
+			// The >= encourages trailing rather than leading whitespace on edits.
+			if (score >= bestScore)
+			{
+				bestScore = score;
+				best = edit;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Given two consecutive ranges of a text, compute a score representing
+	 * whether the boundary between them falls on logical boundaries.
 	 * Scores range from 6 (best) to 0 (worst).
 	 *
-	 * @param one First string.
-	 * @param two Second string.
+	 * @param text     The text.
+	 * @param start    Index of the first character of the first range.
+	 * @param boundary Index of the end of the first range and the start of the
+	 *                 second one.
+	 * @param end      Index after the last character of the second range.
 	 * @return The score.
 	 */
-	private int diffCleanupSemanticScore(String one, String two)
+	private static int diffCleanupSemanticScore(CharSequence text, int start,
+	                                            int boundary, int end)
 	{
-		if (one.length() == 0 || two.length() == 0)
+		if (boundary == start || boundary == end)
 		{
 			// Edges are the best.
 			return 6;
@@ -1167,18 +2714,16 @@ public final class DiffMatchPatch
 		// 'whitespace'.  Since this function's purpose is largely cosmetic,
 		// the choice has been made to use each language's native features
 		// rather than force total conformity.
-		char char1 = one.charAt(one.length() - 1);
-		char char2 = two.charAt(0);
-		boolean nonAlphaNumeric1 = !Character.isLetterOrDigit(char1);
-		boolean nonAlphaNumeric2 = !Character.isLetterOrDigit(char2);
-		boolean whitespace1 = nonAlphaNumeric1 && Character.isWhitespace(char1);
-		boolean whitespace2 = nonAlphaNumeric2 && Character.isWhitespace(char2);
-		boolean lineBreak1 = whitespace1 &&
-			Character.getType(char1) == Character.CONTROL;
-		boolean lineBreak2 = whitespace2 &&
-			Character.getType(char2) == Character.CONTROL;
-		boolean blankLine1 = lineBreak1 && BLANKLINEEND.matcher(one).find();
-		boolean blankLine2 = lineBreak2 && BLANKLINESTART.matcher(two).find();
+		int class1 = diffCharClass(text.charAt(boundary - 1));
+		int class2 = diffCharClass(text.charAt(boundary));
+		boolean nonAlphaNumeric1 = (class1 & NON_ALPHANUMERIC) != 0;
+		boolean nonAlphaNumeric2 = (class2 & NON_ALPHANUMERIC) != 0;
+		boolean whitespace1 = (class1 & WHITESPACE) != 0;
+		boolean whitespace2 = (class2 & WHITESPACE) != 0;
+		boolean lineBreak1 = (class1 & LINE_BREAK) != 0;
+		boolean lineBreak2 = (class2 & LINE_BREAK) != 0;
+		boolean blankLine1 = lineBreak1 && diffBlankLineEnd(text, start, boundary);
+		boolean blankLine2 = lineBreak2 && diffBlankLineStart(text, boundary, end);
 
 		if (blankLine1 || blankLine2)
 		{
@@ -1208,9 +2753,244 @@ public final class DiffMatchPatch
 		return 0;
 	}
 
-	// Define some regex patterns for matching boundaries.
-	private final Pattern BLANKLINEEND = Pattern.compile("\\n\\r?\\n\\Z", Pattern.DOTALL);
-	private final Pattern BLANKLINESTART = Pattern.compile("\\A\\r?\\n\\r?\\n", Pattern.DOTALL);
+	// Character classes that boundaries are scored on.
+	private static final int NON_ALPHANUMERIC = 1;
+	private static final int WHITESPACE = 2;
+	private static final int LINE_BREAK = 4;
+	/**
+	 * The classes of the Latin-1 characters.
+	 */
+	private static final byte[] CHAR_CLASSES = new byte[256];
+
+	static
+	{
+		for (char c = 0; c < CHAR_CLASSES.length; c++)
+		{
+			CHAR_CLASSES[c] = (byte) diffComputeCharClass(c);
+		}
+	}
+
+	/**
+	 * Returns the classes of a character.
+	 *
+	 * @param c The character.
+	 * @return A combination of NON_ALPHANUMERIC, WHITESPACE and LINE_BREAK.
+	 */
+	private static int diffCharClass(char c)
+	{
+		if (c < CHAR_CLASSES.length)
+		{
+			return CHAR_CLASSES[c];
+		}
+		return diffComputeCharClass(c);
+	}
+
+	/**
+	 * Computes the classes of a character.
+	 *
+	 * @param c The character.
+	 * @return A combination of NON_ALPHANUMERIC, WHITESPACE and LINE_BREAK.
+	 */
+	private static int diffComputeCharClass(char c)
+	{
+		if (Character.isLetterOrDigit(c))
+		{
+			return 0;
+		}
+		if (!Character.isWhitespace(c))
+		{
+			return NON_ALPHANUMERIC;
+		}
+		if (Character.getType(c) != Character.CONTROL)
+		{
+			return NON_ALPHANUMERIC | WHITESPACE;
+		}
+		return NON_ALPHANUMERIC | WHITESPACE | LINE_BREAK;
+	}
+
+	/**
+	 * Returns true if a range of text ends with a blank line: "\n\n" or
+	 * "\n\r\n", optionally followed by one final line terminator (the
+	 * behaviour of the regex {@code \n\r?\n\Z}).
+	 *
+	 * @param text  The text.
+	 * @param start Index of the first character of the range.
+	 * @param end   Index after the last character of the range.
+	 * @return True if the range ends with a blank line.
+	 */
+	private static boolean diffBlankLineEnd(CharSequence text, int start,
+	                                        int end)
+	{
+		if (diffEndsWithBlankLine(text, start, end))
+		{
+			return true;
+		}
+		if (end == start)
+		{
+			return false;
+		}
+		char last = text.charAt(end - 1);
+		if (last != '\n' && last != '\r')
+		{
+			return false;
+		}
+		// Skip the final line terminator.
+		if (diffEndsWithBlankLine(text, start, end - 1))
+		{
+			return true;
+		}
+		return last == '\n' && end - 2 >= start && text.charAt(end - 2) == '\r' &&
+			diffEndsWithBlankLine(text, start, end - 2);
+	}
+
+	/**
+	 * Returns true if a range of text ends with "\n\n" or "\n\r\n".
+	 *
+	 * @param text  The text.
+	 * @param start Index of the first character of the range.
+	 * @param end   Index after the last character of the range.
+	 * @return True if the range ends with a blank line.
+	 */
+	private static boolean diffEndsWithBlankLine(CharSequence text, int start,
+	                                             int end)
+	{
+		if (end - start < 2 || text.charAt(end - 1) != '\n')
+		{
+			return false;
+		}
+		char c = text.charAt(end - 2);
+		return c == '\n' ||
+			(c == '\r' && end - start >= 3 && text.charAt(end - 3) == '\n');
+	}
+
+	/**
+	 * Returns true if a range of text starts with a blank line: two line
+	 * feeds, each optionally preceded by a carriage return (the behaviour of
+	 * the regex {@code \A\r?\n\r?\n}).
+	 *
+	 * @param text  The text.
+	 * @param start Index of the first character of the range.
+	 * @param end   Index after the last character of the range.
+	 * @return True if the range starts with a blank line.
+	 */
+	private static boolean diffBlankLineStart(CharSequence text, int start,
+	                                          int end)
+	{
+		int i = start;
+		for (int lineFeeds = 0; lineFeeds < 2; lineFeeds++)
+		{
+			if (i < end && text.charAt(i) == '\r')
+			{
+				i++;
+			}
+			if (i >= end || text.charAt(i) != '\n')
+			{
+				return false;
+			}
+			i++;
+		}
+		return true;
+	}
+
+	/**
+	 * Three strings viewed as one, so that an edit can slide between the two
+	 * equalities around it without building new strings. Reused for every
+	 * edit of a diff.
+	 */
+	private static final class DiffWindow implements CharSequence
+	{
+		private String text1;
+		private String text2;
+		private String text3;
+		private int end1;
+		private int end2;
+		private int length;
+
+		/**
+		 * Sets the strings to view.
+		 *
+		 * @param text1 The first string.
+		 * @param text2 The second string.
+		 * @param text3 The third string.
+		 */
+		void set(String text1, String text2, String text3)
+		{
+			this.text1 = text1;
+			this.text2 = text2;
+			this.text3 = text3;
+			this.end1 = text1.length();
+			this.end2 = end1 + text2.length();
+			this.length = end2 + text3.length();
+		}
+
+		@Override
+		public int length()
+		{
+			return length;
+		}
+
+		@Override
+		public char charAt(int index)
+		{
+			if (index < end1)
+			{
+				return text1.charAt(index);
+			}
+			if (index < end2)
+			{
+				return text2.charAt(index - end1);
+			}
+			return text3.charAt(index - end2);
+		}
+
+		@Override
+		public String subSequence(int start, int end)
+		{
+			if (end <= end1)
+			{
+				return text1.substring(start, end);
+			}
+			if (start >= end1 && end <= end2)
+			{
+				return text2.substring(start - end1, end - end1);
+			}
+			if (start >= end2)
+			{
+				return text3.substring(start - end2, end - end2);
+			}
+			StringBuilder result = new StringBuilder(end - start);
+			for (int i = start; i < end; i++)
+			{
+				result.append(charAt(i));
+			}
+			return result.toString();
+		}
+
+		@Override
+		public String toString()
+		{
+			return subSequence(0, length);
+		}
+	}
+
+	/**
+	 * Reduce the number of edits by eliminating operationally trivial equalities.
+	 *
+	 * @param diffs Compact list of diffs.
+	 * @return True if two equalities were left next to each other.
+	 * @see #diffMerge(DiffList)
+	 */
+	boolean diffCleanupEfficiency(DiffList diffs)
+	{
+		DiffList result = diffSplitEqualities(diffs);
+		if (result == null)
+		{
+			return false;
+		}
+		boolean joined = diffMerge(result);
+		diffs.setAll(result);
+		return joined;
+	}
 
 	/**
 	 * Reduce the number of edits by eliminating operationally trivial equalities.
@@ -1219,14 +2999,64 @@ public final class DiffMatchPatch
 	 */
 	public void diffCleanupEfficiency(LinkedList<Diff> diffs)
 	{
-		if (diffs.isEmpty())
+		diffCleanupEfficiency((List<Diff>) diffs);
+	}
+
+	/**
+	 * Reduce the number of edits by eliminating operationally trivial equalities.
+	 *
+	 * @param diffs List of Diff objects, such as a compact {@link DiffList}.
+	 */
+	public void diffCleanupEfficiency(List<Diff> diffs)
+	{
+		if (diffs instanceof DiffList)
 		{
+			diffCleanupEfficiency((DiffList) diffs);
 			return;
 		}
-		boolean changes = false;
-		Deque<Diff> equalities = new ArrayDeque<Diff>();  // Double-ended queue of equalities.
-		String lastEquality = null; // Always equal to equalities.peek().text
-		ListIterator<Diff> pointer = diffs.listIterator();
+		boolean split = false;
+		for (Diff diff : diffs)
+		{
+			if (diff.operation == Operation.EQUAL &&
+				diff.text.length() < diffEditCost)
+			{
+				split = true;
+				break;
+			}
+		}
+		if (!split)
+		{
+			// Only equalities shorter than diffEditCost can be split.
+			return;
+		}
+		DiffExcerpt excerpt = DiffExcerpt.of(diffs, diffEditCost, false);
+		if (diffCleanupEfficiency(excerpt.getDiffs()) && excerpt.hasCuts())
+		{
+			// An equality between two others is shifted like an edit, which may
+			// read the part of a long equality that was left out.
+			excerpt = DiffExcerpt.of(diffs);
+			diffCleanupEfficiency(excerpt.getDiffs());
+		}
+		excerpt.store(diffs);
+	}
+
+	/**
+	 * Find the operationally trivial equalities of a diff. The scan walks back
+	 * and forth exactly like a list iterator would, but over indexes: an
+	 * equality that is split is only marked, and stands for a deletion followed
+	 * by an insertion until the scan is over.
+	 *
+	 * @param diffs Compact list of diffs.
+	 * @return A copy of the diff in which the trivial equalities are replaced by
+	 * a deletion and an insertion, or null if there are none.
+	 */
+	DiffList diffSplitEqualities(DiffList diffs)
+	{
+		int count = diffs.size();
+		// Is an equality replaced by a deletion and an insertion.
+		boolean[] split = null;
+		IntList equalities = new IntList();  // Stack of indexes of equalities.
+		int lastEquality = -1; // The length of the top equality, -1 if none.
 		// Is there an insertion operation before the last equality.
 		boolean preIns = false;
 		// Is there a deletion operation before the last equality.
@@ -1235,34 +3065,51 @@ public final class DiffMatchPatch
 		boolean postIns = false;
 		// Is there a deletion operation after the last equality.
 		boolean postDel = false;
-		Diff thisDiff = pointer.next();
-		Diff safeDiff = thisDiff;  // The last Diff that is known to be unsplittable.
-		while (thisDiff != null)
+		// Positions are twice the index of a diff, plus one for the insertion of
+		// a split equality.
+		int position = 0;
+		int safePosition = 0;  // The last position known to be unsplittable.
+		while (position < count << 1)
 		{
-			if (thisDiff.operation == Operation.EQUAL)
+			int index = position >> 1;
+			boolean isSplit = split != null && split[index];
+			Operation operation;
+			int nextPosition;
+			if (isSplit)
+			{
+				operation = (position & 1) == 0 ? Operation.DELETE : Operation.INSERT;
+				nextPosition = position + 1;
+			}
+			else
+			{
+				operation = diffs.getOperation(index);
+				nextPosition = position + 2;
+			}
+			if (operation == Operation.EQUAL)
 			{
 				// Equality found.
-				if (thisDiff.text.length() < diffEditCost && (postIns || postDel))
+				int length = diffs.getLength(index);
+				if (length < diffEditCost && (postIns || postDel))
 				{
 					// Candidate found.
-					equalities.push(thisDiff);
+					equalities.add(index);
 					preIns = postIns;
 					preDel = postDel;
-					lastEquality = thisDiff.text;
+					lastEquality = length;
 				}
 				else
 				{
 					// Not a candidate, and can never become one.
 					equalities.clear();
-					lastEquality = null;
-					safeDiff = thisDiff;
+					lastEquality = -1;
+					safePosition = position;
 				}
 				postIns = postDel = false;
 			}
 			else
 			{
 				// An insertion or deletion.
-				if (thisDiff.operation == Operation.DELETE)
+				if (operation == Operation.DELETE)
 				{
 					postDel = true;
 				}
@@ -1278,243 +3125,447 @@ public final class DiffMatchPatch
 				 * <ins>A</del>X<ins>C</ins><del>D</del>
 				 * <ins>A</ins><del>B</del>X<del>C</del>
 				 */
-				if (lastEquality != null &&
+				if (lastEquality != -1 &&
 					((preIns && preDel && postIns && postDel) ||
-						((lastEquality.length() < diffEditCost / 2) &&
+						((lastEquality < diffEditCost / 2) &&
 							((preIns ? 1 : 0) + (preDel ? 1 : 0) +
 								(postIns ? 1 : 0) + (postDel ? 1 : 0)) == 3)))
 				{
-					//System.out.println("Splitting: '" + lastEquality + "'");
-					// Walk back to offending equality.
-					while (thisDiff != equalities.peek())
+					// Replace the equality with a delete and an insert.
+					int equality = equalities.pop();
+					if (split == null)
 					{
-						thisDiff = pointer.previous();
+						split = new boolean[count];
 					}
-					pointer.next();
-
-					// Replace equality with a delete.
-					pointer.set(new Diff(Operation.DELETE, lastEquality));
-					// Insert a corresponding an insert.
-					pointer.add(thisDiff = new Diff(Operation.INSERT, lastEquality));
-
-					equalities.pop();  // Throw away the equality we just deleted.
-					lastEquality = null;
+					split[equality] = true;
+					lastEquality = -1;
 					if (preIns && preDel)
 					{
 						// No changes made which could affect previous entry, keep going.
 						postIns = postDel = true;
 						equalities.clear();
-						safeDiff = thisDiff;
+						safePosition = (equality << 1) + 1;
+						nextPosition = (equality + 1) << 1;
 					}
 					else
 					{
-						if (!equalities.isEmpty())
+						if (equalities.size() != 0)
 						{
 							// Throw away the previous equality (it needs to be reevaluated).
 							equalities.pop();
 						}
-						if (equalities.isEmpty())
+						if (equalities.size() == 0)
 						{
 							// There are no previous questionable equalities,
 							// walk back to the last known safe diff.
-							thisDiff = safeDiff;
+							nextPosition = safePosition;
 						}
 						else
 						{
 							// There is an equality we can fall back to.
-							thisDiff = equalities.peek();
-						}
-						while (thisDiff != pointer.previous())
-						{
-							// Intentionally empty loop.
+							nextPosition = equalities.get(equalities.size() - 1) << 1;
 						}
 						postIns = postDel = false;
 					}
-
-					changes = true;
 				}
 			}
-			thisDiff = pointer.hasNext() ? pointer.next() : null;
+			position = nextPosition;
+		}
+		if (split == null)
+		{
+			return null;
+		}
+
+		DiffList result = new DiffList(diffs.getText1(), diffs.getText2(),
+			count + count / 2);
+		int pointer2 = 0;
+		for (int i = 0; i < count; i++)
+		{
+			Operation operation = diffs.getOperation(i);
+			int offset = diffs.getOffset(i);
+			int length = diffs.getLength(i);
+			if (split[i])
+			{
+				result.append(Operation.DELETE, offset, length);
+				result.append(Operation.INSERT, pointer2, length);
+			}
+			else
+			{
+				result.append(operation, offset, length);
+			}
+			if (operation != Operation.DELETE)
+			{
+				pointer2 += length;
+			}
 		}
+		return result;
+	}
+
+	/**
+	 * Reorder and merge like edit sections. Merge equalities.
+	 * Edits are merged and shifted by moving offsets; no text is copied.
+	 * <p>
+	 * When the edits between two equalities cancel out, the equalities are left
+	 * next to each other until the next cleanup, and an equality between two
+	 * others is then shifted as if it were an edit.
+	 *
+	 * @param diffs Compact list of diffs.
+	 * @return True if two equalities were left next to each other.
+	 */
+	boolean diffMerge(DiffList diffs)
+	{
+		return diffMerge(diffs, 0, DiffSource.of(diffs.getText1(),
+			diffs.getText2()));
+	}
 
-		if (changes)
+	/**
+	 * Reorder and merge like edit sections of a diff from an index onwards.
+	 * Merge equalities. The diff may be one of sequences of tokens.
+	 *
+	 * @param diffs  Compact list of diffs.
+	 * @param from   Index of the first diff to merge.
+	 * @param source The sequences that the diff transforms.
+	 * @return True if two equalities were left next to each other.
+	 * @see #diffMerge(DiffList)
+	 */
+	private static boolean diffMerge(DiffList diffs, int from,
+	                                 DiffSource source)
+	{
+		DiffList merged = new DiffList(diffs.getText1(), diffs.getText2(),
+			diffs.size() - from + 1);
+		boolean joined = diffMergeEdits(diffs, from, merged, source);
+		// If shifts were made, the diff needs reordering and another shift sweep.
+		// Every shift removes an equality, so this ends after as many passes as
+		// there are diffs at most.
+		if (diffShiftEdits(merged, source))
 		{
-			diffCleanupMerge(diffs);
+			DiffList scratch = new DiffList(diffs.getText1(), diffs.getText2(),
+				merged.size() + 1);
+			do
+			{
+				joined |= diffMergeEdits(merged, 0, scratch, source);
+				DiffList swap = merged;
+				merged = scratch;
+				scratch = swap;
+			}
+			while (diffShiftEdits(merged, source));
 		}
+		diffs.truncate(from);
+		diffs.appendAll(merged);
+		return joined;
+	}
+
+	/**
+	 * Reorder and merge like edit sections. Merge equalities.
+	 * Any edit section can move as long as it doesn't cross an equality.
+	 *
+	 * @param diffs LinkedList of Diff objects.
+	 */
+	public void diffCleanupMerge(LinkedList<Diff> diffs)
+	{
+		diffCleanupMerge((List<Diff>) diffs);
 	}
 
 	/**
 	 * Reorder and merge like edit sections. Merge equalities.
 	 * Any edit section can move as long as it doesn't cross an equality.
+	 * Compact lists are merged by moving offsets; no text is copied. Other lists
+	 * are merged over a {@link DiffExcerpt}, so long equalities are not copied.
+	 *
+	 * @param diffs List of Diff objects, such as a compact {@link DiffList} or
+	 *              the tail of a longer list.
+	 */
+	public void diffCleanupMerge(List<Diff> diffs)
+	{
+		if (diffs instanceof DiffList)
+		{
+			diffMerge((DiffList) diffs);
+			return;
+		}
+		DiffExcerpt excerpt = DiffExcerpt.of(diffs, 0, false);
+		if (diffMerge(excerpt.getDiffs()) && excerpt.hasCuts())
+		{
+			// An equality between two others is shifted like an edit, which may
+			// read the part of a long equality that was left out.
+			excerpt = DiffExcerpt.of(diffs);
+			diffMerge(excerpt.getDiffs());
+		}
+		excerpt.store(diffs);
+	}
+
+	/**
+	 * First pass of {@link #diffMerge(DiffList)}: merge each run of
+	 * edits into one deletion and one insertion, factor out their common
+	 * prefix and suffix, and merge adjacent equalities.
 	 *
-	 * @param diffs LinkedList of Diff objects.
+	 * @param diffs  Compact list of diffs.
+	 * @param from   Index of the first diff to merge.
+	 * @param merged Receives the result.
+	 * @param source The sequences that the diff transforms.
+	 * @return True if two equalities were left next to each other.
 	 */
-	public void diffCleanupMerge(LinkedList<Diff> diffs)
+	private static boolean diffMergeEdits(DiffList diffs, int from,
+	                                      DiffList merged, DiffSource source)
 	{
-		diffs.add(new Diff(Operation.EQUAL, ""));  // Add a dummy entry at the end.
-		ListIterator<Diff> pointer = diffs.listIterator();
+		int count = diffs.size();
+		merged.truncate(0);
 		int countDelete = 0;
 		int countInsert = 0;
-		String textDelete = "";
-		String textInsert = "";
-		Diff thisDiff = pointer.next();
-		Diff prevEqual = null;
-		int commonlength;
-		while (thisDiff != null)
+		int startDelete = 0;
+		int lengthDelete = 0;
+		int startInsert = 0;
+		int lengthInsert = 0;
+		// Index in merged of the first edit of the current run.
+		int runStart = 0;
+		int prevEqual = -1;
+		// Index in text1 after the last equality or deletion.
+		int end1 = 0;
+		boolean joined = false;
+		for (int i = from; i <= count; i++)
 		{
-			switch (thisDiff.operation)
+			Operation operation;
+			int offset;
+			int length;
+			if (i < count)
+			{
+				operation = diffs.getOperation(i);
+				offset = diffs.getOffset(i);
+				length = diffs.getLength(i);
+				if (operation != Operation.INSERT)
+				{
+					end1 = offset + length;
+				}
+			}
+			else
+			{
+				// A dummy entry at the end.
+				operation = Operation.EQUAL;
+				offset = end1;
+				length = 0;
+			}
+			switch (operation)
 			{
 				case INSERT:
-					countInsert++;
-					textInsert += thisDiff.text;
-					prevEqual = null;
+					if (countInsert++ == 0)
+					{
+						startInsert = offset;
+					}
+					lengthInsert += length;
+					merged.append(operation, offset, length);
+					prevEqual = -1;
 					break;
 				case DELETE:
-					countDelete++;
-					textDelete += thisDiff.text;
-					prevEqual = null;
+					if (countDelete++ == 0)
+					{
+						startDelete = offset;
+					}
+					lengthDelete += length;
+					merged.append(operation, offset, length);
+					prevEqual = -1;
 					break;
 				case EQUAL:
 					if (countDelete + countInsert > 1)
 					{
-						boolean bothTypes = countDelete != 0 && countInsert != 0;
-						// Delete the offending records.
-						pointer.previous();  // Reverse direction.
-						while (countDelete-- > 0)
-						{
-							pointer.previous();
-							pointer.remove();
-						}
-						while (countInsert-- > 0)
-						{
-							pointer.previous();
-							pointer.remove();
-						}
-						if (bothTypes)
+						// Replace the run by the merged records.
+						merged.truncate(runStart);
+						if (countDelete != 0 && countInsert != 0)
 						{
 							// Factor out any common prefixies.
-							commonlength = diffCommonPrefix(textInsert, textDelete);
+							int commonlength = source.commonPrefix(startDelete,
+								startInsert, Math.min(lengthDelete, lengthInsert));
 							if (commonlength != 0)
 							{
-								if (pointer.hasPrevious())
+								if (runStart > 0)
 								{
-									thisDiff = pointer.previous();
-									assert thisDiff.operation == Operation.EQUAL :
-										"Previous diff should have been an equality.";
-									thisDiff.text += textInsert.substring(0, commonlength);
-									pointer.next();
+									merged.set(runStart - 1, merged.getOffset(runStart - 1),
+										merged.getLength(runStart - 1) + commonlength);
 								}
 								else
 								{
-									pointer.add(new Diff(Operation.EQUAL,
-										textInsert.substring(0, commonlength)));
+									merged.append(Operation.EQUAL, startDelete, commonlength);
 								}
-								textInsert = textInsert.substring(commonlength);
-								textDelete = textDelete.substring(commonlength);
+								startInsert += commonlength;
+								lengthInsert -= commonlength;
+								startDelete += commonlength;
+								lengthDelete -= commonlength;
 							}
 							// Factor out any common suffixies.
-							commonlength = diffCommonSuffix(textInsert, textDelete);
+							commonlength = source.commonSuffix(startDelete + lengthDelete,
+								startInsert + lengthInsert, Math.min(lengthDelete,
+									lengthInsert));
 							if (commonlength != 0)
 							{
-								thisDiff = pointer.next();
-								thisDiff.text = textInsert.substring(textInsert.length() -
-									commonlength) + thisDiff.text;
-								textInsert = textInsert.substring(0, textInsert.length() -
-									commonlength);
-								textDelete = textDelete.substring(0, textDelete.length() -
-									commonlength);
-								pointer.previous();
+								offset -= commonlength;
+								length += commonlength;
+								lengthInsert -= commonlength;
+								lengthDelete -= commonlength;
 							}
 						}
-						// Insert the merged records.
-						if (textDelete.length() != 0)
+						if (lengthDelete != 0)
+						{
+							merged.append(Operation.DELETE, startDelete, lengthDelete);
+						}
+						if (lengthInsert != 0)
 						{
-							pointer.add(new Diff(Operation.DELETE, textDelete));
+							merged.append(Operation.INSERT, startInsert, lengthInsert);
 						}
-						if (textInsert.length() != 0)
+						if (i < count && merged.size() != 0 &&
+							merged.getOperation(merged.size() - 1) == Operation.EQUAL)
 						{
-							pointer.add(new Diff(Operation.INSERT, textInsert));
+							// The edits cancelled out.
+							joined = true;
 						}
-						// Step forward to the equality.
-						thisDiff = pointer.hasNext() ? pointer.next() : null;
+						merged.append(operation, offset, length);
+						prevEqual = merged.size() - 1;
 					}
-					else if (prevEqual != null)
+					else if (prevEqual != -1)
 					{
 						// Merge this equality with the previous one.
-						prevEqual.text += thisDiff.text;
-						pointer.remove();
-						thisDiff = pointer.previous();
-						pointer.next();  // Forward direction
+						merged.set(prevEqual, merged.getOffset(prevEqual),
+							merged.getLength(prevEqual) + length);
+					}
+					else
+					{
+						merged.append(operation, offset, length);
+						prevEqual = merged.size() - 1;
 					}
 					countInsert = 0;
 					countDelete = 0;
-					textDelete = "";
-					textInsert = "";
-					prevEqual = thisDiff;
+					lengthDelete = 0;
+					lengthInsert = 0;
+					runStart = merged.size();
 					break;
 			}
-			thisDiff = pointer.hasNext() ? pointer.next() : null;
 		}
-		if (diffs.getLast().text.length() == 0)
+		if (merged.getLength(merged.size() - 1) == 0)
 		{
-			diffs.removeLast();  // Remove the dummy entry at the end.
+			merged.truncate(merged.size() - 1);  // Remove the dummy entry at the end.
 		}
+		return joined;
+	}
 
-		/*
-		 * Second pass: look for single edits surrounded on both sides by equalities
-		 * which can be shifted sideways to eliminate an equality.
-		 * e.g: A<ins>BA</ins>C -> <ins>AB</ins>AC
-		 */
-		boolean changes = false;
-		// Create a new iterator at the start.
-		// (As opposed to walking the current one back.)
-		pointer = diffs.listIterator();
-		Diff prevDiff = pointer.hasNext() ? pointer.next() : null;
-		thisDiff = pointer.hasNext() ? pointer.next() : null;
-		Diff nextDiff = pointer.hasNext() ? pointer.next() : null;
+	/**
+	 * Second pass of {@link #diffMerge(DiffList)}: look for single edits
+	 * surrounded on both sides by equalities which can be shifted sideways to
+	 * eliminate an equality.
+	 * e.g: A<ins>BA</ins>C -> <ins>AB</ins>AC
+	 *
+	 * @param diffs  Compact list of diffs.
+	 * @param source The sequences that the diff transforms.
+	 * @return True if any edit was shifted.
+	 */
+	private static boolean diffShiftEdits(DiffList diffs, DiffSource source)
+	{
+		int count = diffs.size();
+		boolean[] removed = null;
+		// Indexes of the previous, current and next diff (-1 for none), and of
+		// the diff after them.
+		int prev = count > 0 ? 0 : -1;
+		int current = count > 1 ? 1 : -1;
+		int next = count > 2 ? 2 : -1;
+		int following = 3;
 		// Intentionally ignore the first and last element (don't need checking).
-		while (nextDiff != null)
+		while (next != -1)
 		{
-			if (prevDiff.operation == Operation.EQUAL &&
-				nextDiff.operation == Operation.EQUAL)
+			if (diffs.getOperation(prev) == Operation.EQUAL &&
+				diffs.getOperation(next) == Operation.EQUAL)
 			{
 				// This is a single edit surrounded by equalities.
-				if (thisDiff.text.endsWith(prevDiff.text))
+				boolean insert = diffs.getOperation(current) == Operation.INSERT;
+				int prevOffset = diffs.getOffset(prev);
+				int prevLength = diffs.getLength(prev);
+				int editOffset = diffs.getOffset(current);
+				int editLength = diffs.getLength(current);
+				int nextOffset = diffs.getOffset(next);
+				int nextLength = diffs.getLength(next);
+				if (prevLength <= editLength && source.regionMatches(insert,
+					editOffset + editLength - prevLength, prevOffset, prevLength))
 				{
 					// Shift the edit over the previous equality.
-					thisDiff.text = prevDiff.text +
-						thisDiff.text.substring(0, thisDiff.text.length() -
-							prevDiff.text.length());
-					nextDiff.text = prevDiff.text + nextDiff.text;
-					pointer.previous(); // Walk past nextDiff.
-					pointer.previous(); // Walk past thisDiff.
-					pointer.previous(); // Walk past prevDiff.
-					pointer.remove(); // Delete prevDiff.
-					pointer.next(); // Walk past thisDiff.
-					thisDiff = pointer.next(); // Walk past nextDiff.
-					nextDiff = pointer.hasNext() ? pointer.next() : null;
-					changes = true;
-				}
-				else if (thisDiff.text.startsWith(nextDiff.text))
+					if (removed == null)
+					{
+						removed = new boolean[count];
+					}
+					removed[prev] = true;
+					diffs.set(current, editOffset - prevLength, editLength);
+					diffs.set(next, nextOffset - prevLength, nextLength + prevLength);
+					prev = next;
+					current = following < count ? following++ : -1;
+					next = following < count ? following++ : -1;
+					continue;
+				}
+				if (nextLength <= editLength && source.regionMatches(insert,
+					editOffset, nextOffset, nextLength))
 				{
 					// Shift the edit over the next equality.
-					prevDiff.text += nextDiff.text;
-					thisDiff.text = thisDiff.text.substring(nextDiff.text.length()) +
-						nextDiff.text;
-					pointer.remove(); // Delete nextDiff.
-					nextDiff = pointer.hasNext() ? pointer.next() : null;
-					changes = true;
+					if (removed == null)
+					{
+						removed = new boolean[count];
+					}
+					removed[next] = true;
+					diffs.set(prev, prevOffset, prevLength + nextLength);
+					diffs.set(current, editOffset + nextLength, editLength);
+					next = following < count ? following++ : -1;
 				}
 			}
-			prevDiff = thisDiff;
-			thisDiff = nextDiff;
-			nextDiff = pointer.hasNext() ? pointer.next() : null;
+			prev = current;
+			current = next;
+			next = following < count ? following++ : -1;
 		}
-		// If shifts were made, the diff needs reordering and another shift sweep.
-		if (changes)
+		if (removed == null)
+		{
+			return false;
+		}
+		diffs.compact(removed);
+		return true;
+	}
+
+	/**
+	 * {@code loc} is a location in text1, compute and return the equivalent location in
+	 * text2. Only reads the lengths of the diffs.
+	 *
+	 * @param diffs Compact list of diffs.
+	 * @param loc   Location within text1.
+	 * @return Location within text2.
+	 * @see #diffXIndex(List, int)
+	 */
+	public int diffXIndex(DiffList diffs, int loc)
+	{
+		int chars1 = 0;
+		int chars2 = 0;
+		int lastChars1 = 0;
+		int lastChars2 = 0;
+		Operation lastOperation = null;
+		for (int i = 0; i < diffs.size(); i++)
+		{
+			Operation operation = diffs.getOperation(i);
+			int length = diffs.getLength(i);
+			if (operation != Operation.INSERT)
+			{
+				// Equality or deletion.
+				chars1 += length;
+			}
+			if (operation != Operation.DELETE)
+			{
+				// Equality or insertion.
+				chars2 += length;
+			}
+			if (chars1 > loc)
+			{
+				// Overshot the location.
+				lastOperation = operation;
+				break;
+			}
+			lastChars1 = chars1;
+			lastChars2 = chars2;
+		}
+		if (lastOperation == Operation.DELETE)
 		{
-			diffCleanupMerge(diffs);
+			// The location was deleted.
+			return lastChars2;
 		}
+		// Add the remaining character length.
+		return lastChars2 + (loc - lastChars1);
 	}
 
 	/**
@@ -1602,6 +3653,10 @@ public final class DiffMatchPatch
 	 */
 	public String diffText1(List<Diff> diffs)
 	{
+		if (diffs instanceof DiffList)
+		{
+			return ((DiffList) diffs).getText1();
+		}
 		StringBuilder text = new StringBuilder();
 		for (Diff aDiff : diffs)
 		{
@@ -1621,6 +3676,10 @@ public final class DiffMatchPatch
 	 */
 	public String diffText2(List<Diff> diffs)
 	{
+		if (diffs instanceof DiffList)
+		{
+			return ((DiffList) diffs).getText2();
+		}
 		StringBuilder text = new StringBuilder();
 		for (Diff aDiff : diffs)
 		{
@@ -1683,16 +3742,7 @@ public final class DiffMatchPatch
 			switch (aDiff.operation)
 			{
 				case INSERT:
-					try
-					{
-						text.append("+").append(URLEncoder.encode(aDiff.text, "UTF-8")
-							.replace('+', ' ')).append("\t");
-					}
-					catch (UnsupportedEncodingException e)
-					{
-						// Not likely on modern system.
-						throw new Error("This system does not support UTF-8.", e);
-					}
+					text.append("+").append(diffEncode(aDiff.text)).append("\t");
 					break;
 				case DELETE:
 					text.append("-").append(aDiff.text.length()).append("\t");
@@ -1712,6 +3762,62 @@ public final class DiffMatchPatch
 		return delta;
 	}
 
+	/**
+	 * Crush the diff into an encoded string which describes the operations
+	 * required to transform text1 into text2. Only the text of insertions is
+	 * extracted.
+	 *
+	 * @param diffs Compact list of diffs.
+	 * @return Delta text.
+	 * @see #diffToDelta(List)
+	 */
+	public String diffToDelta(DiffList diffs)
+	{
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < diffs.size(); i++)
+		{
+			switch (diffs.getOperation(i))
+			{
+				case INSERT:
+					text.append("+").append(diffEncode(diffs.getText(i))).append("\t");
+					break;
+				case DELETE:
+					text.append("-").append(diffs.getLength(i)).append("\t");
+					break;
+				case EQUAL:
+					text.append("=").append(diffs.getLength(i)).append("\t");
+					break;
+			}
+		}
+		String delta = text.toString();
+		if (delta.length() != 0)
+		{
+			// Strip off trailing tab character.
+			delta = delta.substring(0, delta.length() - 1);
+			delta = unescapeForEncodeUriCompatability(delta);
+		}
+		return delta;
+	}
+
+	/**
+	 * Encode the text of an insertion for a delta.
+	 *
+	 * @param text The text.
+	 * @return The text, URL-encoded but with spaces left as they are.
+	 */
+	private static String diffEncode(String text)
+	{
+		try
+		{
+			return URLEncoder.encode(text, "UTF-8").replace('+', ' ');
+		}
+		catch (UnsupportedEncodingException e)
+		{
+			// Not likely on modern system.
+			throw new Error("This system does not support UTF-8.", e);
+		}
+	}
+
 	/**
 	 * Given the original text1, and an encoded string which describes the
 	 * operations required to transform text1 into text2, compute the full diff.
@@ -1823,9 +3929,28 @@ public final class DiffMatchPatch
 	 * @return Best match index or -1.
 	 */
 	public int matchMain(String text, String pattern, int loc)
+	{
+		return matchMain(text, pattern, loc, new DiffBudget());
+	}
+
+	/**
+	 * Locate the best instance of 'pattern' in 'text' near 'loc' within a
+	 * budget. Running out of time or work units returns the best match found
+	 * so far; cancelling the budget aborts the search.
+	 *
+	 * @param text    The text to search.
+	 * @param pattern The pattern to search for.
+	 * @param loc     The location to search around.
+	 * @param budget  Limits the effort spent on the search.
+	 * @return Best match index or -1.
+	 * @throws java.util.concurrent.CancellationException If the budget is
+	 *                                                    cancelled.
+	 */
+	public int matchMain(String text, String pattern, int loc,
+	                     DiffBudget budget)
 	{
 		// Check for null inputs.
-		if (text == null || pattern == null)
+		if (text == null || pattern == null || budget == null)
 		{
 			throw new IllegalArgumentException("Null inputs. (matchMain)");
 		}
@@ -1850,155 +3975,109 @@ public final class DiffMatchPatch
 		else
 		{
 			// Do a fuzzy compare.
-			return matchBitap(text, pattern, loc);
+			return matchBitap(text, pattern, loc, budget);
 		}
 	}
 
 	/**
-	 * Locate the best instance of 'pattern' in 'text' near 'loc' using the
-	 * Bitap algorithm. Returns -1 if no match found.
+	 * Prepare a pattern for fuzzy searches of many texts, with the current
+	 * {@code matchThreshold} and {@code matchDistance}. Later changes to those
+	 * fields don't affect the pattern.
 	 *
-	 * @param text    The text to search.
 	 * @param pattern The pattern to search for.
-	 * @param loc     The location to search around.
-	 * @return Best match index or -1.
+	 * @return A pattern that finds the same matches as {@link #matchMain}.
 	 */
-	int matchBitap(String text, String pattern, int loc)
+	public MatchPattern matchCompile(String pattern)
 	{
-		assert (MATCH_MAX_BITS == 0 || pattern.length() <= MATCH_MAX_BITS) :
-			"Pattern too long for this application.";
-
-		// Initialise the alphabet.
-		Map<Character, Integer> s = matchAlphabet(pattern);
-
-		// Highest score beyond which we give up.
-		double scoreThreshold = matchThreshold;
-		// Is there a nearby exact match? (speedup)
-		int bestLoc = text.indexOf(pattern, loc);
-		if (bestLoc != -1)
+		if (pattern == null)
 		{
-			scoreThreshold = Math.min(matchBitapScore(0, bestLoc, loc, pattern),
-				scoreThreshold);
-			// What about in the other direction? (speedup)
-			bestLoc = text.lastIndexOf(pattern, loc + pattern.length());
-			if (bestLoc != -1)
-			{
-				scoreThreshold = Math.min(matchBitapScore(0, bestLoc, loc, pattern),
-					scoreThreshold);
-			}
+			throw new IllegalArgumentException("Null inputs. (matchCompile)");
 		}
+		return new MatchPattern(pattern, matchThreshold, matchDistance, true);
+	}
 
-		// Initialise the bit arrays.
-		int matchmask = 1 << (pattern.length() - 1);
-		bestLoc = -1;
+	/**
+	 * Locate the best instance of each of several patterns in 'text', each near
+	 * its own location.
+	 *
+	 * @param text     The text to search.
+	 * @param patterns The patterns to search for.
+	 * @param locs     {@code locs[i]} is the location to search around for
+	 *                 {@code patterns.get(i)}.
+	 * @return {@code result[i]} is the best match index of
+	 * {@code patterns.get(i)}, or -1.
+	 */
+	public int[] matchAll(String text, List<String> patterns, int[] locs)
+	{
+		return matchAll(text, patterns, locs, new DiffBudget());
+	}
 
-		int binMin;
-		int binMid;
-		int binMax = pattern.length() + text.length();
-		// Empty initialization added to appease Java compiler.
-		int[] lastRd = new int[0];
-		for (int d = 0; d < pattern.length(); d++)
+	/**
+	 * Locate the best instance of each of several patterns in 'text', each near
+	 * its own location, within a budget. Returns the matches of
+	 * {@link #matchMain}, but patterns of up to 64 characters that are sought
+	 * close to each other are matched in a single scan of the text.
+	 *
+	 * @param text     The text to search.
+	 * @param patterns The patterns to search for.
+	 * @param locs     {@code locs[i]} is the location to search around for
+	 *                 {@code patterns.get(i)}.
+	 * @param budget   Limits the effort spent on the search.
+	 * @return {@code result[i]} is the best match index of
+	 * {@code patterns.get(i)}, or -1.
+	 * @throws IllegalArgumentException If {@code patterns} and {@code locs}
+	 *                                  differ in length.
+	 * @throws java.util.concurrent.CancellationException If the budget is
+	 *                                                    cancelled.
+	 * @see MatchPattern#matchAll
+	 */
+	public int[] matchAll(String text, List<String> patterns, int[] locs,
+	                      DiffBudget budget)
+	{
+		// Check for null inputs.
+		if (patterns == null)
 		{
-			// Scan for the best match; each iteration allows for one more error.
-			// Run a binary search to determine how far from 'loc' we can stray at
-			// this error level.
-			binMin = 0;
-			binMid = binMax;
-			while (binMin < binMid)
-			{
-				if (matchBitapScore(d, loc + binMid, loc, pattern) <=
-					scoreThreshold)
-				{
-					binMin = binMid;
-				}
-				else
-				{
-					binMax = binMid;
-				}
-				binMid = (binMax - binMin) / 2 + binMin;
-			}
-			// Use the result from this iteration as the maximum for the next.
-			binMax = binMid;
-			int start = Math.max(1, loc - binMid + 1);
-			int finish = Math.min(loc + binMid, text.length()) + pattern.length();
-
-			int[] rd = new int[finish + 2];
-			rd[finish + 1] = (1 << d) - 1;
-			for (int j = finish; j >= start; j--)
-			{
-				int charMatch;
-				if (text.length() <= j - 1 || !s.containsKey(text.charAt(j - 1)))
-				{
-					// Out of range.
-					charMatch = 0;
-				}
-				else
-				{
-					charMatch = s.get(text.charAt(j - 1));
-				}
-				if (d == 0)
-				{
-					// First pass: exact match.
-					rd[j] = ((rd[j + 1] << 1) | 1) & charMatch;
-				}
-				else
-				{
-					// Subsequent passes: fuzzy match.
-					rd[j] = (((rd[j + 1] << 1) | 1) & charMatch) |
-						(((lastRd[j + 1] | lastRd[j]) << 1) | 1) | lastRd[j + 1];
-				}
-				if ((rd[j] & matchmask) != 0)
-				{
-					double score = matchBitapScore(d, j - 1, loc, pattern);
-					// This match will almost certainly be better than any existing
-					// match.  But check anyway.
-					if (score <= scoreThreshold)
-					{
-						// Told you so.
-						scoreThreshold = score;
-						bestLoc = j - 1;
-						if (bestLoc > loc)
-						{
-							// When passing loc, don't exceed our current distance from loc.
-							start = Math.max(1, 2 * loc - bestLoc);
-						}
-						else
-						{
-							// Already passed loc, downhill from here on in.
-							break;
-						}
-					}
-				}
-			}
-			if (matchBitapScore(d + 1, loc, loc, pattern) > scoreThreshold)
-			{
-				// No hope for a (better) match at greater error levels.
-				break;
-			}
-			lastRd = rd;
+			throw new IllegalArgumentException("Null inputs. (matchAll)");
+		}
+		List<MatchPattern> compiled = new ArrayList<>(patterns.size());
+		for (String pattern : patterns)
+		{
+			compiled.add(matchCompile(pattern));
 		}
-		return bestLoc;
+		return MatchPattern.matchAll(text, compiled, locs, budget);
 	}
 
 	/**
-	 * Compute and return the score for a match with e errors and x location.
+	 * Locate the best instance of 'pattern' in 'text' near 'loc' using the
+	 * Bitap algorithm. Returns -1 if no match found.
 	 *
-	 * @param e       Number of errors in match.
-	 * @param x       Location of match.
-	 * @param loc     Expected location of match.
-	 * @param pattern Pattern being sought.
-	 * @return Overall score for match (0.0 = good, 1.0 = bad).
+	 * @param text    The text to search.
+	 * @param pattern The pattern to search for.
+	 * @param loc     The location to search around.
+	 * @return Best match index or -1.
 	 */
-	private double matchBitapScore(int e, int x, int loc, String pattern)
+	int matchBitap(String text, String pattern, int loc)
 	{
-		float accuracy = (float) e / pattern.length();
-		int proximity = Math.abs(loc - x);
-		if (matchDistance == 0)
-		{
-			// Dodge divide by zero error.
-			return proximity == 0 ? accuracy : 1.0;
-		}
-		return accuracy + (proximity / (float) matchDistance);
+		return matchBitap(text, pattern, loc, new DiffBudget());
+	}
+
+	/**
+	 * Locate the best instance of 'pattern' in 'text' near 'loc' using the
+	 * Bitap algorithm. Returns -1 if no match found.
+	 * Every character scanned costs one work unit.
+	 *
+	 * @param text    The text to search.
+	 * @param pattern The pattern to search for.
+	 * @param loc     The location to search around.
+	 * @param budget  Limits the effort spent on the search.
+	 * @return Best match index found within the budget, or -1.
+	 */
+	int matchBitap(String text, String pattern, int loc, DiffBudget budget)
+	{
+		// The pattern is only searched for once, so it isn't worth precomputing
+		// its tables.
+		return new MatchPattern(pattern, matchThreshold, matchDistance, false).
+			bitap(text, loc, budget);
 	}
 
 	/**
@@ -2026,9 +4105,29 @@ public final class DiffMatchPatch
 
 	//  PATCH FUNCTIONS
 
+	/**
+	 * Does a range of a string occur only once in the string?
+	 *
+	 * @param text  The string.
+	 * @param start Index of the first character of the range.
+	 * @param end   Index after the last character of the range.
+	 * @return True if the range has no other occurrence.
+	 */
+	private static boolean isUnique(String text, int start, int end)
+	{
+		if (end - start <= SHORT_PATTERN_LENGTH)
+		{
+			String pattern = text.substring(start, end);
+			return text.indexOf(pattern) == text.lastIndexOf(pattern);
+		}
+		SubstringSearch search = new SubstringSearch(text, start, end);
+		int first = search.indexOf(text, 0, text.length());
+		return search.indexOf(text, first + 1, text.length()) == -1;
+	}
+
 	/**
 	 * Increase the context until it is unique,
-	 * but don't let the pattern expand beyond {@code MATCH_MAX_BITS}.
+	 * but don't let the pattern expand beyond {@code matchMaxBits}.
 	 *
 	 * @param patch The patch to grow.
 	 * @param text  Source text.
@@ -2039,17 +4138,19 @@ public final class DiffMatchPatch
 		{
 			return;
 		}
-		String pattern = text.substring(patch.start2, patch.start2 + patch.length1);
+		int patternStart = patch.start2;
+		int patternEnd = patch.start2 + patch.length1;
 		int padding = 0;
 
-		// Look for the first and last matches of pattern in text.  If two different
-		// matches are found, increase the pattern length.
-		while (text.indexOf(pattern) != text.lastIndexOf(pattern) &&
-			pattern.length() < MATCH_MAX_BITS - patchMargin - patchMargin)
+		// Look for the first and second matches of pattern in text.  If two
+		// different matches are found, increase the pattern length.
+		while (!isUnique(text, patternStart, patternEnd) &&
+			patternEnd - patternStart < matchMaxBits - patchMargin - patchMargin)
 		{
 			padding += patchMargin;
-			pattern = text.substring(Math.max(0, patch.start2 - padding),
-				Math.min(text.length(), patch.start2 + patch.length1 + padding));
+			patternStart = Math.max(0, patch.start2 - padding);
+			patternEnd = Math.min(text.length(), patch.start2 + patch.length1 +
+				padding);
 		}
 		// Add one chunk for good luck.
 		padding += patchMargin;
@@ -2091,14 +4192,15 @@ public final class DiffMatchPatch
 		{
 			throw new IllegalArgumentException("Null inputs. (patchMake)");
 		}
-		// No diffs provided, compute our own.
-		LinkedList<Diff> diffs = diffMain(text1, text2, true);
+		// No diffs provided, compute our own. Clean them up while they still
+		// refer to the texts.
+		DiffList diffs = diffMainCompact(text1, text2, true);
 		if (diffs.size() > 2)
 		{
 			diffCleanupSemantic(diffs);
 			diffCleanupEfficiency(diffs);
 		}
-		return patchMake(text1, diffs);
+		return patchMake(text1, diffs.toLinkedList());
 	}
 
 	/**
@@ -2119,6 +4221,28 @@ public final class DiffMatchPatch
 		return patchMake(text1, diffs);
 	}
 
+	/**
+	 * Compute a list of patches to turn text1 into text2.
+	 * text1 is taken from a compact {@link DiffList}, or derived from any other
+	 * list of diffs.
+	 *
+	 * @param diffs List of Diff objects for text1 to text2.
+	 * @return LinkedList of {@code Patch} objects.
+	 */
+	public LinkedList<Patch> patchMake(List<Diff> diffs)
+	{
+		if (diffs == null)
+		{
+			throw new IllegalArgumentException("Null inputs. (patchMake)");
+		}
+		if (diffs instanceof DiffList)
+		{
+			DiffList list = (DiffList) diffs;
+			return patchMake(list.getText1(), list.toLinkedList());
+		}
+		return patchMake(new LinkedList<>(diffs));
+	}
+
 	/**
 	 * Compute a list of patches to turn text1 into text2.
 	 * text2 is ignored, diffs are the delta between text1 and text2.
@@ -2272,6 +4396,47 @@ public final class DiffMatchPatch
 	 * boolean values.
 	 */
 	public Object[] patchApply(LinkedList<Patch> patches, String text)
+	{
+		return patchApply(patches, text, null, new DiffBudget());
+	}
+
+	/**
+	 * Merge a set of patches onto the text within a budget. Patches that can't
+	 * be located before the budget runs out are reported as not applied;
+	 * cancelling the budget aborts the merge.
+	 *
+	 * @param patches Array of {@code Patch} objects
+	 * @param text    Old text.
+	 * @param budget  Limits the effort spent on all matches and diffs, instead
+	 *                of {@code diffTimeout}.
+	 * @return Two element Object array, containing the new text and an array of
+	 * boolean values.
+	 * @throws java.util.concurrent.CancellationException If the budget is
+	 *                                                    cancelled.
+	 */
+	public Object[] patchApply(LinkedList<Patch> patches, String text,
+	                           DiffBudget budget)
+	{
+		if (budget == null)
+		{
+			throw new IllegalArgumentException("Null inputs. (patchApply)");
+		}
+		return patchApply(patches, text, budget, budget);
+	}
+
+	/**
+	 * Merge a set of patches onto the text.
+	 *
+	 * @param patches     Array of {@code Patch} objects
+	 * @param text        Old text.
+	 * @param diffBudget  Limits the effort spent on the diffs, or null to give
+	 *                    each diff its own {@code diffTimeout}.
+	 * @param matchBudget Limits the effort spent on the matches.
+	 * @return Two element Object array, containing the new text and an array of
+	 * boolean values.
+	 */
+	private Object[] patchApply(LinkedList<Patch> patches, String text,
+	                            DiffBudget diffBudget, DiffBudget matchBudget)
 	{
 		if (patches.isEmpty())
 		{
@@ -2301,17 +4466,17 @@ public final class DiffMatchPatch
 			String text1 = diffText1(aPatch.diffs);
 			int startLoc;
 			int endLoc = -1;
-			if (text1.length() > MATCH_MAX_BITS)
+			if (text1.length() > matchMaxBits)
 			{
 				// patchSplitMax will only provide an oversized pattern in the case of
 				// a monster delete.
 				startLoc = matchMain(text,
-					text1.substring(0, MATCH_MAX_BITS), expectedLoc);
+					text1.substring(0, matchMaxBits), expectedLoc, matchBudget);
 				if (startLoc != -1)
 				{
 					endLoc = matchMain(text,
-						text1.substring(text1.length() - MATCH_MAX_BITS),
-						expectedLoc + text1.length() - MATCH_MAX_BITS);
+						text1.substring(text1.length() - matchMaxBits),
+						expectedLoc + text1.length() - matchMaxBits, matchBudget);
 					if (endLoc == -1 || startLoc >= endLoc)
 					{
 						// Can't find valid trailing context.  Drop this patch.
@@ -2321,7 +4486,7 @@ public final class DiffMatchPatch
 			}
 			else
 			{
-				startLoc = matchMain(text, text1, expectedLoc);
+				startLoc = matchMain(text, text1, expectedLoc, matchBudget);
 			}
 			if (startLoc == -1)
 			{
@@ -2344,7 +4509,7 @@ public final class DiffMatchPatch
 				else
 				{
 					text2 = text.substring(startLoc,
-						Math.min(endLoc + MATCH_MAX_BITS, text.length()));
+						Math.min(endLoc + matchMaxBits, text.length()));
 				}
 				if (text1.equals(text2))
 				{
@@ -2356,8 +4521,10 @@ public final class DiffMatchPatch
 				{
 					// Imperfect match.  Run a diff to get a framework of equivalent
 					// indices.
-					LinkedList<Diff> diffs = diffMain(text1, text2, false);
-					if (text1.length() > MATCH_MAX_BITS &&
+					LinkedList<Diff> diffs = diffBudget == null ?
+						diffMain(text1, text2, false) :
+						diffMain(text1, text2, false, diffBudget);
+					if (text1.length() > matchMaxBits &&
 						diffLevenshtein(diffs) / (float) text1.length() >
 							this.patchDeleteThreshold)
 					{
@@ -2486,7 +4653,7 @@ public final class DiffMatchPatch
 	 */
 	void patchSplitMax(LinkedList<Patch> patches)
 	{
-		short patchSize = MATCH_MAX_BITS;
+		short patchSize = matchMaxBits;
 		String precontext, postcontext;
 		Patch patch;
 		int start1, start2;
@@ -2497,7 +4664,7 @@ public final class DiffMatchPatch
 		Patch bigpatch = pointer.hasNext() ? pointer.next() : null;
 		while (bigpatch != null)
 		{
-			if (bigpatch.length1 <= MATCH_MAX_BITS)
+			if (bigpatch.length1 <= matchMaxBits)
 			{
 				bigpatch = pointer.hasNext() ? pointer.next() : null;
 				continue;
@@ -0,0 +1,351 @@
+/*
+ * Diff Match and Patch
+ * Copyright 2018 The diff-match-patch Authors.
+ * https://github.com/google/diff-match-patch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bitbucket.cowwoc.diffmatchpatch;
+
+import java.util.Arrays;
+
+/**
+ * Scratch buffers reused by the diff and match algorithms.
+ * <p>
+ * Every thread owns one arena, returned by {@link #current()}. Buffers handed
+ * out by an arena are only valid until the next request for the same buffer,
+ * which is safe because each buffer is dead by the time the algorithm recurses.
+ * Buffers larger than {@link #getMaxRetained()} are allocated for the request
+ * and then dropped so that one huge diff doesn't pin memory to the thread. The
+ * default limit keeps an arena to a few kilobytes per buffer, which covers
+ * the small diffs that dominate most workloads; raise it on threads that
+ * repeatedly diff large texts.
+ * <p>
+ * Arenas are not thread-safe and must only be used by their own thread.
+ */
+public final class DiffScratch
+{
+	/**
+	 * The default maximum length of a buffer kept between requests.
+	 */
+	public static final int DEFAULT_MAX_RETAINED = 1 << 10;
+	private static final int[] EMPTY = new int[0];
+	private static final long[] NO_ROWS = new long[0];
+	private static final ThreadLocal<DiffScratch> CURRENT =
+		new ThreadLocal<DiffScratch>()
+		{
+			@Override
+			protected DiffScratch initialValue()
+			{
+				return new DiffScratch();
+			}
+		};
+
+	private int maxRetained = DEFAULT_MAX_RETAINED;
+	private int[] v1 = EMPTY;
+	private int[] v2 = EMPTY;
+	private int[] overlap = EMPTY;
+	private long[] rd = NO_ROWS;
+	private long[] lastRd = NO_ROWS;
+	private StringBuilder builder = new StringBuilder();
+	private long allocations;
+
+	/**
+	 * Constructor. Only {@link #current()} creates arenas.
+	 */
+	private DiffScratch()
+	{
+	}
+
+	/**
+	 * Returns the arena of the current thread.
+	 *
+	 * @return The arena.
+	 */
+	public static DiffScratch current()
+	{
+		return CURRENT.get();
+	}
+
+	/**
+	 * Returns the forward path array of {@code diffBisect}.
+	 *
+	 * @param length The number of elements needed.
+	 * @return An array of at least {@code length} elements, the first
+	 * {@code length} of which are -1.
+	 */
+	int[] bisectV1(int length)
+	{
+		int[] result = request(v1, length);
+		if (result.length <= maxRetained)
+		{
+			v1 = result;
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the reverse path array of {@code diffBisect}.
+	 *
+	 * @param length The number of elements needed.
+	 * @return An array of at least {@code length} elements, the first
+	 * {@code length} of which are -1.
+	 */
+	int[] bisectV2(int length)
+	{
+		int[] result = request(v2, length);
+		if (result.length <= maxRetained)
+		{
+			v2 = result;
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the prefix table of {@code diffCommonOverlap}. The table is
+	 * written before it is read, so its contents are left as they are.
+	 *
+	 * @param length The number of elements needed.
+	 * @return An array of at least {@code length} elements.
+	 */
+	int[] overlapTable(int length)
+	{
+		int[] result = reserve(overlap, length);
+		if (result.length <= maxRetained)
+		{
+			overlap = result;
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the row of the current error level of {@code matchBitap}.
+	 *
+	 * @param length The number of elements needed.
+	 * @return An array of at least {@code length} elements, the first
+	 * {@code length} of which are 0.
+	 */
+	long[] matchRd(int length)
+	{
+		long[] result = request(rd, length);
+		if (result.length <= maxRetained)
+		{
+			rd = result;
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the row of the previous error level of {@code matchBitap}.
+	 *
+	 * @param length The number of elements needed.
+	 * @return An array of at least {@code length} elements, the first
+	 * {@code length} of which are 0.
+	 */
+	long[] matchLastRd(int length)
+	{
+		long[] result = request(lastRd, length);
+		if (result.length <= maxRetained)
+		{
+			lastRd = result;
+		}
+		return result;
+	}
+
+	/**
+	 * Returns an empty string builder. Callers hand it back with
+	 * {@link #release(StringBuilder)} once they are done with it.
+	 *
+	 * @return The builder.
+	 */
+	StringBuilder builder()
+	{
+		if (builder.capacity() > maxRetained)
+		{
+			builder = new StringBuilder();
+		}
+		else
+		{
+			builder.setLength(0);
+		}
+		return builder;
+	}
+
+	/**
+	 * Hands back a builder returned by {@link #builder()}. A builder that grew
+	 * larger than {@link #getMaxRetained()} while in use is dropped.
+	 *
+	 * @param builder The builder.
+	 */
+	void release(StringBuilder builder)
+	{
+		if (builder == this.builder && builder.capacity() > maxRetained)
+		{
+			this.builder = new StringBuilder();
+		}
+	}
+
+	/**
+	 * Reuse or replace a buffer.
+	 *
+	 * @param buffer The buffer currently held by the arena.
+	 * @param length The number of elements needed.
+	 * @return A buffer of at least {@code length} elements, the first
+	 * {@code length} of which are -1.
+	 */
+	private int[] request(int[] buffer, int length)
+	{
+		buffer = reserve(buffer, length);
+		Arrays.fill(buffer, 0, length, -1);
+		return buffer;
+	}
+
+	/**
+	 * Reuse or replace a buffer, leaving its contents as they are.
+	 *
+	 * @param buffer The buffer currently held by the arena.
+	 * @param length The number of elements needed.
+	 * @return A buffer of at least {@code length} elements.
+	 */
+	private int[] reserve(int[] buffer, int length)
+	{
+		if (buffer.length < length)
+		{
+			++allocations;
+			if (length <= maxRetained)
+			{
+				// Grow geometrically so that slowly increasing sizes don't reallocate
+				// on every request.
+				buffer = new int[Math.min(maxRetained, Math.max(length,
+					buffer.length + (buffer.length >> 1)))];
+			}
+			else
+			{
+				buffer = new int[length];
+			}
+		}
+		return buffer;
+	}
+
+	/**
+	 * Reuse or replace a buffer of longs.
+	 *
+	 * @param buffer The buffer currently held by the arena.
+	 * @param length The number of elements needed.
+	 * @return A buffer of at least {@code length} elements, the first
+	 * {@code length} of which are 0.
+	 */
+	private long[] request(long[] buffer, int length)
+	{
+		if (buffer.length < length)
+		{
+			++allocations;
+			if (length <= maxRetained)
+			{
+				return new long[Math.min(maxRetained, Math.max(length,
+					buffer.length + (buffer.length >> 1)))];
+			}
+			return new long[length];
+		}
+		Arrays.fill(buffer, 0, length, 0);
+		return buffer;
+	}
+
+	/**
+	 * Returns the maximum length of a buffer kept between requests.
+	 *
+	 * @return The number of elements.
+	 */
+	public int getMaxRetained()
+	{
+		return maxRetained;
+	}
+
+	/**
+	 * Sets the maximum length of a buffer kept between requests. Buffers that
+	 * are already larger are released.
+	 *
+	 * @param maxRetained The number of elements.
+	 * @throws IllegalArgumentException If {@code maxRetained} is negative.
+	 */
+	public void setMaxRetained(int maxRetained)
+	{
+		if (maxRetained < 0)
+		{
+			throw new IllegalArgumentException("maxRetained may not be negative: " +
+				maxRetained);
+		}
+		this.maxRetained = maxRetained;
+		if (v1.length > maxRetained)
+		{
+			v1 = EMPTY;
+		}
+		if (v2.length > maxRetained)
+		{
+			v2 = EMPTY;
+		}
+		if (overlap.length > maxRetained)
+		{
+			overlap = EMPTY;
+		}
+		if (rd.length > maxRetained)
+		{
+			rd = NO_ROWS;
+		}
+		if (lastRd.length > maxRetained)
+		{
+			lastRd = NO_ROWS;
+		}
+		if (builder.capacity() > maxRetained)
+		{
+			builder = new StringBuilder();
+		}
+	}
+
+	/**
+	 * Returns the number of requests that could not reuse a retained buffer,
+	 * for tests.
+	 *
+	 * @return The number of allocations.
+	 */
+	long getAllocations()
+	{
+		return allocations;
+	}
+
+	/**
+	 * Returns the number of bytes currently retained by the arena, for tests.
+	 *
+	 * @return The number of bytes.
+	 */
+	long getRetainedBytes()
+	{
+		return 4L * (v1.length + v2.length + overlap.length) +
+			8L * (rd.length + lastRd.length) + 2L * builder.capacity();
+	}
+
+	/**
+	 * Resets the allocation count, for tests.
+	 */
+	void resetAllocations()
+	{
+		allocations = 0;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "DiffScratch(maxRetained=" + maxRetained + ", retainedBytes=" +
+			getRetainedBytes() + ")";
+	}
+}
@@ -0,0 +1,292 @@
+/*
+ * Diff Match and Patch
+ * Copyright 2018 The diff-match-patch Authors.
+ * https://github.com/google/diff-match-patch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bitbucket.cowwoc.diffmatchpatch;
+
+/**
+ * The two sequences diffed by the Myers engine of {@link DiffMatchPatch}:
+ * two texts compared character by character, or two sequences of int tokens
+ * (the lines of two texts, the elements of two lists...).
+ * <p>
+ * The engine only handles indexes into the sequences and leaves every
+ * comparison to the source, so diffing tokens gives exactly the edits that
+ * diffing one character per token would. Both kinds are handled by this one
+ * class so that the engine's calls, which are made once per diagonal of a
+ * bisection, have a single target and can be inlined.
+ * <p>
+ * Sources are not thread-safe; see {@link #fork()}.
+ */
+final class DiffSource
+{
+	private final String text1;
+	private final String text2;
+	private final int[] tokens1;
+	private final int[] tokens2;
+	/**
+	 * The last range of a text searched for, and which text it is searched in.
+	 */
+	private SubstringSearch search;
+	private boolean searchSecond;
+	private int searchStart;
+	private int searchEnd;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param text1   Old string to be diffed, or null.
+	 * @param text2   New string to be diffed, or null.
+	 * @param tokens1 Old sequence to be diffed, or null for texts.
+	 * @param tokens2 New sequence to be diffed, or null for texts.
+	 */
+	private DiffSource(String text1, String text2, int[] tokens1,
+	                   int[] tokens2)
+	{
+		this.text1 = text1;
+		this.text2 = text2;
+		this.tokens1 = tokens1;
+		this.tokens2 = tokens2;
+	}
+
+	/**
+	 * Returns the source of two texts.
+	 *
+	 * @param text1 Old string to be diffed.
+	 * @param text2 New string to be diffed.
+	 * @return The source.
+	 */
+	static DiffSource of(String text1, String text2)
+	{
+		return new DiffSource(text1, text2, null, null);
+	}
+
+	/**
+	 * Returns the source of two sequences of tokens.
+	 *
+	 * @param tokens1 Old sequence to be diffed.
+	 * @param tokens2 New sequence to be diffed.
+	 * @return The source.
+	 */
+	static DiffSource of(int[] tokens1, int[] tokens2)
+	{
+		return new DiffSource(null, null, tokens1, tokens2);
+	}
+
+	/**
+	 * Returns the first text, or null if the sequences are not texts.
+	 *
+	 * @return Old string to be diffed.
+	 */
+	String getText1()
+	{
+		return text1;
+	}
+
+	/**
+	 * Returns the second text, or null if the sequences are not texts.
+	 *
+	 * @return New string to be diffed.
+	 */
+	String getText2()
+	{
+		return text2;
+	}
+
+	/**
+	 * Returns a source of the same sequences that another thread may use.
+	 *
+	 * @return The source.
+	 */
+	DiffSource fork()
+	{
+		return new DiffSource(text1, text2, tokens1, tokens2);
+	}
+
+	/**
+	 * Count the elements that the sequences have in common from given indexes
+	 * onwards.
+	 *
+	 * @param start1 Index in the first sequence at which to start comparing.
+	 * @param start2 Index in the second sequence at which to start comparing.
+	 * @param length The maximum number of elements to compare.
+	 * @return The number of equal elements, at most {@code length}.
+	 */
+	int commonPrefix(int start1, int start2, int length)
+	{
+		if (tokens1 == null)
+		{
+			return CharScan.commonPrefix(text1, start1, text2, start2, length);
+		}
+		return commonPrefix(tokens1, start1, tokens2, start2, length);
+	}
+
+	/**
+	 * Count the tokens that two sequences have in common from given indexes
+	 * onwards.
+	 *
+	 * @param tokens1 First sequence.
+	 * @param start1  Index in tokens1 at which to start comparing.
+	 * @param tokens2 Second sequence.
+	 * @param start2  Index in tokens2 at which to start comparing.
+	 * @param length  The maximum number of tokens to compare.
+	 * @return The number of equal tokens, at most {@code length}.
+	 */
+	private static int commonPrefix(int[] tokens1, int start1, int[] tokens2,
+	                                int start2, int length)
+	{
+		for (int i = 0; i < length; i++)
+		{
+			if (tokens1[start1 + i] != tokens2[start2 + i])
+			{
+				return i;
+			}
+		}
+		return Math.max(length, 0);
+	}
+
+	/**
+	 * Count the elements that the sequences have in common before given
+	 * indexes.
+	 *
+	 * @param end1   Index in the first sequence before which to start
+	 *               comparing.
+	 * @param end2   Index in the second sequence before which to start
+	 *               comparing.
+	 * @param length The maximum number of elements to compare.
+	 * @return The number of equal elements, at most {@code length}.
+	 */
+	int commonSuffix(int end1, int end2, int length)
+	{
+		if (tokens1 == null)
+		{
+			return CharScan.commonSuffix(text1, end1, text2, end2, length);
+		}
+		return commonSuffix(tokens1, end1, tokens2, end2, length);
+	}
+
+	/**
+	 * Count the tokens that two sequences have in common before given indexes.
+	 *
+	 * @param tokens1 First sequence.
+	 * @param end1    Index in tokens1 before which to start comparing.
+	 * @param tokens2 Second sequence.
+	 * @param end2    Index in tokens2 before which to start comparing.
+	 * @param length  The maximum number of tokens to compare.
+	 * @return The number of equal tokens, at most {@code length}.
+	 */
+	private static int commonSuffix(int[] tokens1, int end1, int[] tokens2,
+	                                int end2, int length)
+	{
+		for (int i = 1; i <= length; i++)
+		{
+			if (tokens1[end1 - i] != tokens2[end2 - i])
+			{
+				return i - 1;
+			}
+		}
+		return Math.max(length, 0);
+	}
+
+	/**
+	 * Returns true if a range of either sequence is equal to a range of the
+	 * first one.
+	 *
+	 * @param second True if the range is in the second sequence.
+	 * @param start  Index of the first element of the range.
+	 * @param start1 Index of the first element of the range to compare it to,
+	 *               in the first sequence.
+	 * @param length The number of elements to compare.
+	 * @return True if the ranges are equal.
+	 */
+	boolean regionMatches(boolean second, int start, int start1, int length)
+	{
+		if (tokens1 == null)
+		{
+			return (second ? text2 : text1).regionMatches(start, text1, start1,
+				length);
+		}
+		int[] tokens = second ? tokens2 : tokens1;
+		for (int i = 0; i < length; i++)
+		{
+			if (tokens[start + i] != tokens1[start1 + i])
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Find the first occurrence of a range of one sequence within a range of
+	 * the other.
+	 *
+	 * @param second       True to search the second sequence for a range of
+	 *                     the first one, false for the opposite.
+	 * @param from         Index at which to start searching.
+	 * @param end          Index after which no match may end.
+	 * @param patternStart Index of the first element of the range to search
+	 *                     for.
+	 * @param patternEnd   Index after the last element of the range to search
+	 *                     for.
+	 * @return Index of the first match, or -1 if there is none.
+	 */
+	int indexOf(boolean second, int from, int end, int patternStart,
+	            int patternEnd)
+	{
+		if (tokens1 == null)
+		{
+			// Half-matches search for the same seed repeatedly; keep the prefix
+			// functions that its search computed.
+			if (search == null || second != searchSecond ||
+				patternStart != searchStart || patternEnd != searchEnd)
+			{
+				search = new SubstringSearch(second ? text1 : text2, patternStart,
+					patternEnd);
+				searchSecond = second;
+				searchStart = patternStart;
+				searchEnd = patternEnd;
+			}
+			return search.indexOf(second ? text2 : text1, from, end);
+		}
+		int[] tokens = second ? tokens2 : tokens1;
+		int[] pattern = second ? tokens1 : tokens2;
+		int patternLength = patternEnd - patternStart;
+		if (patternLength == 0)
+		{
+			return from <= end ? from : -1;
+		}
+		int first = pattern[patternStart];
+		int max = end - patternLength;
+		for (int i = from; i <= max; i++)
+		{
+			if (tokens[i] != first)
+			{
+				continue;
+			}
+			int matched = 1;
+			while (matched < patternLength &&
+				tokens[i + matched] == pattern[patternStart + matched])
+			{
+				++matched;
+			}
+			if (matched == patternLength)
+			{
+				return i;
+			}
+		}
+		return -1;
+	}
+}
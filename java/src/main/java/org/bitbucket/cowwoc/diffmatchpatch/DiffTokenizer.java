@@ -0,0 +1,97 @@
+/*
+ * Diff Match and Patch
+ * Copyright 2018 The diff-match-patch Authors.
+ * https://github.com/google/diff-match-patch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bitbucket.cowwoc.diffmatchpatch;
+
+/**
+ * Splits text into the tokens diffed by the {@code checklines} speedup of
+ * {@link DiffMatchPatch#diffMain} and by {@link DiffMatchPatch#diffTokens}.
+ * <p>
+ * Implementations must be thread-safe.
+ */
+public interface DiffTokenizer
+{
+	/**
+	 * Every line, including its trailing newline, is a token. This is the
+	 * default.
+	 */
+	DiffTokenizer LINES = new DiffTokenizer()
+	{
+		@Override
+		public int tokenEnd(String text, int start, int end)
+		{
+			int newline = text.indexOf('\n', start);
+			return newline == -1 || newline >= end ? end : newline + 1;
+		}
+
+		@Override
+		public String toString()
+		{
+			return "LINES";
+		}
+	};
+	/**
+	 * Every run of letters and digits is a token, as is every run of
+	 * whitespace. Any other character is a token of its own.
+	 */
+	DiffTokenizer WORDS = new DiffTokenizer()
+	{
+		@Override
+		public int tokenEnd(String text, int start, int end)
+		{
+			int codePoint = text.codePointAt(start);
+			int i = start + Character.charCount(codePoint);
+			if (Character.isLetterOrDigit(codePoint))
+			{
+				while (i < end)
+				{
+					codePoint = text.codePointAt(i);
+					if (!Character.isLetterOrDigit(codePoint))
+					{
+						break;
+					}
+					i += Character.charCount(codePoint);
+				}
+			}
+			else if (Character.isWhitespace(codePoint))
+			{
+				while (i < end && Character.isWhitespace(text.charAt(i)))
+				{
+					i++;
+				}
+			}
+			return Math.min(i, end);
+		}
+
+		@Override
+		public String toString()
+		{
+			return "WORDS";
+		}
+	};
+
+	/**
+	 * Find the end of the token that starts at an index.
+	 *
+	 * @param text  The string.
+	 * @param start Index of the first character of the token.
+	 * @param end   Index after the last character of the range being split.
+	 * @return The index after the last character of the token, greater than
+	 * {@code start} and no greater than {@code end}.
+	 */
+	int tokenEnd(String text, int start, int end);
+}
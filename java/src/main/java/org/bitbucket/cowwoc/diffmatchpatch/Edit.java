@@ -0,0 +1,103 @@
+/*
+ * Diff Match and Patch
+ * Copyright 2018 The diff-match-patch Authors.
+ * https://github.com/google/diff-match-patch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bitbucket.cowwoc.diffmatchpatch;
+
+import org.bitbucket.cowwoc.diffmatchpatch.DiffMatchPatch.Operation;
+
+/**
+ * One operation of an index-based edit script, as returned by
+ * {@link DiffMatchPatch#diffSequences}.
+ * <p>
+ * The edits of a script cover both sequences in order: equalities and
+ * deletions consume elements of the first sequence, equalities and insertions
+ * consume elements of the second one.
+ */
+public final class Edit
+{
+	/**
+	 * One of: INSERT, DELETE or EQUAL.
+	 */
+	public final Operation operation;
+	/**
+	 * Index in the first sequence at which the edit starts.
+	 */
+	public final int index1;
+	/**
+	 * Index in the second sequence at which the edit starts.
+	 */
+	public final int index2;
+	/**
+	 * The number of elements covered by the edit.
+	 */
+	public final int length;
+
+	/**
+	 * Constructor. Initializes the edit with the provided values.
+	 *
+	 * @param operation One of INSERT, DELETE or EQUAL.
+	 * @param index1    Index in the first sequence at which the edit starts.
+	 * @param index2    Index in the second sequence at which the edit starts.
+	 * @param length    The number of elements covered by the edit.
+	 */
+	public Edit(Operation operation, int index1, int index2, int length)
+	{
+		this.operation = operation;
+		this.index1 = index1;
+		this.index2 = index2;
+		this.length = length;
+	}
+
+	/**
+	 * Display a human-readable version of this Edit.
+	 *
+	 * @return text version.
+	 */
+	@Override
+	public String toString()
+	{
+		return "Edit(" + operation + "," + index1 + "," + index2 + "," + length +
+			")";
+	}
+
+	@Override
+	public int hashCode()
+	{
+		final int prime = 31;
+		int result = (operation == null) ? 0 : operation.hashCode();
+		result = prime * result + index1;
+		result = prime * result + index2;
+		result = prime * result + length;
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj)
+	{
+		if (this == obj)
+		{
+			return true;
+		}
+		if (!(obj instanceof Edit))
+		{
+			return false;
+		}
+		Edit other = (Edit) obj;
+		return operation == other.operation && index1 == other.index1 &&
+			index2 == other.index2 && length == other.length;
+	}
+}
@@ -0,0 +1,67 @@
+/*
+ * Diff Match and Patch
+ * Copyright 2018 The diff-match-patch Authors.
+ * https://github.com/google/diff-match-patch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bitbucket.cowwoc.diffmatchpatch;
+
+/**
+ * Decides which elements of two sequences are equal, for
+ * {@link DiffMatchPatch#diffSequences(java.util.List, java.util.List,
+ * Equivalence)}.
+ * <p>
+ * As with {@link Object#hashCode()}, equivalent elements must have the same
+ * hash.
+ *
+ * @param <T> The type of the elements.
+ */
+public interface Equivalence<T>
+{
+	/**
+	 * Compares elements using {@link Object#equals(Object)} and
+	 * {@link Object#hashCode()}. Nulls are equivalent to each other.
+	 */
+	Equivalence<Object> EQUALS = new Equivalence<Object>()
+	{
+		@Override
+		public int hash(Object element)
+		{
+			return element == null ? 0 : element.hashCode();
+		}
+
+		@Override
+		public boolean equivalent(Object first, Object second)
+		{
+			return first == null ? second == null : first.equals(second);
+		}
+	};
+
+	/**
+	 * Returns the hash of an element.
+	 *
+	 * @param element The element.
+	 * @return The hash.
+	 */
+	int hash(T element);
+
+	/**
+	 * Are two elements equivalent?
+	 *
+	 * @param first  The first element.
+	 * @param second The second element.
+	 * @return true or false.
+	 */
+	boolean equivalent(T first, T second);
+}
@@ -0,0 +1,127 @@
+/*
+ * Diff Match and Patch
+ * Copyright 2018 The diff-match-patch Authors.
+ * https://github.com/google/diff-match-patch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bitbucket.cowwoc.diffmatchpatch;
+
+import java.util.Arrays;
+
+/**
+ * Histogram diff, as popularized by JGit. Counts how often every token occurs
+ * in the first region, picks the longest common run built around the rarest
+ * tokens and recurses on both sides of it. Tokens that occur more than
+ * {@link #MAX_CHAIN_LENGTH} times are never used as anchors; regions made up of
+ * such tokens are left to Myers.
+ *
+ * @see DiffAlgorithm#HISTOGRAM
+ */
+final class HistogramDiff extends AnchoredDiff
+{
+	/**
+	 * The maximum number of occurrences of a token that may anchor a run.
+	 */
+	static final int MAX_CHAIN_LENGTH = 64;
+
+	@Override
+	Splitter newSplitter(final int[] a, final int[] b, int alphabet)
+	{
+		// count[t] is the number of occurrences of token t in the current region of
+		// a, head[t] its first occurrence and next[i] the one following a[i].
+		final int[] count = new int[alphabet];
+		final int[] head = new int[alphabet];
+		final int[] next = new int[a.length];
+		Arrays.fill(head, -1);
+		return new Splitter()
+		{
+			@Override
+			void split(int a0, int a1, int b0, int b1, IntList stack)
+			{
+				for (int i = a1 - 1; i >= a0; i--)
+				{
+					int token = a[i];
+					next[i] = head[token];
+					head[token] = i;
+					count[token]++;
+				}
+
+				int bestA = -1;
+				int bestB = -1;
+				int bestLength = 0;
+				int bestCount = MAX_CHAIN_LENGTH + 1;
+				for (int j = b0; j < b1; )
+				{
+					int nextJ = j + 1;
+					int occurrences = count[b[j]];
+					if (occurrences != 0 &&
+						occurrences <= Math.min(bestCount, MAX_CHAIN_LENGTH))
+					{
+						for (int i = head[b[j]]; i != -1; i = next[i])
+						{
+							// Extend the match in both directions, tracking its rarest token.
+							int runCount = occurrences;
+							int startA = i;
+							int startB = j;
+							while (startA > a0 && startB > b0 &&
+								a[startA - 1] == b[startB - 1])
+							{
+								startA--;
+								startB--;
+								runCount = Math.min(runCount, count[a[startA]]);
+							}
+							int endA = i + 1;
+							int endB = j + 1;
+							while (endA < a1 && endB < b1 && a[endA] == b[endB])
+							{
+								runCount = Math.min(runCount, count[a[endA]]);
+								endA++;
+								endB++;
+							}
+							nextJ = Math.max(nextJ, endB);
+							if (endA - startA > bestLength || runCount < bestCount)
+							{
+								bestA = startA;
+								bestB = startB;
+								bestLength = endA - startA;
+								bestCount = runCount;
+							}
+						}
+					}
+					j = nextJ;
+				}
+
+				for (int i = a0; i < a1; i++)
+				{
+					head[a[i]] = -1;
+					count[a[i]] = 0;
+				}
+				if (bestLength == 0)
+				{
+					// Nothing in common, or every common token is too frequent.
+					return;
+				}
+				pushRegion(stack, bestA + bestLength, a1, bestB + bestLength, b1);
+				pushRun(stack, bestA, bestB, bestLength);
+				pushRegion(stack, a0, bestA, b0, bestB);
+			}
+		};
+	}
+
+	@Override
+	public String toString()
+	{
+		return "HISTOGRAM";
+	}
+}
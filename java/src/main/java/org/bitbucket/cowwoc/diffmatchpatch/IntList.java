@@ -0,0 +1,131 @@
+/*
+ * Diff Match and Patch
+ * Copyright 2018 The diff-match-patch Authors.
+ * https://github.com/google/diff-match-patch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bitbucket.cowwoc.diffmatchpatch;
+
+import java.util.Arrays;
+
+/**
+ * A growable list of primitive ints.
+ */
+final class IntList
+{
+	private int[] elements;
+	private int size;
+
+	/**
+	 * Constructor. Initializes an empty list.
+	 */
+	IntList()
+	{
+		this(16);
+	}
+
+	/**
+	 * Constructor. Initializes an empty list.
+	 *
+	 * @param capacity The initial capacity.
+	 */
+	IntList(int capacity)
+	{
+		this.elements = new int[Math.max(1, capacity)];
+	}
+
+	/**
+	 * Append an element.
+	 *
+	 * @param element The element.
+	 */
+	void add(int element)
+	{
+		if (size == elements.length)
+		{
+			elements = Arrays.copyOf(elements, size + (size >> 1) + 1);
+		}
+		elements[size++] = element;
+	}
+
+	/**
+	 * Returns an element.
+	 *
+	 * @param index The index of the element.
+	 * @return The element.
+	 */
+	int get(int index)
+	{
+		return elements[index];
+	}
+
+	/**
+	 * Replaces an element.
+	 *
+	 * @param index   The index of the element.
+	 * @param element The new value.
+	 */
+	void set(int index, int element)
+	{
+		elements[index] = element;
+	}
+
+	/**
+	 * Removes and returns the last element.
+	 *
+	 * @return The element.
+	 */
+	int pop()
+	{
+		return elements[--size];
+	}
+
+	/**
+	 * Returns the number of elements.
+	 *
+	 * @return The size.
+	 */
+	int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Removes every element from an index onwards.
+	 *
+	 * @param size The new size, no larger than the current one.
+	 */
+	void truncate(int size)
+	{
+		this.size = size;
+	}
+
+	/**
+	 * Removes all elements.
+	 */
+	void clear()
+	{
+		size = 0;
+	}
+
+	/**
+	 * Returns the elements as an array.
+	 *
+	 * @return A copy of the elements.
+	 */
+	int[] toArray()
+	{
+		return Arrays.copyOf(elements, size);
+	}
+}
@@ -0,0 +1,198 @@
+/*
+ * Diff Match and Patch
+ * Copyright 2018 The diff-match-patch Authors.
+ * https://github.com/google/diff-match-patch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bitbucket.cowwoc.diffmatchpatch;
+
+/**
+ * A map from lines of text to ints that doesn't copy the lines.
+ * <p>
+ * A line is identified by the range of its source text that it spans and is
+ * keyed by a 64-bit polynomial hash of that range. Entries live in an
+ * open-addressing table with linear probing; two ranges with the same hash
+ * are compared character by character before they are considered equal, so
+ * hash collisions can't merge different lines. Only the source string and the
+ * bounds of the first occurrence of each line are kept; the line itself is
+ * never materialized.
+ */
+final class LineDictionary
+{
+	/**
+	 * The multiplier of the polynomial hash (the 64-bit FNV prime).
+	 */
+	private static final long MULTIPLIER = 1099511628211L;
+
+	private long[] hashes;
+	private String[] texts;
+	private int[] starts;
+	private int[] lengths;
+	private int[] values;
+	private int size;
+
+	/**
+	 * Constructor. Initializes an empty dictionary.
+	 *
+	 * @param expectedLines The number of distinct lines expected.
+	 */
+	LineDictionary(int expectedLines)
+	{
+		allocate(SequenceTokens.tableSize(Math.max(8, expectedLines)));
+	}
+
+	/**
+	 * Hash a range of text.
+	 *
+	 * @param text  The string.
+	 * @param start Index of the first character of the range.
+	 * @param end   Index after the last character of the range.
+	 * @return The hash.
+	 */
+	static long hash(String text, int start, int end)
+	{
+		long hash = 0;
+		for (int i = start; i < end; i++)
+		{
+			hash = hash * MULTIPLIER + text.charAt(i);
+		}
+		return hash;
+	}
+
+	/**
+	 * Returns the number of lines in the dictionary.
+	 *
+	 * @return The number of lines.
+	 */
+	int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Look up a line.
+	 *
+	 * @param text  The string containing the line.
+	 * @param start Index of the first character of the line.
+	 * @param end   Index after the last character of the line.
+	 * @param hash  The hash of the line.
+	 * @return The value of the line, or -1 if it isn't in the dictionary.
+	 */
+	int get(String text, int start, int end, long hash)
+	{
+		int slot = find(text, start, end, hash);
+		return texts[slot] == null ? -1 : values[slot];
+	}
+
+	/**
+	 * Associate a value with a line, replacing any previous value.
+	 *
+	 * @param text  The string containing the line.
+	 * @param start Index of the first character of the line.
+	 * @param end   Index after the last character of the line.
+	 * @param hash  The hash of the line.
+	 * @param value The value.
+	 */
+	void put(String text, int start, int end, long hash, int value)
+	{
+		int slot = find(text, start, end, hash);
+		if (texts[slot] == null)
+		{
+			if (2 * (size + 1) > texts.length)
+			{
+				grow();
+				slot = find(text, start, end, hash);
+			}
+			hashes[slot] = hash;
+			texts[slot] = text;
+			starts[slot] = start;
+			lengths[slot] = end - start;
+			++size;
+		}
+		values[slot] = value;
+	}
+
+	/**
+	 * Find the slot holding a line, or the empty slot where it belongs.
+	 *
+	 * @param text  The string containing the line.
+	 * @param start Index of the first character of the line.
+	 * @param end   Index after the last character of the line.
+	 * @param hash  The hash of the line.
+	 * @return The slot.
+	 */
+	private int find(String text, int start, int end, long hash)
+	{
+		int mask = texts.length - 1;
+		int length = end - start;
+		int slot = SequenceTokens.spread((int) (hash ^ (hash >>> 32))) & mask;
+		while (texts[slot] != null)
+		{
+			if (hashes[slot] == hash && lengths[slot] == length &&
+				texts[slot].regionMatches(starts[slot], text, start, length))
+			{
+				break;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	/**
+	 * Double the capacity of the table.
+	 */
+	private void grow()
+	{
+		long[] oldHashes = hashes;
+		String[] oldTexts = texts;
+		int[] oldStarts = starts;
+		int[] oldLengths = lengths;
+		int[] oldValues = values;
+		allocate(oldTexts.length * 2);
+		int mask = texts.length - 1;
+		for (int i = 0; i < oldTexts.length; i++)
+		{
+			if (oldTexts[i] == null)
+			{
+				continue;
+			}
+			// Entries are distinct, so only an empty slot is needed.
+			int slot = SequenceTokens.spread((int) (oldHashes[i] ^
+				(oldHashes[i] >>> 32))) & mask;
+			while (texts[slot] != null)
+			{
+				slot = (slot + 1) & mask;
+			}
+			hashes[slot] = oldHashes[i];
+			texts[slot] = oldTexts[i];
+			starts[slot] = oldStarts[i];
+			lengths[slot] = oldLengths[i];
+			values[slot] = oldValues[i];
+		}
+	}
+
+	/**
+	 * Replace the table by an empty one.
+	 *
+	 * @param capacity The number of slots, a power of two.
+	 */
+	private void allocate(int capacity)
+	{
+		hashes = new long[capacity];
+		texts = new String[capacity];
+		starts = new int[capacity];
+		lengths = new int[capacity];
+		values = new int[capacity];
+	}
+}
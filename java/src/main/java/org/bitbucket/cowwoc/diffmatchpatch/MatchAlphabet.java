@@ -0,0 +1,185 @@
+/*
+ * Diff Match and Patch
+ * Copyright 2018 The diff-match-patch Authors.
+ * https://github.com/google/diff-match-patch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bitbucket.cowwoc.diffmatchpatch;
+
+/**
+ * The alphabet of the Bitap algorithm: the positions at which each character
+ * occurs in the pattern, as a bit mask.
+ * <p>
+ * Position {@code i} of a pattern of length {@code n} is bit
+ * {@code n - i - 1} of the mask. Masks are split into 64-bit words, the lowest
+ * bits in the first word, so patterns of any length can be encoded.
+ * <p>
+ * Each character has a row of {@link #words()} words in {@link #masks()}.
+ * Characters below 256 have their own row. Other characters are looked up in
+ * a small open-addressing hash table, which is only created if the pattern
+ * contains such characters. Characters that don't occur in the pattern share
+ * a row of zeros.
+ * <p>
+ * Alphabets are immutable.
+ */
+final class MatchAlphabet
+{
+	/**
+	 * The number of characters that have their own row.
+	 */
+	private static final int LATIN1 = 256;
+	private static final char[] NO_KEYS = new char[0];
+	private final int words;
+	/**
+	 * The characters of the hash table. Zero marks an empty slot.
+	 */
+	private final char[] keys;
+	/**
+	 * The rows of the characters below 256, then the rows of the hash table,
+	 * then the row of zeros.
+	 */
+	private final long[] masks;
+	/**
+	 * The index of the row of zeros.
+	 */
+	private final int absent;
+
+	/**
+	 * Creates the alphabet of a pattern.
+	 *
+	 * @param pattern The text to encode.
+	 */
+	MatchAlphabet(String pattern)
+	{
+		int length = pattern.length();
+		this.words = Math.max(1, (length + 63) >>> 6);
+		int others = 0;
+		for (int i = 0; i < length; i++)
+		{
+			if (pattern.charAt(i) >= LATIN1)
+			{
+				++others;
+			}
+		}
+		// Keep the table at most half full.
+		this.keys = others == 0 ? NO_KEYS :
+			new char[Integer.highestOneBit(others) << 2];
+		this.absent = LATIN1 + keys.length;
+		this.masks = new long[(absent + 1) * words];
+		for (int i = 0; i < length; i++)
+		{
+			char c = pattern.charAt(i);
+			int row;
+			if (c < LATIN1)
+			{
+				row = c;
+			}
+			else
+			{
+				int slot = slot(c);
+				keys[slot] = c;
+				row = LATIN1 + slot;
+			}
+			int bit = length - i - 1;
+			masks[row * words + (bit >>> 6)] |= 1L << bit;
+		}
+	}
+
+	/**
+	 * Returns the number of 64-bit words in each mask.
+	 *
+	 * @return The number of words.
+	 */
+	int words()
+	{
+		return words;
+	}
+
+	/**
+	 * Returns the masks of all characters. The mask of a character starts at
+	 * index {@code row(c) * words()}.
+	 *
+	 * @return The masks, which must not be modified.
+	 */
+	long[] masks()
+	{
+		return masks;
+	}
+
+	/**
+	 * Returns the row of the characters that don't occur in the pattern.
+	 *
+	 * @return The index of a row of zeros.
+	 */
+	int absent()
+	{
+		return absent;
+	}
+
+	/**
+	 * Returns the row of a character.
+	 *
+	 * @param c The character.
+	 * @return The index of the row that holds its mask.
+	 */
+	int row(char c)
+	{
+		if (c < LATIN1)
+		{
+			return c;
+		}
+		if (keys.length == 0)
+		{
+			return absent;
+		}
+		int slot = slot(c);
+		if (keys[slot] == 0)
+		{
+			return absent;
+		}
+		return LATIN1 + slot;
+	}
+
+	/**
+	 * Returns the lowest word of the mask of a character.
+	 *
+	 * @param c The character.
+	 * @return The bit of each of the last 64 positions at which the character
+	 * occurs in the pattern, the last character of the pattern being the
+	 * lowest bit. Zero if it doesn't occur.
+	 */
+	long get(char c)
+	{
+		return masks[row(c) * words];
+	}
+
+	/**
+	 * Returns the slot of the hash table that holds a character, or the empty
+	 * slot where it would go.
+	 *
+	 * @param c A character above the Latin-1 range.
+	 * @return The index of the slot.
+	 */
+	private int slot(char c)
+	{
+		int mask = keys.length - 1;
+		// Spread consecutive characters apart.
+		int slot = (c * 0x9E37) >>> 7 & mask;
+		while (keys[slot] != 0 && keys[slot] != c)
+		{
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+}
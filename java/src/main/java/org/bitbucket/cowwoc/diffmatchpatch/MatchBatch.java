@@ -0,0 +1,497 @@
+/*
+ * Diff Match and Patch
+ * Copyright 2018 The diff-match-patch Authors.
+ * https://github.com/google/diff-match-patch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bitbucket.cowwoc.diffmatchpatch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Runs the Bitap searches of several patterns in one scan of the text.
+ * <p>
+ * Patterns are sorted by the start of their search window, and consecutive
+ * patterns whose windows overlap are packed into the segments of one
+ * {@code long} as long as their lengths add up to 64 or less. A group then
+ * scans the union of its windows once per error level. Each segment starts
+ * from its own initial state at the end of its window, is masked to zero
+ * outside its window and keeps its own threshold, so every pattern gets the
+ * same match as a search of its own. Shifting a state carries the top bit of
+ * each segment into the bottom bit of the next one, but that bit is always
+ * overwritten by the start of the next pattern.
+ * <p>
+ * Patterns that end up alone in a group, and patterns longer than 64
+ * characters, are searched one at a time.
+ */
+final class MatchBatch
+{
+	/**
+	 * The text to search.
+	 */
+	private final String text;
+	private final MatchPattern[] patterns;
+	/**
+	 * The location to search around, for each pattern.
+	 */
+	private final int[] locs;
+	/**
+	 * The highest acceptable score, for each pattern.
+	 */
+	private final double[] thresholds;
+	/**
+	 * The first and last position of the window of the first error level, for
+	 * each pattern.
+	 */
+	private final int[] starts;
+	private final int[] finishes;
+	private final int[] results;
+	private final DiffBudget budget;
+	private long rows;
+	private long cells;
+
+	/**
+	 * Creates a batch.
+	 *
+	 * @param text     The text to search.
+	 * @param patterns The patterns to search for.
+	 * @param locs     The location to search around, for each pattern.
+	 * @param budget   Limits the effort spent on the search.
+	 */
+	private MatchBatch(String text, List<MatchPattern> patterns, int[] locs,
+	                   DiffBudget budget)
+	{
+		this.text = text;
+		this.patterns = patterns.toArray(new MatchPattern[patterns.size()]);
+		this.locs = new int[locs.length];
+		this.thresholds = new double[locs.length];
+		this.starts = new int[locs.length];
+		this.finishes = new int[locs.length];
+		this.results = new int[locs.length];
+		this.budget = budget;
+	}
+
+	/**
+	 * Locate the best instance of each pattern in 'text' near its location.
+	 *
+	 * @param text     The text to search.
+	 * @param patterns The patterns to search for.
+	 * @param locs     {@code locs[i]} is the location to search around for
+	 *                 {@code patterns.get(i)}.
+	 * @param budget   Limits the effort spent on the search.
+	 * @return {@code result[i]} is the best match index of
+	 * {@code patterns.get(i)}, or -1.
+	 */
+	static int[] match(String text, List<MatchPattern> patterns, int[] locs,
+	                   DiffBudget budget)
+	{
+		MatchBatch batch = new MatchBatch(text, patterns, locs, budget);
+		batch.match(locs);
+		return batch.results;
+	}
+
+	/**
+	 * Locate every pattern.
+	 *
+	 * @param locs The location to search around, for each pattern.
+	 */
+	private void match(int[] locs)
+	{
+		List<Integer> fuzzy = new ArrayList<>();
+		for (int i = 0; i < patterns.length; i++)
+		{
+			MatchPattern pattern = patterns[i];
+			int loc = Math.max(0, Math.min(locs[i], text.length()));
+			this.locs[i] = loc;
+			results[i] = pattern.matchExactly(text, loc);
+			if (results[i] != MatchPattern.FUZZY)
+			{
+				continue;
+			}
+			thresholds[i] = pattern.threshold(text, loc);
+			int length = pattern.getPattern().length();
+			int binMax = Math.min(length + text.length(),
+				Math.max(pattern.reach(0, thresholds[i]), 0));
+			starts[i] = Math.max(1, loc - binMax + 1);
+			finishes[i] = Math.min(loc + binMax, text.length()) + length;
+			fuzzy.add(i);
+		}
+		Collections.sort(fuzzy, new Comparator<Integer>()
+		{
+			@Override
+			public int compare(Integer first, Integer second)
+			{
+				return Integer.compare(starts[first], starts[second]);
+			}
+		});
+
+		List<Integer> group = new ArrayList<>();
+		int bits = 0;
+		int finish = 0;
+		for (int i : fuzzy)
+		{
+			int length = patterns[i].getPattern().length();
+			if (!group.isEmpty() && (bits + length > 64 || starts[i] > finish + 1))
+			{
+				search(group);
+				group.clear();
+			}
+			if (group.isEmpty())
+			{
+				bits = 0;
+				finish = finishes[i];
+			}
+			group.add(i);
+			bits += length;
+			finish = Math.max(finish, finishes[i]);
+		}
+		search(group);
+		budget.recordMatch(rows, cells);
+	}
+
+	/**
+	 * Search for a group of patterns.
+	 *
+	 * @param group The indexes of the patterns.
+	 */
+	private void search(List<Integer> group)
+	{
+		if (group.size() == 1)
+		{
+			int i = group.get(0);
+			results[i] = patterns[i].bitap(text, locs[i], thresholds[i], budget);
+		}
+		else if (group.size() > 1)
+		{
+			int[] members = new int[group.size()];
+			for (int k = 0; k < members.length; k++)
+			{
+				members[k] = group.get(k);
+			}
+			new Group(members).bitap();
+		}
+	}
+
+	/**
+	 * Patterns packed into the segments of one {@code long}.
+	 */
+	private final class Group
+	{
+		/**
+		 * The indexes of the patterns, by segment.
+		 */
+		private final int[] members;
+		private final MatchAlphabet alphabet;
+		/**
+		 * The bits of each segment.
+		 */
+		private final long[] segments;
+		/**
+		 * The lowest bit of each segment.
+		 */
+		private final int[] offsets;
+		/**
+		 * The bit of each segment that marks a complete match.
+		 */
+		private final long[] ends;
+		/**
+		 * The lowest bit of every segment.
+		 */
+		private final long firsts;
+		/**
+		 * The segment that owns each bit that marks a complete match.
+		 */
+		private final int[] owners = new int[64];
+
+		/**
+		 * Creates a group.
+		 *
+		 * @param members The indexes of the patterns. Their lengths must add up
+		 *                to 64 or less.
+		 */
+		Group(int[] members)
+		{
+			this.members = members;
+			this.segments = new long[members.length];
+			this.offsets = new int[members.length];
+			this.ends = new long[members.length];
+			// The alphabet of the patterns concatenated from the last to the first
+			// puts the bits of each pattern in its own segment.
+			StringBuilder packed = new StringBuilder();
+			long firsts = 0;
+			int offset = 0;
+			for (int k = 0; k < members.length; k++)
+			{
+				String pattern = patterns[members[k]].getPattern();
+				packed.insert(0, pattern);
+				offsets[k] = offset;
+				segments[k] = (pattern.length() == 64 ? -1L :
+					(1L << pattern.length()) - 1) << offset;
+				firsts |= 1L << offset;
+				ends[k] = 1L << (offset + pattern.length() - 1);
+				owners[offset + pattern.length() - 1] = k;
+				offset += pattern.length();
+			}
+			this.firsts = firsts;
+			this.alphabet = new MatchAlphabet(packed.toString());
+		}
+
+		/**
+		 * Run the Bitap algorithm for every pattern of the group.
+		 */
+		void bitap()
+		{
+			int size = members.length;
+			long[] masks = alphabet.masks();
+			int[] binMax = new int[size];
+			int[] reach = new int[size];
+			int[] start = new int[size];
+			int[] finish = new int[size];
+			int[] written = new int[size];
+			boolean[] active = new boolean[size];
+			// The patterns of the current level, by decreasing end of window.
+			int[] level = new int[size];
+			// The patterns whose window the scan is in.
+			int[] live = new int[size];
+			for (int k = 0; k < size; k++)
+			{
+				int i = members[k];
+				binMax[k] = patterns[i].getPattern().length() + text.length();
+				results[i] = -1;
+				active[k] = true;
+			}
+
+			// The rows of this and the previous error level, as for one pattern.
+			DiffScratch scratch = DiffScratch.current();
+			long[] rd = null;
+			long[] lastRd = null;
+			for (int d = 0; ; d++)
+			{
+				int levelSize = 0;
+				for (int k = 0; k < size; k++)
+				{
+					if (!active[k])
+					{
+						continue;
+					}
+					int i = members[k];
+					MatchPattern pattern = patterns[i];
+					int length = pattern.getPattern().length();
+					if (d >= length)
+					{
+						active[k] = false;
+						continue;
+					}
+					reach[k] = pattern.reach(d, thresholds[i]);
+					binMax[k] = Math.min(binMax[k], Math.max(reach[k], 0));
+					start[k] = Math.max(1, locs[i] - binMax[k] + 1);
+					finish[k] = Math.min(locs[i] + binMax[k], text.length()) + length;
+					// Bail out if the budget can't pay for this error level.
+					if (!budget.spend(finish[k] - start[k] + 1))
+					{
+						active[k] = false;
+						continue;
+					}
+					++rows;
+					level[levelSize] = k;
+					++levelSize;
+				}
+				if (levelSize == 0)
+				{
+					break;
+				}
+				sortByFinish(level, levelSize, finish);
+				int high = finish[level[0]] + 1;
+				int low = high;
+				for (int l = 0; l < levelSize; l++)
+				{
+					low = Math.min(low, start[level[l]]);
+				}
+				if (rd == null)
+				{
+					// Later error levels never scan further than the first.
+					rd = scratch.matchRd(high + 2);
+					lastRd = scratch.matchLastRd(high + 2);
+				}
+
+				// Segments outside the window of their pattern are kept at zero.
+				long liveBits = 0;
+				long matchBits = 0;
+				int liveSize = 0;
+				int pending = 0;
+				int remaining = levelSize;
+				// The highest start of a live window.
+				int stopAt = 0;
+				int j;
+				for (j = high; j >= low && remaining > 0; j--)
+				{
+					if (j < stopAt)
+					{
+						// Leave the windows that start after j.
+						stopAt = 0;
+						int kept = 0;
+						for (int l = 0; l < liveSize; l++)
+						{
+							int k = live[l];
+							if (start[k] > j)
+							{
+								written[k] = j + 1;
+								liveBits &= ~segments[k];
+								matchBits &= ~ends[k];
+								--remaining;
+							}
+							else
+							{
+								live[kept] = k;
+								++kept;
+								stopAt = Math.max(stopAt, start[k]);
+							}
+						}
+						liveSize = kept;
+					}
+					int charMatch;
+					if (text.length() <= j - 1)
+					{
+						// Out of range.
+						charMatch = alphabet.absent();
+					}
+					else
+					{
+						charMatch = alphabet.row(text.charAt(j - 1));
+					}
+					long state;
+					if (d == 0)
+					{
+						// First pass: exact match.
+						state = ((rd[j + 1] << 1) | firsts) & masks[charMatch];
+					}
+					else
+					{
+						// Subsequent passes: fuzzy match.
+						state = (((rd[j + 1] << 1) | firsts) & masks[charMatch]) |
+							(((lastRd[j + 1] | lastRd[j]) << 1) | firsts) | lastRd[j + 1];
+					}
+					// Enter the windows that end at j - 1.
+					while (pending < levelSize && finish[level[pending]] + 1 == j)
+					{
+						int k = level[pending];
+						++pending;
+						// The first d positions may all be errors.
+						state = (state & ~segments[k]) | (((1L << d) - 1) << offsets[k]);
+						liveBits |= segments[k];
+						matchBits |= ends[k];
+						live[liveSize] = k;
+						++liveSize;
+						stopAt = Math.max(stopAt, start[k]);
+					}
+					state &= liveBits;
+					rd[j] = state;
+					long hits = state & matchBits;
+					while (hits != 0)
+					{
+						int k = owners[Long.numberOfTrailingZeros(hits)];
+						hits &= hits - 1;
+						int i = members[k];
+						int loc = locs[i];
+						if (Math.abs(j - 1 - loc) > reach[k])
+						{
+							continue;
+						}
+						MatchPattern pattern = patterns[i];
+						thresholds[i] = pattern.score(d, Math.abs(j - 1 - loc));
+						reach[k] = pattern.reach(d, thresholds[i], reach[k]);
+						results[i] = j - 1;
+						if (j - 1 > loc)
+						{
+							// When passing loc, don't exceed our current distance from loc.
+							start[k] = Math.max(1, 2 * loc - (j - 1));
+							stopAt = Math.max(stopAt, start[k]);
+							// The new start may lie below the old one.
+							low = Math.min(low, start[k]);
+						}
+						else
+						{
+							// Already passed loc, downhill from here on in.
+							written[k] = j;
+							liveBits &= ~segments[k];
+							matchBits &= ~ends[k];
+							for (int l = 0; l < liveSize; l++)
+							{
+								if (live[l] == k)
+								{
+									live[l] = live[liveSize - 1];
+									--liveSize;
+									break;
+								}
+							}
+							--remaining;
+						}
+					}
+				}
+				// The scan ended below the start of every remaining window.
+				for (int l = 0; l < liveSize; l++)
+				{
+					written[live[l]] = j + 1;
+				}
+				for (int l = 0; l < levelSize; l++)
+				{
+					int k = level[l];
+					int i = members[k];
+					cells += finish[k] + 1 - written[k];
+					if (patterns[i].score(d + 1, 0) > thresholds[i])
+					{
+						// No hope for a (better) match at greater error levels.
+						active[k] = false;
+					}
+				}
+				// The next level reads the positions of this one that it scans, and
+				// expects zeros where the scan stopped early.
+				if (low < j + 1)
+				{
+					Arrays.fill(rd, low, j + 1, 0);
+				}
+				long[] swap = lastRd;
+				lastRd = rd;
+				rd = swap;
+			}
+		}
+
+		/**
+		 * Sort the first patterns of a list by decreasing end of window.
+		 *
+		 * @param level  The patterns.
+		 * @param size   The number of patterns to sort.
+		 * @param finish The end of the window of each pattern.
+		 */
+		private void sortByFinish(int[] level, int size, int[] finish)
+		{
+			// Groups are small.
+			for (int l = 1; l < size; l++)
+			{
+				int k = level[l];
+				int m = l - 1;
+				while (m >= 0 && finish[level[m]] < finish[k])
+				{
+					level[m + 1] = level[m];
+					--m;
+				}
+				level[m + 1] = k;
+			}
+		}
+	}
+}
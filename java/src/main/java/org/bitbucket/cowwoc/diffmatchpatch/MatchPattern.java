@@ -0,0 +1,567 @@
+/*
+ * Diff Match and Patch
+ * Copyright 2018 The diff-match-patch Authors.
+ * https://github.com/google/diff-match-patch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bitbucket.cowwoc.diffmatchpatch;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A pattern prepared for fuzzy searches, as returned by
+ * {@link DiffMatchPatch#matchCompile}.
+ * <p>
+ * Compiling a pattern computes its Bitap alphabet, the prefix tables of the
+ * search for exact matches, and, for every number of errors, how far from the
+ * expected location a match may lie under the {@code matchThreshold} and
+ * {@code matchDistance} in effect at the time.
+ * {@link #match} then only pays for scanning the text, which makes searching
+ * many texts for the same pattern cheaper than calling
+ * {@link DiffMatchPatch#matchMain} every time.
+ * <p>
+ * Patterns are immutable and thread-safe.
+ */
+public final class MatchPattern
+{
+	/**
+	 * Returned by {@link #matchExactly} if the match takes a fuzzy search.
+	 */
+	static final int FUZZY = -2;
+	private final String pattern;
+	private final float threshold;
+	private final int distance;
+	private final MatchAlphabet alphabet;
+	/**
+	 * The word of a state that holds the bit of a complete match.
+	 */
+	private final int matchWord;
+	private final long matchMask;
+	/**
+	 * {@code reach[e]} is the largest distance from the expected location at
+	 * which a match with {@code e} errors scores no worse than the threshold,
+	 * or -1 if there is none. Null if the distances are computed on demand.
+	 */
+	private final int[] reach;
+	/**
+	 * Finds exact matches of the pattern, or null if a search is created on
+	 * demand.
+	 */
+	private final SubstringSearch exact;
+
+	/**
+	 * Creates a pattern.
+	 *
+	 * @param pattern   The pattern to search for.
+	 * @param threshold At what point is no match declared (0.0 = perfection,
+	 *                  1.0 = very loose).
+	 * @param distance  How far to search for a match (0 = exact location,
+	 *                  1000+ = broad match).
+	 * @param reusable  True to precompute the tables that every search reads,
+	 *                  false for a pattern that is only searched for once and
+	 *                  computes them on demand.
+	 */
+	MatchPattern(String pattern, float threshold, int distance,
+	             boolean reusable)
+	{
+		this.pattern = pattern;
+		this.threshold = threshold;
+		this.distance = distance;
+		this.alphabet = new MatchAlphabet(pattern);
+		this.matchWord = (pattern.length() - 1) >>> 6;
+		this.matchMask = 1L << (pattern.length() - 1);
+		if (reusable)
+		{
+			this.reach = new int[pattern.length()];
+			for (int e = 0; e < reach.length; e++)
+			{
+				reach[e] = reach(e, threshold, Integer.MAX_VALUE);
+			}
+			this.exact = SubstringSearch.compile(pattern, 0, pattern.length());
+		}
+		else
+		{
+			this.reach = null;
+			this.exact = null;
+		}
+	}
+
+	/**
+	 * Returns the pattern.
+	 *
+	 * @return The text searched for.
+	 */
+	public String getPattern()
+	{
+		return pattern;
+	}
+
+	/**
+	 * Returns the threshold of the matches.
+	 *
+	 * @return The {@code matchThreshold} the pattern was compiled with.
+	 */
+	public float getThreshold()
+	{
+		return threshold;
+	}
+
+	/**
+	 * Returns how far from the expected location matches are sought.
+	 *
+	 * @return The {@code matchDistance} the pattern was compiled with.
+	 */
+	public int getDistance()
+	{
+		return distance;
+	}
+
+	/**
+	 * Locate the best instance of the pattern in 'text' near 'loc'.
+	 * Returns -1 if no match found.
+	 *
+	 * @param text The text to search.
+	 * @param loc  The location to search around.
+	 * @return Best match index or -1.
+	 */
+	public int match(String text, int loc)
+	{
+		return match(text, loc, new DiffBudget());
+	}
+
+	/**
+	 * Locate the best instance of the pattern in 'text' near 'loc' within a
+	 * budget. Running out of time or work units returns the best match found
+	 * so far; cancelling the budget aborts the search.
+	 *
+	 * @param text   The text to search.
+	 * @param loc    The location to search around.
+	 * @param budget Limits the effort spent on the search.
+	 * @return Best match index or -1.
+	 * @throws java.util.concurrent.CancellationException If the budget is
+	 *                                                    cancelled.
+	 */
+	public int match(String text, int loc, DiffBudget budget)
+	{
+		// Check for null inputs.
+		if (text == null || budget == null)
+		{
+			throw new IllegalArgumentException("Null inputs. (match)");
+		}
+
+		loc = Math.max(0, Math.min(loc, text.length()));
+		int result = matchExactly(text, loc);
+		if (result == FUZZY)
+		{
+			// Do a fuzzy compare.
+			result = bitap(text, loc, budget);
+		}
+		return result;
+	}
+
+	/**
+	 * Locate the best instance of each of several patterns in 'text', each near
+	 * its own location, in one scan of the text for patterns whose search
+	 * windows overlap.
+	 *
+	 * @param text     The text to search.
+	 * @param patterns The patterns to search for.
+	 * @param locs     {@code locs[i]} is the location to search around for
+	 *                 {@code patterns.get(i)}.
+	 * @return {@code result[i]} is the best match index of
+	 * {@code patterns.get(i)}, or -1.
+	 */
+	public static int[] matchAll(String text, List<MatchPattern> patterns,
+	                             int[] locs)
+	{
+		return matchAll(text, patterns, locs, new DiffBudget());
+	}
+
+	/**
+	 * Locate the best instance of each of several patterns in 'text', each near
+	 * its own location, within a budget. Every pattern gets the match that
+	 * {@link #match} would return; running out of time or work units returns
+	 * the best matches found so far, and cancelling the budget aborts the
+	 * search.
+	 * <p>
+	 * Patterns of up to 64 characters whose search windows overlap share the
+	 * bits of one {@code long}, so that they are matched in a single scan of
+	 * the text.
+	 *
+	 * @param text     The text to search.
+	 * @param patterns The patterns to search for.
+	 * @param locs     {@code locs[i]} is the location to search around for
+	 *                 {@code patterns.get(i)}.
+	 * @param budget   Limits the effort spent on the search.
+	 * @return {@code result[i]} is the best match index of
+	 * {@code patterns.get(i)}, or -1.
+	 * @throws IllegalArgumentException If {@code patterns} and {@code locs}
+	 *                                  differ in length.
+	 * @throws java.util.concurrent.CancellationException If the budget is
+	 *                                                    cancelled.
+	 */
+	public static int[] matchAll(String text, List<MatchPattern> patterns,
+	                             int[] locs, DiffBudget budget)
+	{
+		// Check for null inputs.
+		if (text == null || patterns == null || locs == null || budget == null ||
+			patterns.contains(null))
+		{
+			throw new IllegalArgumentException("Null inputs. (matchAll)");
+		}
+		if (patterns.size() != locs.length)
+		{
+			throw new IllegalArgumentException("Patterns and locations differ in " +
+				"number: " + patterns.size() + " != " + locs.length);
+		}
+		return MatchBatch.match(text, patterns, locs, budget);
+	}
+
+	/**
+	 * Locate the pattern in 'text' near 'loc' if that takes no fuzzy search.
+	 *
+	 * @param text The text to search.
+	 * @param loc  The location to search around, between 0 and the length of
+	 *             the text.
+	 * @return Best match index or -1, or {@code FUZZY} if only the Bitap
+	 * algorithm can tell.
+	 */
+	int matchExactly(String text, int loc)
+	{
+		if (text.equals(pattern))
+		{
+			// Shortcut (potentially not guaranteed by the algorithm)
+			return 0;
+		}
+		else if (text.length() == 0)
+		{
+			// Nothing to match.
+			return -1;
+		}
+		else if (loc + pattern.length() <= text.length() &&
+			text.regionMatches(loc, pattern, 0, pattern.length()))
+		{
+			// Perfect match at the perfect spot!  (Includes case of null pattern)
+			return loc;
+		}
+		return FUZZY;
+	}
+
+	/**
+	 * Locate the best instance of the pattern in 'text' near 'loc' using the
+	 * Bitap algorithm. Returns -1 if no match found.
+	 * Every character scanned costs one work unit.
+	 *
+	 * @param text   The text to search.
+	 * @param loc    The location to search around.
+	 * @param budget Limits the effort spent on the search.
+	 * @return Best match index found within the budget, or -1.
+	 */
+	int bitap(String text, int loc, DiffBudget budget)
+	{
+		return bitap(text, loc, threshold(text, loc), budget);
+	}
+
+	/**
+	 * Returns the highest score beyond which the Bitap algorithm gives up,
+	 * which is lower than the threshold if there is an exact match nearby.
+	 *
+	 * @param text The text to search.
+	 * @param loc  The location to search around.
+	 * @return The highest acceptable score.
+	 */
+	double threshold(String text, int loc)
+	{
+		double scoreThreshold = threshold;
+		// Only exact matches within reach can lower the threshold, so there is
+		// no need to search further.
+		int reach = pattern.length() == 0 ? -1 : reach(0, scoreThreshold);
+		if (reach < 0)
+		{
+			return scoreThreshold;
+		}
+		// Is there a nearby exact match? (speedup)
+		SubstringSearch exact = this.exact;
+		if (exact == null)
+		{
+			exact = new SubstringSearch(pattern, 0, pattern.length());
+		}
+		loc = Math.max(loc, 0);
+		int ahead = exact.indexOf(text, loc, (int) Math.min(text.length(),
+			(long) loc + reach + pattern.length()));
+		if (ahead != -1)
+		{
+			scoreThreshold = Math.min(score(0, ahead - loc), scoreThreshold);
+		}
+		// What about in the other direction? (speedup)
+		// Only looked at if there is a match ahead, even out of reach.
+		int behind = exact.lastIndexOf(text, Math.max(0, loc - reach),
+			loc + pattern.length());
+		if (behind != -1 && (ahead != -1 ||
+			exact.indexOf(text, loc, text.length()) != -1))
+		{
+			scoreThreshold = Math.min(score(0, Math.abs(loc - behind)),
+				scoreThreshold);
+		}
+		return scoreThreshold;
+	}
+
+	/**
+	 * Locate the best instance of the pattern in 'text' near 'loc' using the
+	 * Bitap algorithm, once the threshold is known.
+	 *
+	 * @param text           The text to search.
+	 * @param loc            The location to search around.
+	 * @param scoreThreshold The highest acceptable score.
+	 * @param budget         Limits the effort spent on the search.
+	 * @return Best match index found within the budget, or -1.
+	 */
+	int bitap(String text, int loc, double scoreThreshold, DiffBudget budget)
+	{
+		// Initialise the bit arrays.
+		// Patterns of up to 64 characters fit in one long per position; longer
+		// ones take several, the carry of each shift going to the next word.
+		int words = alphabet.words();
+		long[] masks = alphabet.masks();
+		int bestLoc = -1;
+
+		int binMax = pattern.length() + text.length();
+		// The rows of this and the previous error level. They come from the
+		// scratch arena and are swapped after every level.
+		DiffScratch scratch = DiffScratch.current();
+		long[] rd = null;
+		long[] lastRd = null;
+		long rows = 0;
+		long cells = 0;
+		for (int d = 0; d < pattern.length(); d++)
+		{
+			// Scan for the best match; each iteration allows for one more error.
+			// Matches no further than 'reach' from 'loc' beat the best score so
+			// far, so the scan compares distances instead of computing scores.
+			int reach = reach(d, scoreThreshold);
+			// Use the result from this iteration as the maximum for the next.
+			binMax = Math.min(binMax, Math.max(reach, 0));
+			int start = Math.max(1, loc - binMax + 1);
+			int finish = Math.min(loc + binMax, text.length()) + pattern.length();
+			// Bail out if the budget can't pay for this error level.
+			if (!budget.spend((long) (finish - start + 1) * words))
+			{
+				break;
+			}
+			++rows;
+
+			if (rd == null)
+			{
+				// Later error levels never scan further than the first.
+				rd = scratch.matchRd((finish + 2) * words);
+				lastRd = scratch.matchLastRd((finish + 2) * words);
+			}
+			// The first d positions may all be errors.
+			for (int w = 0; w < words; w++)
+			{
+				int bits = Math.max(0, Math.min(64, d - (w << 6)));
+				rd[(finish + 1) * words + w] = bits == 64 ? -1L : (1L << bits) - 1;
+			}
+			int first = start;
+			int written = finish + 1;
+			for (int j = finish; j >= start; j--)
+			{
+				int charMatch;
+				if (text.length() <= j - 1)
+				{
+					// Out of range.
+					charMatch = alphabet.absent();
+				}
+				else
+				{
+					charMatch = alphabet.row(text.charAt(j - 1));
+				}
+				long state;
+				if (words == 1)
+				{
+					if (d == 0)
+					{
+						// First pass: exact match.
+						rd[j] = ((rd[j + 1] << 1) | 1) & masks[charMatch];
+					}
+					else
+					{
+						// Subsequent passes: fuzzy match.
+						rd[j] = (((rd[j + 1] << 1) | 1) & masks[charMatch]) |
+							(((lastRd[j + 1] | lastRd[j]) << 1) | 1) | lastRd[j + 1];
+					}
+					state = rd[j];
+				}
+				else
+				{
+					step(rd, lastRd, j * words, words, masks, charMatch * words, d != 0);
+					state = rd[j * words + matchWord];
+				}
+				written = j;
+				if ((state & matchMask) != 0 && Math.abs(j - 1 - loc) <= reach)
+				{
+					// This match will almost certainly be better than any existing
+					// match.  But check anyway.
+					scoreThreshold = score(d, Math.abs(j - 1 - loc));
+					reach = reach(d, scoreThreshold, reach);
+					bestLoc = j - 1;
+					if (bestLoc > loc)
+					{
+						// When passing loc, don't exceed our current distance from loc.
+						start = Math.max(1, 2 * loc - bestLoc);
+					}
+					else
+					{
+						// Already passed loc, downhill from here on in.
+						break;
+					}
+				}
+			}
+			cells += finish + 1 - written;
+			if (score(d + 1, 0) > scoreThreshold)
+			{
+				// No hope for a (better) match at greater error levels.
+				break;
+			}
+			// The next level reads the positions of this one that it scans, and
+			// expects zeros where the scan stopped early.
+			if (first < written)
+			{
+				Arrays.fill(rd, first * words, written * words, 0);
+			}
+			long[] swap = lastRd;
+			lastRd = rd;
+			rd = swap;
+		}
+		budget.recordMatch(rows, cells);
+		return bestLoc;
+	}
+
+	/**
+	 * Compute the state of a position of the Bitap search for patterns longer
+	 * than 64 characters, from the state of the next position.
+	 *
+	 * @param rd        The states of this error level, {@code words} per position.
+	 * @param lastRd    The states of the previous error level.
+	 * @param at        Index in rd of the state to compute.
+	 * @param words     The number of words per state.
+	 * @param masks     The masks of the alphabet.
+	 * @param charMatch Index in masks of the mask of the character at this
+	 *                  position.
+	 * @param fuzzy     True if errors are allowed (all but the first level).
+	 */
+	private static void step(long[] rd, long[] lastRd, int at, int words,
+	                         long[] masks, int charMatch, boolean fuzzy)
+	{
+		int next = at + words;
+		// The bits shifted out of each word, shifted into the next one.
+		long carry = 1;
+		long lastCarry = 1;
+		for (int w = 0; w < words; w++)
+		{
+			long previous = rd[next + w];
+			long value = ((previous << 1) | carry) & masks[charMatch + w];
+			carry = previous >>> 63;
+			if (fuzzy)
+			{
+				long last = lastRd[next + w] | lastRd[at + w];
+				value |= (last << 1) | lastCarry | lastRd[next + w];
+				lastCarry = last >>> 63;
+			}
+			rd[at + w] = value;
+		}
+	}
+
+	/**
+	 * Returns how far from the expected location a match with e errors may lie
+	 * and still score no worse than a threshold.
+	 *
+	 * @param e         Number of errors in match, less than the length of the
+	 *                  pattern.
+	 * @param threshold The highest acceptable score.
+	 * @return The largest distance, or -1 if even a match at the expected
+	 * location scores worse.
+	 */
+	int reach(int e, double threshold)
+	{
+		if (reach != null && threshold == this.threshold)
+		{
+			return reach[e];
+		}
+		return reach(e, threshold, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Compute how far from the expected location a match with e errors may lie
+	 * and still score no worse than a threshold.
+	 *
+	 * @param e         Number of errors in match.
+	 * @param threshold The highest acceptable score.
+	 * @param maxReach  The largest distance of interest.
+	 * @return The largest distance, at most {@code maxReach}, or -1 if even a
+	 * match at the expected location scores worse.
+	 */
+	int reach(int e, double threshold, int maxReach)
+	{
+		if (distance == 0)
+		{
+			// Every location but the expected one scores 1.0.
+			if (maxReach > 0 && score(e, 1) <= threshold)
+			{
+				return maxReach;
+			}
+			return score(e, 0) <= threshold ? 0 : -1;
+		}
+		// The score grows with the distance, so estimate the distance from the
+		// threshold and then step to the exact boundary of the scores.
+		double estimate = (threshold - (float) e / pattern.length()) * distance;
+		int reach = (int) Math.max(-1, Math.min(maxReach, estimate));
+		while (reach < maxReach && score(e, reach + 1) <= threshold)
+		{
+			++reach;
+		}
+		while (reach >= 0 && score(e, reach) > threshold)
+		{
+			--reach;
+		}
+		return reach;
+	}
+
+	/**
+	 * Compute and return the score for a match with e errors at a distance from
+	 * the expected location.
+	 *
+	 * @param e         Number of errors in match.
+	 * @param proximity Distance of the match from the expected location.
+	 * @return Overall score for match (0.0 = good, 1.0 = bad).
+	 */
+	double score(int e, int proximity)
+	{
+		float accuracy = (float) e / pattern.length();
+		if (distance == 0)
+		{
+			// Dodge divide by zero error.
+			return proximity == 0 ? accuracy : 1.0;
+		}
+		return accuracy + (proximity / (float) distance);
+	}
+
+	@Override
+	public String toString()
+	{
+		return "MatchPattern(pattern=" + pattern + ", threshold=" + threshold +
+			", distance=" + distance + ")";
+	}
+}
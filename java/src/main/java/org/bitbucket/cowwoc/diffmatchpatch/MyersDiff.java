@@ -0,0 +1,46 @@
+/*
+ * Diff Match and Patch
+ * Copyright 2018 The diff-match-patch Authors.
+ * https://github.com/google/diff-match-patch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bitbucket.cowwoc.diffmatchpatch;
+
+import org.bitbucket.cowwoc.diffmatchpatch.DiffMatchPatch.Diff;
+
+import java.util.LinkedList;
+
+/**
+ * The built-in diff: half-match, then line mode, then Myers' bisection.
+ *
+ * @see DiffAlgorithm#MYERS
+ */
+final class MyersDiff implements DiffAlgorithm
+{
+	@Override
+	public LinkedList<Diff> diffCompute(DiffMatchPatch dmp, String text1,
+	                                    int start1, int end1, String text2,
+	                                    int start2, int end2, boolean checklines,
+	                                    DiffBudget budget)
+	{
+		return dmp.diffCompute(text1, start1, end1, text2, start2, end2,
+			checklines, budget);
+	}
+
+	@Override
+	public String toString()
+	{
+		return "MYERS";
+	}
+}
@@ -0,0 +1,143 @@
+/*
+ * Diff Match and Patch
+ * Copyright 2018 The diff-match-patch Authors.
+ * https://github.com/google/diff-match-patch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bitbucket.cowwoc.diffmatchpatch;
+
+/**
+ * Patience diff. Matches up the tokens that occur exactly once in both
+ * regions, keeps the longest subset of them that appears in the same order in
+ * both texts, and recurses into the regions between them.
+ *
+ * @see DiffAlgorithm#PATIENCE
+ */
+final class PatienceDiff extends AnchoredDiff
+{
+	@Override
+	Splitter newSplitter(final int[] a, final int[] b, int alphabet)
+	{
+		final int[] countA = new int[alphabet];
+		final int[] countB = new int[alphabet];
+		final int[] positionB = new int[alphabet];
+		return new Splitter()
+		{
+			@Override
+			void split(int a0, int a1, int b0, int b1, IntList stack)
+			{
+				for (int i = a0; i < a1; i++)
+				{
+					countA[a[i]]++;
+				}
+				for (int j = b0; j < b1; j++)
+				{
+					countB[b[j]]++;
+					positionB[b[j]] = j;
+				}
+				// Unique tokens, in the order of the first text.
+				IntList uniqueA = new IntList();
+				IntList uniqueB = new IntList();
+				for (int i = a0; i < a1; i++)
+				{
+					int token = a[i];
+					if (countA[token] == 1 && countB[token] == 1)
+					{
+						uniqueA.add(i);
+						uniqueB.add(positionB[token]);
+					}
+				}
+				for (int i = a0; i < a1; i++)
+				{
+					countA[a[i]] = 0;
+				}
+				for (int j = b0; j < b1; j++)
+				{
+					countB[b[j]] = 0;
+				}
+				if (uniqueA.size() == 0)
+				{
+					return;
+				}
+
+				int[] anchors = longestIncreasingSubsequence(uniqueB);
+				// Push the last region first so that the first one is processed next.
+				int nextA = a1;
+				int nextB = b1;
+				for (int k = anchors.length - 1; k >= 0; k--)
+				{
+					int i = uniqueA.get(anchors[k]);
+					int j = uniqueB.get(anchors[k]);
+					pushRegion(stack, i + 1, nextA, j + 1, nextB);
+					pushRun(stack, i, j, 1);
+					nextA = i;
+					nextB = j;
+				}
+				pushRegion(stack, a0, nextA, b0, nextB);
+			}
+		};
+	}
+
+	/**
+	 * Find the longest strictly increasing subsequence using patience sorting.
+	 *
+	 * @param values The values.
+	 * @return The indices of the subsequence's values, in increasing order.
+	 */
+	static int[] longestIncreasingSubsequence(IntList values)
+	{
+		int n = values.size();
+		// tails[k] is the index of the smallest value ending a subsequence of
+		// length k + 1.
+		int[] tails = new int[n];
+		int[] previous = new int[n];
+		int length = 0;
+		for (int i = 0; i < n; i++)
+		{
+			int value = values.get(i);
+			int low = 0;
+			int high = length;
+			while (low < high)
+			{
+				int mid = (low + high) >>> 1;
+				if (values.get(tails[mid]) < value)
+				{
+					low = mid + 1;
+				}
+				else
+				{
+					high = mid;
+				}
+			}
+			previous[i] = low == 0 ? -1 : tails[low - 1];
+			tails[low] = i;
+			if (low == length)
+			{
+				length++;
+			}
+		}
+		int[] result = new int[length];
+		for (int i = tails[length - 1], k = length - 1; k >= 0; i = previous[i], k--)
+		{
+			result[k] = i;
+		}
+		return result;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "PATIENCE";
+	}
+}
@@ -0,0 +1,359 @@
+/*
+ * Diff Match and Patch
+ * Copyright 2018 The diff-match-patch Authors.
+ * https://github.com/google/diff-match-patch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bitbucket.cowwoc.diffmatchpatch;
+
+import org.bitbucket.cowwoc.diffmatchpatch.DiffMatchPatch.Diff;
+import org.bitbucket.cowwoc.diffmatchpatch.DiffMatchPatch.Operation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * A diff that is refined progressively, as returned by
+ * {@link DiffMatchPatch#diffProgressive}.
+ * <p>
+ * The diff starts out as a line-level diff, split into hunks: unchanged
+ * hunks, and changed hunks that replace some lines by others. Changed hunks
+ * are then rediffed character-by-character while the budget allows, smallest
+ * first, and can be refined later with a new budget. At any time the hunks
+ * cover both texts in order, so {@link #getDiffs()} is a valid diff whether or
+ * not it has been refined.
+ * <p>
+ * Progressive diffs are not thread-safe.
+ */
+public final class ProgressiveDiff
+{
+	/**
+	 * Orders changed hunks by the number of characters they cover.
+	 */
+	private static final Comparator<Hunk> SMALLEST_FIRST = new Comparator<Hunk>()
+	{
+		@Override
+		public int compare(Hunk first, Hunk second)
+		{
+			long size1 = (long) first.end1 - first.start1 + first.end2 - first.start2;
+			long size2 = (long) second.end1 - second.start1 + second.end2 -
+				second.start2;
+			return size1 < size2 ? -1 : size1 == size2 ? 0 : 1;
+		}
+	};
+
+	private final DiffMatchPatch dmp;
+	private final String text1;
+	private final String text2;
+	private final List<Hunk> hunks = new ArrayList<>();
+
+	/**
+	 * Constructor. Splits a coarse diff into hunks.
+	 *
+	 * @param dmp   The instance whose settings apply to the refinements.
+	 * @param text1 Old string being diffed.
+	 * @param text2 New string being diffed.
+	 * @param diffs A diff of the two texts.
+	 */
+	ProgressiveDiff(DiffMatchPatch dmp, String text1, String text2,
+	                List<Diff> diffs)
+	{
+		this.dmp = dmp;
+		this.text1 = text1;
+		this.text2 = text2;
+		int pointer1 = 0;
+		int pointer2 = 0;
+		int lengthDelete = 0;
+		int lengthInsert = 0;
+		for (Diff diff : diffs)
+		{
+			switch (diff.operation)
+			{
+				case DELETE:
+					lengthDelete += diff.text.length();
+					break;
+				case INSERT:
+					lengthInsert += diff.text.length();
+					break;
+				case EQUAL:
+					addChange(pointer1, pointer1 + lengthDelete, pointer2,
+						pointer2 + lengthInsert);
+					pointer1 += lengthDelete;
+					pointer2 += lengthInsert;
+					lengthDelete = 0;
+					lengthInsert = 0;
+					if (!diff.text.isEmpty())
+					{
+						hunks.add(new Hunk(pointer1, pointer1 + diff.text.length(), pointer2,
+							pointer2 + diff.text.length(), new Diff(Operation.EQUAL, diff.text)));
+					}
+					pointer1 += diff.text.length();
+					pointer2 += diff.text.length();
+					break;
+			}
+		}
+		addChange(pointer1, pointer1 + lengthDelete, pointer2,
+			pointer2 + lengthInsert);
+	}
+
+	/**
+	 * Add the hunk of a run of deletions and insertions.
+	 *
+	 * @param start1 Index of the first character of the run in text1.
+	 * @param end1   Index after the last character of the run in text1.
+	 * @param start2 Index of the first character of the run in text2.
+	 * @param end2   Index after the last character of the run in text2.
+	 */
+	private void addChange(int start1, int end1, int start2, int end2)
+	{
+		if (start1 == end1 && start2 == end2)
+		{
+			return;
+		}
+		Hunk hunk;
+		if (start1 == end1)
+		{
+			// Pure insertions can't be refined any further.
+			hunk = new Hunk(start1, end1, start2, end2,
+				new Diff(Operation.INSERT, text2.substring(start2, end2)));
+		}
+		else if (start2 == end2)
+		{
+			hunk = new Hunk(start1, end1, start2, end2,
+				new Diff(Operation.DELETE, text1.substring(start1, end1)));
+		}
+		else
+		{
+			hunk = new Hunk(start1, end1, start2, end2,
+				new Diff(Operation.DELETE, text1.substring(start1, end1)),
+				new Diff(Operation.INSERT, text2.substring(start2, end2)));
+			hunk.refined = false;
+		}
+		hunks.add(hunk);
+	}
+
+	/**
+	 * Refine the changed hunks, smallest first, until all of them are refined or
+	 * the budget runs out.
+	 *
+	 * @param budget Limits the effort spent on the refinements.
+	 * @return True if every hunk is refined.
+	 * @throws java.util.concurrent.CancellationException If the budget is
+	 *                                                    cancelled.
+	 */
+	public boolean refine(DiffBudget budget)
+	{
+		if (budget == null)
+		{
+			throw new IllegalArgumentException("Null inputs. (refine)");
+		}
+		List<Hunk> pending = new ArrayList<>();
+		for (Hunk hunk : hunks)
+		{
+			if (!hunk.refined)
+			{
+				pending.add(hunk);
+			}
+		}
+		// The sort is stable, so hunks of the same size are refined in order.
+		Collections.sort(pending, SMALLEST_FIRST);
+		for (Hunk hunk : pending)
+		{
+			if (!refine(hunk, budget))
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Refine one hunk, for example the one that the user is looking at.
+	 *
+	 * @param hunk   One of the hunks of this diff.
+	 * @param budget Limits the effort spent on the refinement.
+	 * @return True if the hunk is refined, false if the budget ran out first.
+	 * @throws IllegalArgumentException                   If the hunk does not
+	 *                                                    belong to this diff.
+	 * @throws java.util.concurrent.CancellationException If the budget is
+	 *                                                    cancelled.
+	 */
+	public boolean refine(Hunk hunk, DiffBudget budget)
+	{
+		if (hunk == null || budget == null)
+		{
+			throw new IllegalArgumentException("Null inputs. (refine)");
+		}
+		if (hunk.owner != this)
+		{
+			throw new IllegalArgumentException("hunk belongs to another diff");
+		}
+		if (hunk.refined)
+		{
+			return true;
+		}
+		if (budget.isExhausted())
+		{
+			return false;
+		}
+		LinkedList<Diff> diffs = dmp.diffMain(text1, hunk.start1, hunk.end1, text2,
+			hunk.start2, hunk.end2, false, budget);
+		if (budget.isExhausted())
+		{
+			// The rediff bailed out somewhere, so it may not be any better than
+			// the coarse diff. Keep the hunk for a later, larger budget.
+			return false;
+		}
+		hunk.diffs = diffs;
+		hunk.refined = true;
+		return true;
+	}
+
+	/**
+	 * Returns the hunks, in order.
+	 *
+	 * @return An unmodifiable list of hunks.
+	 */
+	public List<Hunk> getHunks()
+	{
+		return Collections.unmodifiableList(hunks);
+	}
+
+	/**
+	 * Returns true if every hunk is refined.
+	 *
+	 * @return True if every changed hunk was rediffed character-by-character,
+	 * or can't be refined any further. Changes are never rediffed across an
+	 * equal line, so even then the diff may differ from {@code diffMain}'s.
+	 */
+	public boolean isRefined()
+	{
+		for (Hunk hunk : hunks)
+		{
+			if (!hunk.refined)
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the diff as it currently stands.
+	 *
+	 * @return Linked List of Diff objects.
+	 */
+	public LinkedList<Diff> getDiffs()
+	{
+		LinkedList<Diff> diffs = new LinkedList<>();
+		for (Hunk hunk : hunks)
+		{
+			for (Diff diff : hunk.diffs)
+			{
+				diffs.add(new Diff(diff.operation, diff.text));
+			}
+		}
+		dmp.diffCleanupMerge(diffs);
+		return diffs;
+	}
+
+	/**
+	 * A contiguous part of the diff: either an equality, or everything that was
+	 * deleted and inserted between two equalities.
+	 */
+	public final class Hunk
+	{
+		/**
+		 * Index of the first character of the hunk in the old text.
+		 */
+		public final int start1;
+		/**
+		 * Index after the last character of the hunk in the old text.
+		 */
+		public final int end1;
+		/**
+		 * Index of the first character of the hunk in the new text.
+		 */
+		public final int start2;
+		/**
+		 * Index after the last character of the hunk in the new text.
+		 */
+		public final int end2;
+		private final ProgressiveDiff owner = ProgressiveDiff.this;
+		private final boolean changed;
+		private List<Diff> diffs;
+		private boolean refined = true;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param start1 Index of the first character of the hunk in text1.
+		 * @param end1   Index after the last character of the hunk in text1.
+		 * @param start2 Index of the first character of the hunk in text2.
+		 * @param end2   Index after the last character of the hunk in text2.
+		 * @param diffs  The diff of the hunk.
+		 */
+		private Hunk(int start1, int end1, int start2, int end2, Diff... diffs)
+		{
+			this.start1 = start1;
+			this.end1 = end1;
+			this.start2 = start2;
+			this.end2 = end2;
+			this.diffs = new LinkedList<>();
+			Collections.addAll(this.diffs, diffs);
+			this.changed = diffs[0].operation != Operation.EQUAL;
+		}
+
+		/**
+		 * Returns the diff of this hunk.
+		 *
+		 * @return An unmodifiable list of Diff objects.
+		 */
+		public List<Diff> getDiffs()
+		{
+			return Collections.unmodifiableList(diffs);
+		}
+
+		/**
+		 * Returns true if the hunk changes the text.
+		 *
+		 * @return False for equalities.
+		 */
+		public boolean isChanged()
+		{
+			return changed;
+		}
+
+		/**
+		 * Returns true if the hunk was diffed character-by-character, or can't
+		 * be refined any further.
+		 *
+		 * @return True if the hunk is refined.
+		 */
+		public boolean isRefined()
+		{
+			return refined;
+		}
+
+		@Override
+		public String toString()
+		{
+			return "Hunk(" + start1 + "," + end1 + "," + start2 + "," + end2 +
+				(refined ? ",refined," : ",coarse,") + diffs + ")";
+		}
+	}
+}
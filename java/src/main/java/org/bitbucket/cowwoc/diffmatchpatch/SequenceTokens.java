@@ -0,0 +1,158 @@
+/*
+ * Diff Match and Patch
+ * Copyright 2018 The diff-match-patch Authors.
+ * https://github.com/google/diff-match-patch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bitbucket.cowwoc.diffmatchpatch;
+
+import java.util.List;
+
+/**
+ * Replaces the elements of two sequences by int tokens so that they can be
+ * diffed over a {@link DiffSource}. Equal elements share a token; tokens are
+ * dense and range from 0 to the number of distinct elements minus one.
+ * <p>
+ * The dictionaries are open-addressing tables with linear probing, sized to
+ * at most half full, so interning doesn't box the elements.
+ */
+final class SequenceTokens
+{
+	/**
+	 * Prevent construction.
+	 */
+	private SequenceTokens()
+	{
+	}
+
+	/**
+	 * Tokenize two sequences of longs.
+	 *
+	 * @param seq1 First sequence.
+	 * @param seq2 Second sequence.
+	 * @return The tokens of the first sequence, followed by those of the second.
+	 */
+	static int[][] tokenize(long[] seq1, long[] seq2)
+	{
+		int mask = tableSize(seq1.length + seq2.length) - 1;
+		long[] keys = new long[mask + 1];
+		// The token of each slot plus one, 0 marking empty slots.
+		int[] slots = new int[mask + 1];
+		long[][] sequences = {seq1, seq2};
+		int[][] result = {new int[seq1.length], new int[seq2.length]};
+		int count = 0;
+		for (int s = 0; s < sequences.length; s++)
+		{
+			long[] sequence = sequences[s];
+			int[] tokens = result[s];
+			for (int i = 0; i < sequence.length; i++)
+			{
+				long key = sequence[i];
+				int slot = spread((int) (key ^ (key >>> 32))) & mask;
+				while (slots[slot] != 0 && keys[slot] != key)
+				{
+					slot = (slot + 1) & mask;
+				}
+				if (slots[slot] == 0)
+				{
+					keys[slot] = key;
+					slots[slot] = ++count;
+				}
+				tokens[i] = slots[slot] - 1;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Tokenize two lists.
+	 *
+	 * @param seq1        First sequence.
+	 * @param seq2        Second sequence.
+	 * @param equivalence Decides which elements are equal.
+	 * @param <T>         The type of the elements.
+	 * @return The tokens of the first sequence, followed by those of the second.
+	 */
+	static <T> int[][] tokenize(List<? extends T> seq1, List<? extends T> seq2,
+	                            Equivalence<? super T> equivalence)
+	{
+		int mask = tableSize(seq1.size() + seq2.size()) - 1;
+		Object[] keys = new Object[mask + 1];
+		int[] hashes = new int[mask + 1];
+		// The token of each slot plus one, 0 marking empty slots.
+		int[] slots = new int[mask + 1];
+		int[][] result = {new int[seq1.size()], new int[seq2.size()]};
+		int count = 0;
+		for (int s = 0; s < result.length; s++)
+		{
+			int[] tokens = result[s];
+			int i = 0;
+			for (T key: s == 0 ? seq1 : seq2)
+			{
+				int hash = equivalence.hash(key);
+				int slot = spread(hash) & mask;
+				while (slots[slot] != 0)
+				{
+					if (hashes[slot] == hash)
+					{
+						@SuppressWarnings("unchecked")
+						T other = (T) keys[slot];
+						if (equivalence.equivalent(other, key))
+						{
+							break;
+						}
+					}
+					slot = (slot + 1) & mask;
+				}
+				if (slots[slot] == 0)
+				{
+					keys[slot] = key;
+					hashes[slot] = hash;
+					slots[slot] = ++count;
+				}
+				tokens[i++] = slots[slot] - 1;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the size of a table that is at most half full.
+	 *
+	 * @param elements The maximum number of elements in the table.
+	 * @return A power of two.
+	 */
+	static int tableSize(int elements)
+	{
+		int size = 2;
+		while (size < elements * 2L)
+		{
+			size <<= 1;
+		}
+		return size;
+	}
+
+	/**
+	 * Spread the bits of a hash so that hashes differing only in their upper
+	 * bits don't collide in a small table.
+	 *
+	 * @param hash The hash.
+	 * @return The spread hash.
+	 */
+	static int spread(int hash)
+	{
+		hash *= 0x9E3779B9;
+		return hash ^ (hash >>> 16);
+	}
+}
@@ -0,0 +1,324 @@
+/*
+ * Diff Match and Patch
+ * Copyright 2018 The diff-match-patch Authors.
+ * https://github.com/google/diff-match-patch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bitbucket.cowwoc.diffmatchpatch;
+
+/**
+ * Searches strings for a range of another string, in time linear in the
+ * length searched.
+ * <p>
+ * Each search starts out comparing candidates one at a time from their first
+ * character, which is the fastest approach on ordinary text. Once the
+ * candidates that failed have cost more comparisons than there are
+ * characters to search, as happens on repetitive text, the search continues
+ * with the prefix function of the pattern (Knuth-Morris-Pratt). The prefix
+ * functions are computed on first use and reused by later searches.
+ * <p>
+ * Searches are not thread-safe, except those returned by
+ * {@link #compile}, whose prefix functions are computed up front so that they
+ * never change afterwards.
+ */
+final class SubstringSearch
+{
+	private final String pattern;
+	private final int start;
+	private final int length;
+	/**
+	 * {@code forward[i]} is the length of the longest proper prefix of the
+	 * first {@code i + 1} characters of the pattern that is also their suffix,
+	 * or null if not computed yet.
+	 */
+	private int[] forward;
+	/**
+	 * The same as {@code forward}, for the pattern read backwards.
+	 */
+	private int[] backward;
+
+	/**
+	 * Creates a search for a range of a string.
+	 *
+	 * @param pattern String containing the range to search for.
+	 * @param start   Index of the first character of the range.
+	 * @param end     Index after the last character of the range.
+	 */
+	SubstringSearch(String pattern, int start, int end)
+	{
+		this.pattern = pattern;
+		this.start = start;
+		this.length = end - start;
+	}
+
+	/**
+	 * Creates a search for a range of a string, with its prefix functions
+	 * computed up front. The search never changes, so it may be shared between
+	 * threads.
+	 *
+	 * @param pattern String containing the range to search for.
+	 * @param start   Index of the first character of the range.
+	 * @param end     Index after the last character of the range.
+	 * @return The search.
+	 */
+	static SubstringSearch compile(String pattern, int start, int end)
+	{
+		SubstringSearch result = new SubstringSearch(pattern, start, end);
+		result.getForward();
+		result.getBackward();
+		return result;
+	}
+
+	/**
+	 * Find the first occurrence of a range of one string within a range of
+	 * another, without copying either range.
+	 *
+	 * @param text         String to search.
+	 * @param from         Index in text at which to start searching.
+	 * @param end          Index in text after which no match may end.
+	 * @param pattern      String containing the range to search for.
+	 * @param patternStart Index of the first character of the pattern.
+	 * @param patternEnd   Index after the last character of the pattern.
+	 * @return Index in text of the first match, or -1 if there is none.
+	 */
+	static int indexOf(String text, int from, int end, String pattern,
+	                   int patternStart, int patternEnd)
+	{
+		return new SubstringSearch(pattern, patternStart, patternEnd).
+			indexOf(text, from, end);
+	}
+
+	/**
+	 * Find the first occurrence of the pattern within a range of a string.
+	 *
+	 * @param text String to search.
+	 * @param from Index in text at which to start searching.
+	 * @param end  Index in text after which no match may end.
+	 * @return Index in text of the first match, or -1 if there is none.
+	 */
+	int indexOf(String text, int from, int end)
+	{
+		if (length == 0)
+		{
+			return from <= end ? from : -1;
+		}
+		char first = pattern.charAt(start);
+		int max = end - length;
+		// The comparisons that failed candidates may cost.
+		long budget = (long) end - from + length;
+		for (int i = from; i <= max; i++)
+		{
+			if (text.charAt(i) != first)
+			{
+				continue;
+			}
+			int matched = 1;
+			while (matched < length && text.charAt(i + matched) ==
+				pattern.charAt(start + matched))
+			{
+				++matched;
+			}
+			if (matched == length)
+			{
+				return i;
+			}
+			budget -= matched;
+			if (budget < 0)
+			{
+				return scanForward(text, i + 1, end);
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Find the last occurrence of the pattern within a string.
+	 *
+	 * @param text String to search.
+	 * @param from Index in text at or before which the match must start.
+	 * @return Index in text of the last match, or -1 if there is none.
+	 */
+	int lastIndexOf(String text, int from)
+	{
+		return lastIndexOf(text, 0, from);
+	}
+
+	/**
+	 * Find the last occurrence of the pattern within a range of a string.
+	 *
+	 * @param text String to search.
+	 * @param min  Index in text before which no match may start.
+	 * @param from Index in text at or before which the match must start.
+	 * @return Index in text of the last match, or -1 if there is none.
+	 */
+	int lastIndexOf(String text, int min, int from)
+	{
+		int max = Math.min(from, text.length() - length);
+		if (max < min)
+		{
+			return -1;
+		}
+		if (length == 0)
+		{
+			return max;
+		}
+		char last = pattern.charAt(start + length - 1);
+		long budget = (long) max - min + length;
+		for (int i = max; i >= min; i--)
+		{
+			if (text.charAt(i + length - 1) != last)
+			{
+				continue;
+			}
+			int matched = 1;
+			while (matched < length && text.charAt(i + length - 1 - matched) ==
+				pattern.charAt(start + length - 1 - matched))
+			{
+				++matched;
+			}
+			if (matched == length)
+			{
+				return i;
+			}
+			budget -= matched;
+			if (budget < 0)
+			{
+				return scanBackward(text, min, i + length - 1);
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Find the first occurrence of the pattern using its prefix function.
+	 *
+	 * @param text String to search.
+	 * @param from Index in text at which to start searching.
+	 * @param end  Index in text after which no match may end.
+	 * @return Index in text of the first match, or -1 if there is none.
+	 */
+	private int scanForward(String text, int from, int end)
+	{
+		int[] forward = getForward();
+		int matched = 0;
+		for (int i = from; i < end; i++)
+		{
+			char c = text.charAt(i);
+			while (matched > 0 && pattern.charAt(start + matched) != c)
+			{
+				matched = forward[matched - 1];
+			}
+			if (pattern.charAt(start + matched) == c)
+			{
+				++matched;
+				if (matched == length)
+				{
+					return i + 1 - length;
+				}
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Find the last occurrence of the pattern using the prefix function of the
+	 * pattern read backwards.
+	 *
+	 * @param text String to search.
+	 * @param min  Index in text before which no match may start.
+	 * @param last Index in text at or before which the match must end.
+	 * @return Index in text of the last match, or -1 if there is none.
+	 */
+	private int scanBackward(String text, int min, int last)
+	{
+		int end = start + length - 1;
+		int[] backward = getBackward();
+		int matched = 0;
+		for (int i = last; i >= min; i--)
+		{
+			char c = text.charAt(i);
+			while (matched > 0 && pattern.charAt(end - matched) != c)
+			{
+				matched = backward[matched - 1];
+			}
+			if (pattern.charAt(end - matched) == c)
+			{
+				++matched;
+				if (matched == length)
+				{
+					return i;
+				}
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the prefix function of the pattern, computing it on first use.
+	 *
+	 * @return {@code forward}.
+	 */
+	private int[] getForward()
+	{
+		if (forward == null)
+		{
+			forward = new int[length];
+			int matched = 0;
+			for (int i = 1; i < length; i++)
+			{
+				char c = pattern.charAt(start + i);
+				while (matched > 0 && pattern.charAt(start + matched) != c)
+				{
+					matched = forward[matched - 1];
+				}
+				if (pattern.charAt(start + matched) == c)
+				{
+					++matched;
+				}
+				forward[i] = matched;
+			}
+		}
+		return forward;
+	}
+
+	/**
+	 * Returns the prefix function of the pattern read backwards, computing it
+	 * on first use.
+	 *
+	 * @return {@code backward}.
+	 */
+	private int[] getBackward()
+	{
+		if (backward == null)
+		{
+			int end = start + length - 1;
+			backward = new int[length];
+			int matched = 0;
+			for (int i = 1; i < length; i++)
+			{
+				char c = pattern.charAt(end - i);
+				while (matched > 0 && pattern.charAt(end - matched) != c)
+				{
+					matched = backward[matched - 1];
+				}
+				if (pattern.charAt(end - matched) == c)
+				{
+					++matched;
+				}
+				backward[i] = matched;
+			}
+		}
+		return backward;
+	}
+}
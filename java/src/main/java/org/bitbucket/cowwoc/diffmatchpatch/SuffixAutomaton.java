@@ -0,0 +1,313 @@
+/*
+ * Diff Match and Patch
+ * Copyright 2018 The diff-match-patch Authors.
+ * https://github.com/google/diff-match-patch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bitbucket.cowwoc.diffmatchpatch;
+
+import java.util.Arrays;
+
+/**
+ * The suffix automaton of a range of text: the smallest automaton accepting
+ * exactly the substrings of that range. It is built in linear time and lets
+ * {@link #longestCommonSubstring} find the longest block shared with another
+ * range in a single pass over that range.
+ * <p>
+ * An automaton of {@code n} characters has fewer than {@code 2n} states and
+ * {@code 3n} transitions. Transitions are kept in per-state lists for copying
+ * and indexed by an open-addressing table on (state, character) for lookups,
+ * so memory use is linear in {@code n} whatever the alphabet: typically around
+ * 100 bytes per character.
+ */
+final class SuffixAutomaton
+{
+	private static final long EMPTY = -1;
+
+	/**
+	 * The length of the longest string of every state.
+	 */
+	private final int[] length;
+	/**
+	 * The suffix link of every state.
+	 */
+	private final int[] link;
+	/**
+	 * The index (relative to the start of the range) of the last character of
+	 * the first occurrence of the strings of every state.
+	 */
+	private final int[] lastIndex;
+	/**
+	 * The first transition of every state, or -1.
+	 */
+	private final int[] head;
+	private char[] edgeChar;
+	private int[] edgeTarget;
+	private int[] edgeNext;
+	private long[] keys;
+	private int[] edges;
+	private int shift;
+	private final int start;
+	private int states;
+	private int edgeCount;
+
+	/**
+	 * Constructor. Builds the automaton of a range of text.
+	 *
+	 * @param text  The string.
+	 * @param start Index of the first character of the range.
+	 * @param end   Index after the last character of the range.
+	 */
+	SuffixAutomaton(String text, int start, int end)
+	{
+		this.start = start;
+		int n = end - start;
+		int maxStates = 2 * n + 1;
+		this.length = new int[maxStates];
+		this.link = new int[maxStates];
+		this.lastIndex = new int[maxStates];
+		this.head = new int[maxStates];
+		// Text usually needs far fewer than the 3n transitions of the worst case,
+		// so the transitions grow on demand.
+		this.edgeChar = new char[n + 1];
+		this.edgeTarget = new int[n + 1];
+		this.edgeNext = new int[n + 1];
+		allocateTable(SequenceTokens.tableSize(n + 1));
+
+		link[0] = -1;
+		head[0] = -1;
+		states = 1;
+		int last = 0;
+		for (int i = 0; i < n; i++)
+		{
+			char c = text.charAt(start + i);
+			int current = states++;
+			length[current] = length[last] + 1;
+			lastIndex[current] = i;
+			head[current] = -1;
+			int x = last;
+			int edge = -1;
+			while (x != -1 && (edge = find(x, c)) == -1)
+			{
+				addEdge(x, c, current);
+				x = link[x];
+			}
+			if (x == -1)
+			{
+				link[current] = 0;
+			}
+			else
+			{
+				int q = edgeTarget[edge];
+				if (length[x] + 1 == length[q])
+				{
+					link[current] = q;
+				}
+				else
+				{
+					// Split q: the clone takes the strings of q that are at most
+					// length[x] + 1 long.
+					int clone = states++;
+					length[clone] = length[x] + 1;
+					link[clone] = link[q];
+					lastIndex[clone] = lastIndex[q];
+					head[clone] = -1;
+					for (int e = head[q]; e != -1; e = edgeNext[e])
+					{
+						addEdge(clone, edgeChar[e], edgeTarget[e]);
+					}
+					while (edgeTarget[edge] == q)
+					{
+						edgeTarget[edge] = clone;
+						x = link[x];
+						if (x == -1)
+						{
+							break;
+						}
+						edge = find(x, c);
+					}
+					link[q] = clone;
+					link[current] = clone;
+				}
+			}
+			last = current;
+		}
+	}
+
+	/**
+	 * Find the longest substring of a range of text that also occurs in the
+	 * range of the automaton.
+	 *
+	 * @param other      The string to search.
+	 * @param otherStart Index of the first character of the range in other.
+	 * @param otherEnd   Index after the last character of the range in other.
+	 * @return Three element int array, containing the index of the substring
+	 * in the text of the automaton, its index in other and its length. Or null
+	 * if the ranges have no character in common.
+	 */
+	int[] longestCommonSubstring(String other, int otherStart, int otherEnd)
+	{
+		int state = 0;
+		int matched = 0;
+		int bestLength = 0;
+		int bestState = 0;
+		int bestEnd = 0;
+		for (int i = otherStart; i < otherEnd; i++)
+		{
+			char c = other.charAt(i);
+			int edge = find(state, c);
+			while (state != 0 && edge == -1)
+			{
+				state = link[state];
+				matched = length[state];
+				edge = find(state, c);
+			}
+			if (edge == -1)
+			{
+				continue;
+			}
+			state = edgeTarget[edge];
+			matched++;
+			if (matched > bestLength)
+			{
+				bestLength = matched;
+				bestState = state;
+				bestEnd = i + 1;
+			}
+		}
+		if (bestLength == 0)
+		{
+			return null;
+		}
+		// The match is a suffix of the strings of bestState, so it also ends
+		// where their first occurrence ends.
+		return new int[]
+			{
+				start + lastIndex[bestState] + 1 - bestLength, bestEnd - bestLength,
+				bestLength
+			};
+	}
+
+	/**
+	 * Add a transition.
+	 *
+	 * @param state  The source state.
+	 * @param c      The character.
+	 * @param target The target state.
+	 */
+	private void addEdge(int state, char c, int target)
+	{
+		if (edgeCount == edgeChar.length)
+		{
+			int capacity = edgeCount + (edgeCount >> 1) + 1;
+			edgeChar = Arrays.copyOf(edgeChar, capacity);
+			edgeTarget = Arrays.copyOf(edgeTarget, capacity);
+			edgeNext = Arrays.copyOf(edgeNext, capacity);
+		}
+		if (2 * (edgeCount + 1) > keys.length)
+		{
+			long[] oldKeys = keys;
+			int[] oldEdges = edges;
+			allocateTable(keys.length * 2);
+			for (int i = 0; i < oldKeys.length; i++)
+			{
+				if (oldKeys[i] != EMPTY)
+				{
+					insert(oldKeys[i], oldEdges[i]);
+				}
+			}
+		}
+		int edge = edgeCount++;
+		edgeChar[edge] = c;
+		edgeTarget[edge] = target;
+		edgeNext[edge] = head[state];
+		head[state] = edge;
+		insert(key(state, c), edge);
+	}
+
+	/**
+	 * Index a transition by its key.
+	 *
+	 * @param key  The key of the transition.
+	 * @param edge The index of the transition.
+	 */
+	private void insert(long key, int edge)
+	{
+		int mask = keys.length - 1;
+		int slot = slot(key);
+		while (keys[slot] != EMPTY)
+		{
+			slot = (slot + 1) & mask;
+		}
+		keys[slot] = key;
+		edges[slot] = edge;
+	}
+
+	/**
+	 * Replace the transition index by an empty one.
+	 *
+	 * @param capacity The number of slots, a power of two.
+	 */
+	private void allocateTable(int capacity)
+	{
+		keys = new long[capacity];
+		edges = new int[capacity];
+		shift = 64 - Integer.numberOfTrailingZeros(capacity);
+		Arrays.fill(keys, EMPTY);
+	}
+
+	/**
+	 * Find a transition.
+	 *
+	 * @param state The source state.
+	 * @param c     The character.
+	 * @return The index of the transition, or -1 if there is none.
+	 */
+	private int find(int state, char c)
+	{
+		long key = key(state, c);
+		int mask = keys.length - 1;
+		for (int slot = slot(key); keys[slot] != EMPTY; slot = (slot + 1) & mask)
+		{
+			if (keys[slot] == key)
+			{
+				return edges[slot];
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the table key of a transition.
+	 *
+	 * @param state The source state.
+	 * @param c     The character.
+	 * @return The key.
+	 */
+	private static long key(int state, char c)
+	{
+		return ((long) state << 16) | c;
+	}
+
+	/**
+	 * Returns the home slot of a key (Fibonacci hashing).
+	 *
+	 * @param key The key.
+	 * @return The slot.
+	 */
+	private int slot(long key)
+	{
+		return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+	}
+}
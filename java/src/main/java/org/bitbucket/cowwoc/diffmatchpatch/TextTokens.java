@@ -0,0 +1,136 @@
+/*
+ * Diff Match and Patch
+ * Copyright 2018 The diff-match-patch Authors.
+ * https://github.com/google/diff-match-patch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bitbucket.cowwoc.diffmatchpatch;
+
+/**
+ * Two ranges of text split into tokens (lines, words...) by a
+ * {@link DiffTokenizer}, with every token replaced by an int identifying its
+ * contents. Equal tokens share an id, so the tokens of both ranges can be
+ * compared as integers.
+ * <p>
+ * Ids are dense: they range from 0 to {@code count - 1}. Token {@code i} of
+ * the first range spans {@code [starts1[i], starts1[i + 1])} in the first
+ * text, and likewise for the second range.
+ */
+final class TextTokens
+{
+	/**
+	 * The ids of the tokens in the first range.
+	 */
+	final int[] tokens1;
+	/**
+	 * The index in the first text of every token, followed by the end of the
+	 * range.
+	 */
+	final int[] starts1;
+	/**
+	 * The ids of the tokens in the second range.
+	 */
+	final int[] tokens2;
+	/**
+	 * The index in the second text of every token, followed by the end of the
+	 * range.
+	 */
+	final int[] starts2;
+	/**
+	 * The number of distinct tokens.
+	 */
+	final int count;
+
+	/**
+	 * Constructor. Splits two ranges of text into tokens.
+	 *
+	 * @param text1     First string.
+	 * @param start1    Index of the first character of the range in text1.
+	 * @param end1      Index after the last character of the range in text1.
+	 * @param text2     Second string.
+	 * @param start2    Index of the first character of the range in text2.
+	 * @param end2      Index after the last character of the range in text2.
+	 * @param tokenizer Splits the ranges into tokens.
+	 */
+	TextTokens(String text1, int start1, int end1, String text2, int start2,
+	           int end2, DiffTokenizer tokenizer)
+	{
+		LineDictionary tokenHash = new LineDictionary((end1 - start1 +
+			end2 - start2) / 64);
+		this.starts1 = tokenStarts(text1, start1, end1, tokenizer);
+		this.tokens1 = tokenize(text1, starts1, tokenHash);
+		this.starts2 = tokenStarts(text2, start2, end2, tokenizer);
+		this.tokens2 = tokenize(text2, starts2, tokenHash);
+		this.count = tokenHash.size();
+	}
+
+	/**
+	 * Find the start of every token in a range of text.
+	 *
+	 * @param text      The string.
+	 * @param start     Index of the first character of the range.
+	 * @param end       Index after the last character of the range.
+	 * @param tokenizer Splits the range into tokens.
+	 * @return The index of every token, followed by {@code end}.
+	 */
+	private static int[] tokenStarts(String text, int start, int end,
+	                                 DiffTokenizer tokenizer)
+	{
+		IntList starts = new IntList();
+		int tokenStart = start;
+		while (tokenStart < end)
+		{
+			starts.add(tokenStart);
+			int tokenEnd = tokenizer.tokenEnd(text, tokenStart, end);
+			if (tokenEnd <= tokenStart || tokenEnd > end)
+			{
+				throw new IllegalStateException(tokenizer + " returned " + tokenEnd +
+					" for a token starting at " + tokenStart + " in a range ending at " +
+					end);
+			}
+			tokenStart = tokenEnd;
+		}
+		starts.add(end);
+		return starts.toArray();
+	}
+
+	/**
+	 * Replace every token of a range of text by its id.
+	 *
+	 * @param text      The string.
+	 * @param starts    The index of every token, followed by the end of the
+	 *                  range.
+	 * @param tokenHash Map of tokens to ids, shared by both ranges.
+	 * @return The id of every token.
+	 */
+	private static int[] tokenize(String text, int[] starts,
+	                              LineDictionary tokenHash)
+	{
+		int[] tokens = new int[starts.length - 1];
+		for (int i = 0; i < tokens.length; i++)
+		{
+			int tokenStart = starts[i];
+			int tokenEnd = starts[i + 1];
+			long hash = LineDictionary.hash(text, tokenStart, tokenEnd);
+			int token = tokenHash.get(text, tokenStart, tokenEnd, hash);
+			if (token == -1)
+			{
+				token = tokenHash.size();
+				tokenHash.put(text, tokenStart, tokenEnd, hash, token);
+			}
+			tokens[i] = token;
+		}
+		return tokens;
+	}
+}
@@ -0,0 +1,179 @@
+/*
+ * Diff Match and Patch
+ * Copyright 2018 The diff-match-patch Authors.
+ * https://github.com/google/diff-match-patch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.bitbucket.cowwoc.diffmatchpatch;
+
+/**
+ * Compares runs of characters of two strings: the common prefix and suffix
+ * scans and the snakes of {@code diffBisect}.
+ * <p>
+ * This is the Java 9+ implementation of the multi-release JAR. Most runs are
+ * short, so the first characters are compared one at a time like the portable
+ * implementation does. Longer runs are compared in growing chunks with
+ * {@link String#regionMatches(int, String, int, int)}, which compares the
+ * compact byte arrays of the strings in place, and only the chunk that
+ * differs is scanned one character at a time. Per character, regionMatches
+ * is no faster than charAt on Java 17, so only runs longer than the diffs
+ * usually meet are compared in chunks.
+ */
+final class CharScan
+{
+	/**
+	 * The number of characters compared one at a time before switching to bulk
+	 * comparisons.
+	 */
+	private static final int SCALAR_LENGTH = 1024;
+	/**
+	 * The size of the first chunk compared in bulk.
+	 */
+	private static final int MIN_CHUNK = 64;
+	/**
+	 * The size of the largest chunk compared in bulk.
+	 */
+	private static final int MAX_CHUNK = 4096;
+
+	/**
+	 * Prevent construction.
+	 */
+	private CharScan()
+	{
+	}
+
+	/**
+	 * Count the characters that two strings have in common from given indexes
+	 * onwards.
+	 *
+	 * @param text1  First string.
+	 * @param start1 Index in text1 at which to start comparing.
+	 * @param text2  Second string.
+	 * @param start2 Index in text2 at which to start comparing.
+	 * @param length The maximum number of characters to compare.
+	 * @return The number of equal characters, at most {@code length}.
+	 */
+	static int commonPrefix(String text1, int start1, String text2, int start2,
+	                        int length)
+	{
+		int scalar = Math.min(length, SCALAR_LENGTH);
+		for (int i = 0; i < scalar; i++)
+		{
+			if (text1.charAt(start1 + i) != text2.charAt(start2 + i))
+			{
+				return i;
+			}
+		}
+		if (length <= SCALAR_LENGTH)
+		{
+			return Math.max(length, 0);
+		}
+		return commonPrefixInChunks(text1, start1, text2, start2, length);
+	}
+
+	/**
+	 * Count the characters that two strings have in common from given indexes
+	 * onwards, past the first {@link #SCALAR_LENGTH} ones. Kept apart from
+	 * {@link #commonPrefix} so that the short scans stay small enough to inline.
+	 *
+	 * @param text1  First string.
+	 * @param start1 Index in text1 at which to start comparing.
+	 * @param text2  Second string.
+	 * @param start2 Index in text2 at which to start comparing.
+	 * @param length The maximum number of characters to compare.
+	 * @return The number of equal characters, at most {@code length}.
+	 */
+	private static int commonPrefixInChunks(String text1, int start1,
+	                                        String text2, int start2, int length)
+	{
+		int chunk = MIN_CHUNK;
+		for (int i = SCALAR_LENGTH; i < length; i += chunk,
+			chunk = Math.min(chunk * 2, MAX_CHUNK))
+		{
+			int n = Math.min(chunk, length - i);
+			if (!text1.regionMatches(start1 + i, text2, start2 + i, n))
+			{
+				// Find the first difference within the chunk.
+				while (text1.charAt(start1 + i) == text2.charAt(start2 + i))
+				{
+					i++;
+				}
+				return i;
+			}
+		}
+		return length;
+	}
+
+	/**
+	 * Count the characters that two strings have in common before given
+	 * indexes.
+	 *
+	 * @param text1  First string.
+	 * @param end1   Index in text1 before which to start comparing.
+	 * @param text2  Second string.
+	 * @param end2   Index in text2 before which to start comparing.
+	 * @param length The maximum number of characters to compare.
+	 * @return The number of equal characters, at most {@code length}.
+	 */
+	static int commonSuffix(String text1, int end1, String text2, int end2,
+	                        int length)
+	{
+		int scalar = Math.min(length, SCALAR_LENGTH);
+		for (int i = 1; i <= scalar; i++)
+		{
+			if (text1.charAt(end1 - i) != text2.charAt(end2 - i))
+			{
+				return i - 1;
+			}
+		}
+		if (length <= SCALAR_LENGTH)
+		{
+			return Math.max(length, 0);
+		}
+		return commonSuffixInChunks(text1, end1, text2, end2, length);
+	}
+
+	/**
+	 * Count the characters that two strings have in common before given
+	 * indexes, past the last {@link #SCALAR_LENGTH} ones. Kept apart from
+	 * {@link #commonSuffix} so that the short scans stay small enough to inline.
+	 *
+	 * @param text1  First string.
+	 * @param end1   Index in text1 before which to start comparing.
+	 * @param text2  Second string.
+	 * @param end2   Index in text2 before which to start comparing.
+	 * @param length The maximum number of characters to compare.
+	 * @return The number of equal characters, at most {@code length}.
+	 */
+	private static int commonSuffixInChunks(String text1, int end1, String text2,
+	                                        int end2, int length)
+	{
+		int chunk = MIN_CHUNK;
+		for (int i = SCALAR_LENGTH; i < length; i += chunk,
+			chunk = Math.min(chunk * 2, MAX_CHUNK))
+		{
+			int n = Math.min(chunk, length - i);
+			if (!text1.regionMatches(end1 - i - n, text2, end2 - i - n, n))
+			{
+				// Find the last difference within the chunk.
+				while (text1.charAt(end1 - i - 1) == text2.charAt(end2 - i - 1))
+				{
+					i++;
+				}
+				return i;
+			}
+		}
+		return length;
+	}
+}
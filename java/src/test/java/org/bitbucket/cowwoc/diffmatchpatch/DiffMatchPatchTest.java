@@ -18,16 +18,28 @@
 package org.bitbucket.cowwoc.diffmatchpatch;
 
 import junit.framework.TestCase;
+import org.bitbucket.cowwoc.diffmatchpatch.DiffCleanupPipeline.Pass;
 import org.bitbucket.cowwoc.diffmatchpatch.DiffMatchPatch.Diff;
 import org.bitbucket.cowwoc.diffmatchpatch.DiffMatchPatch.LinesToCharsResult;
 import org.bitbucket.cowwoc.diffmatchpatch.DiffMatchPatch.Patch;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
 
 public class DiffMatchPatchTest extends TestCase
 {
@@ -57,6 +69,80 @@ public class DiffMatchPatchTest extends TestCase
 		assertEquals("diffCommonSuffix: Whole case.", 4, dmp.diffCommonSuffix("1234", "xyz1234"));
 	}
 
+	public void testCharScan() throws Exception
+	{
+		// The portable scans.
+		Method prefix = CharScan.class.getDeclaredMethod("commonPrefix", String.class, int.class, String.class,
+			int.class, int.class);
+		Method suffix = CharScan.class.getDeclaredMethod("commonSuffix", String.class, int.class, String.class,
+			int.class, int.class);
+		assertCharScan("CharScan: Portable", prefix, suffix);
+
+		// The bulk scans of the multi-release JAR. The test classpath holds the
+		// unversioned classes, so load the Java 9 class on its own.
+		if (System.getProperty("java.specification.version").startsWith("1."))
+		{
+			return;
+		}
+		URL classes = CharScan.class.getProtectionDomain().getCodeSource().getLocation();
+		URL versioned = new URL(classes, "META-INF/versions/9/");
+		try (URLClassLoader loader = new URLClassLoader(new URL[]{versioned}, null))
+		{
+			Class<?> java9 = Class.forName(CharScan.class.getName(), true, loader);
+			assertNotSame("CharScan: Java 9 class loaded.", CharScan.class, java9);
+			prefix = java9.getDeclaredMethod("commonPrefix", String.class, int.class, String.class, int.class,
+				int.class);
+			suffix = java9.getDeclaredMethod("commonSuffix", String.class, int.class, String.class, int.class,
+				int.class);
+			assertCharScan("CharScan: Java 9", prefix, suffix);
+		}
+	}
+
+	// Compare the scans of CharScan with one character at a time, for runs that
+	// end before, inside and after the chunks of the bulk comparisons.
+	private static void assertCharScan(String errorMsg, Method prefix, Method suffix) throws Exception
+	{
+		prefix.setAccessible(true);
+		suffix.setAccessible(true);
+		Random random = new Random(1);
+		String text = randomText(random, 20000, "ab");
+		int[] lengths = {0, 1, 15, 16, 17, 79, 80, 81, 207, 208, 209, 4000, 8000, 12500};
+		for (int length : lengths)
+		{
+			for (int mismatch : new int[]{0, 1, length / 2, length - 1, length})
+			{
+				if (mismatch < 0 || mismatch > length)
+				{
+					continue;
+				}
+				int start1 = 3;
+				int start2 = 7;
+				StringBuilder other = new StringBuilder(text);
+				// Copy the run to the second position and break it at the mismatch.
+				other.replace(start2, start2 + length, text.substring(start1, start1 + length));
+				if (mismatch < length)
+				{
+					other.setCharAt(start2 + mismatch, 'c');
+				}
+				assertEquals(errorMsg + " prefix " + length + "/" + mismatch + ".", mismatch,
+					prefix.invoke(null, text, start1, other.toString(), start2, length));
+
+				int end1 = start1 + length;
+				int end2 = start2 + length;
+				other = new StringBuilder(text);
+				other.replace(start2, end2, text.substring(start1, end1));
+				if (mismatch < length)
+				{
+					other.setCharAt(end2 - 1 - mismatch, 'c');
+				}
+				assertEquals(errorMsg + " suffix " + length + "/" + mismatch + ".", mismatch,
+					suffix.invoke(null, text, end1, other.toString(), end2, length));
+			}
+		}
+		assertEquals(errorMsg + " negative prefix.", 0, prefix.invoke(null, "abc", 0, "abc", 0, -1));
+		assertEquals(errorMsg + " negative suffix.", 0, suffix.invoke(null, "abc", 3, "abc", 3, -1));
+	}
+
 	public void testDiffCommonOverlap()
 	{
 		// Detect any suffix/prefix overlap.
@@ -71,6 +157,50 @@ public class DiffMatchPatchTest extends TestCase
 		// Some overly clever languages (C#) may treat ligatures as equal to their
 		// component letters.  E.g. U+FB01 == 'fi'
 		assertEquals("diffCommonOverlap: Unicode.", 0, dmp.diffCommonOverlap("fi", "\ufb01i"));
+
+		assertEquals("diffCommonOverlap: Repeated overlap.", 5, dmp.diffCommonOverlap("xabababa", "ababaab"));
+
+		assertEquals("diffCommonOverlap: Ranges.", 3, dmp.diffCommonOverlap("--123456xxx--", 2, 11, "xxxabcd", 0, 7));
+
+		StringBuilder text1 = new StringBuilder();
+		StringBuilder text2 = new StringBuilder();
+		for (int i = 0; i < 100000; i++)
+		{
+			text1.append('a');
+			text2.append('a');
+		}
+		text2.setCharAt(text2.length() - 1, 'b');
+		assertEquals("diffCommonOverlap: Long repetition.", 99999, dmp.diffCommonOverlap(text1.toString(),
+			text2.toString()));
+	}
+
+	public void testSubstringSearch()
+	{
+		// Find a range of one string in another.
+		SubstringSearch search = new SubstringSearch("xxabcxx", 2, 5);
+		assertEquals("SubstringSearch: First.", 2, search.indexOf("12abc45abc", 0, 10));
+		assertEquals("SubstringSearch: Next.", 7, search.indexOf("12abc45abc", 3, 10));
+		assertEquals("SubstringSearch: Range end.", -1, search.indexOf("12abc45abc", 3, 9));
+		assertEquals("SubstringSearch: Last.", 7, search.lastIndexOf("12abc45abc", 10));
+		assertEquals("SubstringSearch: Last before.", 2, search.lastIndexOf("12abc45abc", 6));
+		assertEquals("SubstringSearch: None.", -1, search.lastIndexOf("12ab", 4));
+
+		// Repetitive text doesn't make the search quadratic.
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 1000000; i++)
+		{
+			text.append('a');
+		}
+		StringBuilder pattern = new StringBuilder(text.substring(0, 10000)).append('b');
+		search = new SubstringSearch(pattern.toString(), 0, pattern.length());
+		assertEquals("SubstringSearch: Repetitive.", -1, search.indexOf(text.toString(), 0, text.length()));
+		text.append('b');
+		assertEquals("SubstringSearch: Repetitive match.", 1000000 - 10000, search.indexOf(text.toString(), 0,
+			text.length()));
+		pattern.reverse();
+		text.reverse();
+		search = new SubstringSearch(pattern.toString(), 0, pattern.length());
+		assertEquals("SubstringSearch: Repetitive last match.", 0, search.lastIndexOf(text.toString(), text.length()));
 	}
 
 	public void testDiffHalfmatch()
@@ -126,6 +256,48 @@ public class DiffMatchPatchTest extends TestCase
 		assertNull("diffHalfMatch: Optimal no halfmatch.", dmp.diffHalfMatch("qHilloHelloHew", "xHelloHeHulloy"));
 	}
 
+	public void testDiffSplit()
+	{
+		// Suffix automaton finds the longest common substring.
+		Random random = new Random(1);
+		for (int test = 0; test < 200; test++)
+		{
+			String a = randomText(random, random.nextInt(40), "abc");
+			String b = randomText(random, 1 + random.nextInt(40), "abc");
+			int expected = 0;
+			for (int i = 0; i < a.length(); i++)
+			{
+				for (int j = 0; j < b.length(); j++)
+				{
+					expected = Math.max(expected, dmp.diffCommonPrefix(a.substring(i), b.substring(j)));
+				}
+			}
+			int[] lcs = new SuffixAutomaton(a, 0, a.length()).longestCommonSubstring(b, 0, b.length());
+			assertEquals("SuffixAutomaton: Length of " + a + " / " + b + ".", expected, lcs == null ? 0 : lcs[2]);
+			if (lcs != null)
+			{
+				assertEquals("SuffixAutomaton: Match of " + a + " / " + b + ".", a.substring(lcs[0], lcs[0] + lcs[2]), b.substring(lcs[1], lcs[1] + lcs[2]));
+			}
+		}
+
+		// Huge diffs are split around a common block too short for a half-match.
+		String common = randomText(random, 200, "abcdefghijklmnopqrstuvwxyz");
+		String a = randomText(random, 500, "0123456789") + common + randomText(random, 500, "0123456789");
+		String b = randomText(random, 700, "ABCDEFGHIJ") + common + randomText(random, 300, "ABCDEFGHIJ");
+		assertNull("diffHalfMatch: No half-match.", dmp.diffHalfMatch(a, b));
+		dmp.diffSplitThreshold = 1000;
+		try
+		{
+			LinkedList<Diff> diffs = dmp.diffMain(a, b, false);
+			assertTrue("diffMain: Split.", diffs.contains(new Diff(EQUAL, common)));
+			assertEquals("diffMain: Split rebuilds text.", Arrays.asList(a, b), Arrays.asList(diffRebuildtexts(diffs)));
+		}
+		finally
+		{
+			dmp.diffSplitThreshold = 0;
+		}
+	}
+
 	public void testDiffLinesToChars()
 	{
 		// Convert lines down to characters.
@@ -169,6 +341,25 @@ public class DiffMatchPatchTest extends TestCase
 		tmpVector.add(0, "");
 		assertLinesToCharsResultEquals("diffLinesToChars: More than 256.", new LinesToCharsResult(chars, "", tmpVector),
 			dmp.diffLinesToChars(lines, ""));
+
+		// A Thue-Morse string and its complement collide under any 64-bit
+		// polynomial hash; the lines must still be told apart.
+		StringBuilder thueMorse = new StringBuilder("a");
+		while (thueMorse.length() < 2048)
+		{
+			for (int i = 0, length = thueMorse.length(); i < length; i++)
+			{
+				thueMorse.append(thueMorse.charAt(i) == 'a' ? 'b' : 'a');
+			}
+		}
+		String line1 = thueMorse + "\n";
+		String line2 = line1.replace('a', 'c').replace('b', 'a').replace('c', 'b');
+		tmpVector.clear();
+		tmpVector.add("");
+		tmpVector.add(line1);
+		tmpVector.add(line2);
+		assertLinesToCharsResultEquals("diffLinesToChars: Hash collision.", new LinesToCharsResult("\u0001\u0002\u0001", "\u0002\u0001", tmpVector),
+			dmp.diffLinesToChars(line1 + line2 + line1, line2 + line1));
 	}
 
 	public void testDiffCharsToLines()
@@ -289,6 +480,41 @@ public class DiffMatchPatchTest extends TestCase
 		diffs = diffList(new Diff(EQUAL, ""), new Diff(INSERT, "a"), new Diff(EQUAL, "b"));
 		dmp.diffCleanupMerge(diffs);
 		assertEquals("diff_cleanupMerge: Empty equality.", diffList(new Diff(INSERT, "a"), new Diff(EQUAL, "b")), diffs);
+
+		DiffList compact = DiffList.of(diffList(new Diff(EQUAL, "a"), new Diff(DELETE, "b"), new Diff(EQUAL, "c"),
+			new Diff(DELETE, "ac"), new Diff(EQUAL, "x")));
+		dmp.diffCleanupMerge(compact);
+		assertEquals("diffCleanupMerge: Compact list.", diffList(new Diff(DELETE, "abc"), new Diff(EQUAL, "acx")),
+			compact.toLinkedList());
+
+		compact = DiffList.of(diffList(new Diff(DELETE, "a"), new Diff(INSERT, "abc"), new Diff(DELETE, "dc")));
+		dmp.diffCleanupMerge(compact);
+		assertEquals("diffCleanupMerge: Compact list prefix and suffix.", diffList(new Diff(EQUAL, "a"),
+			new Diff(DELETE, "d"), new Diff(INSERT, "b"), new Diff(EQUAL, "c")), compact.toLinkedList());
+
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 500; i++)
+		{
+			text.append(i).append(' ');
+		}
+		String longText = text.toString();
+		diffs = diffList(new Diff(EQUAL, longText), new Diff(INSERT, "a1"), new Diff(DELETE, "b1"),
+			new Diff(EQUAL, longText));
+		dmp.diffCleanupMerge(diffs);
+		assertEquals("diffCleanupMerge: Long equalities.", diffList(new Diff(EQUAL, longText), new Diff(DELETE, "b"),
+			new Diff(INSERT, "a"), new Diff(EQUAL, "1" + longText)), diffs);
+
+		text.setLength(0);
+		for (int i = 0; i < 300; i++)
+		{
+			text.append("ba");
+		}
+		String periodicText = text.toString();
+		diffs = diffList(new Diff(EQUAL, "a"), new Diff(DELETE, "b"), new Diff(INSERT, "b"), new Diff(EQUAL, periodicText),
+			new Diff(DELETE, "x"), new Diff(INSERT, "x"), new Diff(EQUAL, periodicText));
+		dmp.diffCleanupMerge(diffs);
+		assertEquals("diffCleanupMerge: Edits that cancel out between long equalities.",
+			diffList(new Diff(EQUAL, "ab" + periodicText + "x" + periodicText)), diffs);
 	}
 
 	public void testDiffCleanupSemanticLossless()
@@ -333,6 +559,22 @@ public class DiffMatchPatchTest extends TestCase
 		dmp.diffCleanupSemanticLossless(diffs);
 		assertEquals("diffCleanupSemanticLossless: Sentence boundaries.", diffList(new Diff(EQUAL, "The xxx."), new Diff(
 			INSERT, " The zzz."), new Diff(EQUAL, " The yyy.")), diffs);
+
+		diffs = diffList(new Diff(EQUAL, "AAA\n\nB"), new Diff(INSERT, "\nDDD\n\nB"), new Diff(EQUAL, "\nEEE"));
+		dmp.diffCleanupSemanticLossless(diffs);
+		assertEquals("diffCleanupSemanticLossless: Blank lines without carriage returns.", diffList(new Diff(EQUAL,
+			"AAA\n\n"), new Diff(INSERT, "B\nDDD\n\n"), new Diff(EQUAL, "B\nEEE")), diffs);
+
+		DiffList compact = DiffList.of(diffList(new Diff(EQUAL, "The c"), new Diff(INSERT, "ow and the c"),
+			new Diff(EQUAL, "at.")));
+		dmp.diffCleanupSemanticLossless(compact);
+		assertEquals("diffCleanupSemanticLossless: Compact list.", diffList(new Diff(EQUAL, "The "), new Diff(INSERT,
+			"cow and the "), new Diff(EQUAL, "cat.")), compact.toLinkedList());
+
+		compact = DiffList.of(diffList(new Diff(EQUAL, "a"), new Diff(DELETE, "a"), new Diff(EQUAL, "ax")));
+		dmp.diffCleanupSemanticLossless(compact);
+		assertEquals("diffCleanupSemanticLossless: Compact list hitting the start.", diffList(new Diff(DELETE, "a"),
+			new Diff(EQUAL, "aax")), compact.toLinkedList());
 	}
 
 	public void testDiffCleanupSemantic()
@@ -396,6 +638,30 @@ public class DiffMatchPatchTest extends TestCase
 		assertEquals("diffCleanupSemantic: Two overlap eliminations.", diffList(new Diff(DELETE, "abcd"), new Diff(EQUAL,
 				"1212"), new Diff(INSERT, "efghi"), new Diff(EQUAL, "----"), new Diff(DELETE, "A"), new Diff(EQUAL, "3"),
 			new Diff(INSERT, "BC")), diffs);
+
+		diffs = diffList(new Diff(DELETE, "ab"), new Diff(EQUAL, "1"), new Diff(INSERT, "cd"), new Diff(EQUAL, "2"),
+			new Diff(DELETE, "ef"), new Diff(EQUAL, "3"), new Diff(INSERT, "gh"), new Diff(EQUAL, "wxyz"), new Diff(DELETE,
+				"i"));
+		dmp.diffCleanupSemantic(diffs);
+		assertEquals("diffCleanupSemantic: Cascading elimination.", diffList(new Diff(DELETE, "ab12ef3"), new Diff(INSERT,
+			"1cd23gh"), new Diff(EQUAL, "wxyz"), new Diff(DELETE, "i")), diffs);
+
+		// Many small equalities are eliminated in one pass.
+		diffs = new LinkedList<Diff>();
+		StringBuilder text1 = new StringBuilder();
+		StringBuilder text2 = new StringBuilder();
+		for (int i = 0; i < 20000; i++)
+		{
+			diffs.add(new Diff(DELETE, "ab"));
+			diffs.add(new Diff(INSERT, "cd"));
+			diffs.add(new Diff(EQUAL, "e"));
+			text1.append("abe");
+			text2.append("cde");
+		}
+		dmp.diffCleanupSemantic(diffs);
+		assertEquals("diffCleanupSemantic: Many equalities.", 3, diffs.size());
+		assertEquals("diffCleanupSemantic: Many equalities text1.", text1.toString(), dmp.diffText1(diffs));
+		assertEquals("diffCleanupSemantic: Many equalities text2.", text2.toString(), dmp.diffText2(diffs));
 	}
 
 	public void testDiffCleanupEfficiency()
@@ -436,6 +702,115 @@ public class DiffMatchPatchTest extends TestCase
 		assertEquals("diffCleanupEfficiency: High cost elimination.", diffList(new Diff(DELETE, "abwxyzcd"),
 			new Diff(INSERT, "12wxyz34")), diffs);
 		dmp.diffEditCost = 4;
+
+		DiffList compact = DiffList.of(diffList(new Diff(DELETE, "ab"), new Diff(INSERT, "12"), new Diff(EQUAL, "xyz"),
+			new Diff(DELETE, "cd"), new Diff(INSERT, "34")));
+		dmp.diffCleanupEfficiency(compact);
+		assertEquals("diffCleanupEfficiency: Compact list.", diffList(new Diff(DELETE, "abxyzcd"),
+			new Diff(INSERT, "12xyz34")), compact.toLinkedList());
+
+		diffs = diffList();
+		for (int i = 0; i < 20000; i++)
+		{
+			diffs.add(new Diff(DELETE, "ab"));
+			diffs.add(new Diff(INSERT, "12"));
+			diffs.add(new Diff(EQUAL, "x"));
+		}
+		dmp.diffCleanupEfficiency(diffs);
+		assertEquals("diffCleanupEfficiency: Many equalities.", 3, diffs.size());
+		assertEquals("diffCleanupEfficiency: Many equalities text1.", 60000, dmp.diffText1(diffs).length());
+
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 500; i++)
+		{
+			text.append(i).append(' ');
+		}
+		String longText = text.toString();
+		diffs = diffList(new Diff(EQUAL, longText), new Diff(DELETE, "ab"), new Diff(INSERT, "12"),
+			new Diff(EQUAL, "xyz"), new Diff(DELETE, "cd"), new Diff(INSERT, "34"), new Diff(EQUAL, longText));
+		dmp.diffCleanupEfficiency(diffs);
+		assertEquals("diffCleanupEfficiency: Long equalities.", diffList(new Diff(EQUAL, longText),
+			new Diff(DELETE, "abxyzcd"), new Diff(INSERT, "12xyz34"), new Diff(EQUAL, longText)), diffs);
+	}
+
+	public void testDiffCleanupPipeline()
+	{
+		// Run several cleanup passes in one go.
+		DiffCleanupPipeline pipeline = new DiffCleanupPipeline(dmp, Pass.MERGE, Pass.SEMANTIC, Pass.EFFICIENCY);
+		assertEquals("DiffCleanupPipeline: Passes.", Arrays.asList(Pass.MERGE, Pass.SEMANTIC, Pass.EFFICIENCY),
+			pipeline.getPasses());
+		assertEquals("DiffCleanupPipeline: toString.", "DiffCleanupPipeline[MERGE, SEMANTIC, EFFICIENCY]",
+			pipeline.toString());
+
+		LinkedList<Diff> diffs = diffList();
+		pipeline.apply(diffs);
+		assertEquals("DiffCleanupPipeline: Null case.", diffList(), diffs);
+
+		diffs = diffList(new Diff(DELETE, "a"), new Diff(DELETE, "b"), new Diff(EQUAL, "c"), new Diff(INSERT, "d"),
+			new Diff(EQUAL, "The cat sat on the mat."), new Diff(INSERT, "1"), new Diff(DELETE, "2"), new Diff(EQUAL, "x"),
+			new Diff(DELETE, "3"), new Diff(INSERT, "4"));
+		LinkedList<Diff> expected = new LinkedList<Diff>(diffs);
+		dmp.diffCleanupMerge(expected);
+		dmp.diffCleanupSemantic(expected);
+		dmp.diffCleanupEfficiency(expected);
+		pipeline.apply(diffs);
+		assertEquals("DiffCleanupPipeline: Same as each pass.", expected, diffs);
+		assertEquals("DiffCleanupPipeline: Result.", diffList(new Diff(DELETE, "ab"), new Diff(EQUAL, "c"),
+			new Diff(INSERT, "d"), new Diff(EQUAL, "The cat sat on the mat."), new Diff(DELETE, "2x3"),
+			new Diff(INSERT, "1x4")), diffs);
+
+		// Edits far apart in a long text.
+		StringBuilder text1 = new StringBuilder();
+		StringBuilder text2 = new StringBuilder();
+		for (int i = 0; i < 1000; i++)
+		{
+			text1.append("Line ").append(i).append(" is the same in both texts.\n");
+			text2.append("Line ").append(i).append(i % 100 == 0 ? " is not" : " is").append(" the same in both texts.\n");
+		}
+		diffs = dmp.diffMain(text1.toString(), text2.toString(), false);
+		expected = new LinkedList<Diff>(diffs);
+		dmp.diffCleanupSemantic(expected);
+		dmp.diffCleanupSemanticLossless(expected);
+		dmp.diffCleanupMerge(expected);
+		new DiffCleanupPipeline(dmp, Pass.SEMANTIC, Pass.SEMANTIC_LOSSLESS, Pass.MERGE).apply(diffs);
+		assertEquals("DiffCleanupPipeline: Many edits.", expected, diffs);
+
+		// Passes that come up again skip the hunks that nothing has changed since.
+		text1 = new StringBuilder();
+		text2 = new StringBuilder();
+		for (int i = 0; i < 1000; i++)
+		{
+			text1.append("Line ").append(i).append(" is the same in both texts.\n");
+			text2.append("Line ").append(i % 7 == 0 ? i + 1 : i).append(i % 5 == 0 ? " is not" : " is").append(
+				" the same in both texts.\n");
+		}
+		diffs = dmp.diffMain(text1.toString(), text2.toString(), false);
+		expected = new LinkedList<Diff>(diffs);
+		dmp.diffCleanupSemantic(expected);
+		dmp.diffCleanupMerge(expected);
+		dmp.diffCleanupEfficiency(expected);
+		dmp.diffCleanupSemantic(expected);
+		dmp.diffCleanupSemanticLossless(expected);
+		dmp.diffCleanupMerge(expected);
+		new DiffCleanupPipeline(dmp, Pass.SEMANTIC, Pass.MERGE, Pass.EFFICIENCY, Pass.SEMANTIC, Pass.SEMANTIC_LOSSLESS,
+			Pass.MERGE).apply(diffs);
+		assertEquals("DiffCleanupPipeline: Repeated passes.", expected, diffs);
+
+		DiffList compact = DiffList.of(diffList(new Diff(DELETE, "ab"), new Diff(INSERT, "12"), new Diff(EQUAL, "xyz"),
+			new Diff(DELETE, "cd"), new Diff(INSERT, "34")));
+		new DiffCleanupPipeline(dmp, Pass.EFFICIENCY).apply(compact);
+		assertEquals("DiffCleanupPipeline: Compact list.", diffList(new Diff(DELETE, "abxyzcd"),
+			new Diff(INSERT, "12xyz34")), compact.toLinkedList());
+
+		try
+		{
+			new DiffCleanupPipeline(dmp, Pass.MERGE, null);
+			fail("DiffCleanupPipeline: Null pass.");
+		}
+		catch (IllegalArgumentException ex)
+		{
+			// Exception expected.
+		}
 	}
 
 	public void testDiffPrettyHtml()
@@ -692,6 +1067,533 @@ public class DiffMatchPatchTest extends TestCase
 		}
 	}
 
+	public void testDiffLineModeManyLines()
+	{
+		// Line mode must not run out of line tokens past 65535 unique lines.
+		StringBuilder text1 = new StringBuilder();
+		StringBuilder text2 = new StringBuilder();
+		for (int i = 0; i < 70000; i++)
+		{
+			text1.append("line ").append(i).append('\n');
+			text2.append(i == 5 || i == 69990 ? "changed " : "line ").append(i).append('\n');
+		}
+		String a = text1.toString();
+		String b = text2.toString();
+		dmp.diffTimeout = 0;
+		assertEquals("diffMain: Many lines.", dmp.diffMain(a, b, false), dmp.diffMain(a, b, true));
+		dmp.diffTimeout = 1;
+	}
+
+	public void testDiffTokens()
+	{
+		// Diff at the granularity of a tokenizer.
+		LinkedList<Diff> diffs = diffList(new Diff(EQUAL, "The "), new Diff(DELETE, "quick"), new Diff(INSERT, "quack"), new Diff(EQUAL, " brown "), new Diff(DELETE, "fox"), new Diff(INSERT, "box"), new Diff(EQUAL, "."));
+		assertEquals("diffTokens: Words.", diffs, dmp.diffTokens("The quick brown fox.", "The quack brown box.", DiffTokenizer.WORDS));
+
+		diffs = diffList(new Diff(EQUAL, "a\n"), new Diff(DELETE, "b\n"), new Diff(INSERT, "x\n"), new Diff(EQUAL, "c"));
+		assertEquals("diffTokens: Lines.", diffs, dmp.diffTokens("a\nb\nc", "a\nx\nc", DiffTokenizer.LINES));
+
+		diffs = diffList(new Diff(EQUAL, "caf\u00e9 "), new Diff(DELETE, "\ud835\udc00\ud835\udc01"), new Diff(INSERT, "\ud835\udc00\ud835\udc02"), new Diff(EQUAL, "  !"));
+		assertEquals("diffTokens: Code points.", diffs, dmp.diffTokens("caf\u00e9 \ud835\udc00\ud835\udc01  !", "caf\u00e9 \ud835\udc00\ud835\udc02  !", DiffTokenizer.WORDS));
+
+		assertEquals("diffTokens: Empty.", diffList(), dmp.diffTokens("", "", DiffTokenizer.WORDS));
+
+		// Words speed up checklines on prose without line breaks.
+		String a = "Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do eiusmod tempor incididunt ut labore et dolore magna aliqua. Ut enim ad minim veniam, quis nostrud exercitation ullamco laboris.";
+		String b = "Lorem ipsum dolor sat amet, consectetur adipiscing elit, sed do eiusmod tempus incididunt ut labore et dolore magna aliqua. Ut enim ad minima veniam, quis nostrud exercitation ullamco laboris nisi.";
+		dmp.diffTokenizer = DiffTokenizer.WORDS;
+		try
+		{
+			diffs = dmp.diffMain(a, b, true);
+			assertEquals("diffMain: Word-mode.", Arrays.asList(a, b), Arrays.asList(diffRebuildtexts(diffs)));
+			// Replaced words are rediffed character by character.
+			assertTrue("diffMain: Word-mode rediff.", diffs.contains(new Diff(DELETE, "i")) && diffs.contains(new Diff(INSERT, "a")));
+		}
+		finally
+		{
+			dmp.diffTokenizer = DiffTokenizer.LINES;
+		}
+
+		try
+		{
+			dmp.diffTokens("a", "b", null);
+			fail("diffTokens: Null inputs.");
+		}
+		catch (IllegalArgumentException ex)
+		{
+			// Error expected.
+		}
+	}
+
+	public void testDiffSequences()
+	{
+		// Diff arbitrary sequences into an index-based edit script.
+		List<Edit> edits = Arrays.asList(new Edit(EQUAL, 0, 0, 1), new Edit(DELETE, 1, 1, 1), new Edit(EQUAL, 2, 1, 2), new Edit(INSERT, 4, 3, 1));
+		assertEquals("diffSequences: Ints.", edits, dmp.diffSequences(new int[]{1, 2, 3, 4}, new int[]{1, 3, 4, 5}));
+
+		assertEquals("diffSequences: Longs.", edits, dmp.diffSequences(new long[]{1L << 40, 2, 1L << 41, -1}, new long[]{1L << 40, 1L << 41, -1, 0}));
+
+		assertEquals("diffSequences: List.", edits, dmp.diffSequences(Arrays.asList("a", "b", null, "d"), Arrays.asList("a", null, "d", "e")));
+
+		Equivalence<String> ignoreCase = new Equivalence<String>()
+		{
+			@Override
+			public int hash(String element)
+			{
+				return element.toLowerCase().hashCode();
+			}
+
+			@Override
+			public boolean equivalent(String first, String second)
+			{
+				return first.equalsIgnoreCase(second);
+			}
+		};
+		assertEquals("diffSequences: Equivalence.", edits, dmp.diffSequences(Arrays.asList("a", "b", "c", "d"), Arrays.asList("A", "C", "d", "e"), ignoreCase));
+
+		assertEquals("diffSequences: Empty.", Collections.emptyList(), dmp.diffSequences(new int[0], new int[0]));
+
+		assertEquals("diffSequences: Insertion.", Arrays.asList(new Edit(INSERT, 0, 0, 2)), dmp.diffSequences(new int[0], new int[]{7, 7}));
+
+		// Sequences give the same edits as the equivalent strings.
+		String a = "The quick brown fox jumps over the lazy dog.";
+		String b = "That quick brown fox jumped over a lazy dog.";
+		int[] tokens1 = new int[a.length()];
+		for (int i = 0; i < tokens1.length; i++)
+		{
+			tokens1[i] = a.charAt(i);
+		}
+		int[] tokens2 = new int[b.length()];
+		for (int i = 0; i < tokens2.length; i++)
+		{
+			tokens2[i] = b.charAt(i);
+		}
+		LinkedList<Diff> diffs = new LinkedList<>();
+		for (Edit edit: dmp.diffSequences(tokens1, tokens2))
+		{
+			diffs.add(new Diff(edit.operation, edit.operation == INSERT ? b.substring(edit.index2, edit.index2 + edit.length) : a.substring(edit.index1, edit.index1 + edit.length)));
+		}
+		assertEquals("diffSequences: Same as diffMain.", dmp.diffMain(a, b, false), diffs);
+
+		try
+		{
+			dmp.diffSequences(null, new int[0]);
+			fail("diffSequences: Null inputs.");
+		}
+		catch (IllegalArgumentException ex)
+		{
+			// Error expected.
+		}
+	}
+
+	public void testDiffMainParallel() throws IOException
+	{
+		// Parallel diffs must be identical to serial ones.
+		String a = readResource("Speedtest1.txt");
+		String b = readResource("Speedtest2.txt");
+		dmp.diffTimeout = 0;
+		LinkedList<Diff> serial = dmp.diffMain(a, b, false);
+		LinkedList<Diff> serialLines = dmp.diffMain(a, b, true);
+		int[] seq1 = new int[a.length()];
+		for (int i = 0; i < seq1.length; i++)
+		{
+			seq1[i] = a.charAt(i);
+		}
+		int[] seq2 = new int[b.length()];
+		for (int i = 0; i < seq2.length; i++)
+		{
+			seq2[i] = b.charAt(i);
+		}
+		List<Edit> serialSequences = dmp.diffSequences(seq1, seq2);
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try
+		{
+			dmp.diffForkJoinPool = pool;
+			dmp.diffParallelThreshold = 100;
+			assertEquals("diffMain: Parallel bisect.", serial, dmp.diffMain(a, b, false));
+			assertEquals("diffMain: Parallel line-mode.", serialLines, dmp.diffMain(a, b, true));
+			assertEquals("diffSequences: Parallel.", serialSequences, dmp.diffSequences(seq1, seq2));
+
+			// A work limit yields the same diff as a serial run, however the threads
+			// are scheduled. Sparse edits split the problem long before the limit.
+			Random random = new Random(1);
+			StringBuilder sparse1 = new StringBuilder();
+			StringBuilder sparse2 = new StringBuilder();
+			for (int i = 0; i < 60000; i++)
+			{
+				char c = (char) ('a' + random.nextInt(4));
+				sparse1.append(c);
+				sparse2.append(random.nextInt(200) == 0 ? (char) ('a' + random.nextInt(4)) : c);
+			}
+			String text1 = sparse1.toString();
+			String text2 = sparse2.toString();
+			dmp.diffForkJoinPool = null;
+			LinkedList<Diff> limited = dmp.diffMain(text1, text2, false, new DiffBudget(0, 300000));
+			assertFalse("diffMain: Work limit reached.", limited.equals(dmp.diffMain(text1, text2, false)));
+			dmp.diffForkJoinPool = pool;
+			dmp.diffParallelThreshold = 1000;
+			for (int i = 0; i < 8; i++)
+			{
+				assertEquals("diffMain: Parallel work limit.", limited,
+					dmp.diffMain(text1, text2, false, new DiffBudget(0, 300000)));
+			}
+			dmp.diffParallelThreshold = 100;
+
+			// Enable half-matches with a timeout that won't be reached.
+			dmp.diffTimeout = 60;
+			LinkedList<Diff> parallel = dmp.diffMain(a + b, b + a, false);
+			dmp.diffForkJoinPool = null;
+			assertEquals("diffMain: Parallel half-match.", dmp.diffMain(a + b, b + a, false), parallel);
+		}
+		finally
+		{
+			pool.shutdown();
+			dmp.diffForkJoinPool = null;
+			dmp.diffTimeout = 1;
+		}
+	}
+
+	public void testDiffMainSmallStack() throws InterruptedException
+	{
+		// Many scattered edits split the problem thousands of times; the depth
+		// must not be limited by the thread's stack.
+		Random random = new Random(1);
+		StringBuilder a = new StringBuilder();
+		StringBuilder b = new StringBuilder();
+		for (int i = 0; i < 20000; i++)
+		{
+			char c = (char) ('a' + random.nextInt(3));
+			a.append(c);
+			b.append(random.nextInt(10) == 0 ? 'z' : c);
+		}
+		final String text1 = a.toString();
+		final String text2 = b.toString();
+		dmp.diffTimeout = 0;
+		final List<Object> result = new ArrayList<Object>();
+		Thread thread = new Thread(null, new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					result.add(dmp.diffMain(text1, text2, false));
+				}
+				catch (StackOverflowError e)
+				{
+					result.add(e);
+				}
+			}
+		}, "testDiffMainSmallStack", 64 * 1024);
+		thread.start();
+		thread.join();
+		dmp.diffTimeout = 1;
+		assertTrue("diffMain: Small stack.", result.get(0) instanceof LinkedList);
+		@SuppressWarnings("unchecked")
+		LinkedList<Diff> diffs = (LinkedList<Diff>) result.get(0);
+		assertEquals("diffMain: Small stack text1.", text1, dmp.diffText1(diffs));
+		assertEquals("diffMain: Small stack text2.", text2, dmp.diffText2(diffs));
+	}
+
+	public void testDiffList()
+	{
+		String text1 = "The quick brown fox jumps over the lazy dog.";
+		String text2 = "That quick brown fox jumped over a lazy dog!";
+		LinkedList<Diff> diffs = dmp.diffMain(text1, text2, false);
+		DiffList list = dmp.diffMainCompact(text1, text2, false);
+		assertEquals("DiffList: Same diffs.", diffs, list);
+		assertEquals("DiffList: Adapter.", diffs, list.toLinkedList());
+		assertEquals("DiffList: Copy.", list, DiffList.of(diffs));
+		assertEquals("DiffList: Text1.", text1, list.getText1());
+		assertEquals("DiffList: Text2.", text2, dmp.diffText2(list));
+		assertEquals("DiffList: Operation.", EQUAL, list.getOperation(0));
+		assertEquals("DiffList: Offset.", 0, list.getOffset(0));
+		assertEquals("DiffList: Length.", 2, list.getLength(0));
+		assertEquals("DiffList: Text.", "Th", list.getText(0));
+		try
+		{
+			list.getOperation(list.size());
+			fail("DiffList: Out of bounds.");
+		}
+		catch (IndexOutOfBoundsException ex)
+		{
+			// Error expected.
+		}
+		try
+		{
+			list.add(new Diff(EQUAL, "x"));
+			fail("DiffList: Read-only.");
+		}
+		catch (UnsupportedOperationException ex)
+		{
+			// Error expected.
+		}
+
+		// Operations on compact lists match those on linked lists.
+		assertEquals("DiffList: diffXIndex.", dmp.diffXIndex(diffs, 20), dmp.diffXIndex(list, 20));
+		assertEquals("DiffList: diffToDelta.", dmp.diffToDelta(diffs), dmp.diffToDelta(list));
+		assertEquals("DiffList: patchMake.", dmp.patchToText(dmp.patchMake(diffs)), dmp.patchToText(dmp.patchMake(list)));
+		dmp.diffCleanupSemantic(diffs);
+		dmp.diffCleanupSemantic(list);
+		assertEquals("DiffList: diffCleanupSemantic.", diffs, list);
+		dmp.diffCleanupEfficiency(diffs);
+		dmp.diffCleanupEfficiency(list);
+		assertEquals("DiffList: diffCleanupEfficiency.", diffs, list);
+
+		// Texts are rebuilt when adapting a linked list.
+		list = DiffList.of(diffList(new Diff(DELETE, "a"), new Diff(INSERT, "b"), new Diff(EQUAL, "c")));
+		assertEquals("DiffList: Rebuilt text1.", "ac", list.getText1());
+		assertEquals("DiffList: Rebuilt text2.", "bc", list.getText2());
+		assertEquals("DiffList: Insertion offset.", 0, list.getOffset(1));
+		assertEquals("DiffList: Equality offset.", 1, list.getOffset(2));
+	}
+
+	public void testDiffScratch() throws IOException
+	{
+		// Bisect buffers are reused across recursion levels and across calls.
+		String a = readResource("Speedtest1.txt");
+		String b = readResource("Speedtest2.txt");
+		dmp.diffTimeout = 0;
+		DiffScratch scratch = DiffScratch.current();
+		assertSame("DiffScratch: One arena per thread.", scratch, DiffScratch.current());
+		assertEquals("DiffScratch: Default limit.", DiffScratch.DEFAULT_MAX_RETAINED, scratch.getMaxRetained());
+		// The top-level bisect needs one slot per character of both texts.
+		scratch.setMaxRetained(a.length() + b.length() + 1);
+		LinkedList<Diff> expected = dmp.diffMain(a, b, false);
+		scratch.resetAllocations();
+		assertEquals("DiffScratch: Same result.", expected, dmp.diffMain(a, b, false));
+		assertEquals("DiffScratch: No allocations.", 0, scratch.getAllocations());
+		assertTrue("DiffScratch: Retained.", scratch.getRetainedBytes() > 0);
+
+		// Oversized buffers are not retained.
+		scratch.setMaxRetained(16);
+		assertEquals("DiffScratch: Result with small arena.", expected, dmp.diffMain(a, b, false));
+		assertTrue("DiffScratch: Released.", scratch.getRetainedBytes() <= 4 * 16 * 3 + 8 * 16 * 2 + 2 * 16);
+
+		// A builder that grows while in use is dropped when handed back.
+		scratch.setMaxRetained(1024);
+		StringBuilder builder = scratch.builder();
+		builder.append(a);
+		long retained = scratch.getRetainedBytes();
+		scratch.release(builder);
+		assertTrue("DiffScratch: Builder released.", scratch.getRetainedBytes() < retained);
+		assertNotSame("DiffScratch: New builder.", builder, scratch.builder());
+
+		// Lowering the limit releases a builder that is already too large.
+		scratch.setMaxRetained(1 << 16);
+		scratch.builder().append(a, 0, 10000);
+		retained = scratch.getRetainedBytes();
+		scratch.setMaxRetained(1024);
+		assertTrue("DiffScratch: Builder released by limit.", scratch.getRetainedBytes() < retained);
+		scratch.setMaxRetained(DiffScratch.DEFAULT_MAX_RETAINED);
+		dmp.diffTimeout = 1;
+	}
+
+	public void testDiffAlgorithm() throws IOException
+	{
+		// Every algorithm must produce a diff that rebuilds both texts.
+		String a = readResource("Speedtest1.txt");
+		String b = readResource("Speedtest2.txt");
+		dmp.diffTimeout = 0;
+		assertEquals("diffMain: Myers is the default.", dmp.diffMain(a, b, false),
+			dmp.diffMain(a, b, false, DiffAlgorithm.MYERS));
+		for (DiffAlgorithm algorithm: new DiffAlgorithm[]{DiffAlgorithm.PATIENCE, DiffAlgorithm.HISTOGRAM})
+		{
+			for (boolean checklines: new boolean[]{false, true})
+			{
+				LinkedList<Diff> diffs = dmp.diffMain(a, b, checklines, algorithm);
+				assertEquals("diffMain: " + algorithm + " rebuilds text.", Arrays.asList(a, b), Arrays.asList(diffRebuildtexts(diffs)));
+			}
+			assertEquals("diffMain: " + algorithm + " equality.", diffList(new Diff(EQUAL, "abc")), dmp.diffMain("abc", "abc", false, algorithm));
+			assertEquals("diffMain: " + algorithm + " empty.", diffList(new Diff(INSERT, "abc")), dmp.diffMain("", "abc", false, algorithm));
+		}
+
+		// Unique lines anchor the diff instead of the frequent braces.
+		String text1 = "void a()\n{\n}\n\nvoid b()\n{\n}\n";
+		String text2 = "void b()\n{\n}\n";
+		LinkedList<Diff> diffs = diffList(new Diff(DELETE, "void a()\n{\n}\n\n"), new Diff(EQUAL, "void b()\n{\n}\n"));
+		assertEquals("diffMain: Patience.", diffs, dmp.diffMain(text1, text2, false, DiffAlgorithm.PATIENCE));
+		assertEquals("diffMain: Histogram.", diffs, dmp.diffMain(text1, text2, false, DiffAlgorithm.HISTOGRAM));
+
+		// The per-instance setting applies to diffMain and everything built on it.
+		dmp.diffAlgorithm = DiffAlgorithm.HISTOGRAM;
+		try
+		{
+			assertEquals("diffMain: Per-instance algorithm.", diffs, dmp.diffMain(text1, text2, false));
+			LinkedList<Patch> patches = dmp.patchMake(a, b);
+			assertEquals("patchApply: Per-instance algorithm.", b, dmp.patchApply(patches, a)[0]);
+
+			dmp.diffMain("abc", "abd", false, (DiffAlgorithm) null);
+			fail("diffMain: Null algorithm.");
+		}
+		catch (IllegalArgumentException ex)
+		{
+			// Error expected.
+		}
+		finally
+		{
+			dmp.diffAlgorithm = DiffAlgorithm.MYERS;
+			dmp.diffTimeout = 1;
+		}
+	}
+
+	public void testDiffBudget()
+	{
+		// An unlimited budget behaves like an unlimited timeout.
+		dmp.diffTimeout = 0;
+		String a = "The quick brown fox jumps over the lazy dog.";
+		String b = "That quick brown fax jumped over a lazy dog!";
+		DiffBudget budget = new DiffBudget();
+		assertEquals("diffMain: Unlimited budget.", dmp.diffMain(a, b, false), dmp.diffMain(a, b, false, budget));
+		assertFalse("diffMain: Unlimited budget not exhausted.", budget.isExhausted());
+		assertTrue("diffMain: Work recorded.", budget.getWork() > 0);
+
+		// Running out of work units bails out like a timeout.
+		budget = new DiffBudget(0, 1);
+		assertEquals("diffMain: Work limit.", diffList(new Diff(DELETE, "cat"), new Diff(INSERT, "map")), dmp.diffMain("cat", "map", false, budget));
+		assertTrue("diffMain: Work limit exhausted.", budget.isExhausted());
+
+		// The same work limit always produces the same diff.
+		LinkedList<Diff> diffs = dmp.diffMain(a, b, false, new DiffBudget(0, 50));
+		assertEquals("diffMain: Work limit is deterministic.", diffs, dmp.diffMain(a, b, false, new DiffBudget(0, 50)));
+		assertEquals("diffMain: Work limit rebuilds text.", Arrays.asList(a, b), Arrays.asList(diffRebuildtexts(diffs)));
+
+		// Running out of work units ends the search with the best match so far.
+		assertEquals("matchMain: Unlimited budget.", 4, dmp.matchMain("abcdefghijk", "efxhi", 0, new DiffBudget()));
+		assertEquals("matchMain: Work limit.", -1, dmp.matchMain("abcdefghijk", "efxhi", 0, new DiffBudget(0, 1)));
+
+		// Patches that can't be located within the budget are not applied.
+		LinkedList<Patch> patches = dmp.patchMake(a, b);
+		Object[] results = dmp.patchApply(patches, "Some text. " + a, new DiffBudget(0, 1));
+		assertEquals("patchApply: Work limit.", "Some text. " + a, results[0]);
+		assertEquals("patchApply: Unlimited budget.", "Some text. " + b, dmp.patchApply(patches, "Some text. " + a, new DiffBudget())[0]);
+
+		// Cancellation aborts the operation.
+		budget = new DiffBudget();
+		budget.cancel();
+		try
+		{
+			dmp.diffMain(a, b, false, budget);
+			fail("diffMain: Cancelled.");
+		}
+		catch (CancellationException ex)
+		{
+			// Exception expected.
+		}
+		try
+		{
+			dmp.matchMain("abcdefghijk", "efxhi", 0, budget);
+			fail("matchMain: Cancelled.");
+		}
+		catch (CancellationException ex)
+		{
+			// Exception expected.
+		}
+
+		// Another thread may cancel a diff that is already running.
+		StringBuilder text1 = new StringBuilder();
+		StringBuilder text2 = new StringBuilder();
+		Random random = new Random(11);
+		for (int i = 0; i < 20000; i++)
+		{
+			text1.append((char) ('a' + random.nextInt(4)));
+			text2.append((char) ('a' + random.nextInt(4)));
+		}
+		final DiffBudget running = new DiffBudget();
+		Thread canceller = new Thread()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					Thread.sleep(50);
+				}
+				catch (InterruptedException ex)
+				{
+					// Cancel now.
+				}
+				running.cancel();
+			}
+		};
+		canceller.start();
+		try
+		{
+			dmp.diffMain(text1.toString(), text2.toString(), false, running);
+			fail("diffMain: Cancelled by another thread.");
+		}
+		catch (CancellationException ex)
+		{
+			// Exception expected.
+		}
+
+		try
+		{
+			dmp.diffMain(a, b, false, (DiffBudget) null);
+			fail("diffMain: Null budget.");
+		}
+		catch (IllegalArgumentException ex)
+		{
+			// Exception expected.
+		}
+		finally
+		{
+			dmp.diffTimeout = 1;
+		}
+	}
+
+	public void testDiffProgressive()
+	{
+		dmp.diffTimeout = 0;
+		String text1 = "alpha\nThe cat sat.\ngamma\nIt was the best of times, it was the worst of times.\nomega\n";
+		String text2 = "alpha\nThe hat sat.\ngamma\nIt was the age of wisdom, it was the age of foolishness.\nomega\n";
+
+		// Without a budget, only the line-level diff is done.
+		ProgressiveDiff diff = dmp.diffProgressive(text1, text2, new DiffBudget(0, 1));
+		assertFalse("diffProgressive: Coarse.", diff.isRefined());
+		assertEquals("diffProgressive: Coarse rebuilds text.", Arrays.asList(text1, text2), Arrays.asList(diffRebuildtexts(diff.getDiffs())));
+		assertEquals("diffProgressive: Coarse hunks.", 3, diff.getHunks().size());
+		assertTrue("diffProgressive: Changed hunk.", diff.getHunks().get(1).isChanged());
+		assertFalse("diffProgressive: Unchanged hunk.", diff.getHunks().get(2).isChanged());
+		assertTrue("diffProgressive: Refine later.", diff.refine(new DiffBudget()));
+		assertEquals("diffProgressive: Refined later.", dmp.diffMain(text1, text2, false), diff.getDiffs());
+
+		// The smallest hunks are refined first.
+		diff = dmp.diffProgressive(text1, text2, new DiffBudget(0, 10));
+		List<ProgressiveDiff.Hunk> hunks = diff.getHunks();
+		assertEquals("diffProgressive: Hunks.", 5, hunks.size());
+		assertTrue("diffProgressive: Small hunk refined.", hunks.get(1).isRefined());
+		assertEquals("diffProgressive: Small hunk.", diffList(new Diff(DELETE, "c"), new Diff(INSERT, "h"), new Diff(EQUAL, "at sat.\n")), hunks.get(1).getDiffs());
+		ProgressiveDiff.Hunk large = hunks.get(3);
+		assertFalse("diffProgressive: Large hunk not refined.", large.isRefined());
+		assertEquals("diffProgressive: Large hunk.", diffList(new Diff(DELETE, text1.substring(large.start1, large.end1)), new Diff(INSERT, text2.substring(large.start2, large.end2))), large.getDiffs());
+		assertEquals("diffProgressive: Partial rebuilds text.", Arrays.asList(text1, text2), Arrays.asList(diffRebuildtexts(diff.getDiffs())));
+
+		// Hunks can be refined on demand.
+		assertTrue("diffProgressive: Refine hunk.", diff.refine(large, new DiffBudget()));
+		assertTrue("diffProgressive: Refined.", diff.isRefined());
+		// The hunks are rediffed separately, so the diff may differ from diffMain's, but it is just as small.
+		assertEquals("diffProgressive: Refined rebuilds text.", Arrays.asList(text1, text2), Arrays.asList(diffRebuildtexts(diff.getDiffs())));
+		assertEquals("diffProgressive: Refined diff.", dmp.diffLevenshtein(dmp.diffMain(text1, text2, false)), dmp.diffLevenshtein(diff.getDiffs()));
+
+		assertEquals("diffProgressive: Equality.", diffList(new Diff(EQUAL, "abc")), dmp.diffProgressive("abc", "abc", new DiffBudget()).getDiffs());
+		assertEquals("diffProgressive: Insertion.", diffList(new Diff(EQUAL, "ab"), new Diff(INSERT, "123"), new Diff(EQUAL, "c")), dmp.diffProgressive("abc", "ab123c", new DiffBudget(0, 1)).getDiffs());
+
+		try
+		{
+			dmp.diffProgressive(text1, null, new DiffBudget());
+			fail("diffProgressive: Null inputs.");
+		}
+		catch (IllegalArgumentException ex)
+		{
+			// Error expected.
+		}
+		finally
+		{
+			dmp.diffTimeout = 1;
+		}
+	}
+
 	//  MATCH TEST FUNCTIONS
 	public void testMatchAlphabet()
 	{
@@ -708,6 +1610,14 @@ public class DiffMatchPatchTest extends TestCase
 		bitmask.put('b', 18);
 		bitmask.put('c', 8);
 		assertEquals("matchAlphabet: Duplicates.", bitmask, dmp.matchAlphabet("abcaba"));
+
+		MatchAlphabet alphabet = new MatchAlphabet("ab\u00e9\u4e2d\u4e2d\uffff");
+		assertEquals("MatchAlphabet: Latin-1.", 16L, alphabet.get('b'));
+		assertEquals("MatchAlphabet: Latin-1 supplement.", 8L, alphabet.get('\u00e9'));
+		assertEquals("MatchAlphabet: Duplicates.", 6L, alphabet.get('\u4e2d'));
+		assertEquals("MatchAlphabet: Last character.", 1L, alphabet.get('\uffff'));
+		assertEquals("MatchAlphabet: Missing.", 0L, alphabet.get('c'));
+		assertEquals("MatchAlphabet: Missing outside Latin-1.", 0L, alphabet.get('\u4e2e'));
 	}
 
 	public void testMatchBitap()
@@ -754,6 +1664,32 @@ public class DiffMatchPatchTest extends TestCase
 
 		dmp.matchDistance = 1000;  // Loose location.
 		assertEquals("matchBitap: Distance test #3.", 0, dmp.matchBitap("abcdefghijklmnopqrstuvwxyz", "abcdefg", 24));
+
+		String text = "the quick brown fox jumps over the lazy dog, then the lazy dog jumps over the quick brown fox";
+		assertEquals("matchBitap: 64-bit pattern.", 45, dmp.matchBitap(text, "then the lazy cat jumps over the quick brow", 40));
+
+		StringBuilder longText = new StringBuilder();
+		for (int i = 0; i < 10; i++)
+		{
+			longText.append(i).append(text);
+		}
+		String longPattern = longText.substring(300, 400);
+		longPattern = longPattern.substring(0, 30) + "X" + longPattern.substring(31, 70) + longPattern.substring(71);
+		assertEquals("matchBitap: Multi-word pattern.", 300, dmp.matchBitap(longText.toString(), longPattern, 310));
+
+		assertEquals("matchBitap: Multi-word pattern, error at word boundary.", 285, dmp.matchBitap(longText.toString(),
+			longText.substring(285, 349) + "X" + longText.substring(350, 420), 280));
+
+		DiffBudget budget = new DiffBudget();
+		assertEquals("matchBitap: Counters.", 4, dmp.matchBitap("abcdefghijk", "efxhi", 0, budget));
+		assertEquals("matchBitap: Rows.", 2L, budget.getMatchRows());
+		assertEquals("matchBitap: Cells.", 32L, budget.getMatchCells());
+
+		// The rows of the error levels are reused across calls.
+		DiffScratch scratch = DiffScratch.current();
+		scratch.resetAllocations();
+		assertEquals("matchBitap: Reused rows.", 4, dmp.matchBitap("abcdefghijk", "efxhi", 0));
+		assertEquals("matchBitap: No allocations.", 0, scratch.getAllocations());
 	}
 
 	public void testMatchMain()
@@ -788,6 +1724,133 @@ public class DiffMatchPatchTest extends TestCase
 		}
 	}
 
+	public void testMatchCompile() throws IOException, InterruptedException
+	{
+		// Compiled patterns find the same matches as matchMain.
+		dmp.matchDistance = 100;
+		dmp.matchThreshold = 0.5f;
+		String text = "I am the very model of a modern major general.";
+		final MatchPattern pattern = dmp.matchCompile(" that berry ");
+		for (int loc = 0; loc <= text.length(); loc += 5)
+		{
+			assertEquals("matchCompile: Same as matchMain at " + loc + ".", dmp.matchMain(text, " that berry ", loc),
+				pattern.match(text, loc));
+		}
+		assertEquals("matchCompile: Fuzzy match.", 4, pattern.match(text, 5));
+		assertEquals("matchCompile: Equal texts.", 0, dmp.matchCompile("abcdef").match("abcdef", 1000));
+		assertEquals("matchCompile: Empty text.", -1, dmp.matchCompile("abcdef").match("", 1));
+		assertEquals("matchCompile: Empty pattern.", 3, dmp.matchCompile("").match("abcdef", 3));
+		assertEquals("matchCompile: Exact match.", 3, dmp.matchCompile("de").match("abcdef", 3));
+
+		// Later changes to the settings don't affect compiled patterns.
+		dmp.matchThreshold = 0.1f;
+		dmp.matchDistance = 1;
+		assertEquals("matchCompile: Settings.", 4, pattern.match(text, 5));
+		assertEquals("matchCompile: Threshold.", 0.5f, pattern.getThreshold());
+		assertEquals("matchCompile: Distance.", 100, pattern.getDistance());
+		assertEquals("matchCompile: New settings.", -1, dmp.matchMain(text, " that berry ", 5));
+		dmp.matchThreshold = 0.5f;
+		dmp.matchDistance = 1000;
+
+		// One pattern may be used by several threads at once.
+		final String longText = readResource("Speedtest1.txt");
+		final int loc = longText.length() / 2;
+		final MatchPattern snippet = dmp.matchCompile(longText.substring(loc + 10, loc + 20) + "x" +
+			longText.substring(loc + 21, loc + 40));
+		final int expected = loc + 10;
+		final List<Integer> results = Collections.synchronizedList(new ArrayList<Integer>());
+		Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++)
+		{
+			threads[i] = new Thread()
+			{
+				@Override
+				public void run()
+				{
+					for (int j = 0; j < 10; j++)
+					{
+						results.add(snippet.match(longText, loc));
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread thread : threads)
+		{
+			thread.join();
+		}
+		assertEquals("matchCompile: Concurrent searches.", Collections.nCopies(40, expected), results);
+
+		try
+		{
+			dmp.matchCompile(null);
+			fail("matchCompile: Null inputs.");
+		}
+		catch (IllegalArgumentException ex)
+		{
+			// Error expected.
+		}
+		try
+		{
+			pattern.match(null, 0);
+			fail("matchCompile: Null text.");
+		}
+		catch (IllegalArgumentException ex)
+		{
+			// Error expected.
+		}
+	}
+
+	public void testMatchAll()
+	{
+		// Several patterns find the same matches as matchMain.
+		dmp.matchDistance = 100;
+		dmp.matchThreshold = 0.5f;
+		String text = "I am the very model of a modern major general. I've information vegetable, animal, and mineral.";
+		List<String> patterns = Arrays.asList(" that berry ", "modle", "a modern major general", "nimal", "xyz", "",
+			"mineral.", "I am the very model of a modern major general. I have information vegetable");
+		int[] locs = {5, 15, 20, 70, 40, 3, 1000, 2};
+		int[] expected = new int[patterns.size()];
+		for (int i = 0; i < expected.length; i++)
+		{
+			expected[i] = dmp.matchMain(text, patterns.get(i), locs[i]);
+		}
+		assertEquals("matchAll: Same as matchMain.", Arrays.toString(expected),
+			Arrays.toString(dmp.matchAll(text, patterns, locs)));
+		assertEquals("matchAll: Fuzzy matches.", "[4, 14, 23, 76, -1, 3, 87, 0]",
+			Arrays.toString(dmp.matchAll(text, patterns, locs)));
+
+		// Each pattern keeps its own settings.
+		List<MatchPattern> compiled = new ArrayList<>();
+		compiled.add(dmp.matchCompile(" that berry "));
+		dmp.matchThreshold = 0.1f;
+		compiled.add(dmp.matchCompile(" that berry "));
+		dmp.matchThreshold = 0.5f;
+		assertEquals("matchAll: Settings.", "[4, -1]",
+			Arrays.toString(MatchPattern.matchAll(text, compiled, new int[]{5, 5})));
+		assertEquals("matchAll: No patterns.", "[]",
+			Arrays.toString(MatchPattern.matchAll(text, new ArrayList<MatchPattern>(), new int[0])));
+
+		try
+		{
+			dmp.matchAll(null, patterns, locs);
+			fail("matchAll: Null inputs.");
+		}
+		catch (IllegalArgumentException ex)
+		{
+			// Error expected.
+		}
+		try
+		{
+			dmp.matchAll(text, patterns, new int[]{5});
+			fail("matchAll: Different lengths.");
+		}
+		catch (IllegalArgumentException ex)
+		{
+			// Error expected.
+		}
+	}
+
 	//  PATCH TEST FUNCTIONS
 	public void testPatchObj()
 	{
@@ -958,6 +2021,14 @@ public class DiffMatchPatchTest extends TestCase
 		assertEquals("patchSplitMax: #4.",
 			"@@ -2,32 +2,32 @@\n bcdefghij , h : \n-0\n+1\n  , t : 1 abcdef\n@@ -29,32 +29,32 @@\n bcdefghij , h : \n-0\n+1\n  , t : 1 abcdef\n",
 			dmp.patchToText(patches));
+
+		dmp.matchMaxBits = 64;
+		patches = dmp.patchMake("1234567890123456789012345678901234567890123456789012345678901234567890", "abc");
+		dmp.patchSplitMax(patches);
+		assertEquals("patchSplitMax: 64 bits.",
+			"@@ -1,64 +1,4 @@\n-123456789012345678901234567890123456789012345678901234567890\n 1234\n@@ -61,10 +1,3 @@\n-1234567890\n+abc\n",
+			dmp.patchToText(patches));
+		dmp.matchMaxBits = 32;
 	}
 
 	public void testPatchAddPadding()
@@ -1093,7 +2164,34 @@ public class DiffMatchPatchTest extends TestCase
 		assertEquals(errorMsg, a.lineArray, b.lineArray);
 	}
 
+	// Read a test resource into a string.
+	private static String readResource(String name) throws IOException
+	{
+		StringBuilder sb = new StringBuilder();
+		InputStream in = DiffMatchPatchTest.class.getClassLoader().getResourceAsStream(name);
+		try (Reader reader = new InputStreamReader(in, "UTF-8"))
+		{
+			char[] buffer = new char[4096];
+			int count;
+			while ((count = reader.read(buffer)) != -1)
+			{
+				sb.append(buffer, 0, count);
+			}
+		}
+		return sb.toString();
+	}
+
 	// Construct the two texts which made up the diff originally.
+	private static String randomText(Random random, int length, String alphabet)
+	{
+		StringBuilder text = new StringBuilder(length);
+		for (int i = 0; i < length; i++)
+		{
+			text.append(alphabet.charAt(random.nextInt(alphabet.length())));
+		}
+		return text.toString();
+	}
+
 	private static String[] diffRebuildtexts(LinkedList<Diff> diffs)
 	{
 		String[] text =
@@ -8,9 +8,12 @@
 
 package org.bitbucket.cowwoc.diffmatchpatch;
 
+import org.bitbucket.cowwoc.diffmatchpatch.DiffMatchPatch.Diff;
+
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.LinkedList;
 
 public class Speedtest
 {
@@ -30,6 +33,28 @@ public class Speedtest
 		dmp.diffMain(text1, text2, false);
 		long end_time = System.nanoTime();
 		System.out.printf("Elapsed time: %f\n", ((end_time - start_time) / 1000000000.0));
+
+		// The default path: a line-level diff first, and patches of the texts.
+		start_time = System.nanoTime();
+		dmp.diffMain(text1, text2, true);
+		end_time = System.nanoTime();
+		System.out.printf("Line mode: %f\n", ((end_time - start_time) / 1000000000.0));
+
+		start_time = System.nanoTime();
+		dmp.patchApply(dmp.patchMake(text1, text2), text1);
+		end_time = System.nanoTime();
+		System.out.printf("Patch make and apply: %f\n", ((end_time - start_time) / 1000000000.0));
+
+		// Short texts, where the fixed cost of each call dominates.
+		start_time = System.nanoTime();
+		for (int i = 0; i < 10000; i++)
+		{
+			LinkedList<Diff> diffs = dmp.diffMain("The quick brown fox jumps over " + i,
+				"The quick red fox jumped over " + (i * 7));
+			dmp.diffCleanupSemantic(diffs);
+		}
+		end_time = System.nanoTime();
+		System.out.printf("Short texts: %f\n", ((end_time - start_time) / 1000000000.0));
 	}
 
 	private static String readFile(String filename) throws IOException